@@ -0,0 +1,59 @@
+package com.github.chhsiao90.nitmproxy.accesslog;
+
+import com.github.chhsiao90.nitmproxy.Address;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The throughput of logging requests from several event loops while the writer thread drains the
+ * ring buffer, {@code offer} is the records per second of all the event loops.
+ *
+ * <p>Run with {@code mvn -Pjmh test-compile exec:exec
+ * -Dmain.args="AccessLogRingBufferBenchmark -prof gc"}, the event loops should allocate nothing
+ * per record.</p>
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AccessLogRingBufferBenchmark {
+    private static final Address CLIENT_ADDR = new Address("localhost", 1234);
+    private static final Address SERVER_ADDR = new Address("localhost", 8080);
+
+    private final AccessLogRingBuffer ringBuffer = new AccessLogRingBuffer(64 * 1024);
+
+    @Benchmark
+    @Group("ringBuffer")
+    @GroupThreads(4)
+    public boolean offer() {
+        AccessLogRecord record = AccessLogRecord.newInstance(CLIENT_ADDR, SERVER_ADDR, "HTTP/1.1",
+                                                             "GET", "/");
+        record.onResponseStatus(200, false);
+        record.complete(false);
+        boolean offered = ringBuffer.offer(record);
+        record.recycle();
+        return offered;
+    }
+
+    @Benchmark
+    @Group("ringBuffer")
+    @GroupThreads(1)
+    public int drain(Blackhole blackhole) {
+        return ringBuffer.drain(blackhole::consume);
+    }
+}
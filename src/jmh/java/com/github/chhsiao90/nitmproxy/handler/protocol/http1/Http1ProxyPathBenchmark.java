@@ -0,0 +1,43 @@
+package com.github.chhsiao90.nitmproxy.handler.protocol.http1;
+
+import com.github.chhsiao90.nitmproxy.Address;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Resolves the server of the requests sent to the HTTP proxy, the absolute URI of a request and
+ * the authority of a CONNECT request.
+ *
+ * <p>Run with {@code mvn -Pjmh test-compile exec:exec
+ * -Dmain.args="Http1ProxyPathBenchmark -prof gc"}.</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Http1ProxyPathBenchmark {
+    private String uri = "http://www.example.com:8080/search?q=netty&page=2";
+    private String authority = "www.example.com:443";
+
+    @Benchmark
+    public Object resolveHttpProxyPath() {
+        return Http1FrontendHandler.resolveHttpProxyPath(uri);
+    }
+
+    @Benchmark
+    public Address resolveTunnelAddr() {
+        return Http1FrontendHandler.resolveTunnelAddr(authority);
+    }
+}
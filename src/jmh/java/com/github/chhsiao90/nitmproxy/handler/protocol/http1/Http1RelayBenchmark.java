@@ -0,0 +1,111 @@
+package com.github.chhsiao90.nitmproxy.handler.protocol.http1;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+import com.github.chhsiao90.nitmproxy.Address;
+import com.github.chhsiao90.nitmproxy.ConnectionContext;
+import com.github.chhsiao90.nitmproxy.HandlerProvider;
+import com.github.chhsiao90.nitmproxy.NitmProxyConfig;
+import com.github.chhsiao90.nitmproxy.NitmProxyMaster;
+import com.github.chhsiao90.nitmproxy.channel.BackendChannelBootstrap;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+/**
+ * Relays a request and its response through {@link Http1FrontendHandler} and
+ * {@link Http1BackendHandler} of a tunneled connection, from the bytes read from the client to the
+ * bytes written back to it.
+ *
+ * <p>Run with {@code mvn -Pjmh test-compile exec:exec
+ * -Dmain.args="Http1RelayBenchmark -prof gc"}.</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Http1RelayBenchmark {
+    @Param({"128", "16384"})
+    private int responseSize;
+
+    private EmbeddedChannel client;
+    private EmbeddedChannel server;
+    private ByteBuf request;
+    private ByteBuf response;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        NitmProxyMaster master = new NitmProxyMaster(
+                new NitmProxyConfig(), new HandlerProvider(), new BackendChannelBootstrap());
+        client = new EmbeddedChannel();
+        server = new EmbeddedChannel();
+        ConnectionContext connectionContext = new ConnectionContext(master)
+                .withClientAddr(new Address("localhost", 8080))
+                .withClientChannel(client)
+                .withServerAddr(new Address("localhost", 8443))
+                .withServerChannel(server);
+        server.pipeline().addLast(new Http1BackendHandler(master, connectionContext));
+        client.pipeline().addLast(new Http1FrontendHandler(master, connectionContext));
+
+        request = Unpooled.unreleasableBuffer(Unpooled.copiedBuffer(
+                "GET /index.html HTTP/1.1\r\n"
+                + "Host: localhost\r\n"
+                + "User-Agent: nitmproxy-benchmark\r\n"
+                + "Accept: */*\r\n"
+                + "\r\n", US_ASCII));
+        ByteBuf headers = Unpooled.copiedBuffer(
+                "HTTP/1.1 200 OK\r\n"
+                + "Content-Type: text/html\r\n"
+                + "Content-Length: " + responseSize + "\r\n"
+                + "\r\n", US_ASCII);
+        response = Unpooled.unreleasableBuffer(Unpooled.wrappedBuffer(
+                headers, Unpooled.buffer(responseSize).writeZero(responseSize)));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        client.finishAndReleaseAll();
+        server.finishAndReleaseAll();
+    }
+
+    @Benchmark
+    public long relay() {
+        client.writeInbound(request.duplicate());
+        long relayed = releaseOutbound(server);
+        server.writeInbound(response.duplicate());
+        relayed += releaseOutbound(client);
+        if (relayed == 0) {
+            throw new IllegalStateException("Nothing relayed");
+        }
+        return relayed;
+    }
+
+    private static long releaseOutbound(EmbeddedChannel channel) {
+        long bytes = 0;
+        ByteBuf buf;
+        while ((buf = channel.readOutbound()) != null) {
+            bytes += buf.readableBytes();
+            buf.release();
+        }
+        return bytes;
+    }
+}
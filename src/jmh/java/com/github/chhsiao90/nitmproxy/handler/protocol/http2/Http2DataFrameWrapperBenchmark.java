@@ -0,0 +1,69 @@
+package com.github.chhsiao90.nitmproxy.handler.protocol.http2;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.handler.codec.http2.DefaultHttp2DataFrame;
+
+/**
+ * The allocation of relaying one DATA frame, from wrapping the decoded data to releasing it after
+ * it was written to the other side.
+ *
+ * <p>{@code defaultFrame} is how the frames were relayed before the wrappers were recycled, a
+ * {@link DefaultHttp2DataFrame} of a retained duplicate in a {@link Http2FrameWrapper}.</p>
+ *
+ * <p>Run with {@code mvn -Pjmh test-compile exec:exec
+ * -Dmain.args="Http2DataFrameWrapperBenchmark -prof gc"}, {@code gc.alloc.rate.norm} is the
+ * allocated bytes per frame.</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Http2DataFrameWrapperBenchmark {
+  private static final int FRAME_SIZE = 16 * 1024;
+
+  private ByteBuf readBuffer;
+  private ByteBuf data;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    readBuffer = PooledByteBufAllocator.DEFAULT.directBuffer(FRAME_SIZE).writeZero(FRAME_SIZE);
+    // The decoder passes the data as a slice of the read buffer
+    data = readBuffer.slice();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    readBuffer.release();
+  }
+
+  @Benchmark
+  public boolean defaultFrame() {
+    Http2FrameWrapper<DefaultHttp2DataFrame> wrapper = new Http2FrameWrapper<>(1,
+        new DefaultHttp2DataFrame(data.retainedDuplicate(), false, 0));
+    return wrapper.frame().release();
+  }
+
+  @Benchmark
+  public boolean recycledFrame() {
+    Http2DataFrameWrapper wrapper = Http2DataFrameWrapper.newInstance(1, data.retain(), 0, false);
+    return wrapper.release();
+  }
+}
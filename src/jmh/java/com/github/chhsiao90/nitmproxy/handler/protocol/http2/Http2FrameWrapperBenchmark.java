@@ -0,0 +1,130 @@
+package com.github.chhsiao90.nitmproxy.handler.protocol.http2;
+
+import static com.github.chhsiao90.nitmproxy.handler.protocol.http2.Http2FrameWrapper.frameWrapper;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http2.DefaultHttp2Headers;
+import io.netty.handler.codec.http2.DefaultHttp2HeadersFrame;
+import io.netty.handler.codec.http2.Http2ConnectionHandler;
+import io.netty.handler.codec.http2.Http2ConnectionHandlerBuilder;
+import io.netty.handler.codec.http2.Http2FrameAdapter;
+import io.netty.handler.codec.http2.Http2Headers;
+import io.netty.util.AsciiString;
+
+/**
+ * Writes the relayed frames of a request, a HEADERS and a DATA frame, with
+ * {@link Http2FrameWrapper#write}, which encodes them on the connection to the other side.
+ *
+ * <p>The other side answers each request, so the streams are closed and the flow control windows
+ * are updated like on a real connection.</p>
+ *
+ * <p>Run with {@code mvn -Pjmh test-compile exec:exec
+ * -Dmain.args="Http2FrameWrapperBenchmark -prof gc"}.</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Http2FrameWrapperBenchmark {
+  private static final Http2Headers RESPONSE_HEADERS =
+      new DefaultHttp2Headers().status(new AsciiString("200"));
+
+  @Param({"1024", "16384"})
+  private int dataSize;
+
+  private EmbeddedChannel proxy;
+  private EmbeddedChannel server;
+  private Http2ConnectionHandler http2Proxy;
+  private ByteBuf data;
+  private Http2Headers headers;
+  private int streamId = 1;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    http2Proxy = new Http2ConnectionHandlerBuilder()
+        .server(false)
+        .frameListener(new Http2FrameAdapter())
+        .build();
+    proxy = new EmbeddedChannel(http2Proxy);
+
+    Http2ConnectionHandler[] http2Server = new Http2ConnectionHandler[1];
+    http2Server[0] = new Http2ConnectionHandlerBuilder()
+        .server(true)
+        .frameListener(new Http2FrameAdapter() {
+          @Override
+          public int onDataRead(ChannelHandlerContext ctx, int streamId, ByteBuf data,
+              int padding, boolean endOfStream) {
+            if (endOfStream) {
+              http2Server[0].encoder().writeHeaders(ctx, streamId, RESPONSE_HEADERS, 0, true,
+                  ctx.newPromise());
+            }
+            return data.readableBytes() + padding;
+          }
+        })
+        .build();
+    server = new EmbeddedChannel(http2Server[0]);
+
+    // Preface and settings
+    exchange(proxy, server);
+    exchange(server, proxy);
+    exchange(proxy, server);
+
+    data = PooledByteBufAllocator.DEFAULT.directBuffer(dataSize).writeZero(dataSize);
+    headers = new DefaultHttp2Headers()
+        .method(new AsciiString("POST"))
+        .scheme(new AsciiString("https"))
+        .authority(new AsciiString("example.org"))
+        .path(new AsciiString("/upload"));
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    proxy.finishAndReleaseAll();
+    server.finishAndReleaseAll();
+    data.release();
+  }
+
+  @Benchmark
+  public int writeRequest() {
+    ChannelHandlerContext ctx = proxy.pipeline().context(http2Proxy);
+    frameWrapper(streamId, new DefaultHttp2HeadersFrame(headers, false))
+        .write(ctx, http2Proxy, streamId, ctx.newPromise());
+    Http2DataFrameWrapper.newInstance(streamId, data.retainedSlice(), 0, true)
+        .write(ctx, http2Proxy, streamId, ctx.newPromise());
+    http2Proxy.flush(ctx);
+    streamId += 2;
+
+    exchange(proxy, server);
+    exchange(server, proxy);
+    return streamId;
+  }
+
+  private static void exchange(EmbeddedChannel from, EmbeddedChannel to) {
+    if (!from.outboundMessages().isEmpty()) {
+      Object[] msgs = from.outboundMessages().toArray();
+      from.outboundMessages().clear();
+      to.writeInbound(msgs);
+    }
+  }
+}
@@ -0,0 +1,218 @@
+package com.github.chhsiao90.nitmproxy.handler.protocol.http2;
+
+import com.github.chhsiao90.nitmproxy.Address;
+import com.github.chhsiao90.nitmproxy.ConnectionContext;
+import com.github.chhsiao90.nitmproxy.HandlerProvider;
+import com.github.chhsiao90.nitmproxy.NitmProxyConfig;
+import com.github.chhsiao90.nitmproxy.NitmProxyMaster;
+import com.github.chhsiao90.nitmproxy.channel.BackendChannelBootstrap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http2.DefaultHttp2Headers;
+import io.netty.handler.codec.http2.Http2ConnectionHandler;
+import io.netty.handler.codec.http2.Http2ConnectionHandlerBuilder;
+import io.netty.handler.codec.http2.Http2FrameAdapter;
+import io.netty.handler.codec.http2.Http2Headers;
+import io.netty.util.AsciiString;
+import io.netty.util.ReferenceCountUtil;
+
+/**
+ * Relays 1 MB of DATA frames from a HTTP/2 client through {@link Http2FrontendHandler}, and counts
+ * the flushes (one write syscall each) and the TLS records (at most 16 KB each, never shared by
+ * two flushes) that the relay produces towards the server.
+ *
+ * <p>{@code maxBytesPerFlush=1} flushes after every frame, which is how the relay behaved before
+ * the flushes were batched.</p>
+ *
+ * <p>Run with {@code mvn -Pjmh test-compile exec:exec -Dmain.args=Http2RelayFlushBenchmark}.</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Http2RelayFlushBenchmark {
+  private static final int RELAYED_BYTES = 1024 * 1024;
+  private static final int TLS_RECORD_SIZE = 16 * 1024;
+  private static final int FRAME_HEADER_SIZE = 9;
+
+  @Param({"1", "65536"})
+  private int maxBytesPerFlush;
+
+  private EmbeddedChannel client;
+  private EmbeddedChannel proxy;
+  private EmbeddedChannel server;
+  private Http2ConnectionHandler http2Client;
+  private FlushCounter flushCounter;
+  private ByteBuf payload;
+  private Http2Headers headers;
+  private int streamId = 1;
+
+  /**
+   * The flushes and the TLS records per MB relayed.
+   */
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  @State(Scope.Thread)
+  public static class Counters {
+    private long relays;
+    private long flushes;
+    private long tlsRecords;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+      relays = 0;
+      flushes = 0;
+      tlsRecords = 0;
+    }
+
+    public double flushesPerMb() {
+      return relays == 0 ? 0 : (double) flushes / relays;
+    }
+
+    public double tlsRecordsPerMb() {
+      return relays == 0 ? 0 : (double) tlsRecords / relays;
+    }
+  }
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    NitmProxyConfig config = new NitmProxyConfig();
+    config.setMaxHttp2BytesPerFlush(maxBytesPerFlush);
+    NitmProxyMaster master = new NitmProxyMaster(
+        config, new HandlerProvider(), new BackendChannelBootstrap());
+
+    flushCounter = new FlushCounter();
+    server = new EmbeddedChannel(flushCounter);
+    proxy = new EmbeddedChannel();
+    ConnectionContext connectionContext = new ConnectionContext(master)
+        .withClientAddr(new Address("localhost", 8080))
+        .withClientChannel(proxy)
+        .withServerAddr(new Address("localhost", 8443))
+        .withServerChannel(server);
+    proxy.pipeline().addLast(new Http2FrontendHandler(connectionContext));
+
+    http2Client = new Http2ConnectionHandlerBuilder()
+        .server(false)
+        .frameListener(new Http2FrameAdapter())
+        .build();
+    client = new EmbeddedChannel(http2Client);
+
+    // Preface and settings
+    exchange(client, proxy);
+    exchange(proxy, client);
+    exchange(client, proxy);
+
+    payload = Unpooled.directBuffer(RELAYED_BYTES).writeZero(RELAYED_BYTES);
+    headers = new DefaultHttp2Headers()
+        .method(new AsciiString("POST"))
+        .scheme(new AsciiString("https"))
+        .authority(new AsciiString("example.org"))
+        .path(new AsciiString("/upload"));
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    client.finishAndReleaseAll();
+    proxy.finishAndReleaseAll();
+    server.finishAndReleaseAll();
+    payload.release();
+  }
+
+  @Benchmark
+  public long relayOneMegabyte(Counters counters) {
+    flushCounter.reset();
+    ChannelHandlerContext ctx = client.pipeline().firstContext();
+    http2Client.encoder().writeHeaders(ctx, streamId, headers, 0, false, ctx.newPromise());
+    http2Client.encoder().writeData(ctx, streamId, payload.retainedDuplicate(), 0, true,
+        ctx.newPromise());
+    http2Client.flush(ctx);
+    streamId += 2;
+
+    while (flushCounter.relayedBytes < RELAYED_BYTES) {
+      // Everything the client sent arrives in one read, and the window updates go back
+      if (!exchange(client, proxy) & !exchange(proxy, client)) {
+        throw new IllegalStateException("Relay stalled at " + flushCounter.relayedBytes);
+      }
+    }
+    counters.relays++;
+    counters.flushes += flushCounter.flushes;
+    counters.tlsRecords += flushCounter.tlsRecords;
+    return flushCounter.relayedBytes;
+  }
+
+  private static boolean exchange(EmbeddedChannel from, EmbeddedChannel to) {
+    if (from.outboundMessages().isEmpty()) {
+      return false;
+    }
+    Object[] msgs = from.outboundMessages().toArray();
+    from.outboundMessages().clear();
+    to.writeInbound(msgs);
+    return true;
+  }
+
+  /**
+   * Stands for the server connection, completes the writes on flush like a socket would.
+   */
+  private static class FlushCounter extends ChannelOutboundHandlerAdapter {
+    private final List<ChannelPromise> unflushed = new ArrayList<>();
+    private long unflushedBytes;
+    private long relayedBytes;
+    private long flushes;
+    private long tlsRecords;
+
+    private void reset() {
+      relayedBytes = 0;
+      flushes = 0;
+      tlsRecords = 0;
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) {
+      if (msg instanceof Http2DataFrameWrapper) {
+        int bytes = ((Http2DataFrameWrapper) msg).content().readableBytes();
+        relayedBytes += bytes;
+        unflushedBytes += bytes;
+      }
+      unflushedBytes += FRAME_HEADER_SIZE;
+      ReferenceCountUtil.release(msg);
+      unflushed.add(promise);
+    }
+
+    @Override
+    public void flush(ChannelHandlerContext ctx) {
+      if (unflushed.isEmpty()) {
+        return;
+      }
+      flushes++;
+      tlsRecords += (unflushedBytes + TLS_RECORD_SIZE - 1) / TLS_RECORD_SIZE;
+      unflushedBytes = 0;
+      unflushed.forEach(ChannelPromise::trySuccess);
+      unflushed.clear();
+    }
+  }
+}
@@ -0,0 +1,95 @@
+package com.github.chhsiao90.nitmproxy.handler.protocol.http2;
+
+import com.google.common.collect.BiMap;
+import com.google.common.collect.HashBiMap;
+import com.google.common.collect.Maps;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Stream id lookups on the frame relay path, one lookup per direction of a relayed frame, and the
+ * open and close of a stream. The synchronized boxed bimap is the mapping used before.
+ *
+ * <p>Run with {@code mvn -Pjmh test-compile exec:exec}.</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StreamIdMappingBenchmark {
+
+  @Param({"10", "100", "1000"})
+  private int concurrentStreams;
+
+  private StreamIdMapping mapping;
+  private BiMap<Integer, Integer> bimap;
+  private int cursor;
+  private int nextStreamId;
+
+  @Setup
+  public void setUp() {
+    mapping = new StreamIdMapping();
+    bimap = Maps.synchronizedBiMap(HashBiMap.create());
+    for (int i = 0; i < concurrentStreams; i++) {
+      int originStreamId = i * 2 + 3;
+      int upstreamStreamId = i * 2 + 1;
+      mapping.put(originStreamId, upstreamStreamId);
+      bimap.put(originStreamId, upstreamStreamId);
+    }
+    nextStreamId = concurrentStreams * 2 + 1;
+  }
+
+  @Benchmark
+  public int relayFrame() {
+    int originStreamId = nextOriginStreamId();
+    return mapping.origin(mapping.upstream(originStreamId));
+  }
+
+  @Benchmark
+  public int relayFrameBaseline() {
+    int originStreamId = nextOriginStreamId();
+    return bimap.inverse().get(bimap.get(originStreamId));
+  }
+
+  @Benchmark
+  public int openAndCloseStream() {
+    int streamId = nextStreamId;
+    nextStreamId += 2;
+    mapping.put(streamId + 2, streamId);
+    int originStreamId = mapping.origin(streamId);
+    mapping.removeUpstream(streamId);
+    return originStreamId;
+  }
+
+  @Benchmark
+  public int openAndCloseStreamBaseline() {
+    int streamId = nextStreamId;
+    nextStreamId += 2;
+    bimap.put(streamId + 2, streamId);
+    int originStreamId = bimap.inverse().get(streamId);
+    bimap.inverse().remove(streamId);
+    return originStreamId;
+  }
+
+  private int nextOriginStreamId() {
+    int originStreamId = cursor * 2 + 3;
+    if (++cursor == concurrentStreams) {
+      cursor = 0;
+    }
+    return originStreamId;
+  }
+}
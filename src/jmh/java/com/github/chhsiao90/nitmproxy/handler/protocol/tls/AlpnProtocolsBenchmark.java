@@ -0,0 +1,84 @@
+package com.github.chhsiao90.nitmproxy.handler.protocol.tls;
+
+import static io.netty.handler.ssl.ApplicationProtocolNames.HTTP_1_1;
+import static io.netty.handler.ssl.ApplicationProtocolNames.HTTP_2;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.ssl.ApplicationProtocolConfig;
+import io.netty.handler.ssl.ApplicationProtocolConfig.Protocol;
+import io.netty.handler.ssl.ApplicationProtocolConfig.SelectedListenerFailureBehavior;
+import io.netty.handler.ssl.ApplicationProtocolConfig.SelectorFailureBehavior;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.util.InsecureTrustManagerFactory;
+
+/**
+ * Extracts the ALPN protocols from the ClientHello sent by a JDK client, which is done for every
+ * TLS connection of the clients.
+ *
+ * <p>Run with {@code mvn -Pjmh test-compile exec:exec
+ * -Dmain.args="AlpnProtocolsBenchmark -prof gc"}.</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AlpnProtocolsBenchmark {
+  // The record header and the handshake header, the lookup gets the ClientHello body
+  private static final int HEADERS_SIZE = 5 + 4;
+
+  private ByteBuf clientHello;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    EmbeddedChannel client = new EmbeddedChannel(SslContextBuilder
+        .forClient()
+        .trustManager(InsecureTrustManagerFactory.INSTANCE)
+        .applicationProtocolConfig(new ApplicationProtocolConfig(
+            Protocol.ALPN,
+            SelectorFailureBehavior.NO_ADVERTISE,
+            SelectedListenerFailureBehavior.ACCEPT,
+            HTTP_2, HTTP_1_1))
+        .build()
+        .newHandler(UnpooledByteBufAllocator.DEFAULT, "localhost", 443));
+    ByteBuf record = client.readOutbound();
+    clientHello = Unpooled.copiedBuffer(record.skipBytes(HEADERS_SIZE));
+    record.release();
+    client.finishAndReleaseAll();
+
+    List<String> protocols = AbstractAlpnHandler.extractAlpnProtocols(clientHello);
+    if (protocols == null || !protocols.contains(HTTP_2)) {
+      throw new IllegalStateException("No ALPN protocols extracted: " + protocols);
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    clientHello.release();
+  }
+
+  @Benchmark
+  public List<String> extractAlpnProtocols() {
+    return AbstractAlpnHandler.extractAlpnProtocols(clientHello);
+  }
+}
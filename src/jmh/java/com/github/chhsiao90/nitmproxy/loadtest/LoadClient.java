@@ -0,0 +1,410 @@
+package com.github.chhsiao90.nitmproxy.loadtest;
+
+import static io.netty.handler.codec.http.HttpHeaderNames.CONTENT_LENGTH;
+import static io.netty.handler.codec.http.HttpHeaderNames.HOST;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import com.github.chhsiao90.nitmproxy.metrics.LatencyHistogram;
+
+import java.io.Closeable;
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.LongAdder;
+import javax.net.ssl.SSLException;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.handler.codec.http2.DefaultHttp2DataFrame;
+import io.netty.handler.codec.http2.DefaultHttp2Headers;
+import io.netty.handler.codec.http2.DefaultHttp2HeadersFrame;
+import io.netty.handler.codec.http2.DefaultHttp2WindowUpdateFrame;
+import io.netty.handler.codec.http2.Http2ChannelDuplexHandler;
+import io.netty.handler.codec.http2.Http2DataFrame;
+import io.netty.handler.codec.http2.Http2FrameCodecBuilder;
+import io.netty.handler.codec.http2.Http2FrameStream;
+import io.netty.handler.codec.http2.Http2Headers;
+import io.netty.handler.codec.http2.Http2HeadersFrame;
+import io.netty.handler.proxy.HttpProxyHandler;
+import io.netty.handler.proxy.Socks5ProxyHandler;
+import io.netty.handler.ssl.ApplicationProtocolConfig;
+import io.netty.handler.ssl.ApplicationProtocolConfig.Protocol;
+import io.netty.handler.ssl.ApplicationProtocolConfig.SelectedListenerFailureBehavior;
+import io.netty.handler.ssl.ApplicationProtocolConfig.SelectorFailureBehavior;
+import io.netty.handler.ssl.ApplicationProtocolNames;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.SslHandshakeCompletionEvent;
+import io.netty.handler.ssl.util.InsecureTrustManagerFactory;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.GlobalEventExecutor;
+
+/**
+ * Sends requests to an origin through the proxy in a closed loop, every connection sends the next
+ * request once the response of the last one is completed.
+ *
+ * <p>A connection closed by a failure is replaced by a new one, so the concurrency is kept until
+ * the client is stopped. The latencies are recorded from writing the request to reading the end of
+ * the response, and only between {@link #startRecording()} and {@link #stopRecording()}.</p>
+ *
+ * <p>The client connects to the origin directly if there is no proxy address, which is the
+ * baseline of the measurements.</p>
+ */
+public class LoadClient implements Closeable {
+    private static final long RECONNECT_DELAY_MILLIS = 100;
+
+    private final EventLoopGroup group;
+    private final Scenario scenario;
+    private final boolean http2;
+    private final InetSocketAddress proxyAddress;
+    private final InetSocketAddress originAddress;
+    private final ByteBuf requestBody;
+    private final int responseSize;
+    private final int requestsPerConnection;
+    private final SslContext sslContext;
+    private final ChannelGroup channels = new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
+
+    private final LongAdder failures = new LongAdder();
+    private volatile LatencyHistogram latencies = new LatencyHistogram();
+    private volatile boolean running;
+
+    /**
+     * Create the client.
+     *
+     * @param group the event loops of the client
+     * @param scenario how to reach the origin
+     * @param http2 whether to send HTTP/2 requests
+     * @param proxyAddress the address of the proxy, or {@code null} to connect directly
+     * @param originAddress the address of the origin
+     * @param requestSize the size of the request body
+     * @param responseSize the expected size of the response body
+     * @param requestsPerConnection the requests sent by a connection before it idles, or
+     *                              {@code 0} to send requests until the client is closed
+     * @throws SSLException if the TLS context couldn't be built
+     */
+    public LoadClient(EventLoopGroup group, Scenario scenario, boolean http2,
+                      InetSocketAddress proxyAddress, InetSocketAddress originAddress,
+                      int requestSize, int responseSize, int requestsPerConnection)
+            throws SSLException {
+        if (http2 && !scenario.isTunnel()) {
+            throw new IllegalArgumentException("HTTP/2 is only supported by a tunnel: " + scenario);
+        }
+        this.group = group;
+        this.scenario = scenario;
+        this.http2 = http2;
+        this.proxyAddress = proxyAddress;
+        this.originAddress = originAddress;
+        this.requestBody = Unpooled.unreleasableBuffer(
+                Unpooled.directBuffer(requestSize).writeZero(requestSize));
+        this.responseSize = responseSize;
+        this.requestsPerConnection = requestsPerConnection;
+        this.sslContext = SslContextBuilder
+                .forClient()
+                .trustManager(InsecureTrustManagerFactory.INSTANCE)
+                .applicationProtocolConfig(new ApplicationProtocolConfig(
+                        Protocol.ALPN,
+                        SelectorFailureBehavior.NO_ADVERTISE,
+                        SelectedListenerFailureBehavior.ACCEPT,
+                        http2 ? ApplicationProtocolNames.HTTP_2 : ApplicationProtocolNames.HTTP_1_1))
+                .build();
+    }
+
+    /**
+     * Open the connections, which send requests until the client is closed, or until each of them
+     * sent the requests per connection.
+     *
+     * @param concurrency the number of connections
+     */
+    public void start(int concurrency) {
+        running = true;
+        for (int i = 0; i < concurrency; i++) {
+            connect();
+        }
+    }
+
+    /**
+     * Discard what was recorded during the warm up, and record from now on.
+     */
+    public void startRecording() {
+        latencies = new LatencyHistogram();
+        failures.reset();
+    }
+
+    /**
+     * Stop recording, the requests completed later are not counted.
+     *
+     * @return the latencies of the completed requests
+     */
+    public LatencyHistogram stopRecording() {
+        LatencyHistogram recorded = latencies;
+        latencies = new LatencyHistogram();
+        return recorded;
+    }
+
+    /**
+     * Get the number of the completed requests since {@link #startRecording()}.
+     *
+     * @return the completed requests
+     */
+    public long completed() {
+        return latencies.count();
+    }
+
+    /**
+     * Get the number of the failed requests and connections since {@link #startRecording()}.
+     *
+     * @return the failures
+     */
+    public long failures() {
+        return failures.sum();
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        channels.close().syncUninterruptibly();
+    }
+
+    private void connect() {
+        Bootstrap bootstrap = new Bootstrap()
+                .group(group)
+                .channel(NioSocketChannel.class)
+                .option(ChannelOption.TCP_NODELAY, true)
+                .handler(new ChannelInitializer<Channel>() {
+                    @Override
+                    protected void initChannel(Channel ch) {
+                        initPipeline(ch);
+                    }
+                });
+        ChannelFuture future = scenario.isTunnel() || isDirect()
+                ? bootstrap.connect(originAddress)
+                : bootstrap.connect(proxyAddress);
+        channels.add(future.channel());
+        future.addListener(connected -> {
+            if (!connected.isSuccess() && running) {
+                failures.increment();
+                group.schedule(this::connect, RECONNECT_DELAY_MILLIS, MILLISECONDS);
+            }
+        });
+    }
+
+    private void initPipeline(Channel ch) {
+        ChannelPipeline pipeline = ch.pipeline();
+        if (isDirect()) {
+            // Connect to the origin
+        } else if (scenario == Scenario.CONNECT) {
+            pipeline.addLast(new HttpProxyHandler(proxyAddress));
+        } else if (scenario == Scenario.SOCKS) {
+            pipeline.addLast(new Socks5ProxyHandler(proxyAddress));
+        }
+        if (scenario.isTunnel()) {
+            pipeline.addLast(sslContext.newHandler(
+                    ch.alloc(), originAddress.getHostString(), originAddress.getPort()));
+        }
+        if (http2) {
+            Http2ChannelDuplexHandler streams = new Http2ChannelDuplexHandler() {};
+            pipeline.addLast(Http2FrameCodecBuilder.forClient().build(), streams,
+                             new Http2RequestHandler(streams));
+        } else {
+            pipeline.addLast(new HttpClientCodec(), new Http1RequestHandler());
+        }
+    }
+
+    private boolean isDirect() {
+        return proxyAddress == null;
+    }
+
+    private String authority() {
+        return originAddress.getHostString() + ':' + originAddress.getPort();
+    }
+
+    private HttpMethod method() {
+        return requestBody.isReadable() ? HttpMethod.POST : HttpMethod.GET;
+    }
+
+    private abstract class RequestHandler extends ChannelInboundHandlerAdapter {
+        private long startNanos;
+        private int requests;
+
+        @Override
+        public void channelActive(ChannelHandlerContext ctx) {
+            if (!scenario.isTunnel()) {
+                sendRequest(ctx);
+            }
+            ctx.fireChannelActive();
+        }
+
+        @Override
+        public void userEventTriggered(ChannelHandlerContext ctx, Object evt) {
+            if (evt instanceof SslHandshakeCompletionEvent) {
+                if (((SslHandshakeCompletionEvent) evt).isSuccess()) {
+                    sendRequest(ctx);
+                } else {
+                    failures.increment();
+                    ctx.close();
+                }
+            }
+            ctx.fireUserEventTriggered(evt);
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) {
+            if (startNanos != 0) {
+                startNanos = 0;
+                failures.increment();
+            }
+            if (running) {
+                connect();
+            }
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            ctx.close();
+        }
+
+        protected void onResponse(ChannelHandlerContext ctx, boolean success) {
+            if (success) {
+                latencies.recordNanos(System.nanoTime() - startNanos);
+                startNanos = 0;
+                if (requestsPerConnection == 0 || requests < requestsPerConnection) {
+                    sendRequest(ctx);
+                }
+            } else {
+                startNanos = 0;
+                failures.increment();
+                ctx.close();
+            }
+        }
+
+        private void sendRequest(ChannelHandlerContext ctx) {
+            if (!running) {
+                startNanos = 0;
+                ctx.close();
+                return;
+            }
+            startNanos = System.nanoTime();
+            requests++;
+            writeRequest(ctx);
+        }
+
+        protected abstract void writeRequest(ChannelHandlerContext ctx);
+    }
+
+    private class Http1RequestHandler extends RequestHandler {
+        private final String uri = scenario.isTunnel() || isDirect() ? "/" : "http://" + authority() + '/';
+
+        private int status;
+        private long received;
+
+        @Override
+        protected void writeRequest(ChannelHandlerContext ctx) {
+            FullHttpRequest request = new DefaultFullHttpRequest(
+                    HttpVersion.HTTP_1_1, method(), uri, requestBody.duplicate());
+            request.headers()
+                   .set(HOST, authority())
+                   .setInt(CONTENT_LENGTH, requestBody.readableBytes());
+            ctx.writeAndFlush(request);
+        }
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            try {
+                if (msg instanceof HttpResponse) {
+                    status = ((HttpResponse) msg).status().code();
+                    received = 0;
+                }
+                if (msg instanceof HttpContent) {
+                    received += ((HttpContent) msg).content().readableBytes();
+                }
+                if (msg instanceof LastHttpContent) {
+                    onResponse(ctx, status == 200 && received == responseSize);
+                }
+            } finally {
+                ReferenceCountUtil.release(msg);
+            }
+        }
+    }
+
+    private class Http2RequestHandler extends RequestHandler {
+        private final Http2ChannelDuplexHandler streams;
+
+        private CharSequence status;
+        private long received;
+
+        private Http2RequestHandler(Http2ChannelDuplexHandler streams) {
+            this.streams = streams;
+        }
+
+        @Override
+        protected void writeRequest(ChannelHandlerContext ctx) {
+            Http2Headers headers = new DefaultHttp2Headers()
+                    .method(method().asciiName())
+                    .scheme("https")
+                    .authority(authority())
+                    .path("/");
+            boolean endStream = !requestBody.isReadable();
+            Http2FrameStream stream = streams.newStream();
+            status = null;
+            received = 0;
+            ctx.write(new DefaultHttp2HeadersFrame(headers, endStream).stream(stream));
+            if (!endStream) {
+                ctx.write(new DefaultHttp2DataFrame(requestBody.duplicate(), true).stream(stream));
+            }
+            ctx.flush();
+        }
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            try {
+                boolean endStream = false;
+                if (msg instanceof Http2HeadersFrame) {
+                    Http2HeadersFrame headersFrame = (Http2HeadersFrame) msg;
+                    if (status == null) {
+                        status = headersFrame.headers().status();
+                    }
+                    endStream = headersFrame.isEndStream();
+                } else if (msg instanceof Http2DataFrame) {
+                    Http2DataFrame dataFrame = (Http2DataFrame) msg;
+                    received += dataFrame.content().readableBytes();
+                    if (dataFrame.initialFlowControlledBytes() > 0) {
+                        ctx.write(new DefaultHttp2WindowUpdateFrame(
+                                dataFrame.initialFlowControlledBytes()).stream(dataFrame.stream()));
+                    }
+                    endStream = dataFrame.isEndStream();
+                }
+                if (endStream) {
+                    onResponse(ctx, status != null && "200".contentEquals(status)
+                                    && received == responseSize);
+                }
+            } finally {
+                ReferenceCountUtil.release(msg);
+            }
+        }
+
+        @Override
+        public void channelReadComplete(ChannelHandlerContext ctx) {
+            // Flush the window updates
+            ctx.flush();
+            ctx.fireChannelReadComplete();
+        }
+    }
+}
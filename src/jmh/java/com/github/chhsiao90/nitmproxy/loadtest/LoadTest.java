@@ -0,0 +1,527 @@
+package com.github.chhsiao90.nitmproxy.loadtest;
+
+import static java.lang.String.format;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import com.github.chhsiao90.nitmproxy.NitmProxy;
+import com.github.chhsiao90.nitmproxy.NitmProxyConfig;
+import com.github.chhsiao90.nitmproxy.channel.SocketProfile;
+import com.github.chhsiao90.nitmproxy.metrics.LatencyHistogram;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.bouncycastle.openssl.jcajce.JcaPEMWriter;
+
+import io.netty.buffer.PoolArenaMetric;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.handler.ssl.util.SelfSignedCertificate;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+/**
+ * Measures the overhead of the proxy end to end: starts the origins, the proxy and the load
+ * client in this process, and reports the throughput, the latencies, the CPU time and the
+ * allocations of the proxy per request.
+ *
+ * <p>Everything listens on the loopback, so it runs offline on a single box. The origins and the
+ * load client run on their own threads, which are not counted as the proxy's.</p>
+ *
+ * <p>Run with {@code mvn -Pjmh,load test-compile exec:exec
+ * -Dmain.args="--scenario CONNECT --http2 --concurrency 64"}.</p>
+ *
+ * <p>The socket options of the proxy are of {@code --socketProfile}, and the native transport is
+ * used if it's available unless {@code --noNativeTransport}, so the profiles could be compared run
+ * by run. The origins and the load client always use the NIO transport and the default options.</p>
+ *
+ * <p>With {@code --idle}, it measures the memory retained by the proxy per idle connection
+ * instead: the connections send one request and idle, and the heap and the direct memory in use
+ * are compared with the same connections made to the origin directly.</p>
+ */
+public class LoadTest {
+    private static final long PROXY_START_TIMEOUT_MILLIS = 10_000;
+    private static final int IDLE_CONNECT_BATCH = 50;
+    private static final long IDLE_CONNECT_TIMEOUT_MILLIS = 60_000;
+
+    private final Scenario scenario;
+    private final boolean http2;
+    private final int concurrency;
+    private final int requestSize;
+    private final int responseSize;
+    private final int warmupSeconds;
+    private final int durationSeconds;
+    private final int clientThreads;
+    private final SocketProfile socketProfile;
+    private final boolean nativeTransport;
+
+    public LoadTest(Scenario scenario, boolean http2, int concurrency, int requestSize,
+                    int responseSize, int warmupSeconds, int durationSeconds, int clientThreads,
+                    SocketProfile socketProfile, boolean nativeTransport) {
+        this.scenario = scenario;
+        this.http2 = http2;
+        this.concurrency = concurrency;
+        this.requestSize = requestSize;
+        this.responseSize = responseSize;
+        this.warmupSeconds = warmupSeconds;
+        this.durationSeconds = durationSeconds;
+        this.clientThreads = clientThreads;
+        this.socketProfile = socketProfile;
+        this.nativeTransport = nativeTransport;
+    }
+
+    public Result run() throws Exception {
+        return withProxy((origins, proxyAddress, clientGroup) -> {
+            try (LoadClient client = newClient(clientGroup, proxyAddress, origins, 0)) {
+                client.start(concurrency);
+                SECONDS.sleep(warmupSeconds);
+
+                client.startRecording();
+                ResourceUsage start = ResourceUsage.snapshot();
+                SECONDS.sleep(durationSeconds);
+                LatencyHistogram latencies = client.stopRecording();
+                ResourceUsage usage = start.until(ResourceUsage.snapshot());
+                return new Result(latencies, client.failures(), usage);
+            }
+        });
+    }
+
+    /**
+     * Measure the memory retained by the proxy per idle connection, the concurrency is the number
+     * of idle connections.
+     *
+     * @return the footprint
+     * @throws Exception if failed to measure
+     */
+    public Footprint runIdle() throws Exception {
+        return withProxy((origins, proxyAddress, clientGroup) -> {
+            // Warm up, so the classes and the caches are loaded before measuring
+            openIdle(clientGroup, proxyAddress, origins, Math.min(concurrency, 100)).close();
+
+            MemoryUsage base = MemoryUsage.snapshot();
+            MemoryUsage direct;
+            try (LoadClient ignored = openIdle(clientGroup, null, origins, concurrency)) {
+                direct = base.until(MemoryUsage.snapshot());
+            }
+            base = MemoryUsage.snapshot();
+            MemoryUsage proxied;
+            try (LoadClient ignored = openIdle(clientGroup, proxyAddress, origins, concurrency)) {
+                proxied = base.until(MemoryUsage.snapshot());
+            }
+            return new Footprint(direct, proxied);
+        });
+    }
+
+    private LoadClient openIdle(NioEventLoopGroup clientGroup, InetSocketAddress proxyAddress,
+                                OriginServers origins, int connections) throws Exception {
+        LoadClient client = newClient(clientGroup, proxyAddress, origins, 1);
+        // Open the connections in batches, so the handshakes don't time out
+        for (int opened = 0; opened < connections; ) {
+            int batch = Math.min(IDLE_CONNECT_BATCH, connections - opened);
+            client.start(batch);
+            opened += batch;
+            long deadline = System.currentTimeMillis() + IDLE_CONNECT_TIMEOUT_MILLIS;
+            while (client.completed() < opened) {
+                if (System.currentTimeMillis() > deadline) {
+                    client.close();
+                    throw new IllegalStateException(format(
+                            "Opened %d of %d idle connections, failures=%d",
+                            client.completed(), connections, client.failures()));
+                }
+                Thread.sleep(10);
+            }
+        }
+        return client;
+    }
+
+    private LoadClient newClient(NioEventLoopGroup clientGroup, InetSocketAddress proxyAddress,
+                                 OriginServers origins, int requestsPerConnection)
+            throws Exception {
+        return new LoadClient(
+                clientGroup, scenario, http2, proxyAddress,
+                scenario.isTunnel() ? origins.tlsAddress() : origins.http1Address(),
+                requestSize, responseSize, requestsPerConnection);
+    }
+
+    private <T> T withProxy(ProxyTask<T> task) throws Exception {
+        NioEventLoopGroup originGroup = new NioEventLoopGroup(
+                2, new DefaultThreadFactory(ResourceUsage.THREAD_PREFIX + "origin"));
+        NioEventLoopGroup clientGroup = new NioEventLoopGroup(
+                clientThreads, new DefaultThreadFactory(ResourceUsage.THREAD_PREFIX + "client"));
+        File certFile = File.createTempFile("nitmproxy-loadtest-cert", ".pem");
+        File keyFile = File.createTempFile("nitmproxy-loadtest-key", ".pem");
+        OriginServers origins = new OriginServers(originGroup, responseSize);
+        NitmProxy proxy = null;
+        Thread proxyThread = null;
+        try {
+            origins.start();
+
+            SelfSignedCertificate ca = new SelfSignedCertificate("nitmproxy");
+            writePem(certFile, ca.cert());
+            writePem(keyFile, ca.key());
+            ca.delete();
+
+            NitmProxyConfig config = new NitmProxyConfig();
+            config.setProxyMode(scenario.proxyMode());
+            config.setPort(freePort());
+            config.setCertFile(certFile.getPath());
+            config.setKeyFile(keyFile.getPath());
+            config.setInsecure(true);
+            config.setListenerSocketProfile(socketProfile);
+            config.setBackendSocketProfile(socketProfile);
+            config.setNativeTransport(nativeTransport);
+            proxy = new NitmProxy(config);
+            proxyThread = startProxy(proxy);
+            InetSocketAddress proxyAddress = new InetSocketAddress(config.getHost(), config.getPort());
+            awaitListening(proxyAddress);
+
+            return task.run(origins, proxyAddress, clientGroup);
+        } finally {
+            if (proxy != null) {
+                proxy.stop();
+                proxyThread.join(PROXY_START_TIMEOUT_MILLIS);
+            }
+            origins.close();
+            clientGroup.shutdownGracefully().syncUninterruptibly();
+            originGroup.shutdownGracefully().syncUninterruptibly();
+            Files.deleteIfExists(certFile.toPath());
+            Files.deleteIfExists(keyFile.toPath());
+        }
+    }
+
+    private interface ProxyTask<T> {
+        T run(OriginServers origins, InetSocketAddress proxyAddress, NioEventLoopGroup clientGroup)
+                throws Exception;
+    }
+
+    @Override
+    public String toString() {
+        return format("scenario=%s, protocol=%s, concurrency=%d, requestSize=%d, responseSize=%d, "
+                      + "warmup=%ds, duration=%ds, socketProfile=%s, nativeTransport=%b",
+                      scenario, http2 ? "HTTP/2" : "HTTP/1.1", concurrency, requestSize,
+                      responseSize, warmupSeconds, durationSeconds, socketProfile, nativeTransport);
+    }
+
+    /**
+     * The result of a load test.
+     */
+    public class Result {
+        private final LatencyHistogram latencies;
+        private final long failures;
+        private final ResourceUsage usage;
+
+        private Result(LatencyHistogram latencies, long failures, ResourceUsage usage) {
+            this.latencies = latencies;
+            this.failures = failures;
+            this.usage = usage;
+        }
+
+        public long requests() {
+            return latencies.count();
+        }
+
+        public double throughput() {
+            return requests() / (usage.nanoTime() / (double) SECONDS.toNanos(1));
+        }
+
+        public String toReport() {
+            long requests = Math.max(requests(), 1);
+            double seconds = usage.nanoTime() / (double) SECONDS.toNanos(1);
+            return format("Load test: %s%n", LoadTest.this)
+                   + format("Requests:   %d, %.1f/s, failures=%d%n",
+                            requests(), throughput(), failures)
+                   + format("Latency:    mean=%dus, p50=%dus, p90=%dus, p99=%dus, p99.9=%dus, max=%dus%n",
+                            latencies.mean(), latencies.percentile(50), latencies.percentile(90),
+                            latencies.percentile(99), latencies.percentile(99.9), latencies.max())
+                   + format("CPU:        process=%.1fus/request, proxy=%.1fus/request%n",
+                            usage.processCpuNanos() / 1000.0 / requests,
+                            usage.proxyCpuNanos() / 1000.0 / requests)
+                   + format("Allocation: proxy=%d bytes/request, %.1f MB/s%n",
+                            usage.proxyAllocatedBytes() / requests,
+                            usage.proxyAllocatedBytes() / seconds / (1024 * 1024))
+                   + format("GC:         count=%d, time=%dms%n", usage.gcCount(), usage.gcMillis());
+        }
+
+        public String toJson() {
+            long requests = Math.max(requests(), 1);
+            return format("{\"scenario\":\"%s\",\"http2\":%b,\"concurrency\":%d,"
+                          + "\"requestSize\":%d,\"responseSize\":%d,\"durationSeconds\":%d,"
+                          + "\"socketProfile\":\"%s\",\"nativeTransport\":%b,"
+                          + "\"requests\":%d,\"throughput\":%.1f,\"failures\":%d,"
+                          + "\"latencyMicros\":{\"mean\":%d,\"p50\":%d,\"p90\":%d,\"p99\":%d,"
+                          + "\"p999\":%d,\"max\":%d},"
+                          + "\"processCpuMicrosPerRequest\":%.1f,\"proxyCpuMicrosPerRequest\":%.1f,"
+                          + "\"proxyAllocatedBytesPerRequest\":%d,\"gcCount\":%d,\"gcMillis\":%d}%n",
+                          scenario, http2, concurrency, requestSize, responseSize, durationSeconds,
+                          socketProfile, nativeTransport, requests(), throughput(), failures,
+                          latencies.mean(), latencies.percentile(50), latencies.percentile(90),
+                          latencies.percentile(99), latencies.percentile(99.9), latencies.max(),
+                          usage.processCpuNanos() / 1000.0 / requests,
+                          usage.proxyCpuNanos() / 1000.0 / requests,
+                          usage.proxyAllocatedBytes() / requests,
+                          usage.gcCount(), usage.gcMillis());
+        }
+    }
+
+    /**
+     * The memory retained per idle connection, through the proxy and directly.
+     */
+    public class Footprint {
+        private final MemoryUsage direct;
+        private final MemoryUsage proxied;
+
+        private Footprint(MemoryUsage direct, MemoryUsage proxied) {
+            this.direct = direct;
+            this.proxied = proxied;
+        }
+
+        public long heapBytesPerConnection() {
+            return (proxied.heapBytes - direct.heapBytes) / concurrency;
+        }
+
+        public long directBytesPerConnection() {
+            return (proxied.directBytes - direct.directBytes) / concurrency;
+        }
+
+        public String toReport() {
+            return format("Idle footprint: scenario=%s, protocol=%s, connections=%d, "
+                          + "responseSize=%d%n",
+                          scenario, http2 ? "HTTP/2" : "HTTP/1.1", concurrency, responseSize)
+                   + format("Baseline:   heap=%d bytes, direct=%d bytes%n",
+                            direct.heapBytes, direct.directBytes)
+                   + format("Proxied:    heap=%d bytes, direct=%d bytes%n",
+                            proxied.heapBytes, proxied.directBytes)
+                   + format("Proxy:      heap=%d bytes/connection, direct=%d bytes/connection%n",
+                            heapBytesPerConnection(), directBytesPerConnection());
+        }
+
+        public String toJson() {
+            return format("{\"scenario\":\"%s\",\"http2\":%b,\"idleConnections\":%d,"
+                          + "\"responseSize\":%d,\"heapBytesPerConnection\":%d,"
+                          + "\"directBytesPerConnection\":%d}%n",
+                          scenario, http2, concurrency, responseSize,
+                          heapBytesPerConnection(), directBytesPerConnection());
+        }
+    }
+
+    /**
+     * The heap in use after a full GC, and the bytes of the pooled direct buffers in use, which
+     * are what the connections retain of the chunks the allocator has already reserved.
+     */
+    private static class MemoryUsage {
+        private static final int GC_ROUNDS = 3;
+
+        private final long heapBytes;
+        private final long directBytes;
+
+        private MemoryUsage(long heapBytes, long directBytes) {
+            this.heapBytes = heapBytes;
+            this.directBytes = directBytes;
+        }
+
+        private static MemoryUsage snapshot() throws InterruptedException {
+            for (int i = 0; i < GC_ROUNDS; i++) {
+                System.gc();
+                Thread.sleep(100);
+            }
+            long directBytes = 0;
+            for (PoolArenaMetric arena : PooledByteBufAllocator.DEFAULT.metric().directArenas()) {
+                directBytes += arena.numActiveBytes();
+            }
+            return new MemoryUsage(
+                    ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed(),
+                    directBytes);
+        }
+
+        private MemoryUsage until(MemoryUsage later) {
+            return new MemoryUsage(later.heapBytes - heapBytes, later.directBytes - directBytes);
+        }
+    }
+
+    private static Thread startProxy(NitmProxy proxy) {
+        Thread thread = new Thread(() -> {
+            try {
+                proxy.start();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }, ResourceUsage.THREAD_PREFIX + "proxy");
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    private static void awaitListening(InetSocketAddress address) throws Exception {
+        long deadline = System.currentTimeMillis() + PROXY_START_TIMEOUT_MILLIS;
+        while (true) {
+            try (Socket ignored = new Socket(address.getAddress(), address.getPort())) {
+                return;
+            } catch (IOException e) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw new IllegalStateException("The proxy is not listening at " + address, e);
+                }
+                Thread.sleep(50);
+            }
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static void writePem(File file, Object object) throws IOException {
+        try (JcaPEMWriter writer = new JcaPEMWriter(new FileWriter(file))) {
+            writer.writeObject(object);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = new Options();
+        options.addOption(
+                Option.builder("s")
+                      .longOpt("scenario")
+                      .hasArg()
+                      .argName("SCENARIO")
+                      .desc("how to reach the origin(HTTP, CONNECT, SOCKS), default: HTTP")
+                      .build());
+        options.addOption(
+                Option.builder()
+                      .longOpt("http2")
+                      .hasArg(false)
+                      .desc("send HTTP/2 requests, only for CONNECT and SOCKS")
+                      .build());
+        options.addOption(
+                Option.builder("c")
+                      .longOpt("concurrency")
+                      .hasArg()
+                      .argName("CONNECTIONS")
+                      .desc("concurrent connections, default: 16")
+                      .build());
+        options.addOption(
+                Option.builder()
+                      .longOpt("requestSize")
+                      .hasArg()
+                      .argName("BYTES")
+                      .desc("size of the request body, POST if positive, default: 0")
+                      .build());
+        options.addOption(
+                Option.builder()
+                      .longOpt("responseSize")
+                      .hasArg()
+                      .argName("BYTES")
+                      .desc("size of the response body, default: 1024")
+                      .build());
+        options.addOption(
+                Option.builder("w")
+                      .longOpt("warmup")
+                      .hasArg()
+                      .argName("SECONDS")
+                      .desc("warm up before measuring, default: 5")
+                      .build());
+        options.addOption(
+                Option.builder("d")
+                      .longOpt("duration")
+                      .hasArg()
+                      .argName("SECONDS")
+                      .desc("duration of the measurement, default: 10")
+                      .build());
+        options.addOption(
+                Option.builder()
+                      .longOpt("clientThreads")
+                      .hasArg()
+                      .argName("THREADS")
+                      .desc("event loop threads of the load client, default: 2")
+                      .build());
+        options.addOption(
+                Option.builder()
+                      .longOpt("socketProfile")
+                      .hasArg()
+                      .argName("PROFILE")
+                      .desc("socket options of the proxy(DEFAULT, LOW_LATENCY, BULK), "
+                            + "default: LOW_LATENCY")
+                      .build());
+        options.addOption(
+                Option.builder()
+                      .longOpt("noNativeTransport")
+                      .hasArg(false)
+                      .desc("use the NIO transport in the proxy even if the native one is available")
+                      .build());
+        options.addOption(
+                Option.builder()
+                      .longOpt("idle")
+                      .hasArg(false)
+                      .desc("measure the memory per idle connection instead, "
+                            + "the concurrency is the number of idle connections")
+                      .build());
+        options.addOption(
+                Option.builder("o")
+                      .longOpt("output")
+                      .hasArg()
+                      .argName("FILE")
+                      .desc("append the result as a JSON line to file, default: disabled")
+                      .build());
+
+        CommandLine commandLine = null;
+        try {
+            commandLine = new DefaultParser().parse(options, args);
+        } catch (ParseException e) {
+            new HelpFormatter().printHelp("loadtest", options, true);
+            System.exit(-1);
+        }
+
+        LoadTest loadTest = new LoadTest(
+                Scenario.of(commandLine.getOptionValue("s", Scenario.HTTP.name())),
+                commandLine.hasOption("http2"),
+                parseInt(commandLine, "c", 16),
+                parseInt(commandLine, "requestSize", 0),
+                parseInt(commandLine, "responseSize", 1024),
+                parseInt(commandLine, "w", 5),
+                parseInt(commandLine, "d", 10),
+                parseInt(commandLine, "clientThreads", 2),
+                SocketProfile.of(commandLine.getOptionValue("socketProfile", SocketProfile.LOW_LATENCY.name())),
+                !commandLine.hasOption("noNativeTransport"));
+        String report;
+        String json;
+        if (commandLine.hasOption("idle")) {
+            Footprint footprint = loadTest.runIdle();
+            report = footprint.toReport();
+            json = footprint.toJson();
+        } else {
+            Result result = loadTest.run();
+            report = result.toReport();
+            json = result.toJson();
+        }
+        System.out.print(report);
+        if (commandLine.hasOption("o")) {
+            try (Writer writer = new FileWriter(commandLine.getOptionValue("o"), true)) {
+                writer.write(json);
+            }
+        }
+    }
+
+    private static int parseInt(CommandLine commandLine, String option, int defaultValue) {
+        if (!commandLine.hasOption(option)) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(commandLine.getOptionValue(option));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(
+                    format("Not a legal %s: %s", option, commandLine.getOptionValue(option)));
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package com.github.chhsiao90.nitmproxy.loadtest;
+
+import static io.netty.handler.codec.http.HttpHeaderNames.CONTENT_LENGTH;
+import static io.netty.handler.codec.http.HttpHeaderNames.CONTENT_TYPE;
+import static io.netty.handler.codec.http.HttpHeaderValues.APPLICATION_OCTET_STREAM;
+import static io.netty.handler.codec.http.HttpResponseStatus.OK;
+
+import java.io.Closeable;
+import java.net.InetSocketAddress;
+import java.security.cert.CertificateException;
+import javax.net.ssl.SSLException;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.handler.codec.http2.DefaultHttp2DataFrame;
+import io.netty.handler.codec.http2.DefaultHttp2Headers;
+import io.netty.handler.codec.http2.DefaultHttp2HeadersFrame;
+import io.netty.handler.codec.http2.DefaultHttp2WindowUpdateFrame;
+import io.netty.handler.codec.http2.Http2DataFrame;
+import io.netty.handler.codec.http2.Http2FrameCodecBuilder;
+import io.netty.handler.codec.http2.Http2FrameStream;
+import io.netty.handler.codec.http2.Http2Headers;
+import io.netty.handler.codec.http2.Http2HeadersFrame;
+import io.netty.handler.ssl.ApplicationProtocolConfig;
+import io.netty.handler.ssl.ApplicationProtocolConfig.Protocol;
+import io.netty.handler.ssl.ApplicationProtocolConfig.SelectedListenerFailureBehavior;
+import io.netty.handler.ssl.ApplicationProtocolConfig.SelectorFailureBehavior;
+import io.netty.handler.ssl.ApplicationProtocolNames;
+import io.netty.handler.ssl.ApplicationProtocolNegotiationHandler;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.util.SelfSignedCertificate;
+import io.netty.util.ReferenceCountUtil;
+
+/**
+ * The origins of the load test, a cleartext HTTP/1.1 server and a TLS server which speaks HTTP/2
+ * or HTTP/1.1 by ALPN. Both of them discard the request body and answer every request with the
+ * same payload.
+ */
+public class OriginServers implements Closeable {
+    private final EventLoopGroup group;
+    private final ByteBuf payload;
+    private final SslContext sslContext;
+
+    private Channel http1Channel;
+    private Channel tlsChannel;
+
+    public OriginServers(EventLoopGroup group, int responseSize)
+            throws CertificateException, SSLException {
+        this.group = group;
+        this.payload = Unpooled.unreleasableBuffer(
+                Unpooled.directBuffer(responseSize).writeZero(responseSize));
+
+        SelfSignedCertificate certificate = new SelfSignedCertificate("localhost");
+        try {
+            this.sslContext = SslContextBuilder
+                    .forServer(certificate.key(), certificate.cert())
+                    .applicationProtocolConfig(new ApplicationProtocolConfig(
+                            Protocol.ALPN,
+                            SelectorFailureBehavior.NO_ADVERTISE,
+                            SelectedListenerFailureBehavior.ACCEPT,
+                            ApplicationProtocolNames.HTTP_2,
+                            ApplicationProtocolNames.HTTP_1_1))
+                    .build();
+        } finally {
+            certificate.delete();
+        }
+    }
+
+    public void start() throws InterruptedException {
+        http1Channel = bind(new ChannelInitializer<Channel>() {
+            @Override
+            protected void initChannel(Channel ch) {
+                configHttp1(ch.pipeline());
+            }
+        });
+        tlsChannel = bind(new ChannelInitializer<Channel>() {
+            @Override
+            protected void initChannel(Channel ch) {
+                ch.pipeline().addLast(
+                        sslContext.newHandler(ch.alloc()),
+                        new ApplicationProtocolNegotiationHandler(ApplicationProtocolNames.HTTP_1_1) {
+                            @Override
+                            protected void configurePipeline(ChannelHandlerContext ctx,
+                                                             String protocol) {
+                                if (ApplicationProtocolNames.HTTP_2.equals(protocol)) {
+                                    ctx.pipeline().addLast(
+                                            Http2FrameCodecBuilder.forServer().build(),
+                                            new Http2OriginHandler());
+                                } else {
+                                    configHttp1(ctx.pipeline());
+                                }
+                            }
+                        });
+            }
+        });
+    }
+
+    /**
+     * Get the address of the cleartext HTTP/1.1 origin.
+     *
+     * @return the bound address
+     */
+    public InetSocketAddress http1Address() {
+        return (InetSocketAddress) http1Channel.localAddress();
+    }
+
+    /**
+     * Get the address of the TLS origin.
+     *
+     * @return the bound address
+     */
+    public InetSocketAddress tlsAddress() {
+        return (InetSocketAddress) tlsChannel.localAddress();
+    }
+
+    @Override
+    public void close() {
+        if (http1Channel != null) {
+            http1Channel.close().syncUninterruptibly();
+        }
+        if (tlsChannel != null) {
+            tlsChannel.close().syncUninterruptibly();
+        }
+    }
+
+    private Channel bind(ChannelHandler childHandler) throws InterruptedException {
+        return new ServerBootstrap()
+                .group(group)
+                .channel(NioServerSocketChannel.class)
+                .childOption(ChannelOption.TCP_NODELAY, true)
+                .childHandler(childHandler)
+                .bind("127.0.0.1", 0)
+                .sync()
+                .channel();
+    }
+
+    private void configHttp1(ChannelPipeline pipeline) {
+        pipeline.addLast(new HttpServerCodec(), new Http1OriginHandler());
+    }
+
+    private class Http1OriginHandler extends SimpleChannelInboundHandler<HttpObject> {
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, HttpObject msg) {
+            if (msg instanceof LastHttpContent) {
+                FullHttpResponse response = new DefaultFullHttpResponse(
+                        HttpVersion.HTTP_1_1, OK, payload.duplicate());
+                response.headers()
+                        .set(CONTENT_TYPE, APPLICATION_OCTET_STREAM)
+                        .setInt(CONTENT_LENGTH, payload.readableBytes());
+                ctx.write(response);
+            }
+        }
+
+        @Override
+        public void channelReadComplete(ChannelHandlerContext ctx) {
+            ctx.flush();
+        }
+    }
+
+    private class Http2OriginHandler extends ChannelInboundHandlerAdapter {
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            try {
+                if (msg instanceof Http2HeadersFrame) {
+                    Http2HeadersFrame headersFrame = (Http2HeadersFrame) msg;
+                    if (headersFrame.isEndStream()) {
+                        respond(ctx, headersFrame.stream());
+                    }
+                } else if (msg instanceof Http2DataFrame) {
+                    Http2DataFrame dataFrame = (Http2DataFrame) msg;
+                    if (dataFrame.initialFlowControlledBytes() > 0) {
+                        ctx.write(new DefaultHttp2WindowUpdateFrame(
+                                dataFrame.initialFlowControlledBytes()).stream(dataFrame.stream()));
+                    }
+                    if (dataFrame.isEndStream()) {
+                        respond(ctx, dataFrame.stream());
+                    }
+                }
+            } finally {
+                ReferenceCountUtil.release(msg);
+            }
+        }
+
+        @Override
+        public void channelReadComplete(ChannelHandlerContext ctx) {
+            ctx.flush();
+        }
+
+        private void respond(ChannelHandlerContext ctx, Http2FrameStream stream) {
+            Http2Headers headers = new DefaultHttp2Headers()
+                    .status(OK.codeAsText())
+                    .set(CONTENT_TYPE, APPLICATION_OCTET_STREAM)
+                    .setInt(CONTENT_LENGTH, payload.readableBytes());
+            boolean endStream = !payload.isReadable();
+            ctx.write(new DefaultHttp2HeadersFrame(headers, endStream).stream(stream));
+            if (!endStream) {
+                ctx.write(new DefaultHttp2DataFrame(payload.duplicate(), true).stream(stream));
+            }
+        }
+    }
+}
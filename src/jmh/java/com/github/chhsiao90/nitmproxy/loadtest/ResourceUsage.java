@@ -0,0 +1,110 @@
+package com.github.chhsiao90.nitmproxy.loadtest;
+
+import com.sun.management.OperatingSystemMXBean;
+import com.sun.management.ThreadMXBean;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+
+/**
+ * A snapshot of the CPU time and the allocated bytes of the process, and of the threads of the
+ * proxy, which are all the threads except the ones of the load test named with
+ * {@link #THREAD_PREFIX}.
+ *
+ * <p>The CPU time of the threads which terminated between two snapshots is lost, the event loops
+ * of the proxy live as long as the proxy, so they are always counted.</p>
+ */
+public class ResourceUsage {
+    public static final String THREAD_PREFIX = "loadtest-";
+
+    private final long nanoTime;
+    private final long processCpuNanos;
+    private final long proxyCpuNanos;
+    private final long proxyAllocatedBytes;
+    private final long gcCount;
+    private final long gcMillis;
+
+    private ResourceUsage(long nanoTime, long processCpuNanos, long proxyCpuNanos,
+                          long proxyAllocatedBytes, long gcCount, long gcMillis) {
+        this.nanoTime = nanoTime;
+        this.processCpuNanos = processCpuNanos;
+        this.proxyCpuNanos = proxyCpuNanos;
+        this.proxyAllocatedBytes = proxyAllocatedBytes;
+        this.gcCount = gcCount;
+        this.gcMillis = gcMillis;
+    }
+
+    public static ResourceUsage snapshot() {
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long[] ids = threads.getAllThreadIds();
+        ThreadInfo[] infos = threads.getThreadInfo(ids);
+        long[] cpuNanos = threads.getThreadCpuTime(ids);
+        long[] allocatedBytes = threads.getThreadAllocatedBytes(ids);
+        long proxyCpuNanos = 0;
+        long proxyAllocatedBytes = 0;
+        for (int i = 0; i < ids.length; i++) {
+            if (infos[i] == null || infos[i].getThreadName().startsWith(THREAD_PREFIX)) {
+                continue;
+            }
+            proxyCpuNanos += Math.max(cpuNanos[i], 0);
+            proxyAllocatedBytes += Math.max(allocatedBytes[i], 0);
+        }
+
+        long gcCount = 0;
+        long gcMillis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            gcCount += Math.max(gc.getCollectionCount(), 0);
+            gcMillis += Math.max(gc.getCollectionTime(), 0);
+        }
+
+        OperatingSystemMXBean os = (OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+        return new ResourceUsage(System.nanoTime(), os.getProcessCpuTime(), proxyCpuNanos,
+                                 proxyAllocatedBytes, gcCount, gcMillis);
+    }
+
+    /**
+     * Get the usage between the snapshot and a later one.
+     *
+     * @param later the later snapshot
+     * @return the usage between them
+     */
+    public ResourceUsage until(ResourceUsage later) {
+        return new ResourceUsage(
+                later.nanoTime - nanoTime,
+                later.processCpuNanos - processCpuNanos,
+                later.proxyCpuNanos - proxyCpuNanos,
+                later.proxyAllocatedBytes - proxyAllocatedBytes,
+                later.gcCount - gcCount,
+                later.gcMillis - gcMillis);
+    }
+
+    /**
+     * Get the time of the snapshot, or the elapsed time between two snapshots.
+     *
+     * @return the nano time
+     */
+    public long nanoTime() {
+        return nanoTime;
+    }
+
+    public long processCpuNanos() {
+        return processCpuNanos;
+    }
+
+    public long proxyCpuNanos() {
+        return proxyCpuNanos;
+    }
+
+    public long proxyAllocatedBytes() {
+        return proxyAllocatedBytes;
+    }
+
+    public long gcCount() {
+        return gcCount;
+    }
+
+    public long gcMillis() {
+        return gcMillis;
+    }
+}
@@ -0,0 +1,44 @@
+package com.github.chhsiao90.nitmproxy.loadtest;
+
+import com.github.chhsiao90.nitmproxy.enums.ProxyMode;
+
+/**
+ * How the load client reaches the origin through the proxy.
+ */
+public enum Scenario {
+    /** HTTP/1.1 requests in absolute form to the cleartext origin. */
+    HTTP(ProxyMode.HTTP, false),
+    /** A tunnel by CONNECT to the TLS origin. */
+    CONNECT(ProxyMode.HTTP, true),
+    /** A tunnel by SOCKS5 to the TLS origin. */
+    SOCKS(ProxyMode.SOCKS, true);
+
+    private final ProxyMode proxyMode;
+    private final boolean tunnel;
+
+    Scenario(ProxyMode proxyMode, boolean tunnel) {
+        this.proxyMode = proxyMode;
+        this.tunnel = tunnel;
+    }
+
+    public ProxyMode proxyMode() {
+        return proxyMode;
+    }
+
+    /**
+     * Whether the client tunnels through the proxy, and speaks TLS to the origin.
+     *
+     * @return {@code true} if it's a tunnel
+     */
+    public boolean isTunnel() {
+        return tunnel;
+    }
+
+    public static Scenario of(String name) {
+        try {
+            return Scenario.valueOf(name);
+        } catch (Exception e) {
+            throw new IllegalArgumentException("Illegal scenario: " + name);
+        }
+    }
+}
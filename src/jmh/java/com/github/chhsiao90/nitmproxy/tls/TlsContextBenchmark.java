@@ -0,0 +1,120 @@
+package com.github.chhsiao90.nitmproxy.tls;
+
+import static io.netty.handler.ssl.ApplicationProtocolNames.HTTP_1_1;
+import static io.netty.handler.ssl.ApplicationProtocolNames.HTTP_2;
+import static java.util.Arrays.asList;
+
+import com.github.chhsiao90.nitmproxy.Address;
+import com.github.chhsiao90.nitmproxy.ConnectionContext;
+import com.github.chhsiao90.nitmproxy.HandlerProvider;
+import com.github.chhsiao90.nitmproxy.NitmProxyConfig;
+import com.github.chhsiao90.nitmproxy.NitmProxyMaster;
+import com.github.chhsiao90.nitmproxy.channel.BackendChannelBootstrap;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.bouncycastle.openssl.jcajce.JcaPEMWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.util.SelfSignedCertificate;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+import io.netty.util.concurrent.Promise;
+
+/**
+ * Creates the TLS contexts of a connection, {@code newCert} is the certificate created for the
+ * server host, which is a part of {@code ctxForServer}. {@code cachedCtxForServer} is what the
+ * connections to a host take after the first one.
+ *
+ * <p>Run with {@code mvn -Pjmh test-compile exec:exec
+ * -Dmain.args="TlsContextBenchmark -prof gc"}.</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TlsContextBenchmark {
+    private File certFile;
+    private File keyFile;
+    private EmbeddedChannel channel;
+    private ConnectionContext connectionContext;
+    private SslContextCache sslContextCache;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        SelfSignedCertificate ca = new SelfSignedCertificate("nitmproxy");
+        certFile = File.createTempFile("nitmproxy-cert", ".pem");
+        keyFile = File.createTempFile("nitmproxy-key", ".pem");
+        writePem(certFile, ca.cert());
+        writePem(keyFile, ca.key());
+        ca.delete();
+
+        NitmProxyConfig config = new NitmProxyConfig();
+        config.setCertFile(certFile.getPath());
+        config.setKeyFile(keyFile.getPath());
+        NitmProxyMaster master = new NitmProxyMaster(
+                config, new HandlerProvider(), new BackendChannelBootstrap());
+        channel = new EmbeddedChannel();
+        connectionContext = new ConnectionContext(master)
+                .withClientAddr(new Address("localhost", 8080))
+                .withClientChannel(channel)
+                .withServerAddr(new Address("www.example.com", 443));
+        Promise<List<String>> protocols = ImmediateEventExecutor.INSTANCE.newPromise();
+        connectionContext.tlsCtx().protocols(protocols.setSuccess(asList(HTTP_2, HTTP_1_1)));
+        connectionContext.tlsCtx().protocol(ImmediateEventExecutor.INSTANCE.newPromise());
+        sslContextCache = new SslContextCache(config);
+        sslContextCache.forServer(connectionContext);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        channel.finishAndReleaseAll();
+        Files.deleteIfExists(certFile.toPath());
+        Files.deleteIfExists(keyFile.toPath());
+    }
+
+    @Benchmark
+    public Certificate newCert() {
+        return CertUtil.newCert(certFile.getPath(), keyFile.getPath(), "www.example.com");
+    }
+
+    @Benchmark
+    public SslContext ctxForServer() throws Exception {
+        return TlsUtil.ctxForServer(connectionContext);
+    }
+
+    @Benchmark
+    public SslContext cachedCtxForServer() throws Exception {
+        return sslContextCache.forServer(connectionContext);
+    }
+
+    @Benchmark
+    public SslContext ctxForClient() throws Exception {
+        return TlsUtil.ctxForClient(connectionContext);
+    }
+
+    private static void writePem(File file, Object object) throws IOException {
+        try (JcaPEMWriter writer = new JcaPEMWriter(new FileWriter(file))) {
+            writer.writeObject(object);
+        }
+    }
+}
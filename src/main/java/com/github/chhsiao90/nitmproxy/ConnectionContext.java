@@ -3,8 +3,16 @@ package com.github.chhsiao90.nitmproxy;
 import static java.lang.String.format;
 
 import com.github.chhsiao90.nitmproxy.enums.Handler;
+import com.github.chhsiao90.nitmproxy.handler.protocol.http1.Http1ResponseSequencer;
 import com.github.chhsiao90.nitmproxy.handler.proxy.HttpProxyHandler;
 import com.github.chhsiao90.nitmproxy.handler.proxy.SocksProxyHandler;
+import com.github.chhsiao90.nitmproxy.observer.TrafficObservers;
+import com.github.chhsiao90.nitmproxy.timeout.Deadline;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
@@ -22,11 +30,44 @@ public class ConnectionContext
     private Channel clientChannel;
     private Channel serverChannel;
 
+    // Live server channels keyed by origin, in LRU order
+    private Map<Address, Channel> serverChannels;
+    private Http1ResponseSequencer responseSequencer;
+
     private TlsContext tlsCtx;
+    private ConnectionTimings timings;
+    private TrafficObservers observers;
+
+    // Tunneled by a CONNECT request or a SOCKS command
+    private boolean tunneled;
+    private Deadline requestHeaderDeadline;
+    private ChannelHandler idleTimeoutHandler;
 
     public ConnectionContext(NitmProxyMaster master) {
         this.master = master;
         this.tlsCtx = new TlsContext();
+        this.timings = new ConnectionTimings();
+        // Most of the clients talk to a single server, the table grows if they don't
+        this.serverChannels = new LinkedHashMap<Address, Channel>(2, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Address, Channel> eldest) {
+                if (size() <= master.config().getMaxServerConnectionsPerClient()) {
+                    return false;
+                }
+                // The channels with responses pending are kept, closing them would close the client
+                Iterator<Channel> channels = values().iterator();
+                for (int i = size() - 1; i > 0; i--) {
+                    Channel channel = channels.next();
+                    if (!responseSequencer.isPending(channel)) {
+                        channels.remove();
+                        channel.close();
+                        return false;
+                    }
+                }
+                return false;
+            }
+        };
+        this.responseSequencer = new Http1ResponseSequencer(this);
     }
 
     public ConnectionContext withClientAddr(Address clientAddr) {
@@ -59,6 +100,53 @@ public class ConnectionContext
         return this;
     }
 
+    /**
+     * Set the deadline of the first request of the client, which is cancelled by
+     * {@link #onRequestHeader()}.
+     *
+     * @param requestHeaderDeadline the deadline
+     * @return the context
+     */
+    public ConnectionContext withRequestHeaderDeadline(Deadline requestHeaderDeadline) {
+        this.requestHeaderDeadline = requestHeaderDeadline;
+        return this;
+    }
+
+    /**
+     * Set the handler closing the idle connection, which is shared by the client channel and the
+     * server channels.
+     *
+     * @param idleTimeoutHandler the handler, or {@code null} if there is no idle timeout
+     * @return the context
+     */
+    public ConnectionContext withIdleTimeoutHandler(ChannelHandler idleTimeoutHandler) {
+        this.idleTimeoutHandler = idleTimeoutHandler;
+        return this;
+    }
+
+    public ChannelHandler idleTimeoutHandler() {
+        return idleTimeoutHandler;
+    }
+
+    /**
+     * Called when the header of a request of the client was received, the first one cancels the
+     * deadline of the request header.
+     */
+    public void onRequestHeader() {
+        if (requestHeaderDeadline != null) {
+            requestHeaderDeadline.cancel();
+            requestHeaderDeadline = null;
+        }
+    }
+
+    public void markTunneled() {
+        tunneled = true;
+    }
+
+    public boolean isTunneled() {
+        return tunneled;
+    }
+
     public NitmProxyConfig config() {
         return master.config();
     }
@@ -85,6 +173,10 @@ public class ConnectionContext
                 return handlerProvider.http2BackendHandler(master, this);
             case HTTP2_FRONTEND:
                 return handlerProvider.http2FrontendHandler(master, this);
+            case HTTP2_TO_HTTP1_FRONTEND:
+                return handlerProvider.http2ToHttp1FrontendHandler(master, this);
+            case HTTP1_TO_HTTP2_BACKEND:
+                return handlerProvider.http1ToHttp2BackendHandler(master, this);
             case TLS_BACKEND:
                 return handlerProvider.backendTlsHandler(master, this);
             case TLS_FRONTEND:
@@ -98,26 +190,104 @@ public class ConnectionContext
         return serverChannel != null;
     }
 
+    /**
+     * Connect to the server, or reuse the live connection to the same server if there is one.
+     *
+     * <p>Connections to different servers are kept alive side by side, so a keep-alive client that
+     * interleaves requests to several servers won't reconnect on every switch. The least recently
+     * used connection without responses pending is closed when the number of connections exceeds
+     * {@link NitmProxyConfig#getMaxServerConnectionsPerClient()}.</p>
+     *
+     * @param address the server address
+     * @param fromCtx the context of the client channel
+     * @return the future of the connection, the channel of the future is the server channel
+     */
     public ChannelFuture connect(Address address, ChannelHandlerContext fromCtx) {
         if (serverChannel == null) {
             tlsCtx.protocols(fromCtx.executor().newPromise());
             tlsCtx.protocol(fromCtx.executor().newPromise());
         }
-        if (serverChannel != null && (!serverAddr.equals(address) || !serverChannel.isActive())) {
-            serverChannel.close();
-            serverChannel = null;
+        Channel channel = serverChannels.get(address);
+        if (channel != null && !channel.isActive()) {
+            serverChannels.remove(address);
+            channel.close();
+            channel = null;
         }
-        if (serverChannel != null) {
-            return serverChannel.newSucceededFuture();
+        if (channel != null) {
+            serverAddr = address;
+            serverChannel = channel;
+            return channel.newSucceededFuture();
         }
 
         serverAddr = address;
-        return master.connect(fromCtx, this, new ChannelInitializer<Channel>() {
+        ChannelFuture future = master.connect(fromCtx, this, new ChannelInitializer<Channel>() {
             @Override
             protected void initChannel(Channel ch) throws Exception {
-                ch.pipeline().addLast(withServerChannel(ch).handler(Handler.TLS_BACKEND));
+                ch.pipeline().addLast(handler(Handler.TLS_BACKEND));
             }
         });
+        Channel newChannel = future.channel();
+        serverChannel = newChannel;
+        serverChannels.put(address, newChannel);
+        future.addListener((ChannelFuture f) -> {
+            if (f.isSuccess()) {
+                Channel connected = f.channel();
+                if (connected != newChannel) {
+                    // Connected in place of the new channel by the racing of the addresses
+                    serverChannels.replace(address, newChannel, connected);
+                    responseSequencer.replace(newChannel, connected);
+                    if (serverChannel == newChannel) {
+                        serverChannel = connected;
+                    }
+                }
+                connected.closeFuture().addListener(ignore -> serverChannels.remove(address, connected));
+                if (observers().isEnabled()) {
+                    observers().onServerConnected(this, connected);
+                    connected.closeFuture().addListener(
+                            ignore -> observers().onServerDisconnected(this, connected));
+                }
+            } else {
+                serverChannels.remove(address, newChannel);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Get the server address of the server channel.
+     *
+     * @param channel the server channel
+     * @return the server address of the channel, or the current server address if the channel is
+     *         not in the connection table
+     */
+    public Address getServerAddr(Channel channel) {
+        for (Map.Entry<Address, Channel> entry : serverChannels.entrySet()) {
+            if (entry.getValue() == channel) {
+                return entry.getKey();
+            }
+        }
+        return serverAddr;
+    }
+
+    /**
+     * Remove the server channel from the connection table without closing it, so that it won't be
+     * reused by the following requests.
+     *
+     * @param channel the server channel
+     */
+    public void removeServerChannel(Channel channel) {
+        serverChannels.values().removeIf(ch -> ch == channel);
+    }
+
+    /**
+     * Close all the server channels of the client.
+     */
+    public void closeServerChannels() {
+        new ArrayList<>(serverChannels.values()).forEach(Channel::close);
+        serverChannels.clear();
+        if (serverChannel != null) {
+            serverChannel.close();
+        }
     }
 
     public Channel serverChannel() {
@@ -132,6 +302,27 @@ public class ConnectionContext
         return tlsCtx;
     }
 
+    public Http1ResponseSequencer responseSequencer() {
+        return responseSequencer;
+    }
+
+    public ConnectionTimings timings() {
+        return timings;
+    }
+
+    /**
+     * Get the observers of the traffic, check {@link TrafficObservers#isEnabled()} before building
+     * anything for them.
+     *
+     * @return the observers
+     */
+    public TrafficObservers observers() {
+        if (observers == null) {
+            observers = new TrafficObservers(master.config().getTrafficObservers());
+        }
+        return observers;
+    }
+
     @Override
     public String toString() {
         if (serverAddr != null) {
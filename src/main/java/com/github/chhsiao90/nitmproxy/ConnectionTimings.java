@@ -0,0 +1,95 @@
+package com.github.chhsiao90.nitmproxy;
+
+import com.github.chhsiao90.nitmproxy.metrics.LatencyMetrics;
+import com.github.chhsiao90.nitmproxy.metrics.Stage;
+
+/**
+ * The timestamps of the stages of a client connection, the latencies are recorded in
+ * {@link LatencyMetrics} by the origin.
+ *
+ * <p>A timestamp is the {@link System#nanoTime()} when a stage ended the first time. The stages
+ * of the server connections, e.g. {@link Stage#DNS}, could happen again for another server, all of
+ * them are recorded but only the first timestamp is kept.</p>
+ *
+ * <p>All the channels of a client are bound to the same event loop, so there is no
+ * synchronization in here.</p>
+ */
+public class ConnectionTimings {
+    private final long acceptNanos;
+    private final long[] timestamps = new long[Stage.values().length];
+
+    public ConnectionTimings() {
+        this.acceptNanos = System.nanoTime();
+    }
+
+    /**
+     * Get the time the client connection was accepted.
+     *
+     * @return the nano time
+     */
+    public long acceptNanos() {
+        return acceptNanos;
+    }
+
+    /**
+     * Get the time the stage ended the first time.
+     *
+     * @param stage the stage
+     * @return the nano time, or {@code 0} if the stage never ended
+     */
+    public long timestamp(Stage stage) {
+        return timestamps[stage.ordinal()];
+    }
+
+    public boolean isRecorded(Stage stage) {
+        return timestamps[stage.ordinal()] != 0;
+    }
+
+    /**
+     * Record the stage which ends now.
+     *
+     * @param stage the stage
+     * @param origin the origin of the connection, or {@code null} if it's not known yet
+     * @param startNanos the time the stage started
+     */
+    public void record(Stage stage, Address origin, long startNanos) {
+        long now = System.nanoTime();
+        if (timestamps[stage.ordinal()] == 0) {
+            timestamps[stage.ordinal()] = now;
+        }
+        LatencyMetrics.record(origin, stage, now - startNanos);
+    }
+
+    /**
+     * Record the stage which ends now, if it never ended before.
+     *
+     * @param stage the stage
+     * @param origin the origin of the connection, or {@code null} if it's not known yet
+     * @param startNanos the time the stage started
+     */
+    public void recordOnce(Stage stage, Address origin, long startNanos) {
+        if (!isRecorded(stage)) {
+            record(stage, origin, startNanos);
+        }
+    }
+
+    /**
+     * Record the first request of the client.
+     *
+     * @param origin the origin of the request
+     */
+    public void onRequest(Address origin) {
+        recordOnce(Stage.FIRST_REQUEST_BYTE, origin, acceptNanos);
+    }
+
+    /**
+     * Record the first response of the server, after the first request.
+     *
+     * @param origin the origin of the response
+     */
+    public void onResponse(Address origin) {
+        if (isRecorded(Stage.FIRST_REQUEST_BYTE)) {
+            recordOnce(Stage.FIRST_RESPONSE_BYTE, origin, timestamp(Stage.FIRST_REQUEST_BYTE));
+        }
+    }
+}
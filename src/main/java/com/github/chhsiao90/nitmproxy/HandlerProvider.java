@@ -2,8 +2,10 @@ package com.github.chhsiao90.nitmproxy;
 
 import com.github.chhsiao90.nitmproxy.handler.protocol.http1.Http1BackendHandler;
 import com.github.chhsiao90.nitmproxy.handler.protocol.http1.Http1FrontendHandler;
+import com.github.chhsiao90.nitmproxy.handler.protocol.http2.Http1ToHttp2BackendHandler;
 import com.github.chhsiao90.nitmproxy.handler.protocol.http2.Http2BackendHandler;
 import com.github.chhsiao90.nitmproxy.handler.protocol.http2.Http2FrontendHandler;
+import com.github.chhsiao90.nitmproxy.handler.protocol.http2.Http2ToHttp1FrontendHandler;
 import com.github.chhsiao90.nitmproxy.handler.protocol.tls.TlsBackendHandler;
 import com.github.chhsiao90.nitmproxy.handler.protocol.tls.TlsFrontendHandler;
 
@@ -30,6 +32,16 @@ public class HandlerProvider {
         return new Http2FrontendHandler(connectionContext);
     }
 
+    public ChannelHandler http2ToHttp1FrontendHandler(
+            NitmProxyMaster master, ConnectionContext connectionContext) {
+        return new Http2ToHttp1FrontendHandler(master, connectionContext);
+    }
+
+    public ChannelHandler http1ToHttp2BackendHandler(
+            NitmProxyMaster master, ConnectionContext connectionContext) {
+        return new Http1ToHttp2BackendHandler(connectionContext);
+    }
+
     public ChannelHandler frontendTlsHandler(
             NitmProxyMaster master, ConnectionContext connectionContext) {
         return new TlsFrontendHandler(master, connectionContext);
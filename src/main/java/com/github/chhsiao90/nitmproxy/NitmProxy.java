@@ -1,8 +1,24 @@
 package com.github.chhsiao90.nitmproxy;
 
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import com.github.chhsiao90.nitmproxy.accesslog.AccessLogObserver;
+import com.github.chhsiao90.nitmproxy.accesslog.AccessLogRingBuffer;
+import com.github.chhsiao90.nitmproxy.accesslog.AccessLogWriter;
+import com.github.chhsiao90.nitmproxy.admin.AdminInitializer;
+import com.github.chhsiao90.nitmproxy.channel.BufferAllocators;
+import com.github.chhsiao90.nitmproxy.channel.SocketProfile;
+import com.github.chhsiao90.nitmproxy.channel.Transport;
 import com.github.chhsiao90.nitmproxy.enums.ProxyMode;
+import com.github.chhsiao90.nitmproxy.handler.protocol.http2.Http2Util;
+import com.github.chhsiao90.nitmproxy.metrics.AllocatorReporter;
+import com.github.chhsiao90.nitmproxy.metrics.EventLoopMonitor;
+import com.github.chhsiao90.nitmproxy.metrics.LatencyMetrics;
+import com.github.chhsiao90.nitmproxy.metrics.PrometheusExporter;
+import com.github.chhsiao90.nitmproxy.metrics.ProxyMetrics;
 
 import java.io.File;
+import java.io.IOException;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -15,46 +31,77 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBufAllocator;
 import io.netty.channel.Channel;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
 import io.netty.handler.logging.LogLevel;
 import io.netty.handler.logging.LoggingHandler;
+import io.netty.util.ResourceLeakDetector;
 
 public class NitmProxy {
     private static final Logger LOGGER = LoggerFactory.getLogger(NitmProxy.class);
 
     private NitmProxyConfig config;
 
-    private NioEventLoopGroup bossGroup;
-    private NioEventLoopGroup workerGroup;
+    private Transport transport;
+    private EventLoopGroup bossGroup;
+    private EventLoopGroup workerGroup;
+    private NitmProxyMaster master;
+    private AccessLogRingBuffer accessLogBuffer;
+    private AccessLogWriter accessLogWriter;
+    private EventLoopMonitor eventLoopMonitor;
+    private ByteBufAllocator allocator;
+    private AllocatorReporter allocatorReporter;
 
     public NitmProxy(NitmProxyConfig config) {
         this.config = config;
     }
 
     public void start() throws Exception {
-        bossGroup = new NioEventLoopGroup(1);
-        workerGroup = new NioEventLoopGroup();
+        startAccessLog();
+        if (config.getLeakDetectionLevel() != null) {
+            ResourceLeakDetector.setLevel(config.getLeakDetectionLevel());
+        }
+        allocator = BufferAllocators.create(config);
+        startAllocatorReporter();
+        transport = Transport.select(config.isNativeTransport());
+        bossGroup = transport.newEventLoopGroup(1);
+        workerGroup = transport.newEventLoopGroup(0);
+        startEventLoopMonitor();
+
+        NitmProxyInitializer initializer = new NitmProxyInitializer(config, eventLoopMonitor);
+        master = initializer.master();
 
         try {
             ServerBootstrap bootstrap = new ServerBootstrap()
                     .group(bossGroup, workerGroup)
-                    .channel(NioServerSocketChannel.class)
+                    .channel(transport.serverChannelClass())
+                    .option(ChannelOption.ALLOCATOR, allocator)
+                    .childOption(ChannelOption.ALLOCATOR, allocator)
                     .handler(new LoggingHandler(LogLevel.DEBUG))
-                    .childHandler(new NitmProxyInitializer(config));
+                    .childHandler(initializer);
+            if (config.getListenerBacklog() > 0) {
+                bootstrap.option(ChannelOption.SO_BACKLOG, config.getListenerBacklog());
+            }
+            config.getListenerSocketProfile().apply(bootstrap, transport);
             Channel channel = bootstrap
                     .bind(config.getHost(), config.getPort())
                     .sync()
                     .channel();
 
-            LOGGER.info("nitmproxy is listening at {}:{}",
-                              config.getHost(), config.getPort());
+            LOGGER.info("nitmproxy is listening at {}:{} with the {} transport",
+                              config.getHost(), config.getPort(), transport);
+            startAdmin();
 
             channel.closeFuture().sync();
         } finally {
             bossGroup.shutdownGracefully();
-            workerGroup.shutdownGracefully();
+            stopEventLoopMonitor();
+            stopAllocatorReporter();
+            workerGroup.shutdownGracefully().syncUninterruptibly();
+            stopAccessLog();
+            LOGGER.info("Latencies of all the origins:{}", LatencyMetrics.total());
         }
     }
 
@@ -67,6 +114,76 @@ public class NitmProxy {
         }
     }
 
+    private void startAdmin() throws InterruptedException {
+        if (config.getAdminPort() <= 0) {
+            return;
+        }
+        new ServerBootstrap()
+                .group(bossGroup, workerGroup)
+                .channel(transport.serverChannelClass())
+                .childHandler(new AdminInitializer(
+                        new PrometheusExporter(ProxyMetrics.global(), allocator, eventLoopMonitor)
+                                .withCertificateCache(master.sslContexts())
+                                .withAccessLog(accessLogBuffer)))
+                .bind(config.getHost(), config.getAdminPort())
+                .sync();
+        LOGGER.info("nitmproxy admin is listening at {}:{}",
+                    config.getHost(), config.getAdminPort());
+    }
+
+    private void startEventLoopMonitor() {
+        if (config.getEventLoopProbeIntervalMillis() <= 0) {
+            return;
+        }
+        eventLoopMonitor = new EventLoopMonitor(
+                workerGroup,
+                MILLISECONDS.toNanos(config.getEventLoopProbeIntervalMillis()),
+                MILLISECONDS.toNanos(config.getEventLoopStallThresholdMillis()));
+        eventLoopMonitor.start();
+    }
+
+    private void stopEventLoopMonitor() {
+        if (eventLoopMonitor != null) {
+            eventLoopMonitor.close();
+            eventLoopMonitor = null;
+        }
+    }
+
+    private void startAllocatorReporter() {
+        if (config.getAllocatorReportIntervalMillis() <= 0) {
+            return;
+        }
+        allocatorReporter = new AllocatorReporter(
+                allocator, MILLISECONDS.toNanos(config.getAllocatorReportIntervalMillis()));
+        allocatorReporter.start();
+    }
+
+    private void stopAllocatorReporter() {
+        if (allocatorReporter != null) {
+            allocatorReporter.close();
+            allocatorReporter = null;
+        }
+    }
+
+    private void startAccessLog() throws IOException {
+        if (config.getAccessLogFile() == null) {
+            return;
+        }
+        accessLogBuffer = new AccessLogRingBuffer(config.getAccessLogBufferSize());
+        accessLogWriter = new AccessLogWriter(accessLogBuffer, new File(config.getAccessLogFile()),
+                                              config.getAccessLogMaxFileSize(),
+                                              config.getAccessLogMaxFiles());
+        accessLogWriter.start();
+        config.getTrafficObservers().add(new AccessLogObserver(accessLogBuffer));
+    }
+
+    private void stopAccessLog() {
+        if (accessLogWriter != null) {
+            accessLogWriter.close();
+            accessLogWriter = null;
+        }
+    }
+
     public static void main(String[] args) throws Exception {
         CommandLineParser parser = new DefaultParser();
 
@@ -93,6 +210,13 @@ public class NitmProxy {
                       .argName("PORT")
                       .desc("listening port, default: 8080")
                       .build());
+        options.addOption(
+                Option.builder()
+                      .longOpt("adminPort")
+                      .hasArg()
+                      .argName("PORT")
+                      .desc("listening port of admin endpoint serving /metrics, default: disabled")
+                      .build());
         options.addOption(
                 Option.builder()
                       .longOpt("cert")
@@ -119,6 +243,69 @@ public class NitmProxy {
                       .hasArg(false)
                       .desc("disable http2 for server")
                       .build());
+        options.addOption(
+                Option.builder()
+                      .longOpt("clientHttp2Settings")
+                      .hasArg()
+                      .argName("SETTINGS")
+                      .desc("http2 settings sent to client, e.g. initialWindowSize=1048576")
+                      .build());
+        options.addOption(
+                Option.builder()
+                      .longOpt("serverHttp2Settings")
+                      .hasArg()
+                      .argName("SETTINGS")
+                      .desc("http2 settings sent to server, e.g. initialWindowSize=1048576")
+                      .build());
+        options.addOption(
+                Option.builder()
+                      .longOpt("accessLog")
+                      .hasArg()
+                      .argName("FILE")
+                      .desc("write access log of requests to file, default: disabled")
+                      .build());
+        options.addOption(
+                Option.builder()
+                      .longOpt("maxConnections")
+                      .hasArg()
+                      .argName("COUNT")
+                      .desc("maximum connections of clients, default: unlimited")
+                      .build());
+        options.addOption(
+                Option.builder()
+                      .longOpt("maxConnectionsPerClient")
+                      .hasArg()
+                      .argName("COUNT")
+                      .desc("maximum connections of a client address, default: unlimited")
+                      .build());
+        options.addOption(
+                Option.builder()
+                      .longOpt("socketProfile")
+                      .hasArg()
+                      .argName("PROFILE")
+                      .desc("socket options of client and server sockets(DEFAULT, LOW_LATENCY, BULK), "
+                            + "default: LOW_LATENCY")
+                      .build());
+        options.addOption(
+                Option.builder()
+                      .longOpt("noNativeTransport")
+                      .hasArg(false)
+                      .desc("use the NIO transport even if the native transport is available")
+                      .build());
+        options.addOption(
+                Option.builder()
+                      .longOpt("unpooledAllocator")
+                      .hasArg(false)
+                      .desc("allocate the buffers without pooling")
+                      .build());
+        options.addOption(
+                Option.builder()
+                      .longOpt("leakDetection")
+                      .hasArg()
+                      .argName("LEVEL")
+                      .desc("buffer leak detection level(DISABLED, SIMPLE, ADVANCED, PARANOID), "
+                            + "default: SIMPLE")
+                      .build());
         options.addOption(
                 Option.builder("k")
                       .longOpt("insecure")
@@ -152,6 +339,14 @@ public class NitmProxy {
                 throw new IllegalArgumentException("Not a legal port: " + commandLine.getOptionValue("p"));
             }
         }
+        if (commandLine.hasOption("adminPort")) {
+            try {
+                config.setAdminPort(Integer.parseInt(commandLine.getOptionValue("adminPort")));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(
+                        "Not a legal port: " + commandLine.getOptionValue("adminPort"));
+            }
+        }
         if (commandLine.hasOption("cert")) {
             String certFile = commandLine.getOptionValue("cert");
             if (!new File(certFile).exists()) {
@@ -169,8 +364,58 @@ public class NitmProxy {
         if (commandLine.hasOption("k")) {
             config.setInsecure(true);
         }
+        if (commandLine.hasOption("clientNoHttp2")) {
+            config.setClientHttp2(false);
+        }
+        if (commandLine.hasOption("serverNoHttp2")) {
+            config.setServerHttp2(false);
+        }
+        if (commandLine.hasOption("clientHttp2Settings")) {
+            config.setClientHttp2Settings(
+                    Http2Util.parseSettings(commandLine.getOptionValue("clientHttp2Settings")));
+        }
+        if (commandLine.hasOption("serverHttp2Settings")) {
+            config.setServerHttp2Settings(
+                    Http2Util.parseSettings(commandLine.getOptionValue("serverHttp2Settings")));
+        }
+        if (commandLine.hasOption("maxConnections")) {
+            config.setMaxConnections(parseCount(commandLine, "maxConnections"));
+        }
+        if (commandLine.hasOption("maxConnectionsPerClient")) {
+            config.setMaxConnectionsPerClient(parseCount(commandLine, "maxConnectionsPerClient"));
+        }
+        if (commandLine.hasOption("socketProfile")) {
+            SocketProfile socketProfile = SocketProfile.of(commandLine.getOptionValue("socketProfile"));
+            config.setListenerSocketProfile(socketProfile);
+            config.setBackendSocketProfile(socketProfile);
+        }
+        if (commandLine.hasOption("noNativeTransport")) {
+            config.setNativeTransport(false);
+        }
+        if (commandLine.hasOption("unpooledAllocator")) {
+            config.setPooledAllocator(false);
+        }
+        if (commandLine.hasOption("leakDetection")) {
+            String level = commandLine.getOptionValue("leakDetection");
+            try {
+                config.setLeakDetectionLevel(ResourceLeakDetector.Level.valueOf(level));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Not a legal leak detection level: " + level);
+            }
+        }
+        if (commandLine.hasOption("accessLog")) {
+            config.setAccessLogFile(commandLine.getOptionValue("accessLog"));
+        }
 
         LOGGER.info("{}", config);
         return config;
     }
+
+    private static int parseCount(CommandLine commandLine, String option) {
+        try {
+            return Integer.parseInt(commandLine.getOptionValue(option));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a legal count: " + commandLine.getOptionValue(option));
+        }
+    }
 }
\ No newline at end of file
@@ -4,19 +4,41 @@ import static java.lang.String.format;
 import static java.lang.System.lineSeparator;
 import static java.util.Arrays.asList;
 
+import com.github.chhsiao90.nitmproxy.channel.SocketProfile;
 import com.github.chhsiao90.nitmproxy.enums.ProxyMode;
+import com.github.chhsiao90.nitmproxy.observer.TrafficObserver;
 import com.google.common.base.Joiner;
 
 import java.security.Provider;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import javax.net.ssl.KeyManagerFactory;
 
+import io.netty.handler.codec.http2.Http2Settings;
+import io.netty.util.ResourceLeakDetector;
+
 public class NitmProxyConfig {
     private ProxyMode proxyMode;
 
     private String host;
     private int port;
+    // Admin listener serving the metrics, disabled if not positive
+    private int adminPort;
+
+    // Sockets, the native transport is used if it's available
+    private boolean nativeTransport;
+    // The backlog of the listener, the default of netty if not positive
+    private int listenerBacklog;
+    private SocketProfile listenerSocketProfile;
+    // The profile by host overrides the other
+    private SocketProfile backendSocketProfile;
+    private Map<String, SocketProfile> backendSocketProfileByHost;
+    // The server sockets send the first write in the SYN, the connecting then completes without a
+    // round trip, so a failure to connect is only found out by the first write
+    private boolean backendTcpFastOpen;
 
     // TLS related
     private String certFile;
@@ -25,8 +47,69 @@ public class NitmProxyConfig {
     private Provider sslProvider;
     private List<String> tlsProtocols;
     private KeyManagerFactory clientKeyManagerFactory;
+    private boolean clientHttp2;
+    private boolean serverHttp2;
+    // The TLS contexts with the certificates minted for the server hosts, in LRU order
+    private int maxCachedCertificates;
+
+    // HTTP/2 SETTINGS sent by the proxy, the ones by host override the others
+    private Http2Settings clientHttp2Settings;
+    private Http2Settings serverHttp2Settings;
+    private Map<String, Http2Settings> clientHttp2SettingsByHost;
+    private Map<String, Http2Settings> serverHttp2SettingsByHost;
 
     private int maxContentLength;
+    private int maxServerConnectionsPerClient;
+    private int maxHttp2BytesPerFlush;
+
+    // Admission control, the limits are disabled if not positive
+    private int maxConnections;
+    private int maxConnectionsPerClient;
+    private int maxClientHandshakes;
+    // New connections are shed gradually when the lag of their event loop is over it
+    private long shedEventLoopLagMillis;
+
+    // Circuits of the origins and of their addresses, never opened if the threshold is not positive
+    private int circuitBreakerFailureThreshold;
+    private long circuitBreakerOpenMillis;
+    private int outlierFailureThreshold;
+    private long outlierEjectionMillis;
+    private int maxTrackedOrigins;
+
+    // Delay before the next resolved address of an origin is raced, never raced if not positive
+    private long connectAttemptDelayMillis;
+
+    // Deadlines of the stages of the connections, disabled if not positive
+    private long connectTimeoutMillis;
+    private long handshakeTimeoutMillis;
+    private long requestHeaderTimeoutMillis;
+    private long responseFirstByteTimeoutMillis;
+    private long idleKeepAliveTimeoutMillis;
+    private long idleTunnelTimeoutMillis;
+
+    // Event loop monitor, disabled if the interval is not positive
+    private long eventLoopProbeIntervalMillis;
+    private long eventLoopStallThresholdMillis;
+
+    // Buffer allocator of the channels, the numbers are the defaults of netty if negative
+    private boolean pooledAllocator;
+    private boolean preferDirectBuffers;
+    private int allocatorHeapArenas;
+    private int allocatorDirectArenas;
+    private int allocatorPageSize;
+    private int allocatorMaxOrder;
+    // Usage of the allocator logged periodically, disabled if not positive
+    private long allocatorReportIntervalMillis;
+    // The level of the buffer leak detection, the level of netty is kept if null
+    private ResourceLeakDetector.Level leakDetectionLevel;
+
+    private List<TrafficObserver> trafficObservers;
+
+    // Access log, disabled if there is no file
+    private String accessLogFile;
+    private int accessLogBufferSize;
+    private long accessLogMaxFileSize;
+    private int accessLogMaxFiles;
 
     // Default values
     public NitmProxyConfig() {
@@ -39,8 +122,56 @@ public class NitmProxyConfig {
         keyFile = "key.pem";
         insecure = false;
         tlsProtocols = asList("TLSv1.3", "TLSv1.2");
+        clientHttp2 = true;
+        serverHttp2 = true;
+        maxCachedCertificates = 1024;
+        clientHttp2Settings = new Http2Settings();
+        serverHttp2Settings = new Http2Settings();
+        nativeTransport = true;
+        listenerSocketProfile = SocketProfile.LOW_LATENCY;
+        backendSocketProfile = SocketProfile.LOW_LATENCY;
+        backendSocketProfileByHost = new HashMap<>();
+
+        clientHttp2SettingsByHost = new HashMap<>();
+        serverHttp2SettingsByHost = new HashMap<>();
 
         maxContentLength = 1024 * 1024;
+        maxServerConnectionsPerClient = 6;
+        maxHttp2BytesPerFlush = 64 * 1024;
+
+        shedEventLoopLagMillis = 500;
+
+        circuitBreakerFailureThreshold = 5;
+        circuitBreakerOpenMillis = 10_000;
+        outlierFailureThreshold = 3;
+        outlierEjectionMillis = 30_000;
+        maxTrackedOrigins = 10_000;
+
+        connectAttemptDelayMillis = 250;
+
+        connectTimeoutMillis = 10_000;
+        handshakeTimeoutMillis = 10_000;
+        requestHeaderTimeoutMillis = 30_000;
+        responseFirstByteTimeoutMillis = 60_000;
+        idleKeepAliveTimeoutMillis = 120_000;
+        idleTunnelTimeoutMillis = 300_000;
+
+        eventLoopProbeIntervalMillis = 100;
+        eventLoopStallThresholdMillis = 200;
+
+        pooledAllocator = true;
+        preferDirectBuffers = true;
+        allocatorHeapArenas = -1;
+        allocatorDirectArenas = -1;
+        allocatorPageSize = -1;
+        allocatorMaxOrder = -1;
+        allocatorReportIntervalMillis = 60_000;
+
+        trafficObservers = new CopyOnWriteArrayList<>();
+
+        accessLogBufferSize = 64 * 1024;
+        accessLogMaxFileSize = 100 * 1024 * 1024;
+        accessLogMaxFiles = 10;
     }
 
     public ProxyMode getProxyMode() {
@@ -67,6 +198,14 @@ public class NitmProxyConfig {
         this.port = port;
     }
 
+    public int getAdminPort() {
+        return adminPort;
+    }
+
+    public void setAdminPort(int adminPort) {
+        this.adminPort = adminPort;
+    }
+
     public String getCertFile() {
         return certFile;
     }
@@ -115,6 +254,110 @@ public class NitmProxyConfig {
         this.clientKeyManagerFactory = clientKeyManagerFactory;
     }
 
+    public boolean isClientHttp2() {
+        return clientHttp2;
+    }
+
+    public void setClientHttp2(boolean clientHttp2) {
+        this.clientHttp2 = clientHttp2;
+    }
+
+    public boolean isServerHttp2() {
+        return serverHttp2;
+    }
+
+    public void setServerHttp2(boolean serverHttp2) {
+        this.serverHttp2 = serverHttp2;
+    }
+
+    public int getMaxCachedCertificates() {
+        return maxCachedCertificates;
+    }
+
+    public void setMaxCachedCertificates(int maxCachedCertificates) {
+        this.maxCachedCertificates = maxCachedCertificates;
+    }
+
+    public Http2Settings getClientHttp2Settings() {
+        return clientHttp2Settings;
+    }
+
+    public void setClientHttp2Settings(Http2Settings clientHttp2Settings) {
+        this.clientHttp2Settings = clientHttp2Settings;
+    }
+
+    public Http2Settings getServerHttp2Settings() {
+        return serverHttp2Settings;
+    }
+
+    public void setServerHttp2Settings(Http2Settings serverHttp2Settings) {
+        this.serverHttp2Settings = serverHttp2Settings;
+    }
+
+    public boolean isNativeTransport() {
+        return nativeTransport;
+    }
+
+    public void setNativeTransport(boolean nativeTransport) {
+        this.nativeTransport = nativeTransport;
+    }
+
+    public int getListenerBacklog() {
+        return listenerBacklog;
+    }
+
+    public void setListenerBacklog(int listenerBacklog) {
+        this.listenerBacklog = listenerBacklog;
+    }
+
+    public SocketProfile getListenerSocketProfile() {
+        return listenerSocketProfile;
+    }
+
+    public void setListenerSocketProfile(SocketProfile listenerSocketProfile) {
+        this.listenerSocketProfile = listenerSocketProfile;
+    }
+
+    public SocketProfile getBackendSocketProfile() {
+        return backendSocketProfile;
+    }
+
+    public void setBackendSocketProfile(SocketProfile backendSocketProfile) {
+        this.backendSocketProfile = backendSocketProfile;
+    }
+
+    public Map<String, SocketProfile> getBackendSocketProfileByHost() {
+        return backendSocketProfileByHost;
+    }
+
+    public void setBackendSocketProfileByHost(Map<String, SocketProfile> backendSocketProfileByHost) {
+        this.backendSocketProfileByHost = backendSocketProfileByHost;
+    }
+
+    public boolean isBackendTcpFastOpen() {
+        return backendTcpFastOpen;
+    }
+
+    public void setBackendTcpFastOpen(boolean backendTcpFastOpen) {
+        this.backendTcpFastOpen = backendTcpFastOpen;
+    }
+
+    public Map<String, Http2Settings> getClientHttp2SettingsByHost() {
+        return clientHttp2SettingsByHost;
+    }
+
+    public void setClientHttp2SettingsByHost(Map<String, Http2Settings> clientHttp2SettingsByHost) {
+        this.clientHttp2SettingsByHost = clientHttp2SettingsByHost;
+    }
+
+    public Map<String, Http2Settings> getServerHttp2SettingsByHost() {
+        return serverHttp2SettingsByHost;
+    }
+
+    public void setServerHttp2SettingsByHost(Map<String, Http2Settings> serverHttp2SettingsByHost) {
+        this.serverHttp2SettingsByHost = serverHttp2SettingsByHost;
+    }
+
     public int getMaxContentLength() {
         return maxContentLength;
     }
@@ -123,19 +366,336 @@ public class NitmProxyConfig {
         this.maxContentLength = maxContentLength;
     }
 
+    public int getMaxServerConnectionsPerClient() {
+        return maxServerConnectionsPerClient;
+    }
+
+    public void setMaxServerConnectionsPerClient(int maxServerConnectionsPerClient) {
+        this.maxServerConnectionsPerClient = maxServerConnectionsPerClient;
+    }
+
+    public int getMaxHttp2BytesPerFlush() {
+        return maxHttp2BytesPerFlush;
+    }
+
+    public void setMaxHttp2BytesPerFlush(int maxHttp2BytesPerFlush) {
+        this.maxHttp2BytesPerFlush = maxHttp2BytesPerFlush;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public void setMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+
+    public int getMaxConnectionsPerClient() {
+        return maxConnectionsPerClient;
+    }
+
+    public void setMaxConnectionsPerClient(int maxConnectionsPerClient) {
+        this.maxConnectionsPerClient = maxConnectionsPerClient;
+    }
+
+    public int getMaxClientHandshakes() {
+        return maxClientHandshakes;
+    }
+
+    public void setMaxClientHandshakes(int maxClientHandshakes) {
+        this.maxClientHandshakes = maxClientHandshakes;
+    }
+
+    public long getShedEventLoopLagMillis() {
+        return shedEventLoopLagMillis;
+    }
+
+    public void setShedEventLoopLagMillis(long shedEventLoopLagMillis) {
+        this.shedEventLoopLagMillis = shedEventLoopLagMillis;
+    }
+
+    public int getCircuitBreakerFailureThreshold() {
+        return circuitBreakerFailureThreshold;
+    }
+
+    public void setCircuitBreakerFailureThreshold(int circuitBreakerFailureThreshold) {
+        this.circuitBreakerFailureThreshold = circuitBreakerFailureThreshold;
+    }
+
+    public long getCircuitBreakerOpenMillis() {
+        return circuitBreakerOpenMillis;
+    }
+
+    public void setCircuitBreakerOpenMillis(long circuitBreakerOpenMillis) {
+        this.circuitBreakerOpenMillis = circuitBreakerOpenMillis;
+    }
+
+    public int getOutlierFailureThreshold() {
+        return outlierFailureThreshold;
+    }
+
+    public void setOutlierFailureThreshold(int outlierFailureThreshold) {
+        this.outlierFailureThreshold = outlierFailureThreshold;
+    }
+
+    public long getOutlierEjectionMillis() {
+        return outlierEjectionMillis;
+    }
+
+    public void setOutlierEjectionMillis(long outlierEjectionMillis) {
+        this.outlierEjectionMillis = outlierEjectionMillis;
+    }
+
+    public int getMaxTrackedOrigins() {
+        return maxTrackedOrigins;
+    }
+
+    public void setMaxTrackedOrigins(int maxTrackedOrigins) {
+        this.maxTrackedOrigins = maxTrackedOrigins;
+    }
+
+    public long getConnectAttemptDelayMillis() {
+        return connectAttemptDelayMillis;
+    }
+
+    public void setConnectAttemptDelayMillis(long connectAttemptDelayMillis) {
+        this.connectAttemptDelayMillis = connectAttemptDelayMillis;
+    }
+
+    public long getConnectTimeoutMillis() {
+        return connectTimeoutMillis;
+    }
+
+    public void setConnectTimeoutMillis(long connectTimeoutMillis) {
+        this.connectTimeoutMillis = connectTimeoutMillis;
+    }
+
+    public long getHandshakeTimeoutMillis() {
+        return handshakeTimeoutMillis;
+    }
+
+    public void setHandshakeTimeoutMillis(long handshakeTimeoutMillis) {
+        this.handshakeTimeoutMillis = handshakeTimeoutMillis;
+    }
+
+    public long getRequestHeaderTimeoutMillis() {
+        return requestHeaderTimeoutMillis;
+    }
+
+    public void setRequestHeaderTimeoutMillis(long requestHeaderTimeoutMillis) {
+        this.requestHeaderTimeoutMillis = requestHeaderTimeoutMillis;
+    }
+
+    public long getResponseFirstByteTimeoutMillis() {
+        return responseFirstByteTimeoutMillis;
+    }
+
+    public void setResponseFirstByteTimeoutMillis(long responseFirstByteTimeoutMillis) {
+        this.responseFirstByteTimeoutMillis = responseFirstByteTimeoutMillis;
+    }
+
+    public long getIdleKeepAliveTimeoutMillis() {
+        return idleKeepAliveTimeoutMillis;
+    }
+
+    public void setIdleKeepAliveTimeoutMillis(long idleKeepAliveTimeoutMillis) {
+        this.idleKeepAliveTimeoutMillis = idleKeepAliveTimeoutMillis;
+    }
+
+    public long getIdleTunnelTimeoutMillis() {
+        return idleTunnelTimeoutMillis;
+    }
+
+    public void setIdleTunnelTimeoutMillis(long idleTunnelTimeoutMillis) {
+        this.idleTunnelTimeoutMillis = idleTunnelTimeoutMillis;
+    }
+
+    public long getEventLoopProbeIntervalMillis() {
+        return eventLoopProbeIntervalMillis;
+    }
+
+    public void setEventLoopProbeIntervalMillis(long eventLoopProbeIntervalMillis) {
+        this.eventLoopProbeIntervalMillis = eventLoopProbeIntervalMillis;
+    }
+
+    public long getEventLoopStallThresholdMillis() {
+        return eventLoopStallThresholdMillis;
+    }
+
+    public void setEventLoopStallThresholdMillis(long eventLoopStallThresholdMillis) {
+        this.eventLoopStallThresholdMillis = eventLoopStallThresholdMillis;
+    }
+
+    public boolean isPooledAllocator() {
+        return pooledAllocator;
+    }
+
+    public void setPooledAllocator(boolean pooledAllocator) {
+        this.pooledAllocator = pooledAllocator;
+    }
+
+    public boolean isPreferDirectBuffers() {
+        return preferDirectBuffers;
+    }
+
+    public void setPreferDirectBuffers(boolean preferDirectBuffers) {
+        this.preferDirectBuffers = preferDirectBuffers;
+    }
+
+    public int getAllocatorHeapArenas() {
+        return allocatorHeapArenas;
+    }
+
+    public void setAllocatorHeapArenas(int allocatorHeapArenas) {
+        this.allocatorHeapArenas = allocatorHeapArenas;
+    }
+
+    public int getAllocatorDirectArenas() {
+        return allocatorDirectArenas;
+    }
+
+    public void setAllocatorDirectArenas(int allocatorDirectArenas) {
+        this.allocatorDirectArenas = allocatorDirectArenas;
+    }
+
+    public int getAllocatorPageSize() {
+        return allocatorPageSize;
+    }
+
+    public void setAllocatorPageSize(int allocatorPageSize) {
+        this.allocatorPageSize = allocatorPageSize;
+    }
+
+    /**
+     * Get the max order of the pooled allocator, the chunk size is the page size shifted left by
+     * the max order.
+     *
+     * @return the max order
+     */
+    public int getAllocatorMaxOrder() {
+        return allocatorMaxOrder;
+    }
+
+    public void setAllocatorMaxOrder(int allocatorMaxOrder) {
+        this.allocatorMaxOrder = allocatorMaxOrder;
+    }
+
+    public long getAllocatorReportIntervalMillis() {
+        return allocatorReportIntervalMillis;
+    }
+
+    public void setAllocatorReportIntervalMillis(long allocatorReportIntervalMillis) {
+        this.allocatorReportIntervalMillis = allocatorReportIntervalMillis;
+    }
+
+    public ResourceLeakDetector.Level getLeakDetectionLevel() {
+        return leakDetectionLevel;
+    }
+
+    public void setLeakDetectionLevel(ResourceLeakDetector.Level leakDetectionLevel) {
+        this.leakDetectionLevel = leakDetectionLevel;
+    }
+
+    public List<TrafficObserver> getTrafficObservers() {
+        return trafficObservers;
+    }
+
+    public void setTrafficObservers(List<TrafficObserver> trafficObservers) {
+        this.trafficObservers = trafficObservers;
+    }
+
+    public String getAccessLogFile() {
+        return accessLogFile;
+    }
+
+    public void setAccessLogFile(String accessLogFile) {
+        this.accessLogFile = accessLogFile;
+    }
+
+    public int getAccessLogBufferSize() {
+        return accessLogBufferSize;
+    }
+
+    public void setAccessLogBufferSize(int accessLogBufferSize) {
+        this.accessLogBufferSize = accessLogBufferSize;
+    }
+
+    public long getAccessLogMaxFileSize() {
+        return accessLogMaxFileSize;
+    }
+
+    public void setAccessLogMaxFileSize(long accessLogMaxFileSize) {
+        this.accessLogMaxFileSize = accessLogMaxFileSize;
+    }
+
+    public int getAccessLogMaxFiles() {
+        return accessLogMaxFiles;
+    }
+
+    public void setAccessLogMaxFiles(int accessLogMaxFiles) {
+        this.accessLogMaxFiles = accessLogMaxFiles;
+    }
+
     @Override
     public String toString() {
         List<String> properties = asList(
                 format("proxyMode=%s", proxyMode),
                 format("host=%s", host),
                 format("port=%s", port),
+                format("adminPort=%d", adminPort),
+                format("nativeTransport=%b", nativeTransport),
+                format("listenerBacklog=%d", listenerBacklog),
+                format("listenerSocketProfile=%s", listenerSocketProfile),
+                format("backendSocketProfile=%s", backendSocketProfile),
+                format("backendSocketProfileByHost=%s", backendSocketProfileByHost),
+                format("backendTcpFastOpen=%b", backendTcpFastOpen),
                 format("certFile=%s", certFile),
                 format("keyFile=%s", keyFile),
                 format("insecure=%b", insecure),
                 format("tlsProtocols=%s", tlsProtocols),
                 format("sslProvider=%s", sslProvider),
                 format("keyManagerFactory=%b", clientKeyManagerFactory),
-                format("maxContentLength=%d", maxContentLength));
+                format("clientHttp2=%b", clientHttp2),
+                format("serverHttp2=%b", serverHttp2),
+                format("maxCachedCertificates=%d", maxCachedCertificates),
+                format("clientHttp2Settings=%s", clientHttp2Settings),
+                format("serverHttp2Settings=%s", serverHttp2Settings),
+                format("clientHttp2SettingsByHost=%s", clientHttp2SettingsByHost),
+                format("serverHttp2SettingsByHost=%s", serverHttp2SettingsByHost),
+                format("maxContentLength=%d", maxContentLength),
+                format("maxServerConnectionsPerClient=%d", maxServerConnectionsPerClient),
+                format("maxHttp2BytesPerFlush=%d", maxHttp2BytesPerFlush),
+                format("maxConnections=%d", maxConnections),
+                format("maxConnectionsPerClient=%d", maxConnectionsPerClient),
+                format("maxClientHandshakes=%d", maxClientHandshakes),
+                format("shedEventLoopLagMillis=%d", shedEventLoopLagMillis),
+                format("circuitBreakerFailureThreshold=%d", circuitBreakerFailureThreshold),
+                format("circuitBreakerOpenMillis=%d", circuitBreakerOpenMillis),
+                format("outlierFailureThreshold=%d", outlierFailureThreshold),
+                format("outlierEjectionMillis=%d", outlierEjectionMillis),
+                format("maxTrackedOrigins=%d", maxTrackedOrigins),
+                format("connectAttemptDelayMillis=%d", connectAttemptDelayMillis),
+                format("connectTimeoutMillis=%d", connectTimeoutMillis),
+                format("handshakeTimeoutMillis=%d", handshakeTimeoutMillis),
+                format("requestHeaderTimeoutMillis=%d", requestHeaderTimeoutMillis),
+                format("responseFirstByteTimeoutMillis=%d", responseFirstByteTimeoutMillis),
+                format("idleKeepAliveTimeoutMillis=%d", idleKeepAliveTimeoutMillis),
+                format("idleTunnelTimeoutMillis=%d", idleTunnelTimeoutMillis),
+                format("eventLoopProbeIntervalMillis=%d", eventLoopProbeIntervalMillis),
+                format("eventLoopStallThresholdMillis=%d", eventLoopStallThresholdMillis),
+                format("pooledAllocator=%b", pooledAllocator),
+                format("preferDirectBuffers=%b", preferDirectBuffers),
+                format("allocatorHeapArenas=%d", allocatorHeapArenas),
+                format("allocatorDirectArenas=%d", allocatorDirectArenas),
+                format("allocatorPageSize=%d", allocatorPageSize),
+                format("allocatorMaxOrder=%d", allocatorMaxOrder),
+                format("allocatorReportIntervalMillis=%d", allocatorReportIntervalMillis),
+                format("leakDetectionLevel=%s", leakDetectionLevel),
+                format("trafficObservers=%s", trafficObservers),
+                format("accessLogFile=%s", accessLogFile),
+                format("accessLogBufferSize=%d", accessLogBufferSize),
+                format("accessLogMaxFileSize=%d", accessLogMaxFileSize),
+                format("accessLogMaxFiles=%d", accessLogMaxFiles));
         return format("NitmProxyConfig%n%s", Joiner.on(lineSeparator()).join(properties));
     }
 }
\ No newline at end of file
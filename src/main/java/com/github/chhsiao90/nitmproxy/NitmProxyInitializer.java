@@ -1,6 +1,15 @@
 package com.github.chhsiao90.nitmproxy;
 
+import com.github.chhsiao90.nitmproxy.admission.AdmissionController;
+import com.github.chhsiao90.nitmproxy.admission.RejectHandler;
 import com.github.chhsiao90.nitmproxy.channel.BackendChannelBootstrap;
+import com.github.chhsiao90.nitmproxy.metrics.EventLoopMonitor;
+import com.github.chhsiao90.nitmproxy.metrics.ProxyMetrics;
+import com.github.chhsiao90.nitmproxy.metrics.RejectReason;
+import com.github.chhsiao90.nitmproxy.metrics.Stage;
+import com.github.chhsiao90.nitmproxy.metrics.TimeoutType;
+import com.github.chhsiao90.nitmproxy.timeout.Deadline;
+import com.github.chhsiao90.nitmproxy.timeout.IdleTimeoutHandler;
 
 import java.net.InetSocketAddress;
 
@@ -8,6 +17,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandler.Sharable;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.SimpleChannelInboundHandler;
@@ -15,29 +26,78 @@ import io.netty.channel.SimpleChannelInboundHandler;
 public class NitmProxyInitializer extends ChannelInitializer<Channel> {
     private static final Logger LOGGER = LoggerFactory.getLogger(NitmProxyInitializer.class);
 
+    private static final ChannelHandler UNHANDLED_INBOUND_HANDLER = new UnhandledInboundHandler();
+
+    // Closes a rejected client if the request header timeout is disabled
+    private static final long REJECTED_TIMEOUT_MILLIS = 10_000;
+
     private NitmProxyMaster master;
 
     public NitmProxyInitializer(NitmProxyConfig config) {
-        this(new NitmProxyMaster(config, new HandlerProvider(), new BackendChannelBootstrap()));
+        this(config, null);
+    }
+
+    /**
+     * Create the initializer.
+     *
+     * @param config the config
+     * @param eventLoopMonitor the monitor of the event loops, which sheds the new connections when
+     *                         they lag behind, or {@code null} if not monitored
+     */
+    public NitmProxyInitializer(NitmProxyConfig config, EventLoopMonitor eventLoopMonitor) {
+        this(new NitmProxyMaster(config, new HandlerProvider(), new BackendChannelBootstrap(),
+                                 new AdmissionController(config, eventLoopMonitor)));
     }
 
     public NitmProxyInitializer(NitmProxyMaster master) {
         this.master = master;
     }
 
+    public NitmProxyMaster master() {
+        return master;
+    }
+
     @Override
     protected void initChannel(Channel channel) throws Exception {
         InetSocketAddress address = (InetSocketAddress) channel.remoteAddress();
-        Address clientAddress = new Address(address.getHostName(), address.getPort());
+        RejectReason rejectReason = master.admission().admit(channel, address.getAddress());
+        if (rejectReason != null) {
+            LOGGER.debug("[Client ({})] => Rejected by {}", address, rejectReason);
+            channel.pipeline().addLast(
+                    ProxyMetrics.global().client().handler(),
+                    RejectHandler.of(master.config().getProxyMode()));
+            // The answer waits for the first bytes of the client, which an idle client never sends
+            long timeoutMillis = master.config().getRequestHeaderTimeoutMillis();
+            Deadline deadline = Deadline.schedule(channel, TimeoutType.REQUEST_HEADER,
+                    timeoutMillis > 0 ? timeoutMillis : REJECTED_TIMEOUT_MILLIS);
+            channel.closeFuture().addListener(ignore -> deadline.cancel());
+            return;
+        }
+        // Never resolve the host name of the client, which blocks the event loop
+        Address clientAddress = new Address(address.getHostString(), address.getPort());
         ConnectionContext context = new ConnectionContext(master).withClientAddr(clientAddress).withClientChannel(channel);
-        channel.pipeline().addLast(
-                context.proxyHandler(),
-                new SimpleChannelInboundHandler<Object>() {
-                    @Override
-                    protected void channelRead0(ChannelHandlerContext channelHandlerContext, Object o)
-                            throws Exception {
-                        LOGGER.info("[Client ({})] => Unhandled inbound: {}", clientAddress, o);
-                    }
-                });
+        channel.closeFuture().addListener(ignore -> context.timings().record(
+                Stage.COMPLETION, context.getServerAddr(), context.timings().acceptNanos()));
+        if (context.observers().isEnabled()) {
+            context.observers().onClientConnected(context);
+            channel.closeFuture().addListener(ignore -> context.observers().onClientDisconnected(context));
+        }
+        context.withRequestHeaderDeadline(Deadline.schedule(
+                channel, TimeoutType.REQUEST_HEADER, master.config().getRequestHeaderTimeoutMillis()));
+        channel.pipeline().addLast(ProxyMetrics.global().client().handler());
+        if (IdleTimeoutHandler.isEnabled(master.config())) {
+            IdleTimeoutHandler idleTimeoutHandler = new IdleTimeoutHandler(context);
+            context.withIdleTimeoutHandler(idleTimeoutHandler);
+            channel.pipeline().addLast(idleTimeoutHandler);
+        }
+        channel.pipeline().addLast(context.proxyHandler(), UNHANDLED_INBOUND_HANDLER);
+    }
+
+    @Sharable
+    private static class UnhandledInboundHandler extends SimpleChannelInboundHandler<Object> {
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, Object msg) throws Exception {
+            LOGGER.info("[Client ({})] => Unhandled inbound: {}", ctx.channel().remoteAddress(), msg);
+        }
     }
 }
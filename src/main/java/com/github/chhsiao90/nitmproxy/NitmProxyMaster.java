@@ -1,6 +1,9 @@
 package com.github.chhsiao90.nitmproxy;
 
+import com.github.chhsiao90.nitmproxy.admission.AdmissionController;
 import com.github.chhsiao90.nitmproxy.channel.BackendChannelBootstrap;
+import com.github.chhsiao90.nitmproxy.channel.OriginHealth;
+import com.github.chhsiao90.nitmproxy.tls.SslContextCache;
 
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelHandler;
@@ -10,13 +13,26 @@ public class NitmProxyMaster {
     private NitmProxyConfig config;
     private HandlerProvider handlerProvider;
     private BackendChannelBootstrap backendChannelBootstrap;
+    private SslContextCache sslContextCache;
+    private AdmissionController admissionController;
+    private OriginHealth originHealth;
 
     public NitmProxyMaster(NitmProxyConfig config,
                            HandlerProvider handlerProvider,
                            BackendChannelBootstrap backendChannelBootstrap) {
+        this(config, handlerProvider, backendChannelBootstrap, new AdmissionController(config, null));
+    }
+
+    public NitmProxyMaster(NitmProxyConfig config,
+                           HandlerProvider handlerProvider,
+                           BackendChannelBootstrap backendChannelBootstrap,
+                           AdmissionController admissionController) {
         this.config = config;
         this.handlerProvider = handlerProvider;
         this.backendChannelBootstrap = backendChannelBootstrap;
+        this.sslContextCache = new SslContextCache(config);
+        this.admissionController = admissionController;
+        this.originHealth = new OriginHealth(config);
     }
 
     public NitmProxyConfig config() {
@@ -27,6 +43,18 @@ public class NitmProxyMaster {
         return handlerProvider;
     }
 
+    public SslContextCache sslContexts() {
+        return sslContextCache;
+    }
+
+    public AdmissionController admission() {
+        return admissionController;
+    }
+
+    public OriginHealth originHealth() {
+        return originHealth;
+    }
+
     public ChannelFuture connect(ChannelHandlerContext fromCtx, ConnectionContext connectionContext,
                                  ChannelHandler handler) {
         return backendChannelBootstrap.connect(fromCtx, this, connectionContext, handler);
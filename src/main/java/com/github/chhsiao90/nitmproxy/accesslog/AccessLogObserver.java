@@ -0,0 +1,186 @@
+package com.github.chhsiao90.nitmproxy.accesslog;
+
+import com.github.chhsiao90.nitmproxy.ConnectionContext;
+import com.github.chhsiao90.nitmproxy.observer.TrafficObserver;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import io.netty.channel.Channel;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpStatusClass;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.handler.codec.http2.Http2DataFrame;
+import io.netty.handler.codec.http2.Http2Frame;
+import io.netty.handler.codec.http2.Http2Headers;
+import io.netty.handler.codec.http2.Http2HeadersFrame;
+import io.netty.handler.codec.http2.Http2ResetFrame;
+import io.netty.util.AttributeKey;
+import io.netty.util.collection.IntObjectHashMap;
+import io.netty.util.collection.IntObjectMap;
+
+/**
+ * Builds one {@link AccessLogRecord} for each HTTP/1 request and each HTTP/2 stream, and adds it
+ * to the {@link AccessLogRingBuffer} when the response completed.
+ *
+ * <p>The requests in flight are kept in the attributes of the channels, the HTTP/1 requests of a
+ * server channel in the order they were sent, and the HTTP/2 streams of a client channel by the
+ * stream id. All the channels of a client are bound to the same event loop, so there is no
+ * synchronization in here.</p>
+ */
+public class AccessLogObserver implements TrafficObserver {
+    private static final AttributeKey<Deque<AccessLogRecord>> HTTP1_RECORDS =
+            AttributeKey.valueOf(AccessLogObserver.class, "http1Records");
+    private static final AttributeKey<IntObjectMap<AccessLogRecord>> HTTP2_RECORDS =
+            AttributeKey.valueOf(AccessLogObserver.class, "http2Records");
+
+    private static final String HTTP2 = "HTTP/2.0";
+
+    private final AccessLogRingBuffer ringBuffer;
+
+    public AccessLogObserver(AccessLogRingBuffer ringBuffer) {
+        this.ringBuffer = ringBuffer;
+    }
+
+    @Override
+    public void onHttp1Request(ConnectionContext connectionContext, Channel serverChannel,
+                               HttpObject request) {
+        Deque<AccessLogRecord> records = serverChannel.attr(HTTP1_RECORDS).get();
+        if (request instanceof HttpRequest) {
+            HttpRequest httpRequest = (HttpRequest) request;
+            if (records == null) {
+                records = new ArrayDeque<>();
+                serverChannel.attr(HTTP1_RECORDS).set(records);
+            }
+            records.offer(AccessLogRecord.newInstance(
+                    connectionContext.getClientAddr(),
+                    connectionContext.getServerAddr(serverChannel),
+                    httpRequest.protocolVersion().text(),
+                    httpRequest.method().name(),
+                    httpRequest.uri()));
+        }
+        if (request instanceof HttpContent && records != null && !records.isEmpty()) {
+            records.peekLast().onRequestBytes(((HttpContent) request).content().readableBytes());
+        }
+    }
+
+    @Override
+    public void onHttp1Response(ConnectionContext connectionContext, Channel serverChannel,
+                                HttpObject response) {
+        Deque<AccessLogRecord> records = serverChannel.attr(HTTP1_RECORDS).get();
+        AccessLogRecord record = records == null ? null : records.peek();
+        if (record == null) {
+            return;
+        }
+        if (response instanceof HttpResponse) {
+            HttpResponseStatus status = ((HttpResponse) response).status();
+            record.onResponseStatus(status.code(), isInformational(status));
+        }
+        if (response instanceof HttpContent) {
+            record.onResponseBytes(((HttpContent) response).content().readableBytes());
+        }
+        if (response instanceof LastHttpContent && !record.isInformational()) {
+            complete(records.poll(), false);
+        }
+    }
+
+    @Override
+    public void onServerDisconnected(ConnectionContext connectionContext, Channel serverChannel) {
+        Deque<AccessLogRecord> records = serverChannel.attr(HTTP1_RECORDS).getAndSet(null);
+        if (records != null) {
+            records.forEach(record -> complete(record, true));
+        }
+    }
+
+    @Override
+    public void onHttp2ClientFrame(ConnectionContext connectionContext, int streamId,
+                                   Http2Frame frame) {
+        if (streamId == 0) {
+            return;
+        }
+        IntObjectMap<AccessLogRecord> records = http2Records(connectionContext);
+        AccessLogRecord record = records.get(streamId);
+        if (record == null) {
+            if (frame instanceof Http2HeadersFrame) {
+                Http2Headers headers = ((Http2HeadersFrame) frame).headers();
+                records.put(streamId, AccessLogRecord.newInstance(
+                        connectionContext.getClientAddr(),
+                        connectionContext.getServerAddr(),
+                        HTTP2,
+                        headers.method(),
+                        headers.path()));
+            }
+        } else if (frame instanceof Http2DataFrame) {
+            record.onRequestBytes(((Http2DataFrame) frame).content().readableBytes());
+        } else if (frame instanceof Http2ResetFrame) {
+            complete(records.remove(streamId), true);
+        }
+    }
+
+    @Override
+    public void onHttp2ServerFrame(ConnectionContext connectionContext, int streamId,
+                                   Http2Frame frame) {
+        if (streamId == 0) {
+            return;
+        }
+        IntObjectMap<AccessLogRecord> records = http2Records(connectionContext);
+        AccessLogRecord record = records.get(streamId);
+        if (record == null) {
+            return;
+        }
+        boolean endStream = false;
+        if (frame instanceof Http2HeadersFrame) {
+            Http2HeadersFrame headersFrame = (Http2HeadersFrame) frame;
+            CharSequence status = headersFrame.headers().status();
+            if (status != null) {
+                HttpResponseStatus responseStatus = HttpResponseStatus.parseLine(status);
+                record.onResponseStatus(responseStatus.code(), isInformational(responseStatus));
+            }
+            endStream = headersFrame.isEndStream();
+        } else if (frame instanceof Http2DataFrame) {
+            Http2DataFrame dataFrame = (Http2DataFrame) frame;
+            record.onResponseBytes(dataFrame.content().readableBytes());
+            endStream = dataFrame.isEndStream();
+        } else if (frame instanceof Http2ResetFrame) {
+            complete(records.remove(streamId), true);
+            return;
+        }
+        if (endStream) {
+            complete(records.remove(streamId), false);
+        }
+    }
+
+    @Override
+    public void onClientDisconnected(ConnectionContext connectionContext) {
+        IntObjectMap<AccessLogRecord> records =
+                connectionContext.clientChannel().attr(HTTP2_RECORDS).getAndSet(null);
+        if (records != null) {
+            records.values().forEach(record -> complete(record, true));
+        }
+    }
+
+    private IntObjectMap<AccessLogRecord> http2Records(ConnectionContext connectionContext) {
+        IntObjectMap<AccessLogRecord> records =
+                connectionContext.clientChannel().attr(HTTP2_RECORDS).get();
+        if (records == null) {
+            records = new IntObjectHashMap<>();
+            connectionContext.clientChannel().attr(HTTP2_RECORDS).set(records);
+        }
+        return records;
+    }
+
+    private void complete(AccessLogRecord record, boolean aborted) {
+        record.complete(aborted);
+        ringBuffer.offer(record);
+        record.recycle();
+    }
+
+    private static boolean isInformational(HttpResponseStatus status) {
+        return status.codeClass() == HttpStatusClass.INFORMATIONAL
+               && !HttpResponseStatus.SWITCHING_PROTOCOLS.equals(status);
+    }
+}
@@ -0,0 +1,200 @@
+package com.github.chhsiao90.nitmproxy.accesslog;
+
+import com.github.chhsiao90.nitmproxy.Address;
+
+import io.netty.util.internal.ObjectPool;
+import io.netty.util.internal.ObjectPool.Handle;
+
+/**
+ * The access log of one request, which is a HTTP/1 request or a HTTP/2 stream.
+ *
+ * <p>The records of the requests in flight are recycled after they were copied to the
+ * {@link AccessLogRingBuffer}, and the slots of the ring buffer are records allocated once, so
+ * logging a request allocates nothing on the event loop.</p>
+ */
+public class AccessLogRecord {
+    private static final ObjectPool<AccessLogRecord> RECYCLER =
+            ObjectPool.newPool(AccessLogRecord::new);
+
+    private final Handle<AccessLogRecord> handle;
+
+    private long timestamp;
+    private long startNanos;
+    private Address clientAddr;
+    private Address serverAddr;
+    private String protocol;
+    private CharSequence method;
+    private CharSequence uri;
+    private int status;
+    private long requestBytes;
+    private long responseBytes;
+    private long firstByteNanos;
+    private long durationNanos;
+    private boolean aborted;
+
+    // Only for the requests in flight
+    private boolean informational;
+
+    AccessLogRecord() {
+        this(null);
+    }
+
+    private AccessLogRecord(Handle<AccessLogRecord> handle) {
+        this.handle = handle;
+    }
+
+    /**
+     * Get a record from the pool for a request which starts now.
+     *
+     * @param clientAddr the client address
+     * @param serverAddr the server address
+     * @param protocol the protocol of the request
+     * @param method the method of the request
+     * @param uri the uri of the request
+     * @return the record
+     */
+    static AccessLogRecord newInstance(Address clientAddr, Address serverAddr, String protocol,
+                                       CharSequence method, CharSequence uri) {
+        AccessLogRecord record = RECYCLER.get();
+        record.timestamp = System.currentTimeMillis();
+        record.startNanos = System.nanoTime();
+        record.clientAddr = clientAddr;
+        record.serverAddr = serverAddr;
+        record.protocol = protocol;
+        record.method = method;
+        record.uri = uri;
+        record.status = 0;
+        record.requestBytes = 0;
+        record.responseBytes = 0;
+        record.firstByteNanos = -1;
+        record.durationNanos = -1;
+        record.aborted = false;
+        record.informational = false;
+        return record;
+    }
+
+    void recycle() {
+        clear();
+        handle.recycle(this);
+    }
+
+    void copyFrom(AccessLogRecord record) {
+        timestamp = record.timestamp;
+        startNanos = record.startNanos;
+        clientAddr = record.clientAddr;
+        serverAddr = record.serverAddr;
+        protocol = record.protocol;
+        method = record.method;
+        uri = record.uri;
+        status = record.status;
+        requestBytes = record.requestBytes;
+        responseBytes = record.responseBytes;
+        firstByteNanos = record.firstByteNanos;
+        durationNanos = record.durationNanos;
+        aborted = record.aborted;
+    }
+
+    // Don't keep the request alive in the pool or in the ring buffer
+    void clear() {
+        clientAddr = null;
+        serverAddr = null;
+        method = null;
+        uri = null;
+    }
+
+    void onRequestBytes(int bytes) {
+        requestBytes += bytes;
+    }
+
+    void onResponseBytes(int bytes) {
+        responseBytes += bytes;
+    }
+
+    void onResponseStatus(int status, boolean informational) {
+        if (firstByteNanos < 0) {
+            firstByteNanos = System.nanoTime() - startNanos;
+        }
+        this.informational = informational;
+        if (!informational) {
+            this.status = status;
+        }
+    }
+
+    boolean isInformational() {
+        return informational;
+    }
+
+    void complete(boolean aborted) {
+        this.durationNanos = System.nanoTime() - startNanos;
+        this.aborted = aborted;
+    }
+
+    /**
+     * Get the time the request started.
+     *
+     * @return the epoch millis
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public Address getClientAddr() {
+        return clientAddr;
+    }
+
+    public Address getServerAddr() {
+        return serverAddr;
+    }
+
+    public String getProtocol() {
+        return protocol;
+    }
+
+    public CharSequence getMethod() {
+        return method;
+    }
+
+    public CharSequence getUri() {
+        return uri;
+    }
+
+    /**
+     * Get the status of the final response.
+     *
+     * @return the status, or {@code 0} if there was no response
+     */
+    public int getStatus() {
+        return status;
+    }
+
+    public long getRequestBytes() {
+        return requestBytes;
+    }
+
+    public long getResponseBytes() {
+        return responseBytes;
+    }
+
+    /**
+     * Get the time from the request to the first response headers.
+     *
+     * @return the nanos, or {@code -1} if there was no response
+     */
+    public long getFirstByteNanos() {
+        return firstByteNanos;
+    }
+
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+
+    /**
+     * Check if the request was ended without a complete response, because the stream was reset
+     * or the connection was closed.
+     *
+     * @return {@code true} if the request was aborted
+     */
+    public boolean isAborted() {
+        return aborted;
+    }
+}
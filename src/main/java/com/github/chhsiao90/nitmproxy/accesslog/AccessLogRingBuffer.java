@@ -0,0 +1,110 @@
+package com.github.chhsiao90.nitmproxy.accesslog;
+
+import static io.netty.util.internal.MathUtil.safeFindNextPositivePowerOfTwo;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * A bounded buffer of access log records, written by all the event loops and read by one writer
+ * thread.
+ *
+ * <p>The slots are records allocated once, a record is copied into a slot instead of passing the
+ * record itself. Each slot has a sequence which tells whether it's free for the producer of a
+ * position or published for the consumer, so neither side takes a lock. A record is dropped and
+ * counted if the buffer is full, an event loop never waits for the writer.</p>
+ */
+public class AccessLogRingBuffer {
+    private final AccessLogRecord[] slots;
+    private final AtomicLongArray sequences;
+    private final int mask;
+
+    private final AtomicLong tail = new AtomicLong();
+    private final LongAdder dropped = new LongAdder();
+
+    // Only read by the consumer
+    private long head;
+
+    /**
+     * Create the ring buffer.
+     *
+     * @param capacity the number of records, rounded up to a power of two
+     */
+    public AccessLogRingBuffer(int capacity) {
+        int size = safeFindNextPositivePowerOfTwo(capacity);
+        slots = new AccessLogRecord[size];
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            slots[i] = new AccessLogRecord();
+            sequences.set(i, i);
+        }
+        mask = size - 1;
+    }
+
+    public int capacity() {
+        return slots.length;
+    }
+
+    /**
+     * Copy the record into the buffer, or drop it if the buffer is full.
+     *
+     * @param record the record
+     * @return {@code true} if the record was added
+     */
+    public boolean offer(AccessLogRecord record) {
+        while (true) {
+            long position = tail.get();
+            int index = (int) position & mask;
+            long sequence = sequences.get(index);
+            if (sequence == position) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    slots[index].copyFrom(record);
+                    sequences.lazySet(index, position + 1);
+                    return true;
+                }
+            } else if (sequence < position) {
+                // The slot of the last round wasn't consumed yet
+                dropped.increment();
+                return false;
+            }
+            // Another producer took the position, try the next one
+        }
+    }
+
+    /**
+     * Pass the published records to the consumer, in the order they were added. It must only be
+     * called by one thread.
+     *
+     * @param consumer the consumer, the record is only valid during the call
+     * @return the number of the records
+     */
+    public int drain(Consumer<AccessLogRecord> consumer) {
+        int count = 0;
+        while (true) {
+            int index = (int) head & mask;
+            if (sequences.get(index) != head + 1) {
+                return count;
+            }
+            AccessLogRecord record = slots[index];
+            try {
+                consumer.accept(record);
+            } finally {
+                record.clear();
+                sequences.lazySet(index, head + slots.length);
+                head++;
+                count++;
+            }
+        }
+    }
+
+    /**
+     * Get the number of the records dropped because the buffer was full.
+     *
+     * @return the number of the dropped records
+     */
+    public long dropped() {
+        return dropped.sum();
+    }
+}
@@ -0,0 +1,207 @@
+package com.github.chhsiao90.nitmproxy.accesslog;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Drains the {@link AccessLogRingBuffer} on a background thread, and writes the records as JSON
+ * lines to a file.
+ *
+ * <p>The file is rolled when it exceeds the max file size, {@code access.log} is renamed to
+ * {@code access.log.1}, {@code access.log.1} to {@code access.log.2} and so on, the oldest one is
+ * deleted.</p>
+ */
+public class AccessLogWriter implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(AccessLogWriter.class);
+
+    private static final long IDLE_PARK_NANOS = MILLISECONDS.toNanos(1);
+
+    private final AccessLogRingBuffer ringBuffer;
+    private final File file;
+    private final long maxFileSize;
+    private final int maxFiles;
+    private final Thread thread;
+    private final StringBuilder line = new StringBuilder(256);
+
+    private volatile boolean running;
+    private Writer writer;
+    private long fileSize;
+    private long reportedDropped;
+
+    /**
+     * Create the writer.
+     *
+     * @param ringBuffer the ring buffer to drain
+     * @param file the access log file
+     * @param maxFileSize the max size of a file, counted in characters
+     * @param maxFiles the max number of the rolled files to keep
+     */
+    public AccessLogWriter(AccessLogRingBuffer ringBuffer, File file, long maxFileSize,
+                           int maxFiles) {
+        this.ringBuffer = ringBuffer;
+        this.file = file;
+        this.maxFileSize = maxFileSize;
+        this.maxFiles = maxFiles;
+        this.thread = new Thread(this::run, "nitmproxy-access-log");
+        this.thread.setDaemon(true);
+    }
+
+    /**
+     * Open the file and start the writer thread.
+     *
+     * @throws IOException if the file cannot be opened
+     */
+    public void start() throws IOException {
+        open();
+        running = true;
+        thread.start();
+    }
+
+    /**
+     * Stop the writer thread after all the added records were written, and close the file.
+     */
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        try {
+            while (running) {
+                if (ringBuffer.drain(this::write) == 0) {
+                    writer.flush();
+                    reportDropped();
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                }
+            }
+            ringBuffer.drain(this::write);
+        } catch (IOException | UncheckedIOException e) {
+            LOGGER.error("Access log stopped with failure on " + file, e);
+        } finally {
+            closeWriter();
+        }
+    }
+
+    private void write(AccessLogRecord record) {
+        line.setLength(0);
+        format(record, line);
+        line.append('\n');
+        try {
+            if (fileSize + line.length() > maxFileSize && fileSize > 0) {
+                roll();
+            }
+            writer.append(line);
+            fileSize += line.length();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static void format(AccessLogRecord record, StringBuilder line) {
+        line.append("{\"timestamp\":").append(record.getTimestamp());
+        appendString(line.append(",\"client\":"), record.getClientAddr());
+        appendString(line.append(",\"host\":"), record.getServerAddr());
+        appendString(line.append(",\"protocol\":"), record.getProtocol());
+        appendString(line.append(",\"method\":"), record.getMethod());
+        appendString(line.append(",\"uri\":"), record.getUri());
+        line.append(",\"status\":").append(record.getStatus());
+        line.append(",\"requestBytes\":").append(record.getRequestBytes());
+        line.append(",\"responseBytes\":").append(record.getResponseBytes());
+        line.append(",\"firstByteMicros\":").append(toMicros(record.getFirstByteNanos()));
+        line.append(",\"durationMicros\":").append(toMicros(record.getDurationNanos()));
+        line.append(",\"aborted\":").append(record.isAborted());
+        line.append('}');
+    }
+
+    private static long toMicros(long nanos) {
+        return nanos < 0 ? -1 : NANOSECONDS.toMicros(nanos);
+    }
+
+    private static void appendString(StringBuilder line, Object value) {
+        if (value == null) {
+            line.append("null");
+            return;
+        }
+        CharSequence chars = value instanceof CharSequence
+                ? (CharSequence) value : value.toString();
+        line.append('"');
+        for (int i = 0; i < chars.length(); i++) {
+            char c = chars.charAt(i);
+            if (c == '"' || c == '\\') {
+                line.append('\\').append(c);
+            } else if (c < 0x20) {
+                line.append(String.format("\\u%04x", (int) c));
+            } else {
+                line.append(c);
+            }
+        }
+        line.append('"');
+    }
+
+    private void reportDropped() {
+        long dropped = ringBuffer.dropped();
+        if (dropped > reportedDropped) {
+            LOGGER.warn("{} access log records dropped, {} in total",
+                        dropped - reportedDropped, dropped);
+            reportedDropped = dropped;
+        }
+    }
+
+    private void open() throws IOException {
+        writer = new BufferedWriter(
+                new OutputStreamWriter(new FileOutputStream(file, true), UTF_8), 64 * 1024);
+        fileSize = file.length();
+    }
+
+    private void roll() throws IOException {
+        writer.close();
+        for (int i = maxFiles; i >= 1; i--) {
+            File from = i == 1 ? file : rolledFile(i - 1);
+            File to = rolledFile(i);
+            if (from.exists()) {
+                if (to.exists() && !to.delete()) {
+                    throw new IOException("Cannot delete " + to);
+                }
+                if (!from.renameTo(to)) {
+                    throw new IOException("Cannot rename " + from);
+                }
+            }
+        }
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Cannot delete " + file);
+        }
+        open();
+    }
+
+    private File rolledFile(int index) {
+        return new File(file.getPath() + "." + index);
+    }
+
+    private void closeWriter() {
+        try {
+            writer.close();
+        } catch (IOException e) {
+            LOGGER.warn("Cannot close access log " + file, e);
+        }
+    }
+}
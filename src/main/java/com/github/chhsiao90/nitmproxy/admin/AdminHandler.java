@@ -0,0 +1,69 @@
+package com.github.chhsiao90.nitmproxy.admin;
+
+import static io.netty.handler.codec.http.HttpHeaderNames.CONTENT_LENGTH;
+import static io.netty.handler.codec.http.HttpHeaderNames.CONTENT_TYPE;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.github.chhsiao90.nitmproxy.metrics.PrometheusExporter;
+
+import java.nio.CharBuffer;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.QueryStringDecoder;
+
+/**
+ * Serves {@code GET /metrics} with the metrics in the text format of Prometheus.
+ */
+public class AdminHandler extends SimpleChannelInboundHandler<FullHttpRequest> {
+    public static final String METRICS_PATH = "/metrics";
+
+    private final PrometheusExporter exporter;
+
+    public AdminHandler(PrometheusExporter exporter) {
+        this.exporter = exporter;
+    }
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, FullHttpRequest request)
+            throws Exception {
+        FullHttpResponse response;
+        if (!METRICS_PATH.equals(new QueryStringDecoder(request.uri()).path())) {
+            response = response(ctx, request, HttpResponseStatus.NOT_FOUND, "Not Found\n");
+        } else if (request.method() != HttpMethod.GET) {
+            response = response(ctx, request, HttpResponseStatus.METHOD_NOT_ALLOWED,
+                                "Method Not Allowed\n");
+        } else {
+            StringBuilder metrics = new StringBuilder(4096);
+            exporter.export(metrics);
+            response = response(ctx, request, HttpResponseStatus.OK, metrics);
+            response.headers().set(CONTENT_TYPE, PrometheusExporter.CONTENT_TYPE);
+        }
+        boolean keepAlive = HttpUtil.isKeepAlive(request);
+        HttpUtil.setKeepAlive(response, keepAlive);
+        if (keepAlive) {
+            ctx.writeAndFlush(response);
+        } else {
+            ctx.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
+        }
+    }
+
+    private static FullHttpResponse response(ChannelHandlerContext ctx, FullHttpRequest request,
+                                             HttpResponseStatus status, CharSequence body) {
+        ByteBuf content = ByteBufUtil.encodeString(ctx.alloc(), CharBuffer.wrap(body), UTF_8);
+        FullHttpResponse response =
+                new DefaultFullHttpResponse(request.protocolVersion(), status, content);
+        response.headers().set(CONTENT_TYPE, "text/plain; charset=utf-8");
+        response.headers().setInt(CONTENT_LENGTH, content.readableBytes());
+        return response;
+    }
+}
@@ -0,0 +1,29 @@
+package com.github.chhsiao90.nitmproxy.admin;
+
+import com.github.chhsiao90.nitmproxy.metrics.PrometheusExporter;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInitializer;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpServerCodec;
+
+/**
+ * Initializes the channels of the admin listener, which serves the metrics over HTTP/1.1.
+ */
+public class AdminInitializer extends ChannelInitializer<Channel> {
+    private static final int MAX_CONTENT_LENGTH = 64 * 1024;
+
+    private final PrometheusExporter exporter;
+
+    public AdminInitializer(PrometheusExporter exporter) {
+        this.exporter = exporter;
+    }
+
+    @Override
+    protected void initChannel(Channel channel) throws Exception {
+        channel.pipeline().addLast(
+                new HttpServerCodec(),
+                new HttpObjectAggregator(MAX_CONTENT_LENGTH),
+                new AdminHandler(exporter));
+    }
+}
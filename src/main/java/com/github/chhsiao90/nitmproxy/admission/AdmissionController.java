@@ -0,0 +1,140 @@
+package com.github.chhsiao90.nitmproxy.admission;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import com.github.chhsiao90.nitmproxy.NitmProxyConfig;
+import com.github.chhsiao90.nitmproxy.metrics.EventLoopMonitor;
+import com.github.chhsiao90.nitmproxy.metrics.ProxyMetrics;
+import com.github.chhsiao90.nitmproxy.metrics.RejectReason;
+
+import java.net.InetAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.netty.channel.Channel;
+
+/**
+ * Decides whether a new client is served, before any work is done for it.
+ *
+ * <p>The number of connections of the proxy and of each client address, and the number of the TLS
+ * handshakes with the clients in progress are limited by {@link NitmProxyConfig}. New connections
+ * are also shed when their event loop lags behind more than
+ * {@link NitmProxyConfig#getShedEventLoopLagMillis()}, a growing share of them as the lag grows,
+ * and all of them when the lag is twice the threshold. So the proxy keeps serving the connections
+ * it has, instead of slowing down every one of them.</p>
+ *
+ * <p>The counters are only maintained for the enabled limits.</p>
+ */
+public class AdmissionController {
+    private final NitmProxyConfig config;
+    private final EventLoopMonitor eventLoopMonitor;
+
+    private final AtomicInteger connections = new AtomicInteger();
+    private final Map<InetAddress, Integer> clientConnections = new ConcurrentHashMap<>();
+    private final AtomicInteger handshakes = new AtomicInteger();
+
+    /**
+     * Create the controller.
+     *
+     * @param config the config
+     * @param eventLoopMonitor the monitor of the event loops, or {@code null} if not monitored
+     */
+    public AdmissionController(NitmProxyConfig config, EventLoopMonitor eventLoopMonitor) {
+        this.config = config;
+        this.eventLoopMonitor = eventLoopMonitor;
+    }
+
+    /**
+     * Admit a new client channel, the channel is counted until it's closed.
+     *
+     * @param channel the client channel
+     * @param clientAddress the address of the client
+     * @return the reason if the client is rejected, or {@code null} if admitted
+     */
+    public RejectReason admit(Channel channel, InetAddress clientAddress) {
+        RejectReason reason = tryAdmit(channel, clientAddress);
+        if (reason != null) {
+            ProxyMetrics.global().onRejected(reason);
+        }
+        return reason;
+    }
+
+    private RejectReason tryAdmit(Channel channel, InetAddress clientAddress) {
+        if (shouldShed(channel)) {
+            return RejectReason.EVENT_LOOP_LAG;
+        }
+        int maxConnections = config.getMaxConnections();
+        if (maxConnections > 0 && connections.incrementAndGet() > maxConnections) {
+            connections.decrementAndGet();
+            return RejectReason.CONNECTIONS;
+        }
+        int maxConnectionsPerClient = config.getMaxConnectionsPerClient();
+        if (maxConnectionsPerClient > 0
+            && clientConnections.merge(clientAddress, 1, Integer::sum) > maxConnectionsPerClient) {
+            release(clientAddress);
+            if (maxConnections > 0) {
+                connections.decrementAndGet();
+            }
+            return RejectReason.CLIENT_CONNECTIONS;
+        }
+        if (maxConnections > 0 || maxConnectionsPerClient > 0) {
+            channel.closeFuture().addListener(ignore -> {
+                if (maxConnections > 0) {
+                    connections.decrementAndGet();
+                }
+                if (maxConnectionsPerClient > 0) {
+                    release(clientAddress);
+                }
+            });
+        }
+        return null;
+    }
+
+    private void release(InetAddress clientAddress) {
+        clientConnections.computeIfPresent(clientAddress, (address, count) -> count > 1 ? count - 1 : null);
+    }
+
+    private boolean shouldShed(Channel channel) {
+        long thresholdNanos = MILLISECONDS.toNanos(config.getShedEventLoopLagMillis());
+        if (eventLoopMonitor == null || thresholdNanos <= 0) {
+            return false;
+        }
+        long overNanos = eventLoopMonitor.lagNanos(channel.eventLoop()) - thresholdNanos;
+        return overNanos > 0 && ThreadLocalRandom.current().nextLong(thresholdNanos) < overNanos;
+    }
+
+    /**
+     * Start a TLS handshake with a client, {@link #onHandshakeDone()} must be called when the
+     * handshake started is done.
+     *
+     * @return {@code true} if the handshake could start
+     */
+    public boolean tryStartHandshake() {
+        int maxHandshakes = config.getMaxClientHandshakes();
+        if (maxHandshakes <= 0) {
+            return true;
+        }
+        if (handshakes.incrementAndGet() > maxHandshakes) {
+            handshakes.decrementAndGet();
+            ProxyMetrics.global().onRejected(RejectReason.HANDSHAKES);
+            return false;
+        }
+        return true;
+    }
+
+    public void onHandshakeDone() {
+        if (config.getMaxClientHandshakes() > 0) {
+            handshakes.decrementAndGet();
+        }
+    }
+
+    public int connections() {
+        return connections.get();
+    }
+
+    public int handshakes() {
+        return handshakes.get();
+    }
+}
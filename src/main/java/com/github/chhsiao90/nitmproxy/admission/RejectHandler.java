@@ -0,0 +1,78 @@
+package com.github.chhsiao90.nitmproxy.admission;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+import com.github.chhsiao90.nitmproxy.enums.ProxyMode;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandler.Sharable;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.util.ReferenceCountUtil;
+
+/**
+ * Answers a rejected client with the failure of its proxy protocol, and closes the connection.
+ *
+ * <p>The first bytes of the client are waited for, so the answer isn't lost by a reset of the
+ * connection closed with unread bytes, but they are never decoded, the answers are prebuilt
+ * buffers. A HTTP client gets a {@code 503}, a SOCKS client gets the failure of the version it
+ * speaks.</p>
+ */
+@Sharable
+public class RejectHandler extends ChannelInboundHandlerAdapter {
+    private static final ByteBuf SERVICE_UNAVAILABLE = Unpooled.unreleasableBuffer(Unpooled.copiedBuffer(
+            "HTTP/1.1 503 Service Unavailable\r\nContent-Length: 0\r\nConnection: close\r\n\r\n",
+            US_ASCII));
+    // Request rejected or failed
+    private static final ByteBuf SOCKS4_REJECTED = Unpooled.unreleasableBuffer(Unpooled.wrappedBuffer(
+            new byte[] { 0x00, 0x5b, 0, 0, 0, 0, 0, 0 }));
+    // No acceptable methods
+    private static final ByteBuf SOCKS5_REJECTED = Unpooled.unreleasableBuffer(Unpooled.wrappedBuffer(
+            new byte[] { 0x05, (byte) 0xff }));
+
+    private static final RejectHandler HTTP = new RejectHandler(ProxyMode.HTTP);
+    private static final RejectHandler SOCKS = new RejectHandler(ProxyMode.SOCKS);
+
+    private final ProxyMode proxyMode;
+
+    private RejectHandler(ProxyMode proxyMode) {
+        this.proxyMode = proxyMode;
+    }
+
+    public static RejectHandler of(ProxyMode proxyMode) {
+        return proxyMode == ProxyMode.SOCKS ? SOCKS : HTTP;
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+        ByteBuf answer = answer(msg);
+        ReferenceCountUtil.release(msg);
+        // The following reads of the same batch are dropped by the tail of the pipeline
+        ctx.pipeline().remove(this);
+        if (answer == null) {
+            ctx.close();
+        } else {
+            ctx.writeAndFlush(answer.duplicate()).addListener(ChannelFutureListener.CLOSE);
+        }
+    }
+
+    private ByteBuf answer(Object msg) {
+        if (proxyMode == ProxyMode.HTTP) {
+            return SERVICE_UNAVAILABLE;
+        }
+        if (!(msg instanceof ByteBuf) || !((ByteBuf) msg).isReadable()) {
+            return null;
+        }
+        ByteBuf buf = (ByteBuf) msg;
+        switch (buf.getByte(buf.readerIndex())) {
+        case 4:
+            return SOCKS4_REJECTED;
+        case 5:
+            return SOCKS5_REJECTED;
+        default:
+            return null;
+        }
+    }
+}
@@ -1,21 +1,184 @@
 package com.github.chhsiao90.nitmproxy.channel;
 
+import com.github.chhsiao90.nitmproxy.Address;
 import com.github.chhsiao90.nitmproxy.ConnectionContext;
 import com.github.chhsiao90.nitmproxy.NitmProxyMaster;
+import com.github.chhsiao90.nitmproxy.exception.OriginUnavailableException;
+import com.github.chhsiao90.nitmproxy.metrics.ProxyMetrics;
+import com.github.chhsiao90.nitmproxy.metrics.Stage;
+import com.github.chhsiao90.nitmproxy.metrics.TimeoutType;
+import com.github.chhsiao90.nitmproxy.timeout.Deadline;
+
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.util.List;
 
 import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.ConnectTimeoutException;
+import io.netty.channel.DefaultChannelPromise;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.resolver.DefaultAddressResolverGroup;
 
+/**
+ * Connects the server channels, the address is resolved before connecting, so the time of
+ * {@link Stage#DNS} and {@link Stage#BACKEND_CONNECT} could be recorded separately.
+ *
+ * <p>The timeout of the channel option is replaced by a {@link Deadline} of
+ * {@link com.github.chhsiao90.nitmproxy.NitmProxyConfig#getConnectTimeoutMillis()}, which covers
+ * both the resolving and the connecting, and doesn't schedule a task in the event loop. The other
+ * socket options are of the {@link SocketProfile} of the server host.</p>
+ *
+ * <p>The connections are guarded by the circuits of {@link OriginHealth}, an origin with an open
+ * circuit fails fast without a socket, and the ejected addresses of an origin are skipped. Only the
+ * failures of the origins count, not the connects closed by the proxy, see
+ * {@link OriginHealth#isFailure(Throwable)}. The addresses of a multi-homed origin are raced by
+ * {@link ConnectRace}, and the pipeline of the server is built on the channel which wins it.
+ * The future of the connecting is handed out at once, so its channel is the server channel until
+ * the race is won, the channel of the completed future is the one connected. The messages written
+ * before are held by a {@link DeferredWriteHandler} until then.</p>
+ */
 public class BackendChannelBootstrap {
     public ChannelFuture connect(ChannelHandlerContext fromCtx, NitmProxyMaster master, ConnectionContext connectionContext,
                                  ChannelHandler handler) {
-        return new Bootstrap()
+        Address address = connectionContext.getServerAddr();
+        OriginHealth originHealth = master.originHealth();
+        if (!originHealth.tryAcquire(address, System.nanoTime())) {
+            ProxyMetrics.global().onCircuitRejected();
+            ProxyMetrics.global().server().onFailed();
+            return failFast(address);
+        }
+        Bootstrap bootstrap = new Bootstrap()
                 .group(fromCtx.channel().eventLoop())
                 .channel(fromCtx.channel().getClass())
-                .handler(handler)
-                .connect(connectionContext.getServerAddr().getHost(),
-                         connectionContext.getServerAddr().getPort());
+                .option(ChannelOption.ALLOCATOR, fromCtx.alloc())
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, 0);
+        SocketProfile.backend(connectionContext.config(), address.getHost())
+                     .apply(bootstrap, Transport.of(fromCtx.channel()),
+                            connectionContext.config().isBackendTcpFastOpen());
+        // The pipeline is built on the channel which wins the connect race
+        DeferredWriteHandler deferredWrites = new DeferredWriteHandler();
+        ChannelFuture registerFuture = bootstrap.handler(deferredWrites).register();
+        Channel channel = registerFuture.channel();
+        ConnectPromise promise = new ConnectPromise(channel);
+        promise.addListener(connected -> {
+            if (connected.isSuccess()) {
+                originHealth.onSuccess(address);
+                return;
+            }
+            ProxyMetrics.global().server().onFailed();
+            if (!OriginHealth.isFailure(connected.cause())) {
+                originHealth.onCancelled(address);
+            } else if (originHealth.onFailure(address, System.nanoTime())) {
+                ProxyMetrics.global().onCircuitOpened();
+            }
+        });
+        registerFuture.addListener(registered -> {
+            if (!registered.isSuccess()) {
+                fail(channel, promise, registered.cause());
+                return;
+            }
+            long timeoutMillis = connectionContext.config().getConnectTimeoutMillis();
+            Deadline deadline = Deadline.schedule(channel, TimeoutType.CONNECT, timeoutMillis,
+                    () -> fail(channel, promise, new ConnectTimeoutException(
+                            "connection timed out after " + timeoutMillis + "ms: " + address)));
+            promise.addListener(ignore -> deadline.cancel());
+            long resolveStart = System.nanoTime();
+            DefaultAddressResolverGroup.INSTANCE.getResolver(channel.eventLoop())
+                    .resolveAll(InetSocketAddress.createUnresolved(address.getHost(), address.getPort()))
+                    .addListener(resolved -> {
+                        if (!resolved.isSuccess()) {
+                            fail(channel, promise, resolved.cause());
+                            return;
+                        }
+                        if (promise.isDone()) {
+                            return;
+                        }
+                        connectionContext.timings().record(Stage.DNS, address, resolveStart);
+                        long connectStart = System.nanoTime();
+                        @SuppressWarnings("unchecked")
+                        List<InetSocketAddress> resolvedAddresses = originHealth.order(originHealth.available(
+                                (List<InetSocketAddress>) resolved.getNow(), connectStart));
+                        ConnectRace.start(channel, bootstrap, promise, resolvedAddresses, originHealth,
+                                          connectionContext.config().getConnectAttemptDelayMillis())
+                                   .addListener(raced -> {
+                                       if (!raced.isSuccess()) {
+                                           fail(channel, promise, raced.cause());
+                                           return;
+                                       }
+                                       Channel connected = (Channel) raced.getNow();
+                                       if (!fromCtx.channel().isActive()) {
+                                           // The client went away during the race
+                                           connected.close();
+                                           fail(channel, promise, new ClosedChannelException());
+                                           return;
+                                       }
+                                       initPipeline(connected, connectionContext, handler);
+                                       deferredWrites.forward(connected);
+                                       if (connected != channel) {
+                                           channel.close();
+                                       }
+                                       connectionContext.timings().record(
+                                               Stage.BACKEND_CONNECT, address, connectStart);
+                                       promise.connected(connected).trySuccess();
+                                   });
+                    });
+        });
+        return promise;
+    }
+
+    /**
+     * Build the pipeline of the server on the connected channel, before it's active, so the
+     * handlers are notified of its activation.
+     */
+    private static void initPipeline(Channel channel, ConnectionContext connectionContext,
+                                     ChannelHandler handler) {
+        channel.pipeline().addLast(ProxyMetrics.global().server().handler());
+        if (connectionContext.idleTimeoutHandler() != null) {
+            channel.pipeline().addLast(connectionContext.idleTimeoutHandler());
+        }
+        channel.pipeline().addLast(handler);
+    }
+
+    private static ChannelFuture failFast(Address address) {
+        // A channel without a socket, which is cheap to fail
+        Channel channel = new EmbeddedChannel();
+        channel.close();
+        return channel.newFailedFuture(
+                new OriginUnavailableException("Circuit of " + address + " is open"));
+    }
+
+    private static void fail(Channel channel, ChannelPromise promise, Throwable cause) {
+        // Failed before closing, or the promise would be failed by the closing of the connect
+        promise.tryFailure(cause);
+        channel.close();
+    }
+
+    /**
+     * The promise of connecting a server channel, which is handed out before the connect race is
+     * won, its channel is then the one which won.
+     */
+    private static class ConnectPromise extends DefaultChannelPromise {
+        private volatile Channel connected;
+
+        private ConnectPromise(Channel channel) {
+            super(channel);
+        }
+
+        private ConnectPromise connected(Channel connected) {
+            this.connected = connected;
+            return this;
+        }
+
+        @Override
+        public Channel channel() {
+            Channel channel = connected;
+            return channel == null ? super.channel() : channel;
+        }
     }
 }
@@ -0,0 +1,50 @@
+package com.github.chhsiao90.nitmproxy.channel;
+
+import com.github.chhsiao90.nitmproxy.NitmProxyConfig;
+
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.UnpooledByteBufAllocator;
+
+/**
+ * Creates the buffer allocator of the channels of the proxy from {@link NitmProxyConfig}.
+ *
+ * <p>The allocator is set to the listener and to the client channels, the server channels take the
+ * allocator of their client channel. With the defaults, it's the default allocator of netty, which
+ * is shared with the rest of the process.</p>
+ */
+public class BufferAllocators {
+
+    /**
+     * Create the allocator.
+     *
+     * @param config the config
+     * @return the allocator
+     */
+    public static ByteBufAllocator create(NitmProxyConfig config) {
+        if (!config.isPooledAllocator()) {
+            return new UnpooledByteBufAllocator(config.isPreferDirectBuffers());
+        }
+        if (config.isPreferDirectBuffers() == PooledByteBufAllocator.defaultPreferDirect()
+            && config.getAllocatorHeapArenas() < 0
+            && config.getAllocatorDirectArenas() < 0
+            && config.getAllocatorPageSize() < 0
+            && config.getAllocatorMaxOrder() < 0
+            && ByteBufAllocator.DEFAULT instanceof PooledByteBufAllocator) {
+            return ByteBufAllocator.DEFAULT;
+        }
+        return new PooledByteBufAllocator(
+                config.isPreferDirectBuffers(),
+                orDefault(config.getAllocatorHeapArenas(), PooledByteBufAllocator.defaultNumHeapArena()),
+                orDefault(config.getAllocatorDirectArenas(), PooledByteBufAllocator.defaultNumDirectArena()),
+                orDefault(config.getAllocatorPageSize(), PooledByteBufAllocator.defaultPageSize()),
+                orDefault(config.getAllocatorMaxOrder(), PooledByteBufAllocator.defaultMaxOrder()),
+                PooledByteBufAllocator.defaultSmallCacheSize(),
+                PooledByteBufAllocator.defaultNormalCacheSize(),
+                PooledByteBufAllocator.defaultUseCacheForAllThreads());
+    }
+
+    private static int orDefault(int value, int defaultValue) {
+        return value < 0 ? defaultValue : value;
+    }
+}
@@ -0,0 +1,121 @@
+package com.github.chhsiao90.nitmproxy.channel;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Tracks the consecutive failures of connecting to an origin or to one of its addresses.
+ *
+ * <p>The circuit is {@link State#CLOSED} while the connections succeed, and is
+ * {@link State#OPEN} after the failure threshold is reached, then the connections fail fast until
+ * the open duration elapsed. After that the circuit is {@link State#HALF_OPEN}, a single connection
+ * is let through as a probe, which closes the circuit if it succeeds or opens it again if not.</p>
+ *
+ * <p>The state is only changed by compare and set, so the event loops never wait for each
+ * other.</p>
+ */
+public class CircuitBreaker {
+
+    /**
+     * The states of a circuit.
+     */
+    public enum State {
+        /** The connections are let through. */
+        CLOSED,
+        /** The connections fail fast. */
+        OPEN,
+        /** A probe connection is in progress. */
+        HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long openNanos;
+
+    private final AtomicReference<State> state = new AtomicReference<>(State.CLOSED);
+    private final AtomicInteger failures = new AtomicInteger();
+    private volatile long retryNanos;
+
+    /**
+     * Create the circuit breaker.
+     *
+     * @param failureThreshold the consecutive failures to open the circuit, never opened if not
+     *                         positive
+     * @param openNanos how long the circuit is open before a probe is let through
+     */
+    public CircuitBreaker(int failureThreshold, long openNanos) {
+        this.failureThreshold = failureThreshold;
+        this.openNanos = openNanos;
+    }
+
+    public State state() {
+        return state.get();
+    }
+
+    /**
+     * Try to connect, the result must be reported by {@link #onSuccess()} or
+     * {@link #onFailure(long)} if it's allowed.
+     *
+     * @param now the current {@link System#nanoTime()}
+     * @return {@code true} if the connection is allowed
+     */
+    public boolean tryAcquire(long now) {
+        switch (state.get()) {
+        case CLOSED:
+            return true;
+        case OPEN:
+            return now - retryNanos >= 0 && state.compareAndSet(State.OPEN, State.HALF_OPEN);
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Check if the circuit is open, without taking the probe of a half-open circuit.
+     *
+     * @param now the current {@link System#nanoTime()}
+     * @return {@code true} if the connections should be avoided
+     */
+    public boolean isOpen(long now) {
+        State current = state.get();
+        return current == State.HALF_OPEN || (current == State.OPEN && now - retryNanos < 0);
+    }
+
+    public void onSuccess() {
+        if (failures.get() != 0) {
+            failures.set(0);
+        }
+        if (state.get() != State.CLOSED) {
+            state.set(State.CLOSED);
+        }
+    }
+
+    /**
+     * Report a connection which was given up before its result was known, a probe of the half-open
+     * circuit is let through again.
+     */
+    public void onCancelled() {
+        state.compareAndSet(State.HALF_OPEN, State.OPEN);
+    }
+
+    /**
+     * Report a failure.
+     *
+     * @param now the current {@link System#nanoTime()}
+     * @return {@code true} if the circuit was opened by the failure
+     */
+    public boolean onFailure(long now) {
+        if (failureThreshold <= 0) {
+            return false;
+        }
+        State current = state.get();
+        if (current == State.OPEN && now - retryNanos < 0) {
+            return false;
+        }
+        if (current == State.CLOSED && failures.incrementAndGet() < failureThreshold) {
+            return false;
+        }
+        retryNanos = now + openNanos;
+        // An expired open circuit, of an address which is tried again without a probe
+        return current == State.OPEN || state.compareAndSet(current, State.OPEN);
+    }
+}
@@ -0,0 +1,169 @@
+package com.github.chhsiao90.nitmproxy.channel;
+
+import com.github.chhsiao90.nitmproxy.metrics.ProxyMetrics;
+import com.github.chhsiao90.nitmproxy.timeout.Deadline;
+
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.Promise;
+
+/**
+ * Connects a server channel to the resolved addresses of its origin, racing them in the way of the
+ * Happy Eyeballs of RFC 8305, so a broken IPv6 path or a dead address is found out after a delay
+ * instead of a connect timeout.
+ *
+ * <p>The server channel connects to the first address of {@link OriginHealth#order(List)} at once,
+ * so an origin which answers in time costs a single handshake. If it's not connected after
+ * {@link com.github.chhsiao90.nitmproxy.NitmProxyConfig#getConnectAttemptDelayMillis()}, the next
+ * address is attempted, and so on after every delay or as soon as an attempt fails. A channel is
+ * bound to its socket, so the attempts are other channels of the same bootstrap, with the same
+ * socket options and allocator. The first channel connected wins and is kept, the pipeline of the
+ * server is built on it by {@link BackendChannelBootstrap}, and the others are closed. The outcomes
+ * of the attempts are reported to {@link OriginHealth}, an attempt which connects before the server
+ * channel overtakes it, the first address is then tried after the winner by the next connections to
+ * the origin.</p>
+ *
+ * <p>All the attempts are bound to the event loop of the server channel.</p>
+ */
+class ConnectRace {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ConnectRace.class);
+
+    private final Channel channel;
+    private final Bootstrap bootstrap;
+    private final Promise<Channel> winner;
+    private final List<InetSocketAddress> addresses;
+    private final OriginHealth originHealth;
+    private final long delayMillis;
+
+    private final List<Channel> attempts = new ArrayList<>(1);
+    private int next;
+    private int failed;
+    private Deadline delay;
+    // The server channel failed to connect, and is closed by itself
+    private boolean channelFailed;
+    private boolean done;
+
+    private ConnectRace(Channel channel, Bootstrap bootstrap, List<InetSocketAddress> addresses,
+                        OriginHealth originHealth, long delayMillis) {
+        this.channel = channel;
+        this.bootstrap = bootstrap;
+        this.winner = channel.eventLoop().newPromise();
+        this.addresses = addresses;
+        this.originHealth = originHealth;
+        this.delayMillis = delayMillis;
+    }
+
+    /**
+     * Connect the server channel to the addresses.
+     *
+     * @param channel the registered server channel, which is not connecting yet
+     * @param bootstrap the bootstrap of the server channel, the other attempts are its clones
+     * @param promise the promise of the connecting of the server channel, the race is given up when
+     *                it's done
+     * @param addresses the addresses in the order to connect to
+     * @param originHealth the health of the origins
+     * @param delayMillis the delay before the next attempt, never raced if not positive
+     * @return the future of the connected channel, either the server channel or one of the other
+     *         attempts, failed if all the attempts failed or the race was given up. The channels
+     *         which lost are closed, except the server channel, which is up to the caller.
+     */
+    static Future<Channel> start(Channel channel, Bootstrap bootstrap, Future<?> promise,
+                                 List<InetSocketAddress> addresses, OriginHealth originHealth,
+                                 long delayMillis) {
+        ConnectRace race = new ConnectRace(channel, bootstrap, addresses, originHealth, delayMillis);
+        promise.addListener(done -> race.finish(done.cause()));
+        channel.closeFuture().addListener(ignore -> {
+            if (!race.channelFailed) {
+                // Closed by the proxy, e.g. the client went away
+                race.finish(new ClosedChannelException());
+            }
+        });
+        race.attemptNext();
+        return race.winner;
+    }
+
+    private void attemptNext() {
+        if (done || next >= addresses.size()) {
+            return;
+        }
+        int index = next++;
+        InetSocketAddress address = addresses.get(index);
+        ChannelFuture attempt;
+        if (index == 0) {
+            attempt = channel.connect(address);
+        } else {
+            if (index == 1) {
+                ProxyMetrics.global().onConnectRace();
+            }
+            LOGGER.debug("{} : racing {} against {}", channel, address, addresses.get(0));
+            attempt = bootstrap.clone().handler(new ChannelInboundHandlerAdapter()).connect(address);
+            attempts.add(attempt.channel());
+        }
+        attempt.addListener(connected -> onAttemptDone(attempt.channel(), index, connected.cause()));
+        if (delayMillis > 0 && next < addresses.size()) {
+            delay = Deadline.delay(channel, delayMillis, this::attemptNext);
+        }
+    }
+
+    private void onAttemptDone(Channel attempt, int index, Throwable cause) {
+        if (done) {
+            // Closed by the finishing of the race
+            return;
+        }
+        if (cause != null) {
+            if (!OriginHealth.isFailure(cause)) {
+                // Closed by the proxy
+                finish(cause);
+                return;
+            }
+            channelFailed |= attempt == channel;
+            if (originHealth.onFailure(addresses.get(index), System.nanoTime())) {
+                ProxyMetrics.global().onEjected();
+            }
+            if (++failed == addresses.size()) {
+                finish(cause);
+                return;
+            }
+            if (delay != null) {
+                delay.cancel();
+            }
+            attemptNext();
+            return;
+        }
+        InetSocketAddress address = addresses.get(index);
+        if (index > 0) {
+            LOGGER.debug("{} : overtaken by {}", channel, address);
+            ProxyMetrics.global().onConnectRaceOvertaken();
+            originHealth.onOvertaken(addresses.get(0));
+        }
+        originHealth.onSuccess(address);
+        attempts.remove(attempt);
+        finish(null);
+        winner.trySuccess(attempt);
+    }
+
+    private void finish(Throwable cause) {
+        if (done) {
+            return;
+        }
+        done = true;
+        if (delay != null) {
+            delay.cancel();
+        }
+        attempts.forEach(Channel::close);
+        if (cause != null) {
+            winner.tryFailure(cause);
+        }
+    }
+}
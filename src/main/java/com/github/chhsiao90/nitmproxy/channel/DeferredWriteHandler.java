@@ -0,0 +1,87 @@
+package com.github.chhsiao90.nitmproxy.channel;
+
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.PromiseNotifier;
+
+/**
+ * Holds the messages written to a server channel before it's connected. The pipeline of the
+ * server isn't built until the connect race is won, since another channel could win it, see
+ * {@link ConnectRace}. The messages are then written to the winner by {@link #forward(Channel)},
+ * or released and failed if the server channel is closed before.
+ */
+class DeferredWriteHandler extends ChannelOutboundHandlerAdapter {
+    private final Deque<Object> messages = new ArrayDeque<>(2);
+    private final Deque<ChannelPromise> promises = new ArrayDeque<>(2);
+    private ChannelHandlerContext ctx;
+    private boolean forwarded;
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) {
+        this.ctx = ctx;
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) {
+        messages.offer(msg);
+        promises.offer(promise);
+    }
+
+    @Override
+    public void flush(ChannelHandlerContext ctx) {
+        // Flushed when forwarded
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) {
+        if (forwarded) {
+            return;
+        }
+        ClosedChannelException cause = null;
+        while (!messages.isEmpty()) {
+            ReferenceCountUtil.release(messages.poll());
+            ChannelPromise promise = promises.poll();
+            if (!promise.isVoid()) {
+                if (cause == null) {
+                    cause = new ClosedChannelException();
+                }
+                promise.tryFailure(cause);
+            }
+        }
+    }
+
+    /**
+     * Remove the handler, and write the held messages to the channel which won the connect race,
+     * through the pipeline of the server which was built on it.
+     *
+     * @param connected the connected channel, either the server channel or another one
+     */
+    void forward(Channel connected) {
+        forwarded = true;
+        ctx.pipeline().remove(this);
+        if (messages.isEmpty()) {
+            return;
+        }
+        boolean sameChannel = connected == ctx.channel();
+        while (!messages.isEmpty()) {
+            Object msg = messages.poll();
+            ChannelPromise promise = promises.poll();
+            if (sameChannel) {
+                connected.write(msg, promise);
+            } else if (promise.isVoid()) {
+                connected.write(msg, connected.voidPromise());
+            } else {
+                connected.write(msg).addListener(new PromiseNotifier<Void, ChannelFuture>(promise));
+            }
+        }
+        connected.flush();
+    }
+}
@@ -0,0 +1,272 @@
+package com.github.chhsiao90.nitmproxy.channel;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import com.github.chhsiao90.nitmproxy.Address;
+import com.github.chhsiao90.nitmproxy.NitmProxyConfig;
+
+import java.net.Inet6Address;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * The health of the origins, as a {@link CircuitBreaker} of each origin and of each resolved
+ * address of the origins.
+ *
+ * <p>The circuit of an origin fails its connections fast after
+ * {@link NitmProxyConfig#getCircuitBreakerFailureThreshold()} consecutive failures, so the clients
+ * don't pile up waiting for an origin which is down. The circuit of an address ejects it from the
+ * addresses an origin is connected to after {@link NitmProxyConfig#getOutlierFailureThreshold()}
+ * consecutive failures, so a single bad address of an origin doesn't fail the others.</p>
+ *
+ * <p>The success rate of connecting to each address is remembered as well, as a moving average
+ * where the latest attempts weigh the most, so the addresses are tried in the order of their
+ * recent success, see {@link #order(List)}.</p>
+ *
+ * <p>Only the origins and the addresses which failed are tracked, in concurrent maps. A circuit is
+ * dropped when its origin or address succeeds again, and the closed ones are dropped when there
+ * are more than {@link NitmProxyConfig#getMaxTrackedOrigins()}. A success rate is dropped when it's
+ * back to healthy.</p>
+ */
+public class OriginHealth {
+    // The weight of the latest attempt in the success rate of an address
+    private static final double RATE_WEIGHT = 0.25;
+    // The success rate which is as good as never failed
+    private static final double HEALTHY_RATE = 0.95;
+
+    private final NitmProxyConfig config;
+    private final Map<Address, CircuitBreaker> origins = new ConcurrentHashMap<>();
+    private final Map<InetSocketAddress, CircuitBreaker> addresses = new ConcurrentHashMap<>();
+    private final Map<InetSocketAddress, Double> rates = new ConcurrentHashMap<>();
+    private final Comparator<InetSocketAddress> byRate = Comparator.comparingDouble(this::rate).reversed();
+
+    private final Function<Address, CircuitBreaker> newOriginCircuit;
+    private final Function<InetSocketAddress, CircuitBreaker> newAddressCircuit;
+
+    public OriginHealth(NitmProxyConfig config) {
+        this.config = config;
+        this.newOriginCircuit = ignore -> new CircuitBreaker(
+                config.getCircuitBreakerFailureThreshold(),
+                MILLISECONDS.toNanos(config.getCircuitBreakerOpenMillis()));
+        this.newAddressCircuit = ignore -> new CircuitBreaker(
+                config.getOutlierFailureThreshold(),
+                MILLISECONDS.toNanos(config.getOutlierEjectionMillis()));
+    }
+
+    /**
+     * Try to connect to an origin, the result must be reported if it's allowed.
+     *
+     * @param origin the origin
+     * @param now the current {@link System#nanoTime()}
+     * @return {@code true} if the connection is allowed
+     */
+    public boolean tryAcquire(Address origin, long now) {
+        CircuitBreaker circuit = origins.get(origin);
+        return circuit == null || circuit.tryAcquire(now);
+    }
+
+    public void onSuccess(Address origin) {
+        onSuccess(origins, origin);
+    }
+
+    /**
+     * Report a connecting to an origin which was given up by the proxy, e.g. closed since the client
+     * went away, which is neither a success nor a failure. The probe of a half-open circuit is let
+     * through again.
+     *
+     * @param origin the origin
+     */
+    public void onCancelled(Address origin) {
+        CircuitBreaker circuit = origins.get(origin);
+        if (circuit != null) {
+            circuit.onCancelled();
+        }
+    }
+
+    /**
+     * Check if a connecting failed by the origin, i.e. refused, unreachable, timed out or not
+     * resolved, which are the only failures counted against its health. The others are closes or
+     * cancellations of the proxy.
+     *
+     * @param cause the cause of the failure
+     * @return {@code true} if it's a failure of the origin
+     */
+    public static boolean isFailure(Throwable cause) {
+        // ConnectException, ConnectTimeoutException, NoRouteToHostException and the native ones
+        return cause instanceof SocketException || cause instanceof UnknownHostException;
+    }
+
+    /**
+     * Report a failure of connecting to an origin.
+     *
+     * @param origin the origin
+     * @param now the current {@link System#nanoTime()}
+     * @return {@code true} if the circuit of the origin was opened by the failure
+     */
+    public boolean onFailure(Address origin, long now) {
+        if (config.getCircuitBreakerFailureThreshold() <= 0) {
+            return false;
+        }
+        return onFailure(origins, origin, newOriginCircuit, now);
+    }
+
+    public void onSuccess(InetSocketAddress address) {
+        onSuccess(addresses, address);
+        record(address, 1);
+    }
+
+    /**
+     * Report a failure of connecting to a resolved address.
+     *
+     * @param address the address
+     * @param now the current {@link System#nanoTime()}
+     * @return {@code true} if the address was ejected by the failure
+     */
+    public boolean onFailure(InetSocketAddress address, long now) {
+        record(address, 0);
+        if (config.getOutlierFailureThreshold() <= 0) {
+            return false;
+        }
+        return onFailure(addresses, address, newAddressCircuit, now);
+    }
+
+    /**
+     * Get the resolved addresses of an origin which are not ejected.
+     *
+     * @param resolved the resolved addresses, in the order of preference
+     * @param now the current {@link System#nanoTime()}
+     * @return the addresses not ejected in the same order, or all of them if all are ejected,
+     *         since failing fast is up to the circuit of the origin
+     */
+    public List<InetSocketAddress> available(List<InetSocketAddress> resolved, long now) {
+        int ejected = 0;
+        for (InetSocketAddress address : resolved) {
+            CircuitBreaker circuit = addresses.get(address);
+            if (circuit != null && circuit.isOpen(now)) {
+                ejected++;
+            }
+        }
+        if (ejected == 0 || ejected == resolved.size()) {
+            return resolved;
+        }
+        List<InetSocketAddress> available = new ArrayList<>(resolved.size() - ejected);
+        for (InetSocketAddress address : resolved) {
+            CircuitBreaker circuit = addresses.get(address);
+            if (circuit == null || !circuit.isOpen(now)) {
+                available.add(address);
+            }
+        }
+        return available;
+    }
+
+    /**
+     * Report that the connecting to an address was overtaken by another address of the same origin,
+     * which lowers its success rate like a failure, but doesn't count for its ejection since it could
+     * still succeed.
+     *
+     * @param address the address
+     */
+    public void onOvertaken(InetSocketAddress address) {
+        record(address, 0);
+    }
+
+    /**
+     * Order the resolved addresses of an origin to connect to, in the way of RFC 8305. The addresses
+     * are sorted by their success rates, the order of the resolver is kept for the same rates, then
+     * the IPv6 and the IPv4 addresses are interleaved, starting with the family of the first one. So
+     * the next attempt of a racing is always the other family, in case the first one is broken.
+     *
+     * @param resolved the resolved addresses, in the order of preference of the resolver
+     * @return the addresses in the order to connect to
+     */
+    public List<InetSocketAddress> order(List<InetSocketAddress> resolved) {
+        if (resolved.size() < 2) {
+            return resolved;
+        }
+        List<InetSocketAddress> sorted = new ArrayList<>(resolved);
+        if (!rates.isEmpty()) {
+            // The sort is stable
+            sorted.sort(byRate);
+        }
+        boolean firstIpv6 = isIpv6(sorted.get(0));
+        List<InetSocketAddress> first = new ArrayList<>(sorted.size());
+        List<InetSocketAddress> second = new ArrayList<>(sorted.size());
+        for (InetSocketAddress address : sorted) {
+            (isIpv6(address) == firstIpv6 ? first : second).add(address);
+        }
+        if (second.isEmpty()) {
+            return sorted;
+        }
+        List<InetSocketAddress> ordered = new ArrayList<>(sorted.size());
+        for (int i = 0; i < Math.max(first.size(), second.size()); i++) {
+            if (i < first.size()) {
+                ordered.add(first.get(i));
+            }
+            if (i < second.size()) {
+                ordered.add(second.get(i));
+            }
+        }
+        return ordered;
+    }
+
+    double rate(InetSocketAddress address) {
+        Double rate = rates.get(address);
+        return rate == null ? 1 : rate;
+    }
+
+    private void record(InetSocketAddress address, double sample) {
+        if (!rates.containsKey(address)) {
+            if (sample >= 1) {
+                // Only the failing ones are tracked, the lookup is all a healthy one costs
+                return;
+            }
+            if (rates.size() >= config.getMaxTrackedOrigins()) {
+                // The rates only order the addresses, the best ones are the cheapest to forget
+                rates.values().removeIf(rate -> rate >= 0.5);
+                if (rates.size() >= config.getMaxTrackedOrigins()) {
+                    rates.clear();
+                }
+            }
+        }
+        rates.compute(address, (ignore, rate) -> {
+            double next = (rate == null ? 1 : rate) * (1 - RATE_WEIGHT) + sample * RATE_WEIGHT;
+            return next >= HEALTHY_RATE ? null : next;
+        });
+    }
+
+    private static boolean isIpv6(InetSocketAddress address) {
+        return address.getAddress() instanceof Inet6Address;
+    }
+
+    private static <K> void onSuccess(Map<K, CircuitBreaker> circuits, K key) {
+        // Only the failing ones are tracked, the lookup is all a healthy one costs
+        CircuitBreaker circuit = circuits.get(key);
+        if (circuit != null) {
+            circuit.onSuccess();
+            circuits.remove(key, circuit);
+        }
+    }
+
+    private <K> boolean onFailure(Map<K, CircuitBreaker> circuits, K key,
+                                  Function<K, CircuitBreaker> newCircuit, long now) {
+        CircuitBreaker circuit = circuits.get(key);
+        if (circuit == null) {
+            prune(circuits);
+            circuit = circuits.computeIfAbsent(key, newCircuit);
+        }
+        return circuit.onFailure(now);
+    }
+
+    private <K> void prune(Map<K, CircuitBreaker> circuits) {
+        if (circuits.size() >= config.getMaxTrackedOrigins()) {
+            circuits.values().removeIf(circuit -> circuit.state() == CircuitBreaker.State.CLOSED);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.github.chhsiao90.nitmproxy.channel;
+
+import com.github.chhsiao90.nitmproxy.NitmProxyConfig;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.epoll.EpollChannelOption;
+
+/**
+ * A named set of socket options, applied to the client sockets by
+ * {@link NitmProxyConfig#getListenerSocketProfile()} and to the server sockets by
+ * {@link NitmProxyConfig#getBackendSocketProfile()}, overridden by the profile of the server host
+ * if there is.
+ *
+ * <p>Some of the options are only supported by the native transport, they are skipped with the NIO
+ * transport, see {@link Transport}. Netty already disables the Nagle's algorithm by default, the
+ * profiles set it anyway so they don't depend on the default.</p>
+ */
+public enum SocketProfile {
+    /**
+     * The options of netty and of the OS as they are.
+     */
+    DEFAULT(null, null, 0, false, 0),
+    /**
+     * For the small requests and responses: no Nagle's algorithm, the ACKs are sent right away
+     * instead of delayed, and the listener accepts the data in the SYN of the clients which support
+     * TCP Fast Open. The dead peers are found out by the keep-alive of the OS.
+     */
+    LOW_LATENCY(true, true, 0, true, 256),
+    /**
+     * For the large transfers: large socket buffers, which turns off the tuning of the buffers by the
+     * OS, so a connection with a long round trip could fill its bandwidth.
+     */
+    BULK(true, true, 1024 * 1024, false, 0);
+
+    private final Boolean tcpNoDelay;
+    private final Boolean keepAlive;
+    private final int bufferSize;
+    private final boolean quickAck;
+    private final int fastOpenQueue;
+
+    SocketProfile(Boolean tcpNoDelay, Boolean keepAlive, int bufferSize, boolean quickAck,
+                  int fastOpenQueue) {
+        this.tcpNoDelay = tcpNoDelay;
+        this.keepAlive = keepAlive;
+        this.bufferSize = bufferSize;
+        this.quickAck = quickAck;
+        this.fastOpenQueue = fastOpenQueue;
+    }
+
+    public static SocketProfile of(String name) {
+        try {
+            return SocketProfile.valueOf(name);
+        } catch (Exception e) {
+            throw new IllegalArgumentException("Illegal socket profile: " + name);
+        }
+    }
+
+    /**
+     * Get the profile of the server sockets of a host.
+     *
+     * @param config the config
+     * @param host the server host
+     * @return the profile
+     */
+    public static SocketProfile backend(NitmProxyConfig config, String host) {
+        SocketProfile profile = config.getBackendSocketProfileByHost().get(host);
+        return profile != null ? profile : config.getBackendSocketProfile();
+    }
+
+    /**
+     * Apply the profile to the listener and to the client sockets it accepts.
+     *
+     * @param bootstrap the bootstrap of the listener
+     * @param transport the transport of the listener
+     * @return the bootstrap
+     */
+    public ServerBootstrap apply(ServerBootstrap bootstrap, Transport transport) {
+        if (tcpNoDelay != null) {
+            bootstrap.childOption(ChannelOption.TCP_NODELAY, tcpNoDelay);
+        }
+        if (keepAlive != null) {
+            bootstrap.childOption(ChannelOption.SO_KEEPALIVE, keepAlive);
+        }
+        if (bufferSize > 0) {
+            // Set on the listener as well, since the window is negotiated before the accepting
+            bootstrap.option(ChannelOption.SO_RCVBUF, bufferSize)
+                     .childOption(ChannelOption.SO_RCVBUF, bufferSize)
+                     .childOption(ChannelOption.SO_SNDBUF, bufferSize);
+        }
+        if (transport.isNative()) {
+            if (quickAck) {
+                bootstrap.childOption(EpollChannelOption.TCP_QUICKACK, true);
+            }
+            if (fastOpenQueue > 0) {
+                bootstrap.option(EpollChannelOption.TCP_FASTOPEN, fastOpenQueue);
+            }
+        }
+        return bootstrap;
+    }
+
+    /**
+     * Apply the profile to the server sockets.
+     *
+     * @param bootstrap the bootstrap of the server sockets
+     * @param transport the transport of the server sockets
+     * @param fastOpen {@code true} to send the first write in the SYN, see
+     *                 {@link NitmProxyConfig#isBackendTcpFastOpen()}
+     * @return the bootstrap
+     */
+    public Bootstrap apply(Bootstrap bootstrap, Transport transport, boolean fastOpen) {
+        if (tcpNoDelay != null) {
+            bootstrap.option(ChannelOption.TCP_NODELAY, tcpNoDelay);
+        }
+        if (keepAlive != null) {
+            bootstrap.option(ChannelOption.SO_KEEPALIVE, keepAlive);
+        }
+        if (bufferSize > 0) {
+            bootstrap.option(ChannelOption.SO_RCVBUF, bufferSize)
+                     .option(ChannelOption.SO_SNDBUF, bufferSize);
+        }
+        if (transport.isNative()) {
+            if (quickAck) {
+                bootstrap.option(EpollChannelOption.TCP_QUICKACK, true);
+            }
+            if (fastOpen) {
+                bootstrap.option(EpollChannelOption.TCP_FASTOPEN_CONNECT, true);
+            }
+        }
+        return bootstrap;
+    }
+}
@@ -0,0 +1,64 @@
+package com.github.chhsiao90.nitmproxy.channel;
+
+import io.netty.channel.Channel;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+
+/**
+ * The transport of the channels of the proxy, the native epoll transport where it's available, or
+ * the NIO transport of the JDK.
+ *
+ * <p>The server channels are created with the class of their client channel, so they are always of
+ * the transport of the listener. The native transport supports the socket options the JDK doesn't,
+ * see {@link SocketProfile}.</p>
+ */
+public enum Transport {
+    NIO,
+    EPOLL;
+
+    /**
+     * Select the transport of the listener.
+     *
+     * @param nativeTransport {@code true} to prefer the native transport
+     * @return the native transport if preferred and available, otherwise the NIO one
+     */
+    public static Transport select(boolean nativeTransport) {
+        return nativeTransport && Epoll.isAvailable() ? EPOLL : NIO;
+    }
+
+    /**
+     * Get the transport of a channel.
+     *
+     * @param channel the channel
+     * @return the transport
+     */
+    public static Transport of(Channel channel) {
+        return channel instanceof EpollSocketChannel || channel instanceof EpollServerSocketChannel
+                ? EPOLL
+                : NIO;
+    }
+
+    public boolean isNative() {
+        return this == EPOLL;
+    }
+
+    /**
+     * Create an event loop group of the transport.
+     *
+     * @param threads the number of the threads, the default of netty if {@code 0}
+     * @return the event loop group
+     */
+    public EventLoopGroup newEventLoopGroup(int threads) {
+        return this == EPOLL ? new EpollEventLoopGroup(threads) : new NioEventLoopGroup(threads);
+    }
+
+    public Class<? extends ServerChannel> serverChannelClass() {
+        return this == EPOLL ? EpollServerSocketChannel.class : NioServerSocketChannel.class;
+    }
+}
@@ -5,6 +5,8 @@ public enum Handler {
     HTTP1_BACKEND,
     HTTP2_FRONTEND,
     HTTP2_BACKEND,
+    HTTP2_TO_HTTP1_FRONTEND,
+    HTTP1_TO_HTTP2_BACKEND,
     TLS_FRONTEND,
     TLS_BACKEND
 }
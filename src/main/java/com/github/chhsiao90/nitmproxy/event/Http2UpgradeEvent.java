@@ -0,0 +1,36 @@
+package com.github.chhsiao90.nitmproxy.event;
+
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http2.Http2Settings;
+
+/**
+ * Fired to the client channel after the client was upgraded from HTTP/1.1 to cleartext HTTP/2 with
+ * {@code Upgrade: h2c}. The upgrade request is answered on stream 1 of the new connection.
+ */
+public class Http2UpgradeEvent {
+    private FullHttpRequest request;
+    private Http2Settings settings;
+
+    public Http2UpgradeEvent(FullHttpRequest request, Http2Settings settings) {
+        this.request = request;
+        this.settings = settings;
+    }
+
+    public FullHttpRequest getRequest() {
+        return request;
+    }
+
+    /**
+     * Get the settings of the client, sent in the {@code HTTP2-Settings} header of the request.
+     *
+     * @return the settings of the client
+     */
+    public Http2Settings getSettings() {
+        return settings;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("upgrade to h2c with %s", request.uri());
+    }
+}
@@ -0,0 +1,47 @@
+package com.github.chhsiao90.nitmproxy.event;
+
+import com.github.chhsiao90.nitmproxy.Address;
+
+import java.util.List;
+
+import io.netty.channel.Channel;
+import io.netty.handler.codec.http.FullHttpRequest;
+
+/**
+ * Fired to the client channel when a server channel was closed with requests that are safe to be
+ * sent again on a new connection.
+ */
+public class RequestRetryEvent {
+    private Address serverAddr;
+    private Channel serverChannel;
+    private List<FullHttpRequest> requests;
+
+    public RequestRetryEvent(Address serverAddr, Channel serverChannel,
+                             List<FullHttpRequest> requests) {
+        this.serverAddr = serverAddr;
+        this.serverChannel = serverChannel;
+        this.requests = requests;
+    }
+
+    public Address getServerAddr() {
+        return serverAddr;
+    }
+
+    /**
+     * Get the closed server channel.
+     *
+     * @return the closed server channel
+     */
+    public Channel getServerChannel() {
+        return serverChannel;
+    }
+
+    public List<FullHttpRequest> getRequests() {
+        return requests;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s : retry %d requests", serverAddr, requests.size());
+    }
+}
@@ -0,0 +1,8 @@
+package com.github.chhsiao90.nitmproxy.exception;
+
+public class OriginUnavailableException extends NitmProxyException {
+
+  public OriginUnavailableException(String message) {
+    super(message);
+  }
+}
@@ -1,12 +1,18 @@
 package com.github.chhsiao90.nitmproxy.handler.protocol.http1;
 
+import com.github.chhsiao90.nitmproxy.Address;
 import com.github.chhsiao90.nitmproxy.ConnectionContext;
 import com.github.chhsiao90.nitmproxy.NitmProxyMaster;
 import com.github.chhsiao90.nitmproxy.event.OutboundChannelClosedEvent;
+import com.github.chhsiao90.nitmproxy.event.RequestRetryEvent;
+import com.github.chhsiao90.nitmproxy.metrics.TimeoutType;
+import com.github.chhsiao90.nitmproxy.timeout.Deadline;
 
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Deque;
-import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.List;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -17,21 +23,51 @@ import io.netty.channel.ChannelPromise;
 import io.netty.channel.SimpleChannelInboundHandler;
 import io.netty.handler.codec.http.FullHttpRequest;
 import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
 import io.netty.handler.codec.http.HttpObject;
-import io.netty.handler.codec.http.HttpRequest;
 import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpStatusClass;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.LastHttpContent;
 import io.netty.util.ReferenceCountUtil;
 
 public class Http1BackendHandler extends SimpleChannelInboundHandler<HttpObject> {
     private static final Logger LOGGER = LoggerFactory.getLogger(Http1BackendHandler.class);
 
+    // Close an idle connection a bit earlier than the keep-alive timeout of the server, so that a
+    // request is never sent to a connection which is being closed by the server
+    private static final long KEEP_ALIVE_TIMEOUT_MARGIN_MILLIS = 1000;
+
+    /**
+     * The lifecycle of a connection to the server.
+     */
+    public enum State {
+        /** The connection could be used by the next request. */
+        REUSABLE,
+        /** The connection will be closed after the current response completed. */
+        DRAINING,
+        /** The connection was closed. */
+        CLOSED
+    }
+
     private NitmProxyMaster master;
 
     private ConnectionContext connectionContext;
 
     private DelayOutboundHandler delayOutboundHandler;
 
-    private volatile HttpRequest currentRequest;
+    private Address serverAddr;
+    private State state = State.REUSABLE;
+    private int completedRequests;
+    private long keepAliveTimeoutMillis = -1;
+    private Deadline keepAliveTimeout;
+    private Deadline responseTimeout;
+    private boolean informational;
+
+    private volatile FullHttpRequest currentRequest;
+    private FullHttpRequest retryableRequest;
 
     public Http1BackendHandler(NitmProxyMaster master, ConnectionContext connectionContext) {
         this.master = master;
@@ -40,6 +76,10 @@ public class Http1BackendHandler extends SimpleChannelInboundHandler<HttpObject>
         delayOutboundHandler = new DelayOutboundHandler();
     }
 
+    public State state() {
+        return state;
+    }
+
     @Override
     public void channelActive(ChannelHandlerContext ctx) throws Exception {
         LOGGER.info("{} : channelActive", connectionContext);
@@ -49,7 +89,18 @@ public class Http1BackendHandler extends SimpleChannelInboundHandler<HttpObject>
     @Override
     public void channelInactive(ChannelHandlerContext ctx) throws Exception {
         LOGGER.info("{} : channelInactive", connectionContext);
+        state = State.CLOSED;
+        cancelKeepAliveTimeout();
+        cancelResponseTimeout();
+
+        List<FullHttpRequest> retries = delayOutboundHandler.retries();
+        if (retries != null) {
+            connectionContext.clientChannel().pipeline().fireUserEventTriggered(
+                    new RequestRetryEvent(serverAddr, ctx.channel(), retries));
+            return;
+        }
         delayOutboundHandler.release();
+        connectionContext.responseSequencer().closed(ctx.channel());
         connectionContext.clientChannel().pipeline().fireUserEventTriggered(new OutboundChannelClosedEvent(connectionContext, false));
     }
 
@@ -57,28 +108,150 @@ public class Http1BackendHandler extends SimpleChannelInboundHandler<HttpObject>
     public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
         LOGGER.info("{} : handlerAdded", connectionContext);
 
+        serverAddr = connectionContext.getServerAddr(ctx.channel());
         ctx.pipeline()
            .addBefore(ctx.name(), null, new HttpClientCodec())
            .addBefore(ctx.name(), null, delayOutboundHandler);
     }
 
     @Override
-    protected void channelRead0(ChannelHandlerContext channelHandlerContext, HttpObject httpObject)
+    protected void channelRead0(ChannelHandlerContext ctx, HttpObject httpObject)
             throws Exception {
-        LOGGER.info("[Client ({})] <= [Server ({})] : {}",
-                    connectionContext.getClientAddr(), connectionContext.getServerAddr(),
-                    httpObject);
-
-        connectionContext.clientChannel().writeAndFlush(ReferenceCountUtil.retain(httpObject));
+        LOGGER.debug("[Client ({})] <= [Server ({})] : {}",
+                     connectionContext.getClientAddr(), connectionContext.getServerAddr(),
+                     httpObject);
 
         if (httpObject instanceof HttpResponse) {
+            HttpResponse response = (HttpResponse) httpObject;
+            cancelResponseTimeout();
+            // The server has started to handle the request, it's no longer safe to send it again
+            releaseRetryableRequest();
+            informational = isInformational(response);
+            if (!informational) {
+                keepAliveTimeoutMillis = keepAliveTimeoutMillis(response);
+                if (!isKeepAlive(response) || keepAliveTimeoutMillis == 0) {
+                    drain(ctx);
+                }
+            }
+        }
+
+        connectionContext.responseSequencer().write(ctx.channel(), ReferenceCountUtil.retain(httpObject));
+
+        if (httpObject instanceof LastHttpContent && !informational) {
             currentRequest = null;
+            completedRequests++;
+            if (state == State.DRAINING) {
+                ctx.close();
+                return;
+            }
             delayOutboundHandler.next();
+            if (currentRequest == null) {
+                scheduleKeepAliveTimeout(ctx);
+            }
+        }
+    }
+
+    private boolean isKeepAlive(HttpResponse response) {
+        return HttpUtil.isKeepAlive(response)
+               && (currentRequest == null || HttpUtil.isKeepAlive(currentRequest));
+    }
+
+    private void drain(ChannelHandlerContext ctx) {
+        if (state == State.REUSABLE) {
+            LOGGER.debug("{} : connection will be closed after the response", connectionContext);
+            state = State.DRAINING;
+            connectionContext.removeServerChannel(ctx.channel());
         }
     }
 
+    private void scheduleKeepAliveTimeout(ChannelHandlerContext ctx) {
+        // The server may keep the connection longer than the proxy wants to
+        long timeoutMillis = master.config().getIdleKeepAliveTimeoutMillis();
+        if (keepAliveTimeoutMillis >= 0 && (timeoutMillis <= 0 || keepAliveTimeoutMillis < timeoutMillis)) {
+            timeoutMillis = keepAliveTimeoutMillis;
+        }
+        keepAliveTimeout = Deadline.schedule(ctx.channel(), TimeoutType.IDLE_KEEP_ALIVE, timeoutMillis, () -> {
+            LOGGER.debug("{} : connection idle over the keep-alive timeout", connectionContext);
+            drain(ctx);
+            ctx.close();
+        });
+    }
+
+    private void cancelKeepAliveTimeout() {
+        if (keepAliveTimeout != null) {
+            keepAliveTimeout.cancel();
+            keepAliveTimeout = null;
+        }
+    }
+
+    private void scheduleResponseTimeout(ChannelHandlerContext ctx) {
+        responseTimeout = Deadline.schedule(ctx.channel(), TimeoutType.RESPONSE_FIRST_BYTE,
+                master.config().getResponseFirstByteTimeoutMillis(), () -> {
+                    LOGGER.debug("{} : no response from the server in time", connectionContext);
+                    // The server could have handled the request, it must not be sent again
+                    releaseRetryableRequest();
+                    drain(ctx);
+                    ctx.close();
+                });
+    }
+
+    private void cancelResponseTimeout() {
+        if (responseTimeout != null) {
+            responseTimeout.cancel();
+            responseTimeout = null;
+        }
+    }
+
+    private void releaseRetryableRequest() {
+        if (retryableRequest != null) {
+            retryableRequest.release();
+            retryableRequest = null;
+        }
+    }
+
+    /**
+     * Get the keep-alive timeout announced by the server, minus a safety margin.
+     *
+     * @param response the response
+     * @return the timeout in millis, {@code -1} if there is no timeout, or {@code 0} if the
+     *         connection should not be reused
+     */
+    private static long keepAliveTimeoutMillis(HttpResponse response) {
+        String keepAlive = response.headers().get(HttpHeaderNames.KEEP_ALIVE);
+        if (keepAlive == null) {
+            return -1;
+        }
+        for (String parameter : keepAlive.split(",")) {
+            parameter = parameter.trim();
+            if (parameter.startsWith("timeout=")) {
+                try {
+                    long timeout = Long.parseLong(parameter.substring("timeout=".length()).trim());
+                    return Math.max(timeout * 1000 - KEEP_ALIVE_TIMEOUT_MARGIN_MILLIS, 0);
+                } catch (NumberFormatException e) {
+                    return -1;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isInformational(HttpResponse response) {
+        return response.status().codeClass() == HttpStatusClass.INFORMATIONAL
+               && !HttpResponseStatus.SWITCHING_PROTOCOLS.equals(response.status());
+    }
+
+    private static boolean isIdempotent(HttpMethod method) {
+        return HttpMethod.GET.equals(method)
+               || HttpMethod.HEAD.equals(method)
+               || HttpMethod.PUT.equals(method)
+               || HttpMethod.DELETE.equals(method)
+               || HttpMethod.OPTIONS.equals(method)
+               || HttpMethod.TRACE.equals(method);
+    }
+
     private class DelayOutboundHandler extends ChannelOutboundHandlerAdapter {
-        private Deque<RequestPromise> pendings = new ConcurrentLinkedDeque<>();
+        // Created by the first request, the requests are written on the event loop of the channel
+        private Deque<RequestPromise> pendings;
         private ChannelHandlerContext thisCtx;
 
         @Override
@@ -89,10 +262,13 @@ public class Http1BackendHandler extends SimpleChannelInboundHandler<HttpObject>
         @Override
         public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
             if (msg instanceof FullHttpRequest) {
-                LOGGER.info("[Client ({})] => [Server ({})] : (PENDING) {}",
-                            connectionContext.getClientAddr(), connectionContext.getServerAddr(),
-                            msg);
-                HttpRequest request = (HttpRequest) msg;
+                LOGGER.debug("[Client ({})] => [Server ({})] : (PENDING) {}",
+                             connectionContext.getClientAddr(), connectionContext.getServerAddr(),
+                             msg);
+                FullHttpRequest request = (FullHttpRequest) msg;
+                if (pendings == null) {
+                    pendings = new ArrayDeque<>(2);
+                }
                 pendings.offer(new RequestPromise(request, promise));
                 next();
             } else if (msg instanceof HttpObject) {
@@ -103,21 +279,65 @@ public class Http1BackendHandler extends SimpleChannelInboundHandler<HttpObject>
         }
 
         private void next() {
-            if (currentRequest != null || !thisCtx.channel().isActive() || pendings.isEmpty()) {
+            if (currentRequest != null || state != State.REUSABLE || !thisCtx.channel().isActive()
+                || isEmpty()) {
                 return;
             }
 
+            cancelKeepAliveTimeout();
             RequestPromise requestPromise = pendings.poll();
             currentRequest = requestPromise.request;
-            LOGGER.info("[Client ({})] => [Server ({})] : {}",
-                        connectionContext.getClientAddr(), connectionContext.getServerAddr(),
-                        requestPromise.request);
+            LOGGER.debug("[Client ({})] => [Server ({})] : {}",
+                         connectionContext.getClientAddr(), connectionContext.getServerAddr(),
+                         requestPromise.request);
+            if (connectionContext.observers().isEnabled()) {
+                connectionContext.observers().onHttp1Request(
+                        connectionContext, thisCtx.channel(), requestPromise.request);
+            }
 
+            // A reused connection could be closed by the server before the request arrived, keep
+            // the idempotent request to send it again on a new connection
+            if (completedRequests > 0 && isIdempotent(requestPromise.request.method())) {
+                retryableRequest = requestPromise.request.retainedDuplicate();
+            }
             thisCtx.writeAndFlush(requestPromise.request, requestPromise.promise);
+            scheduleResponseTimeout(thisCtx);
+        }
+
+        private boolean isEmpty() {
+            return pendings == null || pendings.isEmpty();
+        }
+
+        /**
+         * Take the requests that could be sent again on a new connection, which are the current
+         * request if it's still retryable, and the requests which were never sent.
+         *
+         * @return the requests, or {@code null} if there is nothing could be retried
+         */
+        private List<FullHttpRequest> retries() {
+            if (currentRequest != null && retryableRequest == null) {
+                return null;
+            }
+            if (retryableRequest == null && isEmpty()) {
+                return null;
+            }
+            List<FullHttpRequest> requests = new ArrayList<>(isEmpty() ? 1 : pendings.size() + 1);
+            if (retryableRequest != null) {
+                requests.add(retryableRequest);
+                retryableRequest = null;
+                currentRequest = null;
+            }
+            while (!isEmpty()) {
+                RequestPromise requestPromise = pendings.poll();
+                requestPromise.promise.setFailure(new IOException("Server closed the connection"));
+                requests.add(requestPromise.request);
+            }
+            return requests;
         }
 
         private void release() {
-            while (!pendings.isEmpty()) {
+            releaseRetryableRequest();
+            while (!isEmpty()) {
                 RequestPromise requestPromise = pendings.poll();
                 LOGGER.info("{} : {} is dropped", connectionContext, requestPromise.request);
                 requestPromise.promise.setFailure(new IOException("Cannot send request to server"));
@@ -127,10 +347,10 @@ public class Http1BackendHandler extends SimpleChannelInboundHandler<HttpObject>
     }
 
     private static class RequestPromise {
-        private HttpRequest request;
+        private FullHttpRequest request;
         private ChannelPromise promise;
 
-        private RequestPromise(HttpRequest request, ChannelPromise promise) {
+        private RequestPromise(FullHttpRequest request, ChannelPromise promise) {
             this.request = request;
             this.promise = promise;
         }
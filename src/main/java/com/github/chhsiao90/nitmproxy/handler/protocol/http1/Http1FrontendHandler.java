@@ -1,30 +1,52 @@
 package com.github.chhsiao90.nitmproxy.handler.protocol.http1;
 
+import static io.netty.handler.codec.http2.Http2CodecUtil.HTTP_UPGRADE_PROTOCOL_NAME;
+import static io.netty.handler.codec.http2.Http2CodecUtil.HTTP_UPGRADE_SETTINGS_HEADER;
+import static java.util.Collections.singletonList;
+
 import com.github.chhsiao90.nitmproxy.Address;
 import com.github.chhsiao90.nitmproxy.ConnectionContext;
 import com.github.chhsiao90.nitmproxy.NitmProxyMaster;
+import com.github.chhsiao90.nitmproxy.TlsContext;
 import com.github.chhsiao90.nitmproxy.enums.Handler;
 import com.github.chhsiao90.nitmproxy.enums.ProxyMode;
+import com.github.chhsiao90.nitmproxy.event.Http2UpgradeEvent;
 import com.github.chhsiao90.nitmproxy.event.OutboundChannelClosedEvent;
+import com.github.chhsiao90.nitmproxy.event.RequestRetryEvent;
+import com.github.chhsiao90.nitmproxy.handler.protocol.http2.Http2Util;
+import com.github.chhsiao90.nitmproxy.metrics.ProxyMetrics;
+import com.github.chhsiao90.nitmproxy.metrics.RequestType;
+import com.github.chhsiao90.nitmproxy.metrics.Stage;
 import com.google.common.base.Strings;
 
+import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
 import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpMessage;
 import io.netty.handler.codec.http.FullHttpRequest;
 import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpMessage;
 import io.netty.handler.codec.http.HttpMethod;
 import io.netty.handler.codec.http.HttpObjectAggregator;
 import io.netty.handler.codec.http.HttpResponseStatus;
 import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http2.Http2Exception;
+import io.netty.handler.codec.http2.Http2Settings;
+import io.netty.handler.ssl.ApplicationProtocolNames;
 import io.netty.util.ReferenceCountUtil;
 
 public class Http1FrontendHandler extends SimpleChannelInboundHandler<FullHttpRequest> {
@@ -53,7 +75,7 @@ public class Http1FrontendHandler extends SimpleChannelInboundHandler<FullHttpRe
         LOGGER.info("{} : handlerAdded", connectionContext);
 
         httpServerCodec = new HttpServerCodec();
-        httpObjectAggregator = new HttpObjectAggregator(master.config().getMaxContentLength());
+        httpObjectAggregator = new RequestAggregator(master.config().getMaxContentLength());
         ctx.pipeline()
            .addBefore(ctx.name(), null, httpServerCodec)
            .addBefore(ctx.name(), null, httpObjectAggregator);
@@ -64,10 +86,14 @@ public class Http1FrontendHandler extends SimpleChannelInboundHandler<FullHttpRe
         LOGGER.info("{} : handlerRemoved", connectionContext);
 
         ctx.pipeline().remove(httpServerCodec).remove(httpObjectAggregator);
+    }
 
-        if (tunneled) {
-            connectionContext.serverChannel().close();
-        }
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        LOGGER.info("{} : channelInactive", connectionContext);
+
+        connectionContext.closeServerChannels();
+        ctx.fireChannelInactive();
     }
 
     @Override
@@ -79,10 +105,16 @@ public class Http1FrontendHandler extends SimpleChannelInboundHandler<FullHttpRe
             } else {
                 handleHttpProxyConnection(ctx, request);
             }
+        } else if (isH2cUpgrade(request)) {
+            ProxyMetrics.global().onRequest(RequestType.HTTP1);
+            connectionContext.timings().onRequest(connectionContext.getServerAddr());
+            upgradeToH2c(ctx, request);
         } else {
-            LOGGER.info("[Client ({})] => [Server ({})] : {}",
-                        connectionContext.getClientAddr(), connectionContext.getServerAddr(),
-                        request);
+            ProxyMetrics.global().onRequest(RequestType.HTTP1);
+            connectionContext.timings().onRequest(connectionContext.getServerAddr());
+            LOGGER.debug("[Client ({})] => [Server ({})] : {}",
+                         connectionContext.getClientAddr(), connectionContext.getServerAddr(),
+                         request);
             connectionContext.serverChannel().writeAndFlush(ReferenceCountUtil.retain(request));
         }
     }
@@ -93,6 +125,8 @@ public class Http1FrontendHandler extends SimpleChannelInboundHandler<FullHttpRe
             if (tunneled) {
                 ctx.close();
             }
+        } else if (evt instanceof RequestRetryEvent) {
+            retry(ctx, (RequestRetryEvent) evt);
         }
 
         ctx.fireUserEventTriggered(evt);
@@ -100,7 +134,11 @@ public class Http1FrontendHandler extends SimpleChannelInboundHandler<FullHttpRe
 
     private void handleTunnelProxyConnection(ChannelHandlerContext ctx,
                                              FullHttpRequest request) throws Exception {
+        ProxyMetrics.global().onRequest(RequestType.TUNNEL);
+        connectionContext.markTunneled();
         Address address = resolveTunnelAddr(request.uri());
+        connectionContext.timings().recordOnce(Stage.PROXY_PARSE, address,
+                connectionContext.timings().acceptNanos());
         connectionContext.connect(address, ctx).addListener((future) -> {
             if (!future.isSuccess()) {
                 ctx.close();
@@ -120,15 +158,22 @@ public class Http1FrontendHandler extends SimpleChannelInboundHandler<FullHttpRe
                                            FullHttpRequest request) throws Exception {
         FullPath fullPath = resolveHttpProxyPath(request.uri());
         Address serverAddr = new Address(fullPath.host, fullPath.port);
+        ProxyMetrics.global().onRequest(RequestType.HTTP1);
+        connectionContext.timings().recordOnce(Stage.PROXY_PARSE, serverAddr,
+                connectionContext.timings().acceptNanos());
+        connectionContext.timings().onRequest(serverAddr);
         FullHttpRequest newRequest = request.copy();
-        connectionContext.connect(serverAddr, ctx).addListener((ChannelFuture future) -> {
+        ChannelFuture connectFuture = connectionContext.connect(serverAddr, ctx);
+        disableTls(connectionContext.tlsCtx());
+        connectionContext.responseSequencer().expect(connectFuture.channel());
+        connectFuture.addListener((ChannelFuture future) -> {
            if (future.isSuccess()) {
                newRequest.headers().set(request.headers());
                newRequest.setUri(fullPath.path);
 
-               LOGGER.info("[Client ({})] => [Server ({})] : {}",
-                       connectionContext.getClientAddr(), connectionContext.getServerAddr(),
-                       newRequest);
+               LOGGER.debug("[Client ({})] => [Server ({})] : {}",
+                        connectionContext.getClientAddr(), connectionContext.getServerAddr(),
+                        newRequest);
                future.channel().writeAndFlush(newRequest);
            } else {
                newRequest.release();
@@ -137,7 +182,85 @@ public class Http1FrontendHandler extends SimpleChannelInboundHandler<FullHttpRe
         });
     }
 
-    private FullPath resolveHttpProxyPath(String fullPath) {
+    private void retry(ChannelHandlerContext ctx, RequestRetryEvent event) {
+        LOGGER.debug("{} : {}", connectionContext, event);
+        List<FullHttpRequest> requests = event.getRequests();
+        ChannelFuture connectFuture = connectionContext.connect(event.getServerAddr(), ctx);
+        connectionContext.responseSequencer().redirect(
+                event.getServerChannel(), connectFuture.channel(), requests.size());
+        connectFuture.addListener((ChannelFuture future) -> {
+            if (future.isSuccess()) {
+                requests.forEach(future.channel()::write);
+                future.channel().flush();
+            } else {
+                requests.forEach(ReferenceCountUtil::release);
+                ctx.channel().close();
+            }
+        });
+    }
+
+    private boolean isH2cUpgrade(FullHttpRequest request) {
+        // h2c is only for cleartext, the upgrade is ignored over TLS
+        return tunneled
+               && !connectionContext.tlsCtx().isEnabled()
+               && master.config().isClientHttp2()
+               && request.headers().containsValue(HttpHeaderNames.UPGRADE, HTTP_UPGRADE_PROTOCOL_NAME, true)
+               && request.headers().contains(HTTP_UPGRADE_SETTINGS_HEADER);
+    }
+
+    /**
+     * Upgrade the client to cleartext HTTP/2, the upgrade request is sent to the server as the
+     * stream 1 of the new connection. Since the server was connected in HTTP/1.1, the HTTP/2 of the
+     * client is translated.
+     */
+    private void upgradeToH2c(ChannelHandlerContext ctx, FullHttpRequest request) throws Exception {
+        Http2Settings settings;
+        try {
+            settings = Http2Util.decodeSettingsHeader(request.headers().get(HTTP_UPGRADE_SETTINGS_HEADER));
+        } catch (Http2Exception e) {
+            LOGGER.debug("{} : h2c upgrade ignored with {}", connectionContext, e.getMessage());
+            request.headers().remove(HttpHeaderNames.UPGRADE).remove(HTTP_UPGRADE_SETTINGS_HEADER);
+            connectionContext.serverChannel().writeAndFlush(ReferenceCountUtil.retain(request));
+            return;
+        }
+        LOGGER.debug("{} : upgrade to h2c", connectionContext);
+
+        FullHttpResponse response = new DefaultFullHttpResponse(
+                HttpVersion.HTTP_1_1, HttpResponseStatus.SWITCHING_PROTOCOLS, Unpooled.EMPTY_BUFFER);
+        response.headers()
+                .set(HttpHeaderNames.CONNECTION, HttpHeaderValues.UPGRADE)
+                .set(HttpHeaderNames.UPGRADE, HTTP_UPGRADE_PROTOCOL_NAME);
+        ctx.writeAndFlush(response);
+        ctx.pipeline().replace(Http1FrontendHandler.this, null,
+            connectionContext.handler(Handler.HTTP2_TO_HTTP1_FRONTEND));
+        ctx.pipeline().fireUserEventTriggered(new Http2UpgradeEvent(request.retain(), settings));
+    }
+
+    private void disableTls(TlsContext tlsCtx) {
+        // Requests of http proxy are always sent in plain text
+        if (!tlsCtx.protocolsPromise().isDone()) {
+            tlsCtx.setEnabled(false);
+            tlsCtx.protocolsPromise().setSuccess(singletonList(ApplicationProtocolNames.HTTP_1_1));
+        }
+    }
+
+    /**
+     * Aggregates the requests, and tells the connection when the header of a request was received,
+     * so the deadline of the request header doesn't wait for the body.
+     */
+    private class RequestAggregator extends HttpObjectAggregator {
+        private RequestAggregator(int maxContentLength) {
+            super(maxContentLength);
+        }
+
+        @Override
+        protected FullHttpMessage beginAggregation(HttpMessage start, ByteBuf content) throws Exception {
+            connectionContext.onRequestHeader();
+            return super.beginAggregation(start, content);
+        }
+    }
+
+    static FullPath resolveHttpProxyPath(String fullPath) {
         Matcher matcher = PATH_PATTERN.matcher(fullPath);
         if (matcher.find()) {
             String scheme = matcher.group(1);
@@ -150,7 +273,7 @@ public class Http1FrontendHandler extends SimpleChannelInboundHandler<FullHttpRe
         }
     }
 
-    private Address resolveTunnelAddr(String addr) {
+    static Address resolveTunnelAddr(String addr) {
         Matcher matcher = TUNNEL_ADDR_PATTERN.matcher(addr);
         if (matcher.find()) {
             return new Address(matcher.group(1), Integer.parseInt(matcher.group(2)));
@@ -159,7 +282,7 @@ public class Http1FrontendHandler extends SimpleChannelInboundHandler<FullHttpRe
         }
     }
 
-    private int resolvePort(String scheme, String port) {
+    private static int resolvePort(String scheme, String port) {
         if (Strings.isNullOrEmpty(port)) {
             return "https".equals(scheme) ? 443 : 80;
         }
@@ -176,7 +299,7 @@ public class Http1FrontendHandler extends SimpleChannelInboundHandler<FullHttpRe
         return future;
     }
 
-    private static class FullPath {
+    static class FullPath {
         private String scheme;
         private String host;
         private int port;
@@ -0,0 +1,294 @@
+package com.github.chhsiao90.nitmproxy.handler.protocol.http1;
+
+import com.github.chhsiao90.nitmproxy.ConnectionContext;
+
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpStatusClass;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.util.ReferenceCountUtil;
+
+/**
+ * Writes the responses from several server channels back to the client in the order of the
+ * requests.
+ *
+ * <p>A HTTP/1 client expects the responses in the same order as it sent the requests, but when the
+ * requests of a client are dispatched to different servers, the responses could arrive in any
+ * order. Responses from a server that is not at the head of the queue are buffered until all the
+ * responses before them are written, and the server channel stops reading meanwhile, so no more
+ * than a read of a server is buffered however large its response is. An informational response, e.g. {@code 100 Continue}, is
+ * written in its place but doesn't complete the expected response, the final one does.</p>
+ *
+ * <p>A HTTP/2 client that is translated to HTTP/1.1 servers maps the responses to its streams by
+ * itself, the responses of its server channels are routed to it, see
+ * {@link #route(Channel, Consumer)}.</p>
+ *
+ * <p>All the server channels of a client are bound to the event loop of the client channel, so
+ * there is no synchronization in here. The buffers and the routes are created when they are
+ * needed, since most of the clients never need them.</p>
+ */
+public class Http1ResponseSequencer {
+    private static final Logger LOGGER = LoggerFactory.getLogger(Http1ResponseSequencer.class);
+
+    private ConnectionContext connectionContext;
+
+    // A client seldom pipelines, the expected responses are a few at most
+    private Deque<Channel> expectations = new ArrayDeque<>(2);
+    private Map<Channel, Deque<PendingWrite>> buffered;
+    private Map<Channel, Consumer<HttpObject>> routes;
+    // The server channels in the middle of writing an informational response
+    private Set<Channel> informational;
+
+    public Http1ResponseSequencer(ConnectionContext connectionContext) {
+        this.connectionContext = connectionContext;
+    }
+
+    /**
+     * Expect a response from the server channel, after all the responses expected before.
+     *
+     * @param serverChannel the server channel that the request was sent to
+     */
+    public void expect(Channel serverChannel) {
+        expectations.offer(serverChannel);
+    }
+
+    /**
+     * Check if there are any responses expected from the server channel.
+     *
+     * @param serverChannel the server channel
+     * @return {@code true} if the client is still waiting for a response from the server channel
+     */
+    public boolean isPending(Channel serverChannel) {
+        return expectations.contains(serverChannel);
+    }
+
+    /**
+     * Route all the responses of the server channel to the consumer instead of the client channel,
+     * until the server channel is closed.
+     *
+     * @param serverChannel the server channel
+     * @param route the consumer of the response messages
+     */
+    public void route(Channel serverChannel, Consumer<HttpObject> route) {
+        if (routes == null) {
+            routes = new HashMap<>();
+        }
+        routes.put(serverChannel, route);
+    }
+
+    /**
+     * Write a response message from the server channel to the client, or buffer it if there are
+     * other responses that should be written before.
+     *
+     * @param serverChannel the server channel
+     * @param httpObject the response message
+     */
+    public void write(Channel serverChannel, HttpObject httpObject) {
+        write(serverChannel, httpObject, connectionContext.clientChannel().voidPromise());
+    }
+
+    /**
+     * Write a response message from the server channel to the client, or buffer it if there are
+     * other responses that should be written before. The promise is completed when the message
+     * was written to the client, or failed when it's discarded, so the server could be read at the
+     * pace of the client.
+     *
+     * @param serverChannel the server channel
+     * @param httpObject the response message
+     * @param promise the promise of the client channel
+     */
+    public void write(Channel serverChannel, HttpObject httpObject, ChannelPromise promise) {
+        connectionContext.timings().onResponse(connectionContext.getServerAddr(serverChannel));
+        if (connectionContext.observers().isEnabled()) {
+            connectionContext.observers().onHttp1Response(connectionContext, serverChannel,
+                                                          httpObject);
+        }
+        Consumer<HttpObject> route = routes == null ? null : routes.get(serverChannel);
+        if (route != null) {
+            route.accept(httpObject);
+            if (!promise.isVoid()) {
+                promise.trySuccess();
+            }
+            return;
+        }
+        if (expectations.isEmpty()) {
+            // Not dispatched by the sequencer, e.g. tunneled requests
+            connectionContext.clientChannel().writeAndFlush(httpObject, promise);
+            return;
+        }
+        if (expectations.peek() == serverChannel && pending(serverChannel) == null) {
+            // The response at the head is written through, the others are buffered
+            connectionContext.clientChannel().write(httpObject, promise);
+            if (completes(serverChannel, httpObject)) {
+                expectations.poll();
+                drain();
+            } else {
+                connectionContext.clientChannel().flush();
+            }
+            return;
+        }
+        if (buffered == null) {
+            buffered = new HashMap<>();
+        }
+        buffered.computeIfAbsent(serverChannel, ignore -> new ArrayDeque<>())
+                .offer(new PendingWrite(httpObject, promise));
+        // Resumed when its buffered messages are written
+        serverChannel.config().setAutoRead(false);
+        if (expectations.peek() == serverChannel) {
+            drain();
+        }
+    }
+
+    /**
+     * Move the last expected responses of a server channel to another server channel, when the
+     * requests are sent again on the new channel.
+     *
+     * @param from the closed server channel
+     * @param to the new server channel
+     * @param count the number of the responses to move
+     */
+    public void redirect(Channel from, Channel to, int count) {
+        Deque<Channel> redirected = new ArrayDeque<>(expectations.size());
+        Iterator<Channel> iterator = expectations.descendingIterator();
+        while (iterator.hasNext()) {
+            Channel channel = iterator.next();
+            if (channel == from && count > 0) {
+                channel = to;
+                count--;
+            }
+            redirected.offerFirst(channel);
+        }
+        expectations = redirected;
+    }
+
+    /**
+     * Replace a server channel which was never connected by the channel connected in its place,
+     * the expected responses and the route of the server channel are moved to the new one.
+     *
+     * @param from the server channel never connected
+     * @param to the connected server channel
+     */
+    public void replace(Channel from, Channel to) {
+        redirect(from, to, Integer.MAX_VALUE);
+        Consumer<HttpObject> route = routes == null ? null : routes.remove(from);
+        if (route != null) {
+            routes.put(to, route);
+        }
+    }
+
+    /**
+     * Notify that the server channel was closed. The client will be closed if there are any
+     * responses expected from the server channel, since they will never come.
+     *
+     * @param serverChannel the server channel
+     */
+    public void closed(Channel serverChannel) {
+        if (routes != null) {
+            routes.remove(serverChannel);
+        }
+        if (informational != null) {
+            informational.remove(serverChannel);
+        }
+        Deque<PendingWrite> messages = buffered == null ? null : buffered.remove(serverChannel);
+        if (messages != null) {
+            messages.forEach(PendingWrite::discard);
+        }
+        if (expectations.contains(serverChannel)) {
+            LOGGER.debug("{} : server closed with responses pending", connectionContext);
+            expectations.clear();
+            if (buffered != null) {
+                buffered.values().forEach(pending -> pending.forEach(PendingWrite::discard));
+                buffered.clear();
+            }
+            connectionContext.clientChannel().close();
+        }
+    }
+
+    private Deque<PendingWrite> pending(Channel serverChannel) {
+        return buffered == null ? null : buffered.get(serverChannel);
+    }
+
+    /**
+     * Check if a message written to the client completes the expected response of the server
+     * channel. The messages of a server channel are written in order, so the status of the
+     * response being written is tracked here.
+     */
+    private boolean completes(Channel serverChannel, HttpObject httpObject) {
+        if (httpObject instanceof HttpResponse) {
+            if (isInformational((HttpResponse) httpObject)) {
+                if (informational == null) {
+                    informational = new HashSet<>();
+                }
+                informational.add(serverChannel);
+            } else if (informational != null) {
+                informational.remove(serverChannel);
+            }
+        }
+        return httpObject instanceof LastHttpContent
+               && (informational == null || !informational.contains(serverChannel));
+    }
+
+    private static boolean isInformational(HttpResponse response) {
+        return response.status().codeClass() == HttpStatusClass.INFORMATIONAL
+               && !HttpResponseStatus.SWITCHING_PROTOCOLS.equals(response.status());
+    }
+
+    private void drain() {
+        Channel clientChannel = connectionContext.clientChannel();
+        while (!expectations.isEmpty()) {
+            Channel head = expectations.peek();
+            Deque<PendingWrite> pending = pending(head);
+            if (pending == null) {
+                break;
+            }
+            boolean completed = false;
+            while (!completed && !pending.isEmpty()) {
+                PendingWrite write = pending.poll();
+                clientChannel.write(write.httpObject, write.promise);
+                completed = completes(head, write.httpObject);
+            }
+            if (pending.isEmpty()) {
+                buffered.remove(head);
+                head.config().setAutoRead(true);
+            }
+            if (!completed) {
+                break;
+            }
+            expectations.poll();
+        }
+        clientChannel.flush();
+    }
+
+    private static class PendingWrite {
+        private final HttpObject httpObject;
+        private final ChannelPromise promise;
+
+        private PendingWrite(HttpObject httpObject, ChannelPromise promise) {
+            this.httpObject = httpObject;
+            this.promise = promise;
+        }
+
+        private void discard() {
+            ReferenceCountUtil.release(httpObject);
+            if (!promise.isVoid()) {
+                promise.tryFailure(new ClosedChannelException());
+            }
+        }
+    }
+}
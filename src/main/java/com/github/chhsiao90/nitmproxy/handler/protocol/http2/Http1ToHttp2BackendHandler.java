@@ -0,0 +1,301 @@
+package com.github.chhsiao90.nitmproxy.handler.protocol.http2;
+
+import com.github.chhsiao90.nitmproxy.ConnectionContext;
+import com.github.chhsiao90.nitmproxy.event.OutboundChannelClosedEvent;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.DefaultHttpContent;
+import io.netty.handler.codec.http.DefaultLastHttpContent;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpScheme;
+import io.netty.handler.codec.http.HttpStatusClass;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.handler.codec.http2.DefaultHttp2Connection;
+import io.netty.handler.codec.http2.Http2Connection;
+import io.netty.handler.codec.http2.Http2EventAdapter;
+import io.netty.handler.codec.http2.Http2Exception;
+import io.netty.handler.codec.http2.Http2FrameLogger;
+import io.netty.handler.codec.http2.Http2Headers;
+import io.netty.handler.codec.http2.HttpConversionUtil;
+import io.netty.handler.codec.http2.HttpConversionUtil.ExtensionHeaderNames;
+import io.netty.handler.codec.http2.HttpToHttp2ConnectionHandler;
+import io.netty.handler.codec.http2.HttpToHttp2ConnectionHandlerBuilder;
+import io.netty.util.ReferenceCountUtil;
+
+/**
+ * Speaks HTTP/2 to the server when the client speaks only HTTP/1.1.
+ *
+ * <p>Each request of the client is sent on a new stream of the server connection, so the requests
+ * of a pipelining client are handled concurrently by the server. The responses are translated back
+ * to HTTP/1.1 and written to the client in the order of the requests, the responses arriving before
+ * their turn are buffered.</p>
+ *
+ * <p>The flow-control window of the response data is returned to the server only after the data was
+ * written to the client, so a slow client slows down the server instead of the data piling up in
+ * the proxy.</p>
+ */
+public class Http1ToHttp2BackendHandler extends ChannelDuplexHandler {
+  private static final Logger LOGGER = LoggerFactory.getLogger(Http1ToHttp2BackendHandler.class);
+
+  private ConnectionContext connectionContext;
+  private HttpToHttp2ConnectionHandler http2ConnectionHandler;
+  private Http2FlowControlMonitor flowControlMonitor;
+  private ChannelHandlerContext ctx;
+
+  // The streams in the order of the requests
+  private final Deque<ResponseStream> streams = new ArrayDeque<>();
+
+  public Http1ToHttp2BackendHandler(ConnectionContext connectionContext) {
+    this.connectionContext = connectionContext;
+  }
+
+  @Override
+  public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+    LOGGER.debug("{} : handlerAdded", connectionContext);
+
+    this.ctx = ctx;
+    Http2Connection http2Connection = new DefaultHttp2Connection(false);
+    Http2SettingsProfile profile = Http2SettingsProfile.server(connectionContext);
+    flowControlMonitor =
+        new Http2FlowControlMonitor(http2Connection, profile, new ResponseListener());
+    HttpToHttp2ConnectionHandlerBuilder builder = new HttpToHttp2ConnectionHandlerBuilder()
+        .connection(http2Connection)
+        .frameListener(flowControlMonitor)
+        .initialSettings(profile.initialSettings().pushEnabled(false))
+        .httpScheme(connectionContext.tlsCtx().isEnabled() ? HttpScheme.HTTPS : HttpScheme.HTTP)
+        // The pipelined requests beyond the limit of the server wait
+        .encoderEnforceMaxConcurrentStreams(true);
+    Http2FrameLogger frameLogger = Http2Util.frameLogger();
+    if (frameLogger != null) {
+      builder.frameLogger(frameLogger);
+    }
+    http2ConnectionHandler = builder.build();
+    ctx.pipeline().addBefore(ctx.name(), null, http2ConnectionHandler);
+  }
+
+  @Override
+  public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+    LOGGER.debug("{} : channelInactive with {}", connectionContext,
+        flowControlMonitor.metrics());
+    streams.forEach(stream -> stream.pending.forEach(ReferenceCountUtil::release));
+    streams.clear();
+    connectionContext.responseSequencer().closed(ctx.channel());
+    connectionContext.clientChannel().pipeline().fireUserEventTriggered(
+        new OutboundChannelClosedEvent(connectionContext, false));
+    ctx.fireChannelInactive();
+  }
+
+  @Override
+  public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise)
+      throws Exception {
+    if (msg instanceof FullHttpRequest) {
+      FullHttpRequest request = (FullHttpRequest) msg;
+      int streamId = http2ConnectionHandler.connection().local().incrementAndGetNextStreamId();
+      request.headers().setInt(ExtensionHeaderNames.STREAM_ID.text(), streamId);
+      streams.offer(new ResponseStream(streamId));
+      LOGGER.debug("{} : request sent on stream {}", connectionContext, streamId);
+      if (connectionContext.observers().isEnabled()) {
+        connectionContext.observers().onHttp1Request(connectionContext, ctx.channel(), request);
+      }
+    }
+    ctx.write(msg, promise);
+  }
+
+  private ResponseStream stream(int streamId) {
+    for (ResponseStream stream : streams) {
+      if (stream.streamId == streamId) {
+        return stream;
+      }
+    }
+    return null;
+  }
+
+  private void relay(ResponseStream stream, HttpObject httpObject) {
+    relay(stream, httpObject, 0);
+  }
+
+  /**
+   * Relay a response message of the stream.
+   *
+   * @param stream the stream
+   * @param httpObject the response message
+   * @param bytes the flow-controlled bytes of the message, consumed once it was written
+   */
+  private void relay(ResponseStream stream, HttpObject httpObject, int bytes) {
+    if (stream.completed) {
+      ReferenceCountUtil.release(httpObject);
+      Http2Util.consumeBytes(ctx, http2ConnectionHandler, stream.streamId, bytes);
+      return;
+    }
+    stream.completed = httpObject instanceof LastHttpContent;
+    if (streams.peek() != stream) {
+      stream.pending.offer(httpObject);
+      stream.pendingBytes += bytes;
+      return;
+    }
+    write(stream.streamId, httpObject, bytes);
+    // Write the buffered responses which are now at the head
+    while (!streams.isEmpty() && streams.peek().completed) {
+      streams.poll();
+      ResponseStream head = streams.peek();
+      while (head != null && !head.pending.isEmpty()) {
+        HttpObject pending = head.pending.poll();
+        // The bytes of the buffered data are consumed all together with the last one
+        write(head.streamId, pending, head.pending.isEmpty() ? head.pendingBytes : 0);
+      }
+      if (head != null) {
+        head.pendingBytes = 0;
+      }
+    }
+  }
+
+  private void write(int streamId, HttpObject httpObject, int bytes) {
+    Channel clientChannel = connectionContext.clientChannel();
+    if (bytes == 0) {
+      connectionContext.responseSequencer().write(ctx.channel(), httpObject);
+      return;
+    }
+    ChannelPromise promise = clientChannel.newPromise();
+    promise.addListener(ignore -> Http2Util.consumeBytes(
+        ctx, http2ConnectionHandler, streamId, bytes));
+    connectionContext.responseSequencer().write(ctx.channel(), httpObject, promise);
+  }
+
+  private static boolean isInformational(HttpResponse response) {
+    return response.status().codeClass() == HttpStatusClass.INFORMATIONAL;
+  }
+
+  private static boolean mayHaveContent(HttpResponse response) {
+    int code = response.status().code();
+    return code != HttpResponseStatus.NO_CONTENT.code()
+        && code != HttpResponseStatus.NOT_MODIFIED.code();
+  }
+
+  private class ResponseListener extends Http2EventAdapter {
+
+    @Override
+    public void onHeadersRead(ChannelHandlerContext ctx, int streamId, Http2Headers headers,
+        int streamDependency, short weight, boolean exclusive, int padding, boolean endOfStream)
+        throws Http2Exception {
+      onHeadersRead(ctx, streamId, headers, padding, endOfStream);
+    }
+
+    @Override
+    public void onHeadersRead(ChannelHandlerContext ctx, int streamId, Http2Headers headers,
+        int padding, boolean endOfStream) throws Http2Exception {
+      ResponseStream stream = stream(streamId);
+      if (stream == null) {
+        return;
+      }
+      if (stream.started) {
+        LastHttpContent trailers = new DefaultLastHttpContent(Unpooled.EMPTY_BUFFER, false);
+        HttpConversionUtil.addHttp2ToHttpHeaders(streamId, headers, trailers.trailingHeaders(),
+            HttpVersion.HTTP_1_1, true, false);
+        relay(stream, trailers);
+        return;
+      }
+
+      HttpResponse response = HttpConversionUtil.toHttpResponse(streamId, headers, false);
+      if (isInformational(response)) {
+        // The interim responses are not relayed
+        return;
+      }
+      for (ExtensionHeaderNames name : ExtensionHeaderNames.values()) {
+        response.headers().remove(name.text());
+      }
+      stream.started = true;
+      if (endOfStream) {
+        if (!HttpUtil.isContentLengthSet(response) && mayHaveContent(response)) {
+          HttpUtil.setContentLength(response, 0);
+        }
+        relay(stream, response);
+        relay(stream, LastHttpContent.EMPTY_LAST_CONTENT);
+      } else {
+        if (!HttpUtil.isContentLengthSet(response)) {
+          HttpUtil.setTransferEncodingChunked(response, true);
+        }
+        relay(stream, response);
+      }
+    }
+
+    @Override
+    public int onDataRead(ChannelHandlerContext ctx, int streamId, ByteBuf data, int padding,
+        boolean endOfStream) throws Http2Exception {
+      ResponseStream stream = stream(streamId);
+      int bytes = data.readableBytes() + padding;
+      if (stream == null) {
+        return bytes;
+      }
+      // Return the bytes to the server only after the client accepted them
+      relay(stream, endOfStream
+          ? new DefaultLastHttpContent(data.retain())
+          : new DefaultHttpContent(data.retain()), bytes);
+      return 0;
+    }
+
+    @Override
+    public void onRstStreamRead(ChannelHandlerContext ctx, int streamId, long errorCode)
+        throws Http2Exception {
+      ResponseStream stream = stream(streamId);
+      if (stream == null || stream.completed) {
+        return;
+      }
+      LOGGER.debug("{} : stream {} reset by server with {}", connectionContext, streamId,
+          errorCode);
+      if (stream.started) {
+        // The response can't be ended early in HTTP/1.1, the client has to see the connection end
+        connectionContext.clientChannel().close();
+        return;
+      }
+      FullHttpResponse response =
+          new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.BAD_GATEWAY);
+      HttpUtil.setContentLength(response, 0);
+      stream.started = true;
+      relay(stream, response);
+    }
+
+    @Override
+    public void onGoAwayRead(ChannelHandlerContext ctx, int lastStreamId, long errorCode,
+        ByteBuf debugData) throws Http2Exception {
+      for (ResponseStream stream : streams) {
+        if (stream.streamId > lastStreamId) {
+          // The request will never be answered, the client has to connect again
+          LOGGER.debug("{} : stream {} refused by GOAWAY", connectionContext, stream.streamId);
+          ctx.close();
+          return;
+        }
+      }
+    }
+  }
+
+  private static class ResponseStream {
+    private final int streamId;
+    private final Deque<HttpObject> pending = new ArrayDeque<>();
+    // The flow-controlled bytes of the pending data
+    private int pendingBytes;
+    private boolean started;
+    private boolean completed;
+
+    private ResponseStream(int streamId) {
+      this.streamId = streamId;
+    }
+  }
+}
@@ -1,38 +1,42 @@
 package com.github.chhsiao90.nitmproxy.handler.protocol.http2;
 
 import static com.github.chhsiao90.nitmproxy.handler.protocol.http2.Http2FrameWrapper.frameWrapper;
-import static io.netty.handler.logging.LogLevel.DEBUG;
+import static com.github.chhsiao90.nitmproxy.handler.protocol.http2.Http2FrameWrapper.isFrame;
+import static com.github.chhsiao90.nitmproxy.handler.protocol.http2.Http2Util.isDefaultPriority;
 import static java.lang.String.format;
 
 import com.github.chhsiao90.nitmproxy.ConnectionContext;
-import com.google.common.collect.BiMap;
-import com.google.common.collect.HashBiMap;
-import com.google.common.collect.Maps;
-
-import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelPromise;
 import io.netty.handler.codec.http2.DefaultHttp2Connection;
-import io.netty.handler.codec.http2.DefaultHttp2DataFrame;
+import io.netty.handler.codec.http2.DefaultHttp2GoAwayFrame;
 import io.netty.handler.codec.http2.DefaultHttp2HeadersFrame;
+import io.netty.handler.codec.http2.DefaultHttp2PingFrame;
+import io.netty.handler.codec.http2.DefaultHttp2PriorityFrame;
+import io.netty.handler.codec.http2.DefaultHttp2PushPromiseFrame;
 import io.netty.handler.codec.http2.DefaultHttp2ResetFrame;
 import io.netty.handler.codec.http2.DefaultHttp2SettingsFrame;
-import io.netty.handler.codec.http2.DefaultHttp2WindowUpdateFrame;
+import io.netty.handler.codec.http2.DefaultHttp2UnknownFrame;
 import io.netty.handler.codec.http2.Http2Connection;
+import io.netty.handler.codec.http2.Http2ConnectionAdapter;
 import io.netty.handler.codec.http2.Http2ConnectionHandler;
-import io.netty.handler.codec.http2.Http2ConnectionHandlerBuilder;
+import io.netty.handler.codec.http2.Http2Error;
 import io.netty.handler.codec.http2.Http2Exception;
 import io.netty.handler.codec.http2.Http2Flags;
 import io.netty.handler.codec.http2.Http2FrameListener;
-import io.netty.handler.codec.http2.Http2FrameLogger;
+import io.netty.handler.codec.http2.Http2GoAwayFrame;
 import io.netty.handler.codec.http2.Http2Headers;
+import io.netty.handler.codec.http2.Http2PriorityFrame;
 import io.netty.handler.codec.http2.Http2Settings;
+import io.netty.handler.codec.http2.Http2Stream;
+import io.netty.util.ReferenceCountUtil;
 
 public class Http2BackendHandler
     extends ChannelDuplexHandler
@@ -42,10 +46,15 @@ public class Http2BackendHandler
 
   private ConnectionContext connectionContext;
   private Http2ConnectionHandler http2ConnectionHandler;
+  private Http2SettingsProfile profile;
+  private Http2FlowControlMonitor flowControlMonitor;
 
+  private ChannelHandlerContext ctx;
   private ChannelPromise ready;
-  private AtomicInteger currentStreamId = new AtomicInteger(1);
-  private BiMap<Integer, Integer> streams = Maps.synchronizedBiMap(HashBiMap.create());
+  private RelayFlusher flusher;
+  private int nextStreamId = 1;
+  private int nextPushStreamId = 2;
+  private StreamIdMapping streams = new StreamIdMapping();
 
   public Http2BackendHandler(ConnectionContext connectionContext) {
     this.connectionContext = connectionContext;
@@ -55,11 +64,23 @@ public class Http2BackendHandler
   public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
     LOGGER.debug("{} : handlerAdded", connectionContext);
 
+    this.ctx = ctx;
+    flusher = new RelayFlusher(connectionContext.config().getMaxHttp2BytesPerFlush());
     Http2Connection http2Connection = new DefaultHttp2Connection(false);
-    http2ConnectionHandler = new Http2ConnectionHandlerBuilder()
+    http2Connection.addListener(new Http2ConnectionAdapter() {
+      @Override
+      public void onStreamClosed(Http2Stream stream) {
+        streams.removeUpstream(stream.id());
+      }
+    });
+    profile = Http2SettingsProfile.server(connectionContext);
+    flowControlMonitor = new Http2FlowControlMonitor(http2Connection, profile, this);
+    http2ConnectionHandler = new Http2RelayHandlerBuilder()
         .connection(http2Connection)
-        .frameListener(this)
-        .frameLogger(new Http2FrameLogger(DEBUG))
+        .frameListener(flowControlMonitor)
+        .initialSettings(profile.initialSettings())
+        // The streams beyond the limit of the server wait, the client may be allowed more
+        .encoderEnforceMaxConcurrentStreams(true)
         .build();
     ctx.pipeline()
         .addBefore(ctx.name(), null, http2ConnectionHandler);
@@ -74,20 +95,42 @@ public class Http2BackendHandler
       ctx.write(msg, promise);
       return;
     }
-    Http2FrameWrapper<?> frame = (Http2FrameWrapper<?>) msg;
+    Http2FrameWrapper<?> frame = profile.relayed((Http2FrameWrapper<?>) msg);
     if (ready.isSuccess()) {
-      frame.write(ctx, http2ConnectionHandler.encoder(), getUpstreamStreamId(frame.streamId()),
-          promise);
-      ctx.flush();
+      writeFrame(ctx, frame, promise);
     } else {
       ready.addListener(ignore -> {
-        frame.write(ctx, http2ConnectionHandler.encoder(), getUpstreamStreamId(frame.streamId()),
-            promise);
+        writeFrame(ctx, frame, promise);
         ctx.flush();
       });
     }
   }
 
+  private void writeFrame(ChannelHandlerContext ctx, Http2FrameWrapper<?> frame,
+      ChannelPromise promise) {
+    int streamId = getUpstreamStreamId(frame);
+    if (streamId < 0) {
+      // The stream was already closed on the server side
+      LOGGER.debug("{} : drop frame of closed stream {}", connectionContext, frame.streamId());
+      ReferenceCountUtil.release(frame);
+      promise.setFailure(new IllegalStateException("No stream found: " + frame.streamId()));
+      return;
+    }
+    if (isFrame(frame, Http2PriorityFrame.class)) {
+      // The dependency is a stream of the client connection as well
+      Http2PriorityFrame priority = frame.frame(Http2PriorityFrame.class);
+      frame = frameWrapper(frame.streamId(), new DefaultHttp2PriorityFrame(
+          streams.upstream(priority.streamDependency()), priority.weight(), priority.exclusive()));
+    }
+    frame.write(ctx, http2ConnectionHandler, streamId, promise);
+  }
+
+  @Override
+  public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
+    flusher.flush(connectionContext.clientChannel());
+    ctx.fireChannelReadComplete();
+  }
+
   @Override
   public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
     LOGGER.debug(format("%s : exceptionCaught", connectionContext), cause);
@@ -96,7 +139,8 @@ public class Http2BackendHandler
 
   @Override
   public void channelInactive(ChannelHandlerContext ctx) throws Exception {
-    LOGGER.debug("{} : channelInactive", connectionContext);
+    LOGGER.debug("{} : channelInactive with {}", connectionContext,
+        flowControlMonitor.metrics());
     connectionContext.clientChannel().close();
   }
 
@@ -104,18 +148,21 @@ public class Http2BackendHandler
   public int onDataRead(ChannelHandlerContext ctx, int streamId, ByteBuf data, int padding,
       boolean endOfStream) throws Http2Exception {
     int originStreamId = getOriginStreamId(streamId);
-    connectionContext.clientChannel().writeAndFlush(frameWrapper(originStreamId,
-        new DefaultHttp2DataFrame(data.retainedDuplicate(), endOfStream, padding)));
-    return data.readableBytes() + padding;
+    int bytes = data.readableBytes() + padding;
+    // Return the bytes to the server only after the client accepted them, so that a slow client
+    // slows down the server instead of the data piling up in the proxy
+    relay(frameWrapper(originStreamId, data.retain(), padding, endOfStream), bytes)
+        .addListener(ignore -> Http2Util.consumeBytes(
+            this.ctx, http2ConnectionHandler, streamId, bytes));
+    return 0;
   }
 
   @Override
   public void onHeadersRead(ChannelHandlerContext ctx, int streamId, Http2Headers headers,
       int padding, boolean endOfStream) throws Http2Exception {
     int originStreamId = getOriginStreamId(streamId);
-    connectionContext.clientChannel().writeAndFlush(
-        frameWrapper(originStreamId,
-        new DefaultHttp2HeadersFrame(headers, endOfStream, padding)));
+    relay(frameWrapper(originStreamId,
+        new DefaultHttp2HeadersFrame(headers, endOfStream, padding)), 0);
   }
 
   @Override
@@ -123,23 +170,28 @@ public class Http2BackendHandler
       int streamDependency, short weight, boolean exclusive, int padding, boolean endOfStream)
       throws Http2Exception {
     int originStreamId = getOriginStreamId(streamId);
-    connectionContext.clientChannel().writeAndFlush(
-        frameWrapper(originStreamId,
-        new DefaultHttp2HeadersFrame(headers, endOfStream, padding)));
+    relay(frameWrapper(originStreamId,
+        new DefaultHttp2HeadersFrame(headers, endOfStream, padding)), 0);
+    if (!isDefaultPriority(streamDependency, weight, exclusive)) {
+      onPriorityRead(ctx, streamId, streamDependency, weight, exclusive);
+    }
   }
 
   @Override
   public void onPriorityRead(ChannelHandlerContext ctx, int streamId, int streamDependency,
       short weight, boolean exclusive) throws Http2Exception {
+    int originStreamId = streams.origin(streamId);
+    if (originStreamId != 0) {
+      relay(frameWrapper(originStreamId, new DefaultHttp2PriorityFrame(
+          streams.origin(streamDependency), weight, exclusive)), 0);
+    }
   }
 
   @Override
   public void onRstStreamRead(ChannelHandlerContext ctx, int streamId, long errorCode)
       throws Http2Exception {
     int originStreamId = getOriginStreamId(streamId);
-    connectionContext.clientChannel().writeAndFlush(
-        frameWrapper(originStreamId,
-        new DefaultHttp2ResetFrame(errorCode)));
+    relay(frameWrapper(originStreamId, new DefaultHttp2ResetFrame(errorCode)), 0);
   }
 
   @Override
@@ -151,57 +203,115 @@ public class Http2BackendHandler
       throws Http2Exception {
     ready.setSuccess();
 
-    connectionContext.clientChannel().writeAndFlush(
-        frameWrapper(0,
-        new DefaultHttp2SettingsFrame(settings)));
+    relay(frameWrapper(0, new DefaultHttp2SettingsFrame(settings)), 0);
   }
 
   @Override
   public void onPingRead(ChannelHandlerContext ctx, long data) throws Http2Exception {
+    relay(frameWrapper(0, new DefaultHttp2PingFrame(data, false)), 0);
   }
 
   @Override
   public void onPingAckRead(ChannelHandlerContext ctx, long data) throws Http2Exception {
+    relay(frameWrapper(0, new DefaultHttp2PingFrame(data, true)), 0);
   }
 
   @Override
   public void onPushPromiseRead(ChannelHandlerContext ctx, int streamId, int promisedStreamId,
       Http2Headers headers, int padding) throws Http2Exception {
+    int originStreamId = getOriginStreamId(streamId);
+    int originPromisedStreamId = nextPushStreamId;
+    nextPushStreamId += 2;
+    streams.put(originPromisedStreamId, promisedStreamId);
+    relay(new Http2PushPromiseFrameWrapper(originStreamId, originPromisedStreamId,
+        new DefaultHttp2PushPromiseFrame(headers, padding)), 0)
+        .addListener(future -> {
+          if (!future.isSuccess()) {
+            // The client won't accept the push, cancel it on the server
+            LOGGER.debug("{} : cancel push stream {}", connectionContext, promisedStreamId);
+            http2ConnectionHandler.resetStream(this.ctx, promisedStreamId,
+                Http2Error.CANCEL.code(), this.ctx.newPromise());
+          }
+        });
   }
 
   @Override
   public void onGoAwayRead(ChannelHandlerContext ctx, int lastStreamId, long errorCode,
       ByteBuf debugData) throws Http2Exception {
+    // The streams after lastStreamId are already closed, let the client retry them
+    relay(frameWrapper(getLastOriginStreamId(lastStreamId),
+        new DefaultHttp2GoAwayFrame(errorCode, debugData.retain())), 0);
   }
 
   @Override
   public void onWindowUpdateRead(ChannelHandlerContext ctx, int streamId, int windowSizeIncrement)
       throws Http2Exception {
-    int originStreamId = getOriginStreamId(streamId);
-    connectionContext.clientChannel().writeAndFlush(
-        frameWrapper(originStreamId,
-        new DefaultHttp2WindowUpdateFrame(windowSizeIncrement)));
   }
 
   @Override
   public void onUnknownFrame(ChannelHandlerContext ctx, byte frameType, int streamId,
       Http2Flags flags, ByteBuf payload) throws Http2Exception {
+    int originStreamId = streamId == 0 ? 0 : streams.origin(streamId);
+    if (streamId != 0 && originStreamId == 0) {
+      // The stream was already closed on the client side
+      return;
+    }
+    relay(frameWrapper(originStreamId,
+        new DefaultHttp2UnknownFrame(frameType, flags, payload.retain())), 0);
+  }
+
+  private ChannelFuture relay(Http2FrameWrapper<?> frame, int bytes) {
+    if (frame.isHeaders()) {
+      connectionContext.timings().onResponse(connectionContext.getServerAddr());
+    }
+    if (connectionContext.observers().isEnabled()) {
+      connectionContext.observers().onHttp2ServerFrame(connectionContext, frame.streamId(),
+          frame.frame());
+    }
+    return flusher.write(connectionContext.clientChannel(), frame, bytes);
   }
 
-  private int getUpstreamStreamId(int streamId) {
+  /**
+   * Get the stream id of the server connection, a new stream is mapped for the headers that open a
+   * stream.
+   *
+   * @param frame the frame from the client
+   * @return the stream id of the server connection, or {@code -1} if the stream was closed
+   */
+  private int getUpstreamStreamId(Http2FrameWrapper<?> frame) {
+    int streamId = frame.streamId();
     if (streamId == 0) {
       return streamId;
     }
-    return streams.computeIfAbsent(streamId, ignore -> currentStreamId.getAndAdd(2));
+    if (isFrame(frame, Http2GoAwayFrame.class)) {
+      return streamId == Integer.MAX_VALUE ? streamId : streams.lastUpstream(streamId);
+    }
+    int upstreamStreamId = streams.upstream(streamId);
+    if (upstreamStreamId != 0) {
+      return upstreamStreamId;
+    }
+    if (!frame.isHeaders()) {
+      return -1;
+    }
+    upstreamStreamId = nextStreamId;
+    nextStreamId += 2;
+    streams.put(streamId, upstreamStreamId);
+    return upstreamStreamId;
+  }
+
+  private int getLastOriginStreamId(int lastStreamId) {
+    // A graceful shutdown starts with the max stream id, the server still accepts new streams
+    return lastStreamId == Integer.MAX_VALUE ? lastStreamId : streams.lastOrigin(lastStreamId);
   }
 
   private int getOriginStreamId(int streamId) {
     if (streamId == 0) {
       return streamId;
     }
-    if (!streams.inverse().containsKey(streamId)) {
+    int originStreamId = streams.origin(streamId);
+    if (originStreamId == 0) {
       throw new IllegalStateException("No stream found: " + streamId);
     }
-    return streams.inverse().get(streamId);
+    return originStreamId;
   }
 }
\ No newline at end of file
@@ -1,78 +1,202 @@
 package com.github.chhsiao90.nitmproxy.handler.protocol.http2;
 
+import static io.netty.util.internal.ObjectUtil.checkNotNull;
+
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.ByteBufHolder;
-import io.netty.handler.codec.http2.DefaultHttp2DataFrame;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.http2.Http2ConnectionHandler;
+import io.netty.handler.codec.http2.Http2DataFrame;
+import io.netty.handler.codec.http2.Http2FrameStream;
+import io.netty.util.IllegalReferenceCountException;
+import io.netty.util.internal.ObjectPool;
+import io.netty.util.internal.ObjectPool.Handle;
 
+/**
+ * The relayed DATA frame, which is the wrapper and the frame at the same time.
+ *
+ * <p>DATA frames are the bulk of a relayed connection, so the instances are recycled instead of
+ * allocating a wrapper and a frame for every one of them. The wrapper holds one reference to the
+ * content, and goes back to the pool when it was written or released.</p>
+ */
 public class Http2DataFrameWrapper
-    extends Http2FrameWrapper<DefaultHttp2DataFrame>
-    implements ByteBufHolder {
+    extends Http2FrameWrapper<Http2DataFrame>
+    implements Http2DataFrame {
+
+  private static final ObjectPool<Http2DataFrameWrapper> RECYCLER =
+      ObjectPool.newPool(Http2DataFrameWrapper::new);
+
+  private final Handle<Http2DataFrameWrapper> handle;
 
-  public Http2DataFrameWrapper(int streamId, DefaultHttp2DataFrame frame) {
-    super(streamId, frame);
+  private Http2FrameStream stream;
+  private ByteBuf content;
+  private int padding;
+  private boolean endStream;
+  private int refCnt;
+
+  private Http2DataFrameWrapper(Handle<Http2DataFrameWrapper> handle) {
+    super(0, null);
+    this.handle = handle;
+  }
+
+  /**
+   * Get a DATA frame wrapper from the pool.
+   *
+   * @param streamId the stream id
+   * @param content the content, the ownership is transferred to the wrapper
+   * @param padding the padding
+   * @param endStream {@code true} if it's the last frame of the stream
+   * @return the wrapper
+   */
+  public static Http2DataFrameWrapper newInstance(int streamId, ByteBuf content, int padding,
+      boolean endStream) {
+    Http2DataFrameWrapper wrapper = RECYCLER.get();
+    wrapper.streamId = streamId;
+    wrapper.frame = wrapper;
+    wrapper.stream = null;
+    wrapper.content = checkNotNull(content, "content");
+    wrapper.padding = padding;
+    wrapper.endStream = endStream;
+    wrapper.refCnt = 1;
+    return wrapper;
+  }
+
+  @Override
+  public void write(ChannelHandlerContext ctx, Http2ConnectionHandler handler, int streamId,
+      ChannelPromise promise) {
+    ByteBuf content = content();
+    int padding = this.padding;
+    boolean endStream = this.endStream;
+    // Every reference of the wrapper holds one to the content, the one written is transferred to
+    // the encoder
+    if (--refCnt == 0) {
+      recycle();
+    }
+    handler.encoder().writeData(ctx, streamId, content, padding, endStream, promise);
   }
 
   @Override
   public ByteBuf content() {
-    return frame().content();
+    if (refCnt <= 0) {
+      throw new IllegalReferenceCountException(refCnt);
+    }
+    return content;
+  }
+
+  @Override
+  public int padding() {
+    return padding;
+  }
+
+  @Override
+  public int initialFlowControlledBytes() {
+    return content.readableBytes() + padding;
+  }
+
+  @Override
+  public boolean isEndStream() {
+    return endStream;
+  }
+
+  @Override
+  public Http2FrameStream stream() {
+    return stream;
+  }
+
+  /**
+   * Set the stream of the frame for the frame codec. The relayed frame is still written to
+   * {@link #streamId()} by {@link #write(ChannelHandlerContext, Http2ConnectionHandler, int,
+   * ChannelPromise)}.
+   */
+  @Override
+  public Http2DataFrameWrapper stream(Http2FrameStream stream) {
+    this.stream = stream;
+    return this;
+  }
+
+  @Override
+  public String name() {
+    return "DATA";
   }
 
   @Override
   public Http2DataFrameWrapper copy() {
-    return replace(frame.content().copy());
+    return replace(content().copy());
   }
 
   @Override
   public Http2DataFrameWrapper duplicate() {
-    return replace(frame.content().duplicate());
+    return replace(content().duplicate());
   }
 
   @Override
   public Http2DataFrameWrapper retainedDuplicate() {
-    return replace(frame.content().retainedDuplicate());
+    return replace(content().retainedDuplicate());
   }
 
   @Override
   public Http2DataFrameWrapper replace(ByteBuf content) {
-    return new Http2DataFrameWrapper(streamId, frame.replace(content));
+    return newInstance(streamId, content, padding, endStream).stream(stream);
   }
 
   @Override
   public int refCnt() {
-    return frame().refCnt();
+    return refCnt;
   }
 
   @Override
   public Http2DataFrameWrapper retain() {
-    frame.retain();
-    return this;
+    return retain(1);
   }
 
   @Override
   public Http2DataFrameWrapper retain(int increment) {
-    frame.retain(increment);
+    content().retain(increment);
+    refCnt += increment;
     return this;
   }
 
   @Override
   public Http2DataFrameWrapper touch() {
-    frame.touch();
+    content().touch();
     return this;
   }
 
   @Override
   public Http2DataFrameWrapper touch(Object hint) {
-    frame.touch(hint);
+    content().touch(hint);
     return this;
   }
 
   @Override
   public boolean release() {
-    return frame.release();
+    return release(1);
   }
 
   @Override
   public boolean release(int decrement) {
-    return frame.release(decrement);
+    if (decrement > refCnt) {
+      throw new IllegalReferenceCountException(refCnt, -decrement);
+    }
+    ByteBuf content = this.content;
+    refCnt -= decrement;
+    if (refCnt == 0) {
+      recycle();
+    }
+    content.release(decrement);
+    return refCnt == 0;
+  }
+
+  private void recycle() {
+    stream = null;
+    content = null;
+    frame = null;
+    handle.recycle(this);
+  }
+
+  @Override
+  public String toString() {
+    return "Http2DataFrameWrapper(stream=" + streamId + ", content=" + content
+           + ", endStream=" + endStream + ", padding=" + padding + ")";
   }
 }
@@ -0,0 +1,75 @@
+package com.github.chhsiao90.nitmproxy.handler.protocol.http2;
+
+import static java.lang.String.format;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts how often the flow-control windows of HTTP/2 connections are exhausted, which shows if
+ * the windows of {@link Http2SettingsProfile} are too small for the links.
+ *
+ * <ul>
+ *   <li>local: the peer used up the window the proxy gave, the peer stalls until the relayed data
+ *   is written to the other side</li>
+ *   <li>remote: the proxy used up the window the peer gave, the relayed data is queued</li>
+ * </ul>
+ *
+ * <p>Each connection has its own metrics, which are also added to {@link #total()}.</p>
+ */
+public class Http2FlowControlMetrics {
+  private static final Http2FlowControlMetrics TOTAL = new Http2FlowControlMetrics(null);
+
+  private final Http2FlowControlMetrics parent;
+  private final LongAdder localWindowExhausted = new LongAdder();
+  private final LongAdder remoteWindowExhausted = new LongAdder();
+
+  private Http2FlowControlMetrics(Http2FlowControlMetrics parent) {
+    this.parent = parent;
+  }
+
+  /**
+   * Create the metrics of a connection.
+   *
+   * @return the metrics
+   */
+  public static Http2FlowControlMetrics newConnectionMetrics() {
+    return new Http2FlowControlMetrics(TOTAL);
+  }
+
+  /**
+   * Get the metrics of all the connections.
+   *
+   * @return the metrics
+   */
+  public static Http2FlowControlMetrics total() {
+    return TOTAL;
+  }
+
+  public long localWindowExhausted() {
+    return localWindowExhausted.sum();
+  }
+
+  public long remoteWindowExhausted() {
+    return remoteWindowExhausted.sum();
+  }
+
+  void onLocalWindowExhausted() {
+    localWindowExhausted.increment();
+    if (parent != null) {
+      parent.onLocalWindowExhausted();
+    }
+  }
+
+  void onRemoteWindowExhausted() {
+    remoteWindowExhausted.increment();
+    if (parent != null) {
+      parent.onRemoteWindowExhausted();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return format("localWindowExhausted=%d, remoteWindowExhausted=%d",
+        localWindowExhausted(), remoteWindowExhausted());
+  }
+}
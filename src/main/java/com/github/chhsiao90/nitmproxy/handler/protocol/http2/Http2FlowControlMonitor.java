@@ -0,0 +1,101 @@
+package com.github.chhsiao90.nitmproxy.handler.protocol.http2;
+
+import static io.netty.handler.codec.http2.Http2CodecUtil.DEFAULT_WINDOW_SIZE;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http2.Http2Connection;
+import io.netty.handler.codec.http2.Http2Exception;
+import io.netty.handler.codec.http2.Http2FrameListener;
+import io.netty.handler.codec.http2.Http2FrameListenerDecorator;
+import io.netty.handler.codec.http2.Http2LocalFlowController;
+import io.netty.handler.codec.http2.Http2RemoteFlowController;
+import io.netty.handler.codec.http2.Http2Settings;
+import io.netty.handler.codec.http2.Http2Stream;
+
+/**
+ * Applies the flow control of a {@link Http2SettingsProfile} to a connection, and counts the
+ * exhausted windows in {@link Http2FlowControlMetrics}.
+ *
+ * <p>The remote window of a stream is counted as exhausted when the stream has more data to write
+ * than the window of the peer allows.</p>
+ *
+ * <p>The SETTINGS only change the windows of the streams, the window of the connection is opened
+ * with a WINDOW_UPDATE to the same size once the preface was exchanged, otherwise the connection
+ * window of 64 KiB caps all the streams together.</p>
+ */
+public class Http2FlowControlMonitor extends Http2FrameListenerDecorator {
+
+  private final Http2Connection connection;
+  private final Http2SettingsProfile profile;
+  private final Http2FlowControlMetrics metrics = Http2FlowControlMetrics.newConnectionMetrics();
+  private Runnable writabilityListener;
+  private boolean started;
+
+  public Http2FlowControlMonitor(Http2Connection connection, Http2SettingsProfile profile,
+      Http2FrameListener listener) {
+    super(listener);
+    this.connection = connection;
+    this.profile = profile;
+  }
+
+  public Http2FlowControlMetrics metrics() {
+    return metrics;
+  }
+
+  /**
+   * Set the listener notified whenever a stream becomes writable or not writable, since the remote
+   * flow controller has a single listener which is taken by the monitor.
+   *
+   * @param writabilityListener the listener
+   */
+  public void writabilityListener(Runnable writabilityListener) {
+    this.writabilityListener = writabilityListener;
+  }
+
+  @Override
+  public int onDataRead(ChannelHandlerContext ctx, int streamId, ByteBuf data, int padding,
+      boolean endOfStream) throws Http2Exception {
+    // The window was already decreased by the frame
+    Http2LocalFlowController flowController = connection.local().flowController();
+    Http2Stream stream = connection.stream(streamId);
+    if (flowController.windowSize(connection.connectionStream()) <= 0
+        || stream != null && flowController.windowSize(stream) <= 0) {
+      metrics.onLocalWindowExhausted();
+    }
+    return super.onDataRead(ctx, streamId, data, padding, endOfStream);
+  }
+
+  @Override
+  public void onSettingsRead(ChannelHandlerContext ctx, Http2Settings settings)
+      throws Http2Exception {
+    if (!started) {
+      // The first SETTINGS is the preface of the peer, the preface of the proxy was sent before
+      started = true;
+      openConnectionWindow();
+      monitorRemoteWindow(ctx);
+    }
+    super.onSettingsRead(ctx, settings);
+  }
+
+  private void openConnectionWindow() throws Http2Exception {
+    Integer windowSize = profile.initialWindowSize();
+    if (windowSize != null && windowSize > DEFAULT_WINDOW_SIZE) {
+      connection.local().flowController().incrementWindowSize(connection.connectionStream(),
+          windowSize - DEFAULT_WINDOW_SIZE);
+    }
+  }
+
+  private void monitorRemoteWindow(ChannelHandlerContext ctx) {
+    Http2RemoteFlowController flowController = connection.remote().flowController();
+    flowController.listener(stream -> {
+      // The streams are also not writable when the channel isn't, that's not the window
+      if (!flowController.isWritable(stream) && ctx.channel().isWritable()) {
+        metrics.onRemoteWindowExhausted();
+      }
+      if (writabilityListener != null) {
+        writabilityListener.run();
+      }
+    });
+  }
+}
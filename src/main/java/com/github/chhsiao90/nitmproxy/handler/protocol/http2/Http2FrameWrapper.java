@@ -1,17 +1,33 @@
 package com.github.chhsiao90.nitmproxy.handler.protocol.http2;
 
+import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelPromise;
 import io.netty.handler.codec.http2.DefaultHttp2DataFrame;
 import io.netty.handler.codec.http2.Http2ConnectionEncoder;
+import io.netty.handler.codec.http2.Http2ConnectionHandler;
 import io.netty.handler.codec.http2.Http2DataFrame;
 import io.netty.handler.codec.http2.Http2Frame;
+import io.netty.handler.codec.http2.Http2GoAwayFrame;
 import io.netty.handler.codec.http2.Http2HeadersFrame;
+import io.netty.handler.codec.http2.Http2PingFrame;
+import io.netty.handler.codec.http2.Http2PriorityFrame;
 import io.netty.handler.codec.http2.Http2ResetFrame;
 import io.netty.handler.codec.http2.Http2SettingsFrame;
-import io.netty.handler.codec.http2.Http2WindowUpdateFrame;
+import io.netty.handler.codec.http2.Http2UnknownFrame;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.ReferenceCounted;
 
-public class Http2FrameWrapper<T extends Http2Frame> {
+/**
+ * A frame relayed to the other side of the proxy, with the stream id of the side it was read from.
+ *
+ * <p>The stream id of a GOAWAY frame is the last stream id of the frame. The wrapper releases the
+ * content of the frame if there is one, so a dropped frame can be released without knowing its
+ * type.</p>
+ *
+ * @param <T> the frame type
+ */
+public class Http2FrameWrapper<T extends Http2Frame> implements ReferenceCounted {
   protected int streamId;
   protected T frame;
 
@@ -21,7 +37,13 @@ public class Http2FrameWrapper<T extends Http2Frame> {
   }
 
   public static Http2DataFrameWrapper frameWrapper(int streamId, DefaultHttp2DataFrame frame) {
-    return new Http2DataFrameWrapper(streamId, frame);
+    return Http2DataFrameWrapper.newInstance(streamId, frame.content(), frame.padding(),
+        frame.isEndStream());
+  }
+
+  public static Http2DataFrameWrapper frameWrapper(int streamId, ByteBuf content, int padding,
+      boolean endStream) {
+    return Http2DataFrameWrapper.newInstance(streamId, content, padding, endStream);
   }
 
   public static <T extends Http2Frame> Http2FrameWrapper<T> frameWrapper(
@@ -75,16 +97,56 @@ public class Http2FrameWrapper<T extends Http2Frame> {
     return frame instanceof Http2HeadersFrame;
   }
 
+  @Override
+  public int refCnt() {
+    return frame instanceof ReferenceCounted ? ((ReferenceCounted) frame).refCnt() : 1;
+  }
+
+  @Override
+  public Http2FrameWrapper<T> retain() {
+    ReferenceCountUtil.retain(frame);
+    return this;
+  }
+
+  @Override
+  public Http2FrameWrapper<T> retain(int increment) {
+    ReferenceCountUtil.retain(frame, increment);
+    return this;
+  }
+
+  @Override
+  public Http2FrameWrapper<T> touch() {
+    ReferenceCountUtil.touch(frame);
+    return this;
+  }
+
+  @Override
+  public Http2FrameWrapper<T> touch(Object hint) {
+    ReferenceCountUtil.touch(frame, hint);
+    return this;
+  }
+
+  @Override
+  public boolean release() {
+    return ReferenceCountUtil.release(frame);
+  }
+
+  @Override
+  public boolean release(int decrement) {
+    return ReferenceCountUtil.release(frame, decrement);
+  }
+
   /**
    * Writes toe frame.
    *
    * @param ctx the ctx
-   * @param encoder the encoder
+   * @param handler the connection handler
    * @param streamId the stream id
    * @param promise the promise
    */
-  public void write(ChannelHandlerContext ctx, Http2ConnectionEncoder encoder, int streamId,
+  public void write(ChannelHandlerContext ctx, Http2ConnectionHandler handler, int streamId,
       ChannelPromise promise) {
+    Http2ConnectionEncoder encoder = handler.encoder();
     if (frame instanceof Http2HeadersFrame) {
       Http2HeadersFrame headersFrame = (Http2HeadersFrame) frame;
       encoder.writeHeaders(ctx, streamId, headersFrame.headers(), headersFrame.padding(),
@@ -96,12 +158,27 @@ public class Http2FrameWrapper<T extends Http2Frame> {
     } else if (frame instanceof Http2ResetFrame) {
       Http2ResetFrame resetFrame = (Http2ResetFrame) frame;
       encoder.writeRstStream(ctx, streamId, resetFrame.errorCode(), promise);
-    } else if (frame instanceof Http2WindowUpdateFrame) {
-      Http2WindowUpdateFrame windowUpdateFrame = (Http2WindowUpdateFrame) frame;
-      encoder.writeWindowUpdate(ctx, streamId, windowUpdateFrame.windowSizeIncrement(), promise);
     } else if (frame instanceof Http2SettingsFrame) {
       Http2SettingsFrame settingsFrame = (Http2SettingsFrame) frame;
       encoder.writeSettings(ctx, settingsFrame.settings(), promise);
+    } else if (frame instanceof Http2PriorityFrame) {
+      Http2PriorityFrame priorityFrame = (Http2PriorityFrame) frame;
+      encoder.writePriority(ctx, streamId, priorityFrame.streamDependency(),
+          priorityFrame.weight(), priorityFrame.exclusive(), promise);
+    } else if (frame instanceof Http2PingFrame) {
+      Http2PingFrame pingFrame = (Http2PingFrame) frame;
+      encoder.writePing(ctx, pingFrame.ack(), pingFrame.content(), promise);
+    } else if (frame instanceof Http2GoAwayFrame) {
+      // Sent through the handler, so that the connection stops accepting new streams
+      Http2GoAwayFrame goAwayFrame = (Http2GoAwayFrame) frame;
+      handler.goAway(ctx, streamId, goAwayFrame.errorCode(), goAwayFrame.content(), promise);
+    } else if (frame instanceof Http2UnknownFrame) {
+      Http2UnknownFrame unknownFrame = (Http2UnknownFrame) frame;
+      encoder.writeFrame(ctx, unknownFrame.frameType(), streamId, unknownFrame.flags(),
+          unknownFrame.content(), promise);
+    } else {
+      ReferenceCountUtil.release(frame);
+      promise.setFailure(new IllegalStateException("Unsupported frame: " + frame.name()));
     }
   }
 }
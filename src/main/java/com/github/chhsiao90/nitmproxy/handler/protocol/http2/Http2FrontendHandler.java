@@ -1,9 +1,11 @@
 package com.github.chhsiao90.nitmproxy.handler.protocol.http2;
 
 import static com.github.chhsiao90.nitmproxy.handler.protocol.http2.Http2FrameWrapper.frameWrapper;
-import static io.netty.handler.logging.LogLevel.DEBUG;
+import static com.github.chhsiao90.nitmproxy.handler.protocol.http2.Http2Util.isDefaultPriority;
 
 import com.github.chhsiao90.nitmproxy.ConnectionContext;
+import com.github.chhsiao90.nitmproxy.metrics.ProxyMetrics;
+import com.github.chhsiao90.nitmproxy.metrics.RequestType;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -14,18 +16,18 @@ import io.netty.channel.ChannelInboundHandlerAdapter;
 import io.netty.channel.ChannelOutboundHandlerAdapter;
 import io.netty.channel.ChannelPromise;
 import io.netty.handler.codec.http2.DefaultHttp2Connection;
-import io.netty.handler.codec.http2.DefaultHttp2DataFrame;
+import io.netty.handler.codec.http2.DefaultHttp2GoAwayFrame;
 import io.netty.handler.codec.http2.DefaultHttp2HeadersFrame;
+import io.netty.handler.codec.http2.DefaultHttp2PingFrame;
+import io.netty.handler.codec.http2.DefaultHttp2PriorityFrame;
 import io.netty.handler.codec.http2.DefaultHttp2ResetFrame;
 import io.netty.handler.codec.http2.DefaultHttp2SettingsFrame;
-import io.netty.handler.codec.http2.DefaultHttp2WindowUpdateFrame;
+import io.netty.handler.codec.http2.DefaultHttp2UnknownFrame;
 import io.netty.handler.codec.http2.Http2Connection;
 import io.netty.handler.codec.http2.Http2ConnectionHandler;
-import io.netty.handler.codec.http2.Http2ConnectionHandlerBuilder;
 import io.netty.handler.codec.http2.Http2Exception;
 import io.netty.handler.codec.http2.Http2Flags;
 import io.netty.handler.codec.http2.Http2FrameListener;
-import io.netty.handler.codec.http2.Http2FrameLogger;
 import io.netty.handler.codec.http2.Http2Headers;
 import io.netty.handler.codec.http2.Http2Settings;
 
@@ -37,6 +39,10 @@ public class Http2FrontendHandler
 
   private ConnectionContext connectionContext;
   private Http2ConnectionHandler http2ConnectionHandler;
+  private Http2SettingsProfile profile;
+  private Http2FlowControlMonitor flowControlMonitor;
+  private ChannelHandlerContext ctx;
+  private int lastStreamId;
 
   public Http2FrontendHandler(ConnectionContext connectionContext) {
     this.connectionContext = connectionContext;
@@ -46,11 +52,14 @@ public class Http2FrontendHandler
   public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
     LOGGER.debug("{} : handlerAdded", connectionContext);
 
+    this.ctx = ctx;
     Http2Connection http2Connection = new DefaultHttp2Connection(true);
-    http2ConnectionHandler = new Http2ConnectionHandlerBuilder()
+    profile = Http2SettingsProfile.client(connectionContext);
+    flowControlMonitor = new Http2FlowControlMonitor(http2Connection, profile, this);
+    http2ConnectionHandler = new Http2RelayHandlerBuilder()
         .connection(http2Connection)
-        .frameListener(this)
-        .frameLogger(new Http2FrameLogger(DEBUG))
+        .frameListener(flowControlMonitor)
+        .initialSettings(profile.initialSettings())
         .build();
 
     ctx.pipeline()
@@ -62,9 +71,8 @@ public class Http2FrontendHandler
   public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise)
       throws Exception {
     if (msg instanceof Http2FrameWrapper) {
-      Http2FrameWrapper<?> frame = (Http2FrameWrapper<?>) msg;
-      frame.write(ctx, http2ConnectionHandler.encoder(), frame.streamId(), promise);
-      ctx.flush();
+      Http2FrameWrapper<?> frame = profile.relayed((Http2FrameWrapper<?>) msg);
+      frame.write(ctx, http2ConnectionHandler, frame.streamId(), promise);
     } else {
       ctx.write(msg, promise);
     }
@@ -73,14 +81,16 @@ public class Http2FrontendHandler
   @Override
   public int onDataRead(ChannelHandlerContext ctx, int streamId, ByteBuf data, int padding,
       boolean endOfStream) throws Http2Exception {
-    ctx.fireChannelRead(frameWrapper(streamId,
-        new DefaultHttp2DataFrame(data.retainedDuplicate(), endOfStream, padding)));
-    return data.readableBytes() + padding;
+    // The data is relayed as is, the decoder keeps the read bytes while they are retained
+    ctx.fireChannelRead(frameWrapper(streamId, data.retain(), padding, endOfStream));
+    // The bytes are consumed after written to the server, see ToUpstreamHandler
+    return 0;
   }
 
   @Override
   public void onHeadersRead(ChannelHandlerContext ctx, int streamId, Http2Headers headers,
       int padding, boolean endOfStream) throws Http2Exception {
+    onRequestHeaders(streamId);
     ctx.fireChannelRead(frameWrapper(streamId,
         new DefaultHttp2HeadersFrame(headers, endOfStream, padding)));
   }
@@ -89,20 +99,34 @@ public class Http2FrontendHandler
   public void onHeadersRead(ChannelHandlerContext ctx, int streamId, Http2Headers headers,
       int streamDependency, short weight, boolean exclusive, int padding, boolean endOfStream)
       throws Http2Exception {
+    onRequestHeaders(streamId);
     ctx.fireChannelRead(frameWrapper(streamId,
         new DefaultHttp2HeadersFrame(headers, endOfStream, padding)));
+    if (!isDefaultPriority(streamDependency, weight, exclusive)) {
+      onPriorityRead(ctx, streamId, streamDependency, weight, exclusive);
+    }
+  }
+
+  private void onRequestHeaders(int streamId) {
+    // The streams of the client are opened in order, the later headers of a stream are trailers
+    if (streamId > lastStreamId) {
+      lastStreamId = streamId;
+      ProxyMetrics.global().onRequest(RequestType.HTTP2);
+      connectionContext.timings().onRequest(connectionContext.getServerAddr());
+    }
   }
 
   @Override
   public void onPriorityRead(ChannelHandlerContext ctx, int streamId, int streamDependency,
       short weight, boolean exclusive) throws Http2Exception {
-
+    ctx.fireChannelRead(frameWrapper(streamId,
+        new DefaultHttp2PriorityFrame(streamDependency, weight, exclusive)));
   }
 
   @Override
   public void onRstStreamRead(ChannelHandlerContext ctx, int streamId, long errorCode)
       throws Http2Exception {
-    ctx.writeAndFlush(frameWrapper(streamId,
+    ctx.fireChannelRead(frameWrapper(streamId,
         new DefaultHttp2ResetFrame(errorCode)));
   }
 
@@ -119,52 +143,75 @@ public class Http2FrontendHandler
 
   @Override
   public void onPingRead(ChannelHandlerContext ctx, long data) throws Http2Exception {
+    ctx.fireChannelRead(frameWrapper(0, new DefaultHttp2PingFrame(data, false)));
   }
 
   @Override
   public void onPingAckRead(ChannelHandlerContext ctx, long data) throws Http2Exception {
+    ctx.fireChannelRead(frameWrapper(0, new DefaultHttp2PingFrame(data, true)));
   }
 
   @Override
   public void onPushPromiseRead(ChannelHandlerContext ctx, int streamId, int promisedStreamId,
       Http2Headers headers, int padding) throws Http2Exception {
+    // Clients never push, the decoder already rejected the frame
   }
 
   @Override
   public void onGoAwayRead(ChannelHandlerContext ctx, int lastStreamId, long errorCode,
       ByteBuf debugData) throws Http2Exception {
+    ctx.fireChannelRead(frameWrapper(lastStreamId,
+        new DefaultHttp2GoAwayFrame(errorCode, debugData.retain())));
   }
 
   @Override
   public void onWindowUpdateRead(ChannelHandlerContext ctx, int streamId, int windowSizeIncrement)
       throws Http2Exception {
-    ctx.fireChannelRead(frameWrapper(streamId,
-        new DefaultHttp2WindowUpdateFrame(windowSizeIncrement)));
   }
 
   @Override
   public void onUnknownFrame(ChannelHandlerContext ctx, byte frameType, int streamId,
       Http2Flags flags, ByteBuf payload) throws Http2Exception {
+    ctx.fireChannelRead(frameWrapper(streamId,
+        new DefaultHttp2UnknownFrame(frameType, flags, payload.retain())));
   }
 
   private class ToUpstreamHandler extends ChannelInboundHandlerAdapter {
+    private RelayFlusher flusher =
+        new RelayFlusher(connectionContext.config().getMaxHttp2BytesPerFlush());
 
     @Override
     public void channelInactive(ChannelHandlerContext ctx) throws Exception {
-      LOGGER.debug("{} : channelInactive", connectionContext);
+      LOGGER.debug("{} : channelInactive with {}", connectionContext,
+          flowControlMonitor.metrics());
       connectionContext.serverChannel().close();
     }
 
     @Override
     public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+      if (msg instanceof Http2FrameWrapper && connectionContext.observers().isEnabled()) {
+        Http2FrameWrapper<?> frame = (Http2FrameWrapper<?>) msg;
+        connectionContext.observers().onHttp2ClientFrame(connectionContext, frame.streamId(),
+            frame.frame());
+      }
       if (msg instanceof Http2DataFrameWrapper) {
         Http2DataFrameWrapper frameWrapper = (Http2DataFrameWrapper) msg;
-        connectionContext.serverChannel().writeAndFlush(frameWrapper);
+        int streamId = frameWrapper.streamId();
+        int bytes = frameWrapper.initialFlowControlledBytes();
+        flusher.write(connectionContext.serverChannel(), frameWrapper, bytes).addListener(
+            ignore -> Http2Util.consumeBytes(
+                Http2FrontendHandler.this.ctx, http2ConnectionHandler, streamId, bytes));
       } else if (msg instanceof Http2FrameWrapper) {
-        connectionContext.serverChannel().writeAndFlush(msg);
+        flusher.write(connectionContext.serverChannel(), msg, 0);
       } else {
         super.channelRead(ctx, msg);
       }
     }
+
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
+      flusher.flush(connectionContext.serverChannel());
+      super.channelReadComplete(ctx);
+    }
   }
 }
\ No newline at end of file
@@ -0,0 +1,42 @@
+package com.github.chhsiao90.nitmproxy.handler.protocol.http2;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.http2.Http2ConnectionHandler;
+import io.netty.handler.codec.http2.Http2PushPromiseFrame;
+import io.netty.handler.codec.http2.Http2Stream;
+
+/**
+ * The relayed PUSH_PROMISE frame, which also carries the promised stream id of the client
+ * connection.
+ */
+public class Http2PushPromiseFrameWrapper extends Http2FrameWrapper<Http2PushPromiseFrame> {
+  private final int promisedStreamId;
+
+  public Http2PushPromiseFrameWrapper(int streamId, int promisedStreamId,
+      Http2PushPromiseFrame frame) {
+    super(streamId, frame);
+    this.promisedStreamId = promisedStreamId;
+  }
+
+  public int promisedStreamId() {
+    return promisedStreamId;
+  }
+
+  @Override
+  public void write(ChannelHandlerContext ctx, Http2ConnectionHandler handler, int streamId,
+      ChannelPromise promise) {
+    // The encoder fails the whole connection if the promise can't be sent, fail only the push
+    if (!handler.connection().remote().allowPushTo()) {
+      promise.setFailure(new IllegalStateException("Server push is disabled by the client"));
+      return;
+    }
+    Http2Stream stream = handler.connection().stream(streamId);
+    if (stream == null || !stream.state().localSideOpen()) {
+      promise.setFailure(new IllegalStateException("No stream found: " + streamId));
+      return;
+    }
+    handler.encoder().writePushPromise(ctx, streamId, promisedStreamId, frame.http2Headers(),
+        frame.padding(), promise);
+  }
+}
@@ -0,0 +1,75 @@
+package com.github.chhsiao90.nitmproxy.handler.protocol.http2;
+
+import io.netty.handler.codec.http2.AbstractHttp2ConnectionHandlerBuilder;
+import io.netty.handler.codec.http2.Http2Connection;
+import io.netty.handler.codec.http2.Http2ConnectionDecoder;
+import io.netty.handler.codec.http2.Http2ConnectionEncoder;
+import io.netty.handler.codec.http2.Http2ConnectionHandler;
+import io.netty.handler.codec.http2.Http2FrameListener;
+import io.netty.handler.codec.http2.Http2FrameLogger;
+import io.netty.handler.codec.http2.Http2Settings;
+
+/**
+ * Builds the {@link Http2ConnectionHandler} of a relayed connection.
+ *
+ * <p>PING frames are not acknowledged by the proxy, they are relayed to the other side together
+ * with the acknowledgement, so the round trip measured by the peer is the actual one.</p>
+ *
+ * <p>The frames are logged only if the debug level of {@link Http2FrameLogger} was enabled when
+ * the connection was built, see {@link Http2Util#frameLogger()}.</p>
+ */
+public class Http2RelayHandlerBuilder
+    extends AbstractHttp2ConnectionHandlerBuilder<Http2ConnectionHandler, Http2RelayHandlerBuilder> {
+
+  public Http2RelayHandlerBuilder() {
+    autoAckPingFrame(false);
+    Http2FrameLogger frameLogger = Http2Util.frameLogger();
+    if (frameLogger != null) {
+      frameLogger(frameLogger);
+    }
+  }
+
+  @Override
+  public Http2RelayHandlerBuilder connection(Http2Connection connection) {
+    return super.connection(connection);
+  }
+
+  @Override
+  public Http2RelayHandlerBuilder frameListener(Http2FrameListener frameListener) {
+    return super.frameListener(frameListener);
+  }
+
+  @Override
+  public Http2RelayHandlerBuilder frameLogger(Http2FrameLogger frameLogger) {
+    return super.frameLogger(frameLogger);
+  }
+
+  @Override
+  public Http2RelayHandlerBuilder initialSettings(Http2Settings settings) {
+    return super.initialSettings(settings);
+  }
+
+  @Override
+  public Http2RelayHandlerBuilder encoderEnforceMaxConcurrentStreams(
+      boolean encoderEnforceMaxConcurrentStreams) {
+    return super.encoderEnforceMaxConcurrentStreams(encoderEnforceMaxConcurrentStreams);
+  }
+
+  @Override
+  public Http2ConnectionHandler build() {
+    return super.build();
+  }
+
+  @Override
+  protected Http2ConnectionHandler build(Http2ConnectionDecoder decoder,
+      Http2ConnectionEncoder encoder, Http2Settings initialSettings) {
+    return new RelayConnectionHandler(decoder, encoder, initialSettings);
+  }
+
+  private static class RelayConnectionHandler extends Http2ConnectionHandler {
+    RelayConnectionHandler(Http2ConnectionDecoder decoder, Http2ConnectionEncoder encoder,
+        Http2Settings initialSettings) {
+      super(decoder, encoder, initialSettings);
+    }
+  }
+}
@@ -0,0 +1,121 @@
+package com.github.chhsiao90.nitmproxy.handler.protocol.http2;
+
+import static com.github.chhsiao90.nitmproxy.handler.protocol.http2.Http2FrameWrapper.frameWrapper;
+import static com.github.chhsiao90.nitmproxy.handler.protocol.http2.Http2FrameWrapper.isFrame;
+
+import com.github.chhsiao90.nitmproxy.ConnectionContext;
+import com.github.chhsiao90.nitmproxy.NitmProxyConfig;
+
+import java.util.Map;
+
+import io.netty.handler.codec.http2.DefaultHttp2SettingsFrame;
+import io.netty.handler.codec.http2.Http2Settings;
+import io.netty.handler.codec.http2.Http2SettingsFrame;
+
+/**
+ * The SETTINGS the proxy sends on one side, which are
+ * {@link NitmProxyConfig#getClientHttp2Settings()} for the client connection and
+ * {@link NitmProxyConfig#getServerHttp2Settings()} for the server connection, overridden by the
+ * settings of the server host if there are.
+ *
+ * <p>The SETTINGS of a side are relayed to the other side, except the ones configured in the
+ * profile, so the configured settings stay in effect for the whole connection.</p>
+ */
+public class Http2SettingsProfile {
+
+  private final Http2Settings settings;
+
+  public Http2SettingsProfile(Http2Settings settings) {
+    this.settings = settings;
+  }
+
+  /**
+   * Get the profile of the client connection.
+   *
+   * @param connectionContext the connection context
+   * @return the profile
+   */
+  public static Http2SettingsProfile client(ConnectionContext connectionContext) {
+    NitmProxyConfig config = connectionContext.config();
+    return of(config.getClientHttp2Settings(), config.getClientHttp2SettingsByHost(),
+        connectionContext);
+  }
+
+  /**
+   * Get the profile of the server connection.
+   *
+   * @param connectionContext the connection context
+   * @return the profile
+   */
+  public static Http2SettingsProfile server(ConnectionContext connectionContext) {
+    NitmProxyConfig config = connectionContext.config();
+    return of(config.getServerHttp2Settings(), config.getServerHttp2SettingsByHost(),
+        connectionContext);
+  }
+
+  private static Http2SettingsProfile of(Http2Settings settings,
+      Map<String, Http2Settings> settingsByHost, ConnectionContext connectionContext) {
+    Http2Settings merged = new Http2Settings();
+    merged.putAll(settings);
+    if (connectionContext.getServerAddr() != null) {
+      Http2Settings hostSettings = settingsByHost.get(connectionContext.getServerAddr().getHost());
+      if (hostSettings != null) {
+        merged.putAll(hostSettings);
+      }
+    }
+    return new Http2SettingsProfile(merged);
+  }
+
+  /**
+   * Get the settings to send in the connection preface, which are the default settings of netty
+   * overridden by the profile.
+   *
+   * @return the initial settings
+   */
+  public Http2Settings initialSettings() {
+    Http2Settings initialSettings = Http2Settings.defaultSettings();
+    initialSettings.putAll(settings);
+    return initialSettings;
+  }
+
+  /**
+   * Get the settings of the other side to relay, without the ones configured in the profile.
+   *
+   * @param relayed the settings read from the other side
+   * @return the settings to send
+   */
+  public Http2Settings relayed(Http2Settings relayed) {
+    Http2Settings filtered = new Http2Settings();
+    filtered.putAll(relayed);
+    settings.keySet().forEach(filtered::remove);
+    return filtered;
+  }
+
+  /**
+   * Get the frame to relay, which is the frame itself unless it's a SETTINGS frame.
+   *
+   * @param frame the frame read from the other side
+   * @return the frame to send
+   */
+  public Http2FrameWrapper<?> relayed(Http2FrameWrapper<?> frame) {
+    if (!isFrame(frame, Http2SettingsFrame.class)) {
+      return frame;
+    }
+    Http2Settings relayed = relayed(frame.frame(Http2SettingsFrame.class).settings());
+    return frameWrapper(frame.streamId(), new DefaultHttp2SettingsFrame(relayed));
+  }
+
+  /**
+   * Get the configured initial window size.
+   *
+   * @return the initial window size, or {@code null} if it's not configured
+   */
+  public Integer initialWindowSize() {
+    return settings.initialWindowSize();
+  }
+
+  @Override
+  public String toString() {
+    return settings.toString();
+  }
+}
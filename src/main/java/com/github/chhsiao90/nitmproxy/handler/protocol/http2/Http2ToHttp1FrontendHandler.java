@@ -0,0 +1,398 @@
+package com.github.chhsiao90.nitmproxy.handler.protocol.http2;
+
+import com.github.chhsiao90.nitmproxy.ConnectionContext;
+import com.github.chhsiao90.nitmproxy.NitmProxyConfig;
+import com.github.chhsiao90.nitmproxy.NitmProxyMaster;
+import com.github.chhsiao90.nitmproxy.enums.Handler;
+import com.github.chhsiao90.nitmproxy.event.Http2UpgradeEvent;
+import com.github.chhsiao90.nitmproxy.event.OutboundChannelClosedEvent;
+import com.github.chhsiao90.nitmproxy.event.RequestRetryEvent;
+import com.github.chhsiao90.nitmproxy.metrics.ProxyMetrics;
+import com.github.chhsiao90.nitmproxy.metrics.RequestType;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpStatusClass;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.handler.codec.http2.DefaultHttp2Connection;
+import io.netty.handler.codec.http2.Http2Connection;
+import io.netty.handler.codec.http2.Http2ConnectionAdapter;
+import io.netty.handler.codec.http2.Http2CodecUtil;
+import io.netty.handler.codec.http2.Http2ConnectionHandler;
+import io.netty.handler.codec.http2.Http2ConnectionHandlerBuilder;
+import io.netty.handler.codec.http2.Http2Error;
+import io.netty.handler.codec.http2.Http2Exception;
+import io.netty.handler.codec.http2.Http2FrameLogger;
+import io.netty.handler.codec.http2.Http2Headers;
+import io.netty.handler.codec.http2.Http2Stream;
+import io.netty.handler.codec.http2.HttpConversionUtil;
+import io.netty.handler.codec.http2.HttpConversionUtil.ExtensionHeaderNames;
+import io.netty.handler.codec.http2.InboundHttp2ToHttpAdapterBuilder;
+import io.netty.util.ReferenceCountUtil;
+
+/**
+ * Terminates HTTP/2 from the client when the server speaks only HTTP/1.1.
+ *
+ * <p>Each stream of the client is translated to a HTTP/1.1 request, and dispatched to an idle
+ * connection of a pool of HTTP/1.1 connections to the server. A new connection is opened if all of
+ * them are busy, up to {@link NitmProxyConfig#getMaxServerConnectionsPerClient()}, beyond that the
+ * requests queue on the least busy connection. The responses are translated back and written to
+ * the streams in the order the requests were sent on each connection.</p>
+ *
+ * <p>A connection to the server stops reading while the stream of its response is not writable, as
+ * the window of the client is exhausted or the client channel isn't writable, so a slow client
+ * slows down the server instead of the responses piling up in the proxy.</p>
+ *
+ * <p>A client upgraded with {@code Upgrade: h2c} is handed over with a {@link Http2UpgradeEvent}, its
+ * upgrade request is answered on stream 1.</p>
+ */
+public class Http2ToHttp1FrontendHandler extends ChannelInboundHandlerAdapter {
+  private static final Logger LOGGER = LoggerFactory.getLogger(Http2ToHttp1FrontendHandler.class);
+
+  private NitmProxyMaster master;
+  private ConnectionContext connectionContext;
+  private Http2ConnectionHandler http2ConnectionHandler;
+  private Http2FlowControlMonitor flowControlMonitor;
+  private ChannelHandlerContext ctx;
+
+  private final List<Http1Connection> connections = new ArrayList<>();
+
+  public Http2ToHttp1FrontendHandler(NitmProxyMaster master, ConnectionContext connectionContext) {
+    this.master = master;
+    this.connectionContext = connectionContext;
+  }
+
+  @Override
+  public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+    LOGGER.debug("{} : handlerAdded", connectionContext);
+
+    this.ctx = ctx;
+    Http2Connection http2Connection = new DefaultHttp2Connection(true);
+    Http2SettingsProfile profile = Http2SettingsProfile.client(connectionContext);
+    flowControlMonitor = new Http2FlowControlMonitor(http2Connection, profile,
+        new InboundHttp2ToHttpAdapterBuilder(http2Connection)
+            .maxContentLength(master.config().getMaxContentLength())
+            .propagateSettings(false)
+            .build());
+    Http2ConnectionHandlerBuilder builder = new Http2ConnectionHandlerBuilder()
+        .connection(http2Connection)
+        .frameListener(flowControlMonitor)
+        .initialSettings(profile.initialSettings());
+    Http2FrameLogger frameLogger = Http2Util.frameLogger();
+    if (frameLogger != null) {
+      builder.frameLogger(frameLogger);
+    }
+    http2ConnectionHandler = builder.build();
+    ctx.pipeline().addBefore(ctx.name(), null, http2ConnectionHandler);
+    flowControlMonitor.writabilityListener(this::resumeWritableConnections);
+    http2Connection.addListener(new Http2ConnectionAdapter() {
+      @Override
+      public void onStreamClosed(Http2Stream stream) {
+        // The responses of a stream reset by the client are discarded without waiting
+        resumeWritableConnections();
+      }
+    });
+
+    // The connection negotiated with the server is the first one of the pool
+    if (connectionContext.connected()) {
+      connections.add(new Http1Connection(connectionContext.serverChannel()));
+    }
+  }
+
+  @Override
+  public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+    LOGGER.debug("{} : channelInactive with {}", connectionContext,
+        flowControlMonitor.metrics());
+    connections.forEach(connection -> connection.channel.close());
+    connections.clear();
+    connectionContext.closeServerChannels();
+    ctx.fireChannelInactive();
+  }
+
+  @Override
+  public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+    resumeWritableConnections();
+    ctx.fireChannelWritabilityChanged();
+  }
+
+  @Override
+  public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+    if (!(msg instanceof FullHttpRequest)) {
+      ctx.fireChannelRead(msg);
+      return;
+    }
+    FullHttpRequest request = (FullHttpRequest) msg;
+    int streamId = request.headers().getInt(ExtensionHeaderNames.STREAM_ID.text(), 0);
+    for (ExtensionHeaderNames name : ExtensionHeaderNames.values()) {
+      request.headers().remove(name.text());
+    }
+    dispatch(streamId, toHttp1Request(request));
+  }
+
+  @Override
+  public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+    if (evt instanceof Http2UpgradeEvent) {
+      upgrade((Http2UpgradeEvent) evt);
+      return;
+    }
+    if (evt instanceof RequestRetryEvent) {
+      retry((RequestRetryEvent) evt);
+    } else if (evt instanceof OutboundChannelClosedEvent) {
+      resetClosedConnections();
+    }
+    ctx.fireUserEventTriggered(evt);
+  }
+
+  private void upgrade(Http2UpgradeEvent event) throws Http2Exception {
+    LOGGER.debug("{} : {}", connectionContext, event);
+    http2ConnectionHandler.onHttpServerUpgrade(event.getSettings());
+    FullHttpRequest request = event.getRequest();
+    request.headers()
+        .remove(HttpHeaderNames.UPGRADE)
+        .remove(HttpHeaderNames.CONNECTION)
+        .remove(Http2CodecUtil.HTTP_UPGRADE_SETTINGS_HEADER);
+    dispatch(Http2CodecUtil.HTTP_UPGRADE_STREAM_ID, toHttp1Request(request));
+  }
+
+  private static FullHttpRequest toHttp1Request(FullHttpRequest request) {
+    // The whole body was already received, the server doesn't need to confirm it
+    request.headers().remove(HttpHeaderNames.EXPECT);
+    if (!HttpUtil.isContentLengthSet(request)) {
+      HttpUtil.setContentLength(request, request.content().readableBytes());
+    }
+    return request;
+  }
+
+  private void dispatch(int streamId, FullHttpRequest request) {
+    ProxyMetrics.global().onRequest(RequestType.HTTP2);
+    connectionContext.timings().onRequest(connectionContext.getServerAddr());
+    Http1Connection connection = acquire();
+    if (connection.failed) {
+      // Refused right away, e.g. by the open circuit of the server
+      LOGGER.debug("{} : stream {} refused", connectionContext, streamId);
+      request.release();
+      http2ConnectionHandler.resetStream(ctx, streamId, Http2Error.REFUSED_STREAM.code(),
+          ctx.newPromise());
+      ctx.flush();
+      return;
+    }
+    connection.streams.offer(streamId);
+    LOGGER.debug("{} : stream {} dispatched to {}", connectionContext, streamId,
+        connection.channel);
+    connection.channel.writeAndFlush(request);
+  }
+
+  private Http1Connection acquire() {
+    Http1Connection leastBusy = null;
+    for (Http1Connection connection : connections) {
+      if (connection.streams.isEmpty()) {
+        return connection;
+      }
+      if (leastBusy == null || connection.streams.size() < leastBusy.streams.size()) {
+        leastBusy = connection;
+      }
+    }
+    if (leastBusy != null
+        && connections.size() >= master.config().getMaxServerConnectionsPerClient()) {
+      return leastBusy;
+    }
+    return connect();
+  }
+
+  private Http1Connection connect() {
+    ChannelFuture future = master.connect(ctx, connectionContext,
+        new ChannelInitializer<Channel>() {
+          @Override
+          protected void initChannel(Channel ch) throws Exception {
+            // The protocol was already negotiated, the connection is configured for HTTP/1.1
+            ch.pipeline().addLast(connectionContext.handler(Handler.TLS_BACKEND));
+          }
+        });
+    Http1Connection connection = new Http1Connection(future.channel());
+    connections.add(connection);
+    future.addListener((ChannelFuture f) -> {
+      if (!f.isSuccess()) {
+        onConnectFailed(connection, f.cause());
+      } else if (f.channel() != connection.channel) {
+        // Connected in place of the channel by the racing of the addresses
+        connectionContext.responseSequencer().replace(connection.channel, f.channel());
+        connection.channel = f.channel();
+      }
+    });
+    return connection;
+  }
+
+  /**
+   * The channel of a failed connect never becomes active, so it's never reported as closed, the
+   * streams queued on it are reset here instead. None of them reached the server, they are safe to
+   * retry.
+   */
+  private void onConnectFailed(Http1Connection connection, Throwable cause) {
+    LOGGER.debug("{} : connect failed with {}", connectionContext, cause.toString());
+    connection.failed = true;
+    if (connections.remove(connection)) {
+      connectionContext.responseSequencer().closed(connection.channel);
+      reset(connection, Http2Error.REFUSED_STREAM);
+    }
+  }
+
+  private void retry(RequestRetryEvent event) {
+    Http1Connection closed = remove(event.getServerChannel());
+    if (closed == null) {
+      event.getRequests().forEach(ReferenceCountUtil::release);
+      return;
+    }
+    // The requests to retry are the last ones sent to the closed connection
+    Iterator<Integer> streams = closed.streams.descendingIterator();
+    Deque<Integer> retried = new ArrayDeque<>();
+    for (int i = 0; i < event.getRequests().size() && streams.hasNext(); i++) {
+      retried.offerFirst(streams.next());
+    }
+    closed.streams.removeAll(retried);
+    reset(closed, Http2Error.INTERNAL_ERROR);
+    for (FullHttpRequest request : event.getRequests()) {
+      Integer streamId = retried.poll();
+      if (streamId != null) {
+        dispatch(streamId, request);
+      } else {
+        request.release();
+      }
+    }
+  }
+
+  private void resetClosedConnections() {
+    Iterator<Http1Connection> iterator = connections.iterator();
+    while (iterator.hasNext()) {
+      Http1Connection connection = iterator.next();
+      if (connection.channel.closeFuture().isDone()) {
+        iterator.remove();
+        reset(connection, Http2Error.INTERNAL_ERROR);
+      }
+    }
+  }
+
+  private Http1Connection remove(Channel channel) {
+    Iterator<Http1Connection> iterator = connections.iterator();
+    while (iterator.hasNext()) {
+      Http1Connection connection = iterator.next();
+      if (connection.channel == channel) {
+        iterator.remove();
+        connectionContext.responseSequencer().closed(channel);
+        return connection;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Reset the streams of a closed connection.
+   *
+   * @param connection the connection
+   * @param headError the error of the head stream, the only one which could have reached the
+   *                  server, the others are refused since they are safe to retry
+   */
+  private void reset(Http1Connection connection, Http2Error headError) {
+    boolean head = true;
+    for (int streamId : connection.streams) {
+      Http2Error error = head ? headError : Http2Error.REFUSED_STREAM;
+      http2ConnectionHandler.resetStream(ctx, streamId, error.code(), ctx.newPromise());
+      head = false;
+    }
+    connection.streams.clear();
+    ctx.flush();
+  }
+
+  private void onResponse(Http1Connection connection, HttpObject httpObject) {
+    Integer streamId = connection.streams.peek();
+    if (streamId == null) {
+      LOGGER.debug("{} : unexpected response {}", connectionContext, httpObject);
+      ReferenceCountUtil.release(httpObject);
+      return;
+    }
+    if (httpObject instanceof HttpResponse) {
+      connection.informational =
+          ((HttpResponse) httpObject).status().codeClass() == HttpStatusClass.INFORMATIONAL;
+    }
+    boolean last = httpObject instanceof LastHttpContent;
+    if (last && !connection.informational) {
+      connection.streams.poll();
+    }
+    if (connection.informational || http2ConnectionHandler.connection().stream(streamId) == null) {
+      // The interim responses are not relayed, and the stream could be reset by the client
+      ReferenceCountUtil.release(httpObject);
+      return;
+    }
+
+    if (httpObject instanceof HttpResponse) {
+      Http2Headers headers = HttpConversionUtil.toHttp2Headers((HttpResponse) httpObject, false);
+      http2ConnectionHandler.encoder().writeHeaders(ctx, streamId, headers, 0, false,
+          ctx.newPromise());
+    }
+    if (httpObject instanceof HttpContent) {
+      LastHttpContent trailers = last ? (LastHttpContent) httpObject : null;
+      boolean endStream = last && trailers.trailingHeaders().isEmpty();
+      http2ConnectionHandler.encoder().writeData(ctx, streamId,
+          ((HttpContent) httpObject).content(), 0, endStream, ctx.newPromise());
+      if (last && !endStream) {
+        http2ConnectionHandler.encoder().writeHeaders(ctx, streamId,
+            HttpConversionUtil.toHttp2Headers(trailers.trailingHeaders(), false), 0, true,
+            ctx.newPromise());
+      }
+    }
+    ctx.flush();
+    if (!last && !isWritable(streamId)) {
+      LOGGER.debug("{} : stream {} not writable, pausing {}", connectionContext, streamId,
+          connection.channel);
+      connection.channel.config().setAutoRead(false);
+    }
+  }
+
+  private boolean isWritable(int streamId) {
+    Http2Stream stream = http2ConnectionHandler.connection().stream(streamId);
+    return stream == null
+        || ctx.channel().isWritable()
+        && http2ConnectionHandler.connection().remote().flowController().isWritable(stream);
+  }
+
+  private void resumeWritableConnections() {
+    for (Http1Connection connection : connections) {
+      if (connection.channel.config().isAutoRead()) {
+        continue;
+      }
+      Integer streamId = connection.streams.peek();
+      if (streamId == null || isWritable(streamId)) {
+        connection.channel.config().setAutoRead(true);
+      }
+    }
+  }
+
+  private class Http1Connection {
+    private Channel channel;
+    private final Deque<Integer> streams = new ArrayDeque<>();
+    private boolean informational;
+    private boolean failed;
+
+    private Http1Connection(Channel channel) {
+      this.channel = channel;
+      connectionContext.responseSequencer().route(channel, msg -> onResponse(this, msg));
+    }
+  }
+}
@@ -0,0 +1,162 @@
+package com.github.chhsiao90.nitmproxy.handler.protocol.http2;
+
+import static io.netty.handler.codec.http2.Http2CodecUtil.DEFAULT_PRIORITY_WEIGHT;
+import static io.netty.handler.codec.http2.Http2CodecUtil.SETTING_ENTRY_LENGTH;
+import static io.netty.handler.codec.http2.Http2Error.PROTOCOL_ERROR;
+import static io.netty.handler.codec.http2.Http2Exception.connectionError;
+import static io.netty.handler.logging.LogLevel.DEBUG;
+
+import com.google.common.primitives.Ints;
+
+import java.util.Base64;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http2.Http2ConnectionHandler;
+import io.netty.handler.codec.http2.Http2Exception;
+import io.netty.handler.codec.http2.Http2FrameLogger;
+import io.netty.handler.codec.http2.Http2Settings;
+import io.netty.handler.codec.http2.Http2Stream;
+
+public class Http2Util {
+
+  private static final Http2FrameLogger FRAME_LOGGER = new Http2FrameLogger(DEBUG);
+
+  private Http2Util() {
+  }
+
+  /**
+   * Get the frame logger if its logger is enabled for debug. Otherwise the connection is built
+   * without a frame logger, so the frames are read and written without the logging decorators.
+   *
+   * @return the frame logger, or {@code null} if the frames are not logged
+   */
+  public static Http2FrameLogger frameLogger() {
+    return FRAME_LOGGER.isEnabled() ? FRAME_LOGGER : null;
+  }
+
+  /**
+   * Return the bytes of a relayed DATA frame to the flow control window of the stream, which lets
+   * the peer send more data. It's called once the frame was written to the other side.
+   *
+   * @param ctx the ctx of the http2 handler
+   * @param http2ConnectionHandler the connection handler that received the DATA frame
+   * @param streamId the stream id of the DATA frame
+   * @param bytes the flow-controlled bytes of the DATA frame, including padding
+   */
+  public static void consumeBytes(ChannelHandlerContext ctx,
+      Http2ConnectionHandler http2ConnectionHandler, int streamId, int bytes) {
+    if (!ctx.executor().inEventLoop()) {
+      ctx.executor().execute(() -> consumeBytes(ctx, http2ConnectionHandler, streamId, bytes));
+      return;
+    }
+    Http2Stream stream = http2ConnectionHandler.connection().stream(streamId);
+    if (stream == null || bytes == 0) {
+      // The unconsumed bytes of a closed stream were already returned to the connection
+      return;
+    }
+    try {
+      if (http2ConnectionHandler.connection().local().flowController().consumeBytes(stream,
+          bytes)) {
+        ctx.flush();
+      }
+    } catch (Http2Exception e) {
+      ctx.fireExceptionCaught(e);
+    }
+  }
+
+  /**
+   * Check if the priority is the default one, which the decoder also reports for the HEADERS
+   * frames without priority.
+   *
+   * @param streamDependency the stream dependency
+   * @param weight the weight
+   * @param exclusive the exclusive flag
+   * @return {@code true} if it's the default priority
+   */
+  public static boolean isDefaultPriority(int streamDependency, short weight, boolean exclusive) {
+    return streamDependency == 0 && weight == DEFAULT_PRIORITY_WEIGHT && !exclusive;
+  }
+
+  /**
+   * Decode the {@code HTTP2-Settings} header of a {@code Upgrade: h2c} request, which is the
+   * payload of a SETTINGS frame in base64url.
+   *
+   * @param header the value of the header
+   * @return the settings
+   * @throws Http2Exception if the header is not a valid SETTINGS payload
+   */
+  public static Http2Settings decodeSettingsHeader(CharSequence header) throws Http2Exception {
+    byte[] payload;
+    try {
+      payload = Base64.getUrlDecoder().decode(header.toString());
+    } catch (IllegalArgumentException e) {
+      throw connectionError(PROTOCOL_ERROR, e, "Invalid HTTP2-Settings header: %s", header);
+    }
+    if (payload.length % SETTING_ENTRY_LENGTH != 0) {
+      throw connectionError(PROTOCOL_ERROR, "Invalid HTTP2-Settings length: %d", payload.length);
+    }
+    Http2Settings settings = new Http2Settings();
+    for (int i = 0; i < payload.length; i += SETTING_ENTRY_LENGTH) {
+      char id = (char) (((payload[i] & 0xff) << 8) | (payload[i + 1] & 0xff));
+      long value = ((payload[i + 2] & 0xffL) << 24) | ((payload[i + 3] & 0xff) << 16)
+          | ((payload[i + 4] & 0xff) << 8) | (payload[i + 5] & 0xff);
+      try {
+        settings.put(id, Long.valueOf(value));
+      } catch (IllegalArgumentException e) {
+        throw connectionError(PROTOCOL_ERROR, e, "Invalid HTTP2-Settings: %s", e.getMessage());
+      }
+    }
+    return settings;
+  }
+
+  /**
+   * Parse the settings in the format of {@code name=value,name=value}, the names are the ones of
+   * the methods of {@link Http2Settings}, e.g. {@code initialWindowSize=1048576,maxFrameSize=65536}.
+   *
+   * @param value the settings
+   * @return the settings
+   * @throws IllegalArgumentException if a setting is unknown or not valid
+   */
+  public static Http2Settings parseSettings(String value) {
+    Http2Settings settings = new Http2Settings();
+    for (String setting : value.split(",")) {
+      if (setting.trim().isEmpty()) {
+        continue;
+      }
+      String[] nameValue = setting.split("=", 2);
+      if (nameValue.length != 2) {
+        throw new IllegalArgumentException("Not a legal http2 setting: " + setting);
+      }
+      String name = nameValue[0].trim();
+      long settingValue;
+      try {
+        settingValue = Long.parseLong(nameValue[1].trim());
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("Not a legal http2 setting: " + setting);
+      }
+      switch (name) {
+        case "headerTableSize":
+          settings.headerTableSize(settingValue);
+          break;
+        case "pushEnabled":
+          settings.pushEnabled(settingValue != 0);
+          break;
+        case "maxConcurrentStreams":
+          settings.maxConcurrentStreams(settingValue);
+          break;
+        case "initialWindowSize":
+          settings.initialWindowSize(Ints.checkedCast(settingValue));
+          break;
+        case "maxFrameSize":
+          settings.maxFrameSize(Ints.checkedCast(settingValue));
+          break;
+        case "maxHeaderListSize":
+          settings.maxHeaderListSize(settingValue);
+          break;
+        default:
+          throw new IllegalArgumentException("Unknown http2 setting: " + name);
+      }
+    }
+    return settings;
+  }
+}
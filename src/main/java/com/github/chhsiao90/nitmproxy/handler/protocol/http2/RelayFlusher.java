@@ -0,0 +1,58 @@
+package com.github.chhsiao90.nitmproxy.handler.protocol.http2;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+
+/**
+ * Coalesces the flushes of the frames relayed to the other side of the proxy.
+ *
+ * <p>The frames decoded from one read are written without flush, and flushed together when the
+ * read completed, so a response split into many DATA frames is sent with a few syscalls and TLS
+ * records instead of one per frame. The written bytes are flushed early once they exceed
+ * {@code maxBytesPerFlush}, which keeps a large read from holding back the first bytes.</p>
+ */
+public class RelayFlusher {
+  // Estimated size of the frame header and the control frames
+  private static final int FRAME_OVERHEAD = 9;
+
+  private final int maxBytesPerFlush;
+
+  private boolean pending;
+  private int pendingBytes;
+
+  public RelayFlusher(int maxBytesPerFlush) {
+    this.maxBytesPerFlush = maxBytesPerFlush;
+  }
+
+  /**
+   * Write the frame to the channel, which will be flushed by {@link #flush(Channel)}, or right away
+   * if there are too many bytes pending.
+   *
+   * @param channel the channel of the other side
+   * @param frame the frame
+   * @param bytes the payload bytes of the frame
+   * @return the future of the write
+   */
+  public ChannelFuture write(Channel channel, Object frame, int bytes) {
+    ChannelFuture future = channel.write(frame);
+    pending = true;
+    pendingBytes += bytes + FRAME_OVERHEAD;
+    if (pendingBytes >= maxBytesPerFlush) {
+      flush(channel);
+    }
+    return future;
+  }
+
+  /**
+   * Flush the channel if there are frames written since the last flush.
+   *
+   * @param channel the channel of the other side
+   */
+  public void flush(Channel channel) {
+    if (pending) {
+      pending = false;
+      pendingBytes = 0;
+      channel.flush();
+    }
+  }
+}
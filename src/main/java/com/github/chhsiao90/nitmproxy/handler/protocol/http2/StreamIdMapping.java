@@ -0,0 +1,199 @@
+package com.github.chhsiao90.nitmproxy.handler.protocol.http2;
+
+/**
+ * A bidirectional mapping between the stream ids of the client connection and the stream ids of
+ * the server connection.
+ *
+ * <p>The ids are kept in two open-addressed int tables, so a lookup never boxes and never locks.
+ * The mapping is accessed only from the event loop of the connection, it's not thread-safe.</p>
+ */
+public class StreamIdMapping {
+  private final IntIntMap upstreams = new IntIntMap();
+  private final IntIntMap origins = new IntIntMap();
+
+  /**
+   * Map the stream id of the client connection to the stream id of the server connection.
+   *
+   * @param originStreamId the stream id of the client connection
+   * @param upstreamStreamId the stream id of the server connection
+   */
+  public void put(int originStreamId, int upstreamStreamId) {
+    upstreams.put(originStreamId, upstreamStreamId);
+    origins.put(upstreamStreamId, originStreamId);
+  }
+
+  /**
+   * Get the stream id of the server connection.
+   *
+   * @param originStreamId the stream id of the client connection
+   * @return the stream id of the server connection, or {@code 0} if not mapped
+   */
+  public int upstream(int originStreamId) {
+    return upstreams.get(originStreamId);
+  }
+
+  /**
+   * Get the stream id of the client connection.
+   *
+   * @param upstreamStreamId the stream id of the server connection
+   * @return the stream id of the client connection, or {@code 0} if not mapped
+   */
+  public int origin(int upstreamStreamId) {
+    return origins.get(upstreamStreamId);
+  }
+
+  /**
+   * Get the last stream of the client connection that is mapped to a stream of the server
+   * connection not after {@code upstreamStreamId}, for relaying the last stream id of GOAWAY.
+   *
+   * <p>The streams are mapped in the order they were opened, so all the streams of the client
+   * connection after the returned one are mapped after {@code upstreamStreamId}, or closed.</p>
+   *
+   * @param upstreamStreamId the last stream id of the server connection
+   * @return the last stream id of the client connection, or {@code 0} if none
+   */
+  public int lastOrigin(int upstreamStreamId) {
+    return origins.floor(upstreamStreamId);
+  }
+
+  /**
+   * Get the last stream of the server connection that is mapped to a stream of the client
+   * connection not after {@code originStreamId}, see {@link #lastOrigin(int)}.
+   *
+   * @param originStreamId the last stream id of the client connection
+   * @return the last stream id of the server connection, or {@code 0} if none
+   */
+  public int lastUpstream(int originStreamId) {
+    return upstreams.floor(originStreamId);
+  }
+
+  /**
+   * Remove the mapping of a stream of the server connection.
+   *
+   * @param upstreamStreamId the stream id of the server connection
+   */
+  public void removeUpstream(int upstreamStreamId) {
+    int originStreamId = origins.remove(upstreamStreamId);
+    if (originStreamId != 0) {
+      upstreams.remove(originStreamId);
+    }
+  }
+
+  public int size() {
+    return origins.size();
+  }
+
+  /**
+   * Linear probing hash table from positive int to positive int, {@code 0} marks an empty slot.
+   * Removal shifts the following entries back, so there are no tombstones slowing down the
+   * lookups of a long-lived connection.
+   */
+  private static class IntIntMap {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private int[] keys = new int[INITIAL_CAPACITY];
+    private int[] values = new int[INITIAL_CAPACITY];
+    private int mask = INITIAL_CAPACITY - 1;
+    private int size;
+
+    private int get(int key) {
+      for (int i = index(key); ; i = (i + 1) & mask) {
+        int current = keys[i];
+        if (current == key) {
+          return values[i];
+        }
+        if (current == 0) {
+          return 0;
+        }
+      }
+    }
+
+    private void put(int key, int value) {
+      for (int i = index(key); ; i = (i + 1) & mask) {
+        int current = keys[i];
+        if (current == key) {
+          values[i] = value;
+          return;
+        }
+        if (current == 0) {
+          keys[i] = key;
+          values[i] = value;
+          if (++size > (keys.length >> 1)) {
+            resize();
+          }
+          return;
+        }
+      }
+    }
+
+    private int remove(int key) {
+      for (int i = index(key); ; i = (i + 1) & mask) {
+        int current = keys[i];
+        if (current == 0) {
+          return 0;
+        }
+        if (current == key) {
+          int value = values[i];
+          size--;
+          shiftBack(i);
+          return value;
+        }
+      }
+    }
+
+    /**
+     * Get the value of the greatest key not greater than {@code maxKey}, among the keys opened by
+     * the same endpoint as {@code maxKey}. It scans the whole table, which is fine for GOAWAY.
+     */
+    private int floor(int maxKey) {
+      int floorKey = 0;
+      int floorValue = 0;
+      for (int i = 0; i < keys.length; i++) {
+        int key = keys[i];
+        if (key != 0 && key <= maxKey && key > floorKey && ((key ^ maxKey) & 1) == 0) {
+          floorKey = key;
+          floorValue = values[i];
+        }
+      }
+      return floorValue;
+    }
+
+    private void shiftBack(int hole) {
+      for (int i = (hole + 1) & mask; keys[i] != 0; i = (i + 1) & mask) {
+        int home = index(keys[i]);
+        // Move the entry into the hole unless its home slot lies cyclically in (hole, i]
+        if (((i - home) & mask) >= ((i - hole) & mask)) {
+          keys[hole] = keys[i];
+          values[hole] = values[i];
+          hole = i;
+        }
+      }
+      keys[hole] = 0;
+      values[hole] = 0;
+    }
+
+    private void resize() {
+      int[] oldKeys = keys;
+      int[] oldValues = values;
+      keys = new int[oldKeys.length << 1];
+      values = new int[oldValues.length << 1];
+      mask = keys.length - 1;
+      size = 0;
+      for (int i = 0; i < oldKeys.length; i++) {
+        if (oldKeys[i] != 0) {
+          put(oldKeys[i], oldValues[i]);
+        }
+      }
+    }
+
+    private int index(int key) {
+      // Stream ids are sequential odd numbers, spread them over the table
+      int hash = key * 0x9E3779B9;
+      return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    private int size() {
+      return size;
+    }
+  }
+}
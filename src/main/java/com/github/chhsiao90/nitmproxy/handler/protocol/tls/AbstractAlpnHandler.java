@@ -13,7 +13,7 @@ import io.netty.util.concurrent.Future;
 
 public abstract class AbstractAlpnHandler<T> extends SslClientHelloHandler<T> {
 
-  private static List<String> extractAlpnProtocols(ByteBuf in) {
+  static List<String> extractAlpnProtocols(ByteBuf in) {
     // See https://tools.ietf.org/html/rfc5246#section-7.4.1.2
     //
     // Decode the ssl client hello packet.
@@ -68,14 +68,15 @@ public abstract class AbstractAlpnHandler<T> extends SslClientHelloHandler<T> {
           // Alpn
           // See https://tools.ietf.org/html/rfc7301
           if (extensionType == 16) {
+            final int extensionLimit = offset + extensionLength;
+            // Skip the length of the protocol name list
             offset += 2;
-            if (extensionsLimit - offset < 3) {
+            if (extensionLimit - offset < 2) {
               break;
             }
 
-            final int extensionLimit = offset + extensionLength;
             List<String> protocols = new ArrayList<>();
-            while (offset + 8 < extensionLimit) {
+            while (offset < extensionLimit) {
               final short protocolLength = in.getUnsignedByte(offset);
               offset += 1;
 
@@ -2,9 +2,15 @@ package com.github.chhsiao90.nitmproxy.handler.protocol.tls;
 
 import static java.lang.String.format;
 
+import com.github.chhsiao90.nitmproxy.Address;
 import com.github.chhsiao90.nitmproxy.ConnectionContext;
 import com.github.chhsiao90.nitmproxy.NitmProxyMaster;
+import com.github.chhsiao90.nitmproxy.TlsContext;
 import com.github.chhsiao90.nitmproxy.enums.Handler;
+import com.github.chhsiao90.nitmproxy.metrics.ProxyMetrics;
+import com.github.chhsiao90.nitmproxy.metrics.Stage;
+import com.github.chhsiao90.nitmproxy.metrics.TimeoutType;
+import com.github.chhsiao90.nitmproxy.timeout.Deadline;
 import com.github.chhsiao90.nitmproxy.tls.TlsUtil;
 
 import java.util.ArrayList;
@@ -44,7 +50,7 @@ public class TlsBackendHandler extends ChannelDuplexHandler {
     connectionContext.tlsCtx().protocolsPromise().addListener(future -> {
       if (future.isSuccess()) {
         if (!connectionContext.tlsCtx().isEnabled()) {
-          configHttp1(ctx);
+          configCleartext(ctx);
         } else {
           configSsl(ctx);
         }
@@ -91,9 +97,12 @@ public class TlsBackendHandler extends ChannelDuplexHandler {
   }
 
   private SslHandler sslHandler(ByteBufAllocator alloc) throws SSLException {
-    return TlsUtil.ctxForClient(connectionContext)
+    SslHandler sslHandler = master.sslContexts().forClient(connectionContext)
         .newHandler(alloc, connectionContext.getServerAddr().getHost(),
             connectionContext.getServerAddr().getPort());
+    // Enforced by a deadline on the shared timer instead
+    sslHandler.setHandshakeTimeoutMillis(0);
+    return sslHandler;
   }
 
   private void flushPendings(ChannelHandlerContext ctx) {
@@ -107,12 +116,30 @@ public class TlsBackendHandler extends ChannelDuplexHandler {
     }
   }
 
+  private void configCleartext(ChannelHandlerContext ctx) {
+    // The frontend decides the protocol of a cleartext server, e.g. h2c for a prior knowledge client
+    TlsContext tlsContext = connectionContext.tlsCtx();
+    if (tlsContext.isNegotiated()
+        && ApplicationProtocolNames.HTTP_2.equals(tlsContext.protocol())) {
+      configHttp2(ctx);
+    } else {
+      configHttp1(ctx);
+    }
+  }
+
   private void configHttp1(ChannelHandlerContext ctx) {
     ctx.pipeline().replace(this, null, connectionContext.handler(Handler.HTTP1_BACKEND));
   }
 
   private void configHttp2(ChannelHandlerContext ctx) {
-    ctx.pipeline().replace(this, null, connectionContext.handler(Handler.HTTP2_BACKEND));
+    String clientProtocol = TlsUtil.clientProtocol(connectionContext.config(),
+        connectionContext.tlsCtx().protocols());
+    if (ApplicationProtocolNames.HTTP_1_1.equals(clientProtocol)) {
+      ctx.pipeline().replace(this, null,
+          connectionContext.handler(Handler.HTTP1_TO_HTTP2_BACKEND));
+    } else {
+      ctx.pipeline().replace(this, null, connectionContext.handler(Handler.HTTP2_BACKEND));
+    }
   }
 
   /**
@@ -123,6 +150,19 @@ public class TlsBackendHandler extends ChannelDuplexHandler {
    */
   public void configSsl(ChannelHandlerContext ctx) throws SSLException {
     SslHandler sslHandler = sslHandler(ctx.alloc());
+    // The server was connected before the client sent its ClientHello, the handshake starts now
+    long handshakeStart = System.nanoTime();
+    Address serverAddr = connectionContext.getServerAddr(ctx.channel());
+    Deadline deadline = Deadline.schedule(ctx.channel(), TimeoutType.HANDSHAKE,
+        master.config().getHandshakeTimeoutMillis());
+    sslHandler.handshakeFuture().addListener(handshake -> {
+      deadline.cancel();
+      ProxyMetrics.global().server().onHandshake(handshake.isSuccess());
+      if (handshake.isSuccess()) {
+        connectionContext.timings().record(Stage.BACKEND_TLS_HANDSHAKE, serverAddr,
+            handshakeStart);
+      }
+    });
     ctx.pipeline()
         .addBefore(ctx.name(), null, sslHandler)
         .addBefore(ctx.name(), null, new AlpnHandler(ctx));
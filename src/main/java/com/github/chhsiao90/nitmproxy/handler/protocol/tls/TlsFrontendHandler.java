@@ -7,7 +7,12 @@ import static java.util.Collections.singletonList;
 import com.github.chhsiao90.nitmproxy.Address;
 import com.github.chhsiao90.nitmproxy.ConnectionContext;
 import com.github.chhsiao90.nitmproxy.NitmProxyMaster;
+import com.github.chhsiao90.nitmproxy.TlsContext;
 import com.github.chhsiao90.nitmproxy.enums.Handler;
+import com.github.chhsiao90.nitmproxy.metrics.ProxyMetrics;
+import com.github.chhsiao90.nitmproxy.metrics.Stage;
+import com.github.chhsiao90.nitmproxy.metrics.TimeoutType;
+import com.github.chhsiao90.nitmproxy.timeout.Deadline;
 import com.github.chhsiao90.nitmproxy.tls.TlsUtil;
 
 import java.util.List;
@@ -17,19 +22,27 @@ import org.slf4j.LoggerFactory;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelDuplexHandler;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.http2.Http2CodecUtil;
 import io.netty.handler.ssl.AbstractSniHandler;
 import io.netty.handler.ssl.ApplicationProtocolNames;
 import io.netty.handler.ssl.ApplicationProtocolNegotiationHandler;
 import io.netty.handler.ssl.SslClientHelloHandler;
 import io.netty.handler.ssl.SslHandler;
 import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.Promise;
 import javax.net.ssl.SSLException;
 
 public class TlsFrontendHandler extends ChannelDuplexHandler {
   private static final Logger LOGGER = LoggerFactory.getLogger(TlsFrontendHandler.class);
 
+  private static final ByteBuf CONNECTION_PREFACE =
+      Unpooled.unreleasableBuffer(Http2CodecUtil.connectionPrefaceBuf());
+
   private NitmProxyMaster master;
   private ConnectionContext connectionContext;
 
@@ -72,7 +85,25 @@ public class TlsFrontendHandler extends ChannelDuplexHandler {
   }
 
   private SslHandler sslHandler(ByteBufAllocator alloc) throws SSLException {
-    return TlsUtil.ctxForServer(connectionContext).newHandler(alloc);
+    SslHandler sslHandler = master.sslContexts().forServer(connectionContext).newHandler(alloc);
+    // Enforced by a deadline on the shared timer instead
+    sslHandler.setHandshakeTimeoutMillis(0);
+    return sslHandler;
+  }
+
+  private void configCleartext(ChannelHandlerContext ctx, String protocol) {
+    TlsContext tlsContext = connectionContext.tlsCtx();
+    if (ApplicationProtocolNames.HTTP_2.equals(protocol)) {
+      // The client knows that the server speaks h2c, unless it's disabled for the server
+      tlsContext.protocolPromise().setSuccess(master.config().isServerHttp2()
+          ? ApplicationProtocolNames.HTTP_2 : ApplicationProtocolNames.HTTP_1_1);
+      tlsContext.protocolsPromise().setSuccess(singletonList(ApplicationProtocolNames.HTTP_2));
+      configHttp2(ctx);
+    } else {
+      tlsContext.protocolPromise().setSuccess(ApplicationProtocolNames.HTTP_1_1);
+      tlsContext.protocolsPromise().setSuccess(singletonList(ApplicationProtocolNames.HTTP_1_1));
+      configHttp1(ctx);
+    }
   }
 
   private void configHttp1(ChannelHandlerContext ctx) {
@@ -80,7 +111,12 @@ public class TlsFrontendHandler extends ChannelDuplexHandler {
   }
 
   private void configHttp2(ChannelHandlerContext ctx) {
-    ctx.pipeline().replace(this, null, connectionContext.handler(Handler.HTTP2_FRONTEND));
+    if (ApplicationProtocolNames.HTTP_1_1.equals(connectionContext.tlsCtx().protocol())) {
+      ctx.pipeline().replace(this, null,
+          connectionContext.handler(Handler.HTTP2_TO_HTTP1_FRONTEND));
+    } else {
+      ctx.pipeline().replace(this, null, connectionContext.handler(Handler.HTTP2_FRONTEND));
+    }
   }
 
   private class DetectSslHandler extends SslClientHelloHandler<Boolean> {
@@ -104,18 +140,51 @@ public class TlsFrontendHandler extends ChannelDuplexHandler {
         LOGGER.debug("SSL detection failed with {}", future.cause().getMessage());
         ctx.close();
       } else if (!future.getNow()) {
-          connectionContext.tlsCtx().setEnabled(false);
-          connectionContext.tlsCtx().protocolsPromise().setSuccess(singletonList(ApplicationProtocolNames.HTTP_1_1));
-          configHttp1(tlsCtx);
-          ctx.pipeline().remove(SniExtractorHandler.class);
-          ctx.pipeline().remove(AlpnNegotiateHandler.class);
+        connectionContext.tlsCtx().setEnabled(false);
+        ctx.pipeline().remove(SniExtractorHandler.class);
+        ctx.pipeline().remove(AlpnNegotiateHandler.class);
+        if (master.config().isClientHttp2()) {
+          ctx.pipeline().replace(this, null, new DetectPrefaceHandler(tlsCtx));
+        } else {
+          configCleartext(tlsCtx, ApplicationProtocolNames.HTTP_1_1);
           ctx.pipeline().remove(ctx.name());
+        }
       } else {
         ctx.pipeline().remove(ctx.name());
       }
     }
   }
 
+  /**
+   * Detects the connection preface of HTTP/2 in cleartext, which is sent by a client with prior
+   * knowledge that the server speaks h2c. Any other bytes are HTTP/1.
+   */
+  private class DetectPrefaceHandler extends ByteToMessageDecoder {
+
+    private final ChannelHandlerContext tlsCtx;
+
+    private DetectPrefaceHandler(ChannelHandlerContext tlsCtx) {
+      this.tlsCtx = tlsCtx;
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) {
+      int length = Math.min(in.readableBytes(), CONNECTION_PREFACE.readableBytes());
+      if (!ByteBufUtil.equals(in, in.readerIndex(), CONNECTION_PREFACE, 0, length)) {
+        LOGGER.debug("Cleartext detected with HTTP/1");
+        configCleartext(tlsCtx, ApplicationProtocolNames.HTTP_1_1);
+      } else if (length == CONNECTION_PREFACE.readableBytes()) {
+        LOGGER.debug("Cleartext detected with HTTP/2 preface");
+        configCleartext(tlsCtx, ApplicationProtocolNames.HTTP_2);
+      } else {
+        // Wait for the rest of the preface
+        return;
+      }
+      // The buffered bytes are passed to the configured handlers
+      ctx.pipeline().remove(this);
+    }
+  }
+
   private class AlpnNegotiateHandler extends AbstractAlpnHandler<String> {
 
     private final ChannelHandlerContext tlsCtx;
@@ -132,7 +201,30 @@ public class TlsFrontendHandler extends ChannelDuplexHandler {
         ctx.close();
       } else {
         LOGGER.debug("ALPN negotiated with {}", future.getNow());
-        SslHandler sslHandler = sslHandler(ctx.alloc());
+        if (!master.admission().tryStartHandshake()) {
+          LOGGER.debug("{} : too many handshakes in progress", connectionContext);
+          ctx.close();
+          return;
+        }
+        SslHandler sslHandler;
+        try {
+          sslHandler = sslHandler(ctx.alloc());
+        } catch (SSLException | RuntimeException e) {
+          master.admission().onHandshakeDone();
+          throw e;
+        }
+        long handshakeStart = System.nanoTime();
+        Deadline deadline = Deadline.schedule(ctx.channel(), TimeoutType.HANDSHAKE,
+            master.config().getHandshakeTimeoutMillis());
+        sslHandler.handshakeFuture().addListener(handshake -> {
+          deadline.cancel();
+          master.admission().onHandshakeDone();
+          ProxyMetrics.global().client().onHandshake(handshake.isSuccess());
+          if (handshake.isSuccess()) {
+            connectionContext.timings().record(Stage.FRONTEND_TLS_HANDSHAKE,
+                connectionContext.getServerAddr(), handshakeStart);
+          }
+        });
         try {
           ctx.pipeline()
               .addAfter(ctx.name(), null, new AlpnHandler(tlsCtx))
@@ -140,6 +232,8 @@ public class TlsFrontendHandler extends ChannelDuplexHandler {
           sslHandler = null;
         } finally {
           if (sslHandler != null) {
+            master.admission().onHandshakeDone();
+            deadline.cancel();
             safeRelease(sslHandler.engine());
           }
         }
@@ -150,7 +244,16 @@ public class TlsFrontendHandler extends ChannelDuplexHandler {
     protected Future<String> lookup(ChannelHandlerContext ctx, List<String> protocols) {
       LOGGER.debug("Client ALPN lookup with {}", protocols);
       connectionContext.tlsCtx().protocolsPromise().setSuccess(protocols);
-      return connectionContext.tlsCtx().protocolPromise();
+      // Wait for the server, the handshake with the client fails if the server can't be reached
+      Promise<String> promise = ctx.executor().newPromise();
+      connectionContext.tlsCtx().protocolPromise().addListener(future -> {
+        if (future.isSuccess()) {
+          promise.setSuccess(TlsUtil.clientProtocol(connectionContext.config(), protocols));
+        } else {
+          promise.setFailure(future.cause());
+        }
+      });
+      return promise;
     }
   }
 
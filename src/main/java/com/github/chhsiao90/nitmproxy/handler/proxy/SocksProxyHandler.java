@@ -4,6 +4,9 @@ import com.github.chhsiao90.nitmproxy.Address;
 import com.github.chhsiao90.nitmproxy.ConnectionContext;
 import com.github.chhsiao90.nitmproxy.NitmProxyMaster;
 import com.github.chhsiao90.nitmproxy.enums.Handler;
+import com.github.chhsiao90.nitmproxy.metrics.ProxyMetrics;
+import com.github.chhsiao90.nitmproxy.metrics.RequestType;
+import com.github.chhsiao90.nitmproxy.metrics.Stage;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -82,10 +85,12 @@ public class SocksProxyHandler extends SimpleChannelInboundHandler<SocksMessage>
             break;
         case SOCKS5:
             if (socksMessage instanceof Socks5InitialRequest) {
-                ctx.pipeline().addFirst(addChannelHandler(new Socks5CommandRequestDecoder()));
+                ctx.pipeline().addBefore(ctx.name(), null,
+                        addChannelHandler(new Socks5CommandRequestDecoder()));
                 ctx.writeAndFlush(new DefaultSocks5InitialResponse(Socks5AuthMethod.NO_AUTH));
             } else if (socksMessage instanceof Socks5PasswordAuthRequest) {
-                ctx.pipeline().addFirst(addChannelHandler(new Socks5CommandRequestDecoder()));
+                ctx.pipeline().addBefore(ctx.name(), null,
+                        addChannelHandler(new Socks5CommandRequestDecoder()));
                 ctx.writeAndFlush(new DefaultSocks5PasswordAuthResponse(Socks5PasswordAuthStatus.SUCCESS));
             } else if (socksMessage instanceof Socks5CommandRequest) {
                 Socks5CommandRequest socks5CmdRequest = (Socks5CommandRequest) socksMessage;
@@ -110,7 +115,12 @@ public class SocksProxyHandler extends SimpleChannelInboundHandler<SocksMessage>
     }
 
     private void onSocksSuccess(ChannelHandlerContext ctx, Socks4CommandRequest request) {
+        ProxyMetrics.global().onRequest(RequestType.SOCKS);
+        connectionContext.onRequestHeader();
+        connectionContext.markTunneled();
         Address serverAddr = new Address(request.dstAddr(), request.dstPort());
+        connectionContext.timings().recordOnce(Stage.PROXY_PARSE, serverAddr,
+                connectionContext.timings().acceptNanos());
         connectionContext.connect(serverAddr, ctx).addListener((ChannelFuture future) -> {
             if (future.isSuccess()) {
                 ctx.writeAndFlush(new DefaultSocks4CommandResponse(
@@ -129,7 +139,12 @@ public class SocksProxyHandler extends SimpleChannelInboundHandler<SocksMessage>
     }
 
     private void onSocksSuccess(ChannelHandlerContext ctx, Socks5CommandRequest request) {
+        ProxyMetrics.global().onRequest(RequestType.SOCKS);
+        connectionContext.onRequestHeader();
+        connectionContext.markTunneled();
         Address serverAddr = new Address(request.dstAddr(), request.dstPort());
+        connectionContext.timings().recordOnce(Stage.PROXY_PARSE, serverAddr,
+                connectionContext.timings().acceptNanos());
         connectionContext.connect(serverAddr, ctx).addListener((ChannelFuture future) -> {
             if (future.isSuccess()) {
                 ctx.writeAndFlush(new DefaultSocks5CommandResponse(
@@ -0,0 +1,122 @@
+package com.github.chhsiao90.nitmproxy.metrics;
+
+import static java.lang.String.format;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufAllocatorMetric;
+import io.netty.buffer.ByteBufAllocatorMetricProvider;
+import io.netty.buffer.PoolArenaMetric;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocatorMetric;
+import io.netty.util.internal.PlatformDependent;
+
+/**
+ * Logs the usage of the buffer allocator periodically, so the memory the proxy needs could be sized
+ * from the logs, and the buffers retained longer and longer show up as a growing usage.
+ *
+ * <p>A report has the memory reserved by the allocator, the bytes of the buffers in use in the
+ * arenas of a pooled allocator, which are what the connections retain of the reserved memory, and
+ * the direct memory reserved by netty, with the growth since the previous report.</p>
+ */
+public class AllocatorReporter implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(AllocatorReporter.class);
+
+    private final ByteBufAllocator allocator;
+    private final long intervalNanos;
+    private final Thread thread;
+
+    private volatile boolean running;
+    private long lastDirectMemory;
+
+    /**
+     * Create the reporter.
+     *
+     * @param allocator the allocator of the channels
+     * @param intervalNanos the interval between the reports
+     */
+    public AllocatorReporter(ByteBufAllocator allocator, long intervalNanos) {
+        this.allocator = allocator;
+        this.intervalNanos = intervalNanos;
+        this.thread = new Thread(this::run, "nitmproxy-allocator-reporter");
+        this.thread.setDaemon(true);
+    }
+
+    public void start() {
+        running = true;
+        thread.start();
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        while (running) {
+            LockSupport.parkNanos(intervalNanos);
+            if (running) {
+                LOGGER.info("{}", report());
+            }
+        }
+    }
+
+    /**
+     * Get the report of the current usage.
+     *
+     * @return the report
+     */
+    String report() {
+        StringBuilder report = new StringBuilder("Allocator:");
+        if (allocator instanceof ByteBufAllocatorMetricProvider) {
+            ByteBufAllocatorMetric metric = ((ByteBufAllocatorMetricProvider) allocator).metric();
+            report.append(format(" used heap=%d direct=%d", metric.usedHeapMemory(),
+                                 metric.usedDirectMemory()));
+        }
+        if (allocator instanceof PooledByteBufAllocator) {
+            PooledByteBufAllocatorMetric metric = ((PooledByteBufAllocator) allocator).metric();
+            report.append(format(", active heap=%d direct=%d, allocations heap=%d direct=%d, "
+                                 + "arenas heap=%d direct=%d, thread caches=%d, chunk size=%d",
+                                 activeBytes(metric.heapArenas()), activeBytes(metric.directArenas()),
+                                 activeAllocations(metric.heapArenas()),
+                                 activeAllocations(metric.directArenas()),
+                                 metric.numHeapArenas(), metric.numDirectArenas(),
+                                 metric.numThreadLocalCaches(), metric.chunkSize()));
+        }
+        long directMemory = PlatformDependent.usedDirectMemory();
+        if (directMemory >= 0) {
+            report.append(format(", netty direct memory=%d (%+d)", directMemory,
+                                 directMemory - lastDirectMemory));
+            lastDirectMemory = directMemory;
+        }
+        return report.toString();
+    }
+
+    static long activeBytes(List<PoolArenaMetric> arenas) {
+        long bytes = 0;
+        for (PoolArenaMetric arena : arenas) {
+            bytes += arena.numActiveBytes();
+        }
+        return bytes;
+    }
+
+    static long activeAllocations(List<PoolArenaMetric> arenas) {
+        long allocations = 0;
+        for (PoolArenaMetric arena : arenas) {
+            allocations += arena.numActiveAllocations();
+        }
+        return allocations;
+    }
+}
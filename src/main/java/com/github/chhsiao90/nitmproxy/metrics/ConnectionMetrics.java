@@ -0,0 +1,89 @@
+package com.github.chhsiao90.nitmproxy.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import io.netty.channel.group.ChannelGroup;
+
+/**
+ * The counters of the connections on one side of the proxy, the clients or the servers.
+ *
+ * <p>The counters are {@link LongAdder}s, which are striped by thread, so the event loops don't
+ * contend with each other on them.</p>
+ */
+public class ConnectionMetrics {
+    private final LongAdder opened = new LongAdder();
+    private final LongAdder active = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+    private final LongAdder handshakes = new LongAdder();
+    private final LongAdder handshakeFailures = new LongAdder();
+    private final ConnectionMetricsHandler handler;
+
+    ConnectionMetrics(ChannelGroup channels) {
+        this.handler = new ConnectionMetricsHandler(this, channels);
+    }
+
+    /**
+     * Get the handler counting the connections and the bytes, which should be the first handler of
+     * the pipeline.
+     *
+     * @return the sharable handler
+     */
+    public ConnectionMetricsHandler handler() {
+        return handler;
+    }
+
+    void onOpened() {
+        opened.increment();
+        active.increment();
+    }
+
+    void onClosed() {
+        active.decrement();
+    }
+
+    void onRead(int bytes) {
+        bytesRead.add(bytes);
+    }
+
+    void onWritten(int bytes) {
+        bytesWritten.add(bytes);
+    }
+
+    public void onFailed() {
+        failed.increment();
+    }
+
+    public void onHandshake(boolean success) {
+        (success ? handshakes : handshakeFailures).increment();
+    }
+
+    public long opened() {
+        return opened.sum();
+    }
+
+    public long active() {
+        return active.sum();
+    }
+
+    public long failed() {
+        return failed.sum();
+    }
+
+    public long bytesRead() {
+        return bytesRead.sum();
+    }
+
+    public long bytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    public long handshakes() {
+        return handshakes.sum();
+    }
+
+    public long handshakeFailures() {
+        return handshakeFailures.sum();
+    }
+}
@@ -0,0 +1,54 @@
+package com.github.chhsiao90.nitmproxy.metrics;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandler.Sharable;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.group.ChannelGroup;
+
+/**
+ * Counts the connections and the bytes read from and written to the socket, it should be the
+ * first handler of the pipeline, so it sees the bytes before they are decoded or after they are
+ * encoded.
+ */
+@Sharable
+public class ConnectionMetricsHandler extends ChannelDuplexHandler {
+    private final ConnectionMetrics metrics;
+    private final ChannelGroup channels;
+
+    ConnectionMetricsHandler(ConnectionMetrics metrics, ChannelGroup channels) {
+        this.metrics = metrics;
+        this.channels = channels;
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        metrics.onOpened();
+        channels.add(ctx.channel());
+        ctx.fireChannelActive();
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        metrics.onClosed();
+        ctx.fireChannelInactive();
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (msg instanceof ByteBuf) {
+            metrics.onRead(((ByteBuf) msg).readableBytes());
+        }
+        ctx.fireChannelRead(msg);
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise)
+            throws Exception {
+        if (msg instanceof ByteBuf) {
+            metrics.onWritten(((ByteBuf) msg).readableBytes());
+        }
+        ctx.write(msg, promise);
+    }
+}
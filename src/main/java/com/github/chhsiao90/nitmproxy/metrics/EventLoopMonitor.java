@@ -0,0 +1,133 @@
+package com.github.chhsiao90.nitmproxy.metrics;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.EventExecutorGroup;
+
+/**
+ * Watches the event loops of a group, by queuing a probe task to each one of them periodically.
+ *
+ * <p>The probe records how long it waited in the queue as the lag of the event loop. A probe
+ * which hasn't run after the stall threshold means the event loop is blocked, e.g. by a blocking
+ * DNS lookup or by a busy connection, the stack trace of its thread is logged once for each
+ * stall, to show which code blocks it.</p>
+ */
+public class EventLoopMonitor implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(EventLoopMonitor.class);
+
+    private final List<EventLoopStats> loops = new ArrayList<>();
+    private final long intervalNanos;
+    private final long stallThresholdNanos;
+    private final Thread thread;
+
+    private volatile boolean running;
+
+    /**
+     * Create the monitor.
+     *
+     * @param group the event loops to watch
+     * @param intervalNanos the interval between the probes
+     * @param stallThresholdNanos the lag over which the event loop is considered blocked
+     */
+    public EventLoopMonitor(EventExecutorGroup group, long intervalNanos,
+                            long stallThresholdNanos) {
+        for (EventExecutor executor : group) {
+            loops.add(new EventLoopStats(loops.size(), executor));
+        }
+        this.intervalNanos = intervalNanos;
+        this.stallThresholdNanos = stallThresholdNanos;
+        this.thread = new Thread(this::run, "nitmproxy-event-loop-monitor");
+        this.thread.setDaemon(true);
+    }
+
+    public List<EventLoopStats> loops() {
+        return Collections.unmodifiableList(loops);
+    }
+
+    /**
+     * Get the current lag of an event loop of the group.
+     *
+     * @param executor the event loop
+     * @return the lag in nanos, or {@code 0} if the event loop is not watched
+     * @see EventLoopStats#lagNanos(long)
+     */
+    public long lagNanos(EventExecutor executor) {
+        for (EventLoopStats loop : loops) {
+            if (loop.executor() == executor) {
+                return loop.lagNanos(System.nanoTime());
+            }
+        }
+        return 0;
+    }
+
+    public void start() {
+        running = true;
+        thread.start();
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        while (running) {
+            check(System.nanoTime());
+            LockSupport.parkNanos(intervalNanos);
+        }
+    }
+
+    void check(long now) {
+        for (EventLoopStats loop : loops) {
+            long queued = loop.probeQueuedNanos();
+            if (queued == 0) {
+                probe(loop, now);
+            } else if (now - queued > stallThresholdNanos && loop.onStall()) {
+                reportStall(loop, now - queued);
+            }
+        }
+    }
+
+    private void probe(EventLoopStats loop, long now) {
+        if (loop.executor().isShuttingDown()) {
+            return;
+        }
+        loop.onProbeQueued(now);
+        try {
+            loop.executor().execute(loop::onProbeRun);
+        } catch (RejectedExecutionException e) {
+            loop.onProbeQueued(0);
+        }
+    }
+
+    private void reportStall(EventLoopStats loop, long lagNanos) {
+        Thread loopThread = loop.thread();
+        StringBuilder stackTrace = new StringBuilder();
+        if (loopThread != null) {
+            stackTrace.append(loopThread.getName());
+            for (StackTraceElement element : loopThread.getStackTrace()) {
+                stackTrace.append(System.lineSeparator()).append("\tat ").append(element);
+            }
+        }
+        LOGGER.warn("Event loop {} has been blocked for {}ms, {} channels, {} pending tasks: {}",
+                    loop.index(), NANOSECONDS.toMillis(lagNanos), loop.channels(),
+                    loop.pendingTasks(), stackTrace);
+    }
+}
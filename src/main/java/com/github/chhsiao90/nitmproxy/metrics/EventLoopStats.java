@@ -0,0 +1,114 @@
+package com.github.chhsiao90.nitmproxy.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import io.netty.channel.SingleThreadEventLoop;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.SingleThreadEventExecutor;
+
+/**
+ * The load of an event loop, measured by {@link EventLoopMonitor}.
+ *
+ * <p>The lag is the time a probe task waited in the queue of the event loop, which is how long
+ * any other task, e.g. a read of a channel, would have waited at the same time.</p>
+ */
+public class EventLoopStats {
+    private final int index;
+    private final EventExecutor executor;
+    private final LatencyHistogram lag = new LatencyHistogram();
+    private final LongAdder stalls = new LongAdder();
+
+    // Written by the monitor and read by the event loop, 0 if no probe is queued
+    private volatile long probeQueuedNanos;
+    private volatile long lastLagNanos;
+    private volatile Thread thread;
+    // Only accessed by the monitor
+    private boolean stallReported;
+
+    EventLoopStats(int index, EventExecutor executor) {
+        this.index = index;
+        this.executor = executor;
+    }
+
+    public int index() {
+        return index;
+    }
+
+    public LatencyHistogram lag() {
+        return lag;
+    }
+
+    /**
+     * Get the current lag of the event loop, which is how long the queued probe has been waiting,
+     * or the lag of the last probe if there is no queued one.
+     *
+     * @param now the current {@link System#nanoTime()}
+     * @return the lag in nanos
+     */
+    public long lagNanos(long now) {
+        long queued = probeQueuedNanos;
+        return queued != 0 ? Math.max(now - queued, lastLagNanos) : lastLagNanos;
+    }
+
+    /**
+     * Get the number of times the event loop was blocked longer than the stall threshold.
+     *
+     * @return the number of stalls
+     */
+    public long stalls() {
+        return stalls.sum();
+    }
+
+    /**
+     * Get the number of channels registered to the event loop.
+     *
+     * @return the number of channels, or {@code -1} if unknown
+     */
+    public int channels() {
+        return executor instanceof SingleThreadEventLoop
+               ? ((SingleThreadEventLoop) executor).registeredChannels() : -1;
+    }
+
+    /**
+     * Get the number of tasks waiting in the queue of the event loop.
+     *
+     * @return the number of tasks, or {@code -1} if unknown
+     */
+    public int pendingTasks() {
+        return executor instanceof SingleThreadEventExecutor
+               ? ((SingleThreadEventExecutor) executor).pendingTasks() : -1;
+    }
+
+    EventExecutor executor() {
+        return executor;
+    }
+
+    Thread thread() {
+        return thread;
+    }
+
+    long probeQueuedNanos() {
+        return probeQueuedNanos;
+    }
+
+    void onProbeQueued(long nanos) {
+        probeQueuedNanos = nanos;
+        stallReported = false;
+    }
+
+    void onProbeRun() {
+        thread = Thread.currentThread();
+        lastLagNanos = System.nanoTime() - probeQueuedNanos;
+        lag.recordNanos(lastLagNanos);
+        probeQueuedNanos = 0;
+    }
+
+    boolean onStall() {
+        if (stallReported) {
+            return false;
+        }
+        stallReported = true;
+        stalls.increment();
+        return true;
+    }
+}
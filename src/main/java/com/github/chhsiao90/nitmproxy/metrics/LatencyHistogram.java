@@ -0,0 +1,124 @@
+package com.github.chhsiao90.nitmproxy.metrics;
+
+import static java.lang.String.format;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of latencies in microseconds, which could be recorded by many threads without
+ * locks.
+ *
+ * <p>The buckets are log-linear like HdrHistogram: the values below 32 have a bucket each, and
+ * every power of two above is split into 32 buckets, so a value is counted with a relative error
+ * of 1/32 at most. The values above {@link #MAX_VALUE} are counted as {@link #MAX_VALUE}.</p>
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    /** The max value counted in its own bucket, about 71 minutes. */
+    public static final long MAX_VALUE = (1L << 32) - 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(index(MAX_VALUE) + 1);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Record a latency.
+     *
+     * @param nanos the latency in nanos, negative values are ignored
+     */
+    public void recordNanos(long nanos) {
+        if (nanos < 0) {
+            return;
+        }
+        long micros = Math.min(NANOSECONDS.toMicros(nanos), MAX_VALUE);
+        counts.incrementAndGet(index(micros));
+        count.increment();
+        sum.add(micros);
+        max.accumulate(micros);
+    }
+
+    public long count() {
+        return count.sum();
+    }
+
+    /**
+     * Get the sum of the recorded latencies.
+     *
+     * @return the micros
+     */
+    public long sum() {
+        return sum.sum();
+    }
+
+    /**
+     * Get the max recorded latency.
+     *
+     * @return the micros
+     */
+    public long max() {
+        return max.get();
+    }
+
+    /**
+     * Get the mean of the recorded latencies.
+     *
+     * @return the micros, or {@code 0} if nothing was recorded
+     */
+    public long mean() {
+        long count = count();
+        return count == 0 ? 0 : sum.sum() / count;
+    }
+
+    /**
+     * Get the latency at the percentile, which is the highest value of its bucket. The counts are
+     * read one by one while they could be recorded, it's not a snapshot.
+     *
+     * @param percentile the percentile between 0 and 100
+     * @return the micros, or {@code 0} if nothing was recorded
+     */
+    public long percentile(double percentile) {
+        long total = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            total += counts.get(i);
+        }
+        long target = Math.max((long) Math.ceil(total * percentile / 100), 1);
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(highestValue(i), max());
+            }
+        }
+        return 0;
+    }
+
+    static int index(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKET_COUNT + (int) (value >>> shift) - SUB_BUCKET_COUNT;
+    }
+
+    static long highestValue(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = index / SUB_BUCKET_COUNT - 1;
+        long lowest = (long) (index % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    @Override
+    public String toString() {
+        return format("count=%d, mean=%dus, p50=%dus, p90=%dus, p99=%dus, max=%dus",
+                count(), mean(), percentile(50), percentile(90), percentile(99), max());
+    }
+}
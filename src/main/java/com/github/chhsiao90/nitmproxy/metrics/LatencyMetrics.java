@@ -0,0 +1,90 @@
+package com.github.chhsiao90.nitmproxy.metrics;
+
+import static java.lang.String.format;
+
+import com.github.chhsiao90.nitmproxy.Address;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The latencies of the {@link Stage}s, for each origin and for all of them.
+ *
+ * <p>The metrics of an origin are created when it's recorded the first time, and the later
+ * records of the origin only read the map. There are {@link #MAX_ORIGINS} origins at most, the
+ * latencies of the other origins are only added to {@link #total()}.</p>
+ */
+public class LatencyMetrics {
+    public static final int MAX_ORIGINS = 256;
+
+    private static final LatencyMetrics TOTAL = new LatencyMetrics(null);
+    private static final ConcurrentMap<Address, LatencyMetrics> ORIGINS = new ConcurrentHashMap<>();
+
+    private final LatencyMetrics parent;
+    private final Map<Stage, LatencyHistogram> histograms = new EnumMap<>(Stage.class);
+
+    private LatencyMetrics(LatencyMetrics parent) {
+        this.parent = parent;
+        for (Stage stage : Stage.values()) {
+            histograms.put(stage, new LatencyHistogram());
+        }
+    }
+
+    /**
+     * Get the metrics of all the origins.
+     *
+     * @return the metrics
+     */
+    public static LatencyMetrics total() {
+        return TOTAL;
+    }
+
+    /**
+     * Get the metrics of the origins.
+     *
+     * @return the metrics by origin
+     */
+    public static Map<Address, LatencyMetrics> origins() {
+        return Collections.unmodifiableMap(ORIGINS);
+    }
+
+    /**
+     * Record the latency of a stage.
+     *
+     * @param origin the origin, or {@code null} if it's not known yet
+     * @param stage the stage
+     * @param nanos the latency
+     */
+    public static void record(Address origin, Stage stage, long nanos) {
+        LatencyMetrics metrics = origin == null ? null : ORIGINS.get(origin);
+        if (metrics == null && origin != null && ORIGINS.size() < MAX_ORIGINS) {
+            metrics = ORIGINS.computeIfAbsent(origin, ignore -> new LatencyMetrics(TOTAL));
+        }
+        (metrics == null ? TOTAL : metrics).record(stage, nanos);
+    }
+
+    private void record(Stage stage, long nanos) {
+        histograms.get(stage).recordNanos(nanos);
+        if (parent != null) {
+            parent.record(stage, nanos);
+        }
+    }
+
+    public LatencyHistogram histogram(Stage stage) {
+        return histograms.get(stage);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        histograms.forEach((stage, histogram) -> {
+            if (histogram.count() > 0) {
+                builder.append(format("%n  %s: %s", stage, histogram));
+            }
+        });
+        return builder.toString();
+    }
+}
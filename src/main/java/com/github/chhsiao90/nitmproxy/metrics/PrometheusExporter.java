@@ -0,0 +1,328 @@
+package com.github.chhsiao90.nitmproxy.metrics;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import com.github.chhsiao90.nitmproxy.accesslog.AccessLogRingBuffer;
+import com.github.chhsiao90.nitmproxy.handler.protocol.http2.Http2FlowControlMetrics;
+import com.github.chhsiao90.nitmproxy.tls.SslContextCache;
+
+import java.util.List;
+import java.util.Locale;
+
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufAllocatorMetric;
+import io.netty.buffer.ByteBufAllocatorMetricProvider;
+import io.netty.buffer.PoolArenaMetric;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocatorMetric;
+import io.netty.util.internal.PlatformDependent;
+
+/**
+ * Exports {@link ProxyMetrics}, the total of {@link LatencyMetrics} and of
+ * {@link Http2FlowControlMetrics}, the load of the event loops, the usage of the allocator, the
+ * certificate cache and the access log in the text format of Prometheus.
+ */
+public class PrometheusExporter {
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static final String PREFIX = "nitmproxy_";
+    private static final double[] QUANTILES = { 0.5, 0.9, 0.99 };
+
+    private final ProxyMetrics metrics;
+    private final ByteBufAllocator allocator;
+    private final EventLoopMonitor eventLoopMonitor;
+    private SslContextCache certificateCache;
+    private AccessLogRingBuffer accessLog;
+
+    public PrometheusExporter(ProxyMetrics metrics, ByteBufAllocator allocator) {
+        this(metrics, allocator, null);
+    }
+
+    /**
+     * Create the exporter.
+     *
+     * @param metrics the metrics of the proxy
+     * @param allocator the allocator of the channels
+     * @param eventLoopMonitor the monitor of the event loops, or {@code null} if not monitored
+     */
+    public PrometheusExporter(ProxyMetrics metrics, ByteBufAllocator allocator,
+                              EventLoopMonitor eventLoopMonitor) {
+        this.metrics = metrics;
+        this.allocator = allocator;
+        this.eventLoopMonitor = eventLoopMonitor;
+    }
+
+    /**
+     * Export the lookups and the size of the certificate cache.
+     *
+     * @param certificateCache the cache
+     * @return the exporter
+     */
+    public PrometheusExporter withCertificateCache(SslContextCache certificateCache) {
+        this.certificateCache = certificateCache;
+        return this;
+    }
+
+    /**
+     * Export the records dropped by the access log.
+     *
+     * @param accessLog the ring buffer of the access log
+     * @return the exporter
+     */
+    public PrometheusExporter withAccessLog(AccessLogRingBuffer accessLog) {
+        this.accessLog = accessLog;
+        return this;
+    }
+
+    /**
+     * Export the metrics.
+     *
+     * @param out the builder to append to
+     */
+    public void export(StringBuilder out) {
+        exportConnections(out, "client", metrics.client());
+        exportConnections(out, "server", metrics.server());
+        sample(header(out, "server_connect_failures_total", "counter",
+                      "Connections to servers that failed"),
+               "server_connect_failures_total", null, metrics.server().failed());
+
+        header(out, "requests_total", "counter", "Requests of the clients by type");
+        for (RequestType type : RequestType.values()) {
+            sample(out, "requests_total", label("type", type), metrics.requests(type));
+        }
+
+        header(out, "timeouts_total", "counter", "Connections closed by the deadlines by type");
+        for (TimeoutType type : TimeoutType.values()) {
+            sample(out, "timeouts_total", label("type", type), metrics.timeouts(type));
+        }
+
+        header(out, "rejections_total", "counter", "Clients rejected by the admission control by reason");
+        for (RejectReason reason : RejectReason.values()) {
+            sample(out, "rejections_total", label("reason", reason), metrics.rejections(reason));
+        }
+
+        header(out, "tls_handshakes_total", "counter", "TLS handshakes by side and result");
+        tlsHandshakes(out, "client", metrics.client());
+        tlsHandshakes(out, "server", metrics.server());
+
+        sample(header(out, "certificates_created_total", "counter",
+                      "Certificates created for the server hosts"),
+               "certificates_created_total", null, metrics.certificates());
+        exportCertificateCache(out);
+
+        sample(header(out, "circuits_opened_total", "counter",
+                      "Times the circuits of the origins were opened"),
+               "circuits_opened_total", null, metrics.circuitsOpened());
+        sample(header(out, "circuit_rejections_total", "counter",
+                      "Connections failed fast by the open circuits of the origins"),
+               "circuit_rejections_total", null, metrics.circuitRejections());
+        sample(header(out, "outlier_ejections_total", "counter",
+                      "Times the addresses of the origins were ejected"),
+               "outlier_ejections_total", null, metrics.ejections());
+        sample(header(out, "connect_races_total", "counter",
+                      "Connections raced against the other addresses of the origins"),
+               "connect_races_total", null, metrics.connectRaces());
+        sample(header(out, "connect_races_overtaken_total", "counter",
+                      "Raced connections overtaken by another address of the origins"),
+               "connect_races_overtaken_total", null, metrics.connectRacesOvertaken());
+
+        sample(header(out, "pending_write_bytes", "gauge",
+                      "Bytes written but not flushed to the sockets"),
+               "pending_write_bytes", null, metrics.pendingWriteBytes());
+        sample(header(out, "unwritable_channels", "gauge",
+                      "Channels not writable because of pending writes"),
+               "unwritable_channels", null, metrics.unwritableChannels());
+
+        header(out, "http2_windows_exhausted_total", "counter",
+               "Times the HTTP/2 flow-control windows were exhausted, local when the peers stall "
+               + "on the window of the proxy, remote when the proxy queues the data for the peers");
+        sample(out, "http2_windows_exhausted_total", "window=\"local\"",
+               Http2FlowControlMetrics.total().localWindowExhausted());
+        sample(out, "http2_windows_exhausted_total", "window=\"remote\"",
+               Http2FlowControlMetrics.total().remoteWindowExhausted());
+
+        if (accessLog != null) {
+            sample(header(out, "access_log_dropped_total", "counter",
+                          "Access log records dropped because the buffer was full"),
+                   "access_log_dropped_total", null, accessLog.dropped());
+        }
+
+        exportLatencies(out);
+        exportEventLoops(out);
+        exportAllocator(out);
+    }
+
+    private void exportConnections(StringBuilder out, String side, ConnectionMetrics connections) {
+        String name = side + "_connections_total";
+        sample(header(out, name, "counter", "Connections opened with the " + side + "s"),
+               name, null, connections.opened());
+        name = side + "_connections_active";
+        sample(header(out, name, "gauge", "Connections open with the " + side + "s"),
+               name, null, connections.active());
+        name = side + "_bytes_read_total";
+        sample(header(out, name, "counter", "Bytes read from the " + side + "s"),
+               name, null, connections.bytesRead());
+        name = side + "_bytes_written_total";
+        sample(header(out, name, "counter", "Bytes written to the " + side + "s"),
+               name, null, connections.bytesWritten());
+    }
+
+    private void exportCertificateCache(StringBuilder out) {
+        if (certificateCache == null) {
+            return;
+        }
+        header(out, "certificate_cache_lookups_total", "counter",
+               "Lookups of the certificates of the server hosts by result");
+        sample(out, "certificate_cache_lookups_total", "result=\"hit\"", certificateCache.hits());
+        sample(out, "certificate_cache_lookups_total", "result=\"miss\"",
+               certificateCache.misses());
+        sample(header(out, "certificate_cache_size", "gauge",
+                      "Certificates of the server hosts in the cache"),
+               "certificate_cache_size", null, certificateCache.size());
+    }
+
+    private void tlsHandshakes(StringBuilder out, String side, ConnectionMetrics connections) {
+        sample(out, "tls_handshakes_total", label("side", side) + ",result=\"success\"",
+               connections.handshakes());
+        sample(out, "tls_handshakes_total", label("side", side) + ",result=\"failure\"",
+               connections.handshakeFailures());
+    }
+
+    private void exportLatencies(StringBuilder out) {
+        String name = "stage_latency_seconds";
+        header(out, name, "summary", "Latencies of the stages of the connections");
+        for (Stage stage : Stage.values()) {
+            summary(out, name, label("stage", stage), LatencyMetrics.total().histogram(stage));
+        }
+    }
+
+    private void exportEventLoops(StringBuilder out) {
+        if (eventLoopMonitor == null) {
+            return;
+        }
+        header(out, "event_loop_lag_seconds", "summary", "Time the tasks wait in the event loops");
+        for (EventLoopStats loop : eventLoopMonitor.loops()) {
+            summary(out, "event_loop_lag_seconds", loopLabel(loop), loop.lag());
+        }
+        header(out, "event_loop_stalls_total", "counter",
+               "Times the event loops were blocked over the threshold");
+        for (EventLoopStats loop : eventLoopMonitor.loops()) {
+            sample(out, "event_loop_stalls_total", loopLabel(loop), loop.stalls());
+        }
+        header(out, "event_loop_channels", "gauge", "Channels registered to the event loops");
+        for (EventLoopStats loop : eventLoopMonitor.loops()) {
+            sample(out, "event_loop_channels", loopLabel(loop), loop.channels());
+        }
+        header(out, "event_loop_pending_tasks", "gauge", "Tasks queued in the event loops");
+        for (EventLoopStats loop : eventLoopMonitor.loops()) {
+            sample(out, "event_loop_pending_tasks", loopLabel(loop), loop.pendingTasks());
+        }
+    }
+
+    private static String loopLabel(EventLoopStats loop) {
+        return label("loop", String.valueOf(loop.index()));
+    }
+
+    private static void summary(StringBuilder out, String name, String labels,
+                                LatencyHistogram histogram) {
+        for (double quantile : QUANTILES) {
+            sample(out, name, labels + ",quantile=\"" + quantile + "\"",
+                   seconds(histogram.percentile(quantile * 100)));
+        }
+        sample(out, name + "_sum", labels, seconds(histogram.sum()));
+        sample(out, name + "_count", labels, histogram.count());
+    }
+
+    private void exportAllocator(StringBuilder out) {
+        if (allocator instanceof ByteBufAllocatorMetricProvider) {
+            ByteBufAllocatorMetric metric = ((ByteBufAllocatorMetricProvider) allocator).metric();
+            header(out, "allocator_used_bytes", "gauge", "Memory used by the allocator");
+            sample(out, "allocator_used_bytes", "type=\"heap\"", metric.usedHeapMemory());
+            sample(out, "allocator_used_bytes", "type=\"direct\"", metric.usedDirectMemory());
+        }
+        if (allocator instanceof PooledByteBufAllocator) {
+            PooledByteBufAllocatorMetric metric = ((PooledByteBufAllocator) allocator).metric();
+            header(out, "allocator_arenas", "gauge", "Arenas of the pooled allocator");
+            sample(out, "allocator_arenas", "type=\"heap\"", metric.numHeapArenas());
+            sample(out, "allocator_arenas", "type=\"direct\"", metric.numDirectArenas());
+            sample(header(out, "allocator_thread_local_caches", "gauge",
+                          "Thread local caches of the pooled allocator"),
+                   "allocator_thread_local_caches", null, metric.numThreadLocalCaches());
+            sample(header(out, "allocator_chunk_size_bytes", "gauge",
+                          "Chunk size of the pooled allocator"),
+                   "allocator_chunk_size_bytes", null, metric.chunkSize());
+            header(out, "allocator_active_bytes", "gauge",
+                   "Bytes of the buffers in use in the arenas of the pooled allocator");
+            sample(out, "allocator_active_bytes", "type=\"heap\"",
+                   AllocatorReporter.activeBytes(metric.heapArenas()));
+            sample(out, "allocator_active_bytes", "type=\"direct\"",
+                   AllocatorReporter.activeBytes(metric.directArenas()));
+            header(out, "allocator_active_allocations", "gauge",
+                   "Buffers in use in the arenas of the pooled allocator");
+            sample(out, "allocator_active_allocations", "type=\"heap\"",
+                   AllocatorReporter.activeAllocations(metric.heapArenas()));
+            sample(out, "allocator_active_allocations", "type=\"direct\"",
+                   AllocatorReporter.activeAllocations(metric.directArenas()));
+            header(out, "allocator_allocations_total", "counter",
+                   "Buffers allocated by the arenas of the pooled allocator by size class");
+            exportAllocations(out, "heap", metric.heapArenas());
+            exportAllocations(out, "direct", metric.directArenas());
+        }
+        long directMemory = PlatformDependent.usedDirectMemory();
+        if (directMemory >= 0) {
+            sample(header(out, "direct_memory_used_bytes", "gauge",
+                          "Direct memory reserved by Netty"),
+                   "direct_memory_used_bytes", null, directMemory);
+        }
+    }
+
+    private static void exportAllocations(StringBuilder out, String type,
+                                          List<PoolArenaMetric> arenas) {
+        long small = 0;
+        long normal = 0;
+        long huge = 0;
+        for (PoolArenaMetric arena : arenas) {
+            small += arena.numSmallAllocations();
+            normal += arena.numNormalAllocations();
+            huge += arena.numHugeAllocations();
+        }
+        String labels = label("type", type);
+        sample(out, "allocator_allocations_total", labels + ",size=\"small\"", small);
+        sample(out, "allocator_allocations_total", labels + ",size=\"normal\"", normal);
+        sample(out, "allocator_allocations_total", labels + ",size=\"huge\"", huge);
+    }
+
+    private static StringBuilder header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(PREFIX).append(name).append(' ').append(type).append('\n');
+        return out;
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, long value) {
+        appendName(out, name, labels).append(value).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, double value) {
+        appendName(out, name, labels).append(value).append('\n');
+    }
+
+    private static StringBuilder appendName(StringBuilder out, String name, String labels) {
+        out.append(PREFIX).append(name);
+        if (labels != null) {
+            out.append('{').append(labels).append('}');
+        }
+        return out.append(' ');
+    }
+
+    private static String label(String name, Enum<?> value) {
+        return label(name, value.name().toLowerCase(Locale.ROOT));
+    }
+
+    private static String label(String name, String value) {
+        return name + "=\"" + value + '"';
+    }
+
+    private static double seconds(long micros) {
+        return micros / (double) SECONDS.toMicros(1);
+    }
+}
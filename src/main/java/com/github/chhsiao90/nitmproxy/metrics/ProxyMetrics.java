@@ -0,0 +1,168 @@
+package com.github.chhsiao90.nitmproxy.metrics;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelOutboundBuffer;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.util.concurrent.GlobalEventExecutor;
+
+/**
+ * The counters of the proxy, exported by {@link PrometheusExporter}.
+ *
+ * <p>All the counters are {@link LongAdder}s, the event loops only add to their own cells and the
+ * sums are computed when the metrics are read. The gauges of the pending writes are computed from
+ * the live channels when they are read.</p>
+ */
+public class ProxyMetrics {
+    private static final ProxyMetrics GLOBAL = new ProxyMetrics();
+
+    private final ChannelGroup channels = new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
+    private final ConnectionMetrics client = new ConnectionMetrics(channels);
+    private final ConnectionMetrics server = new ConnectionMetrics(channels);
+    private final Map<RequestType, LongAdder> requests = new EnumMap<>(RequestType.class);
+    private final Map<TimeoutType, LongAdder> timeouts = new EnumMap<>(TimeoutType.class);
+    private final Map<RejectReason, LongAdder> rejections = new EnumMap<>(RejectReason.class);
+    private final LongAdder certificates = new LongAdder();
+    private final LongAdder circuitsOpened = new LongAdder();
+    private final LongAdder circuitRejections = new LongAdder();
+    private final LongAdder ejections = new LongAdder();
+    private final LongAdder connectRaces = new LongAdder();
+    private final LongAdder connectRacesOvertaken = new LongAdder();
+
+    ProxyMetrics() {
+        for (RequestType type : RequestType.values()) {
+            requests.put(type, new LongAdder());
+        }
+        for (TimeoutType type : TimeoutType.values()) {
+            timeouts.put(type, new LongAdder());
+        }
+        for (RejectReason reason : RejectReason.values()) {
+            rejections.put(reason, new LongAdder());
+        }
+    }
+
+    /**
+     * Get the metrics of the proxy.
+     *
+     * @return the metrics
+     */
+    public static ProxyMetrics global() {
+        return GLOBAL;
+    }
+
+    public ConnectionMetrics client() {
+        return client;
+    }
+
+    public ConnectionMetrics server() {
+        return server;
+    }
+
+    public void onRequest(RequestType type) {
+        requests.get(type).increment();
+    }
+
+    public long requests(RequestType type) {
+        return requests.get(type).sum();
+    }
+
+    public void onTimeout(TimeoutType type) {
+        timeouts.get(type).increment();
+    }
+
+    public long timeouts(TimeoutType type) {
+        return timeouts.get(type).sum();
+    }
+
+    public void onRejected(RejectReason reason) {
+        rejections.get(reason).increment();
+    }
+
+    public long rejections(RejectReason reason) {
+        return rejections.get(reason).sum();
+    }
+
+    public void onCertificateCreated() {
+        certificates.increment();
+    }
+
+    public long certificates() {
+        return certificates.sum();
+    }
+
+    public void onCircuitOpened() {
+        circuitsOpened.increment();
+    }
+
+    public long circuitsOpened() {
+        return circuitsOpened.sum();
+    }
+
+    public void onCircuitRejected() {
+        circuitRejections.increment();
+    }
+
+    public long circuitRejections() {
+        return circuitRejections.sum();
+    }
+
+    public void onEjected() {
+        ejections.increment();
+    }
+
+    public long ejections() {
+        return ejections.sum();
+    }
+
+    public void onConnectRace() {
+        connectRaces.increment();
+    }
+
+    public long connectRaces() {
+        return connectRaces.sum();
+    }
+
+    public void onConnectRaceOvertaken() {
+        connectRacesOvertaken.increment();
+    }
+
+    public long connectRacesOvertaken() {
+        return connectRacesOvertaken.sum();
+    }
+
+    /**
+     * Get the bytes written but not flushed to the sockets yet, of all the live channels.
+     *
+     * @return the bytes
+     */
+    public long pendingWriteBytes() {
+        long bytes = 0;
+        for (Channel channel : channels) {
+            ChannelOutboundBuffer buffer = channel.unsafe().outboundBuffer();
+            if (buffer != null) {
+                bytes += buffer.totalPendingWriteBytes();
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Get the number of the live channels which are not writable, because of too many pending
+     * writes.
+     *
+     * @return the number of channels
+     */
+    public long unwritableChannels() {
+        long count = 0;
+        for (Channel channel : channels) {
+            if (!channel.isWritable()) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,15 @@
+package com.github.chhsiao90.nitmproxy.metrics;
+
+/**
+ * The reasons of rejecting the clients, counted by {@link ProxyMetrics}.
+ */
+public enum RejectReason {
+    /** The proxy has the maximum number of connections. */
+    CONNECTIONS,
+    /** The client has the maximum number of connections. */
+    CLIENT_CONNECTIONS,
+    /** The proxy has the maximum number of TLS handshakes with the clients in progress. */
+    HANDSHAKES,
+    /** The event loop of the connection lags behind. */
+    EVENT_LOOP_LAG
+}
@@ -0,0 +1,15 @@
+package com.github.chhsiao90.nitmproxy.metrics;
+
+/**
+ * The types of the requests of the clients, counted by {@link ProxyMetrics}.
+ */
+public enum RequestType {
+    /** A HTTP/1 request, sent to the proxy or in a tunnel. */
+    HTTP1,
+    /** A HTTP/2 stream opened by the client. */
+    HTTP2,
+    /** A CONNECT request of a HTTP proxy client. */
+    TUNNEL,
+    /** A CONNECT command of a SOCKS client. */
+    SOCKS
+}
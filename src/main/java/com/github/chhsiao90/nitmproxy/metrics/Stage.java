@@ -0,0 +1,25 @@
+package com.github.chhsiao90.nitmproxy.metrics;
+
+/**
+ * The stages of a proxied connection, each one is a latency measured from a start to an end.
+ */
+public enum Stage {
+    /** From the client connection accepted to the CONNECT or SOCKS request parsed. */
+    PROXY_PARSE,
+    /** The resolution of the server host. */
+    DNS,
+    /** The TCP connection to the server, after the host was resolved. */
+    BACKEND_CONNECT,
+    /** The TLS handshake with the server. */
+    BACKEND_TLS_HANDSHAKE,
+    /** The certificate created for the server host. */
+    CERT_MINT,
+    /** The TLS handshake with the client, after the server protocol was negotiated. */
+    FRONTEND_TLS_HANDSHAKE,
+    /** From the client connection accepted to the first request. */
+    FIRST_REQUEST_BYTE,
+    /** From the first request to the first response of the server. */
+    FIRST_RESPONSE_BYTE,
+    /** From the client connection accepted to closed. */
+    COMPLETION
+}
@@ -0,0 +1,19 @@
+package com.github.chhsiao90.nitmproxy.metrics;
+
+/**
+ * The deadlines of the connections, the expired ones are counted by {@link ProxyMetrics}.
+ */
+public enum TimeoutType {
+    /** A server was not resolved and connected in time. */
+    CONNECT,
+    /** A TLS handshake with a client or a server was not completed in time. */
+    HANDSHAKE,
+    /** A client didn't send its first request after it connected. */
+    REQUEST_HEADER,
+    /** A server didn't start to respond a request. */
+    RESPONSE_FIRST_BYTE,
+    /** A keep-alive connection was idle between the requests. */
+    IDLE_KEEP_ALIVE,
+    /** A tunnel of a CONNECT request or a SOCKS command was idle. */
+    IDLE_TUNNEL
+}
@@ -0,0 +1,103 @@
+package com.github.chhsiao90.nitmproxy.observer;
+
+import com.github.chhsiao90.nitmproxy.ConnectionContext;
+import com.github.chhsiao90.nitmproxy.NitmProxyConfig;
+
+import io.netty.channel.Channel;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http2.Http2Frame;
+
+/**
+ * Observes the traffic relayed by the proxy, registered with
+ * {@link NitmProxyConfig#getTrafficObservers()}.
+ *
+ * <p>The callbacks are invoked on the event loop of the channel, they must not block. The messages
+ * are released by the proxy after they are written, an observer must retain a message to keep it
+ * after the callback returned.</p>
+ *
+ * <p>The HTTP/1 messages are observed when the requests are written to the server and when the
+ * responses are written to the client, which includes the messages translated from or to HTTP/2.
+ * The HTTP/2 frames are observed when they are relayed between HTTP/2 connections, with the
+ * stream id of the client connection in both directions.</p>
+ */
+public interface TrafficObserver {
+
+    /**
+     * Called when a client connected to the proxy.
+     *
+     * @param connectionContext the connection context
+     */
+    default void onClientConnected(ConnectionContext connectionContext) {
+    }
+
+    /**
+     * Called when a client disconnected from the proxy.
+     *
+     * @param connectionContext the connection context
+     */
+    default void onClientDisconnected(ConnectionContext connectionContext) {
+    }
+
+    /**
+     * Called when the proxy connected to a server for the client.
+     *
+     * @param connectionContext the connection context
+     * @param serverChannel the server channel
+     */
+    default void onServerConnected(ConnectionContext connectionContext, Channel serverChannel) {
+    }
+
+    /**
+     * Called when a server channel of the client was closed.
+     *
+     * @param connectionContext the connection context
+     * @param serverChannel the server channel
+     */
+    default void onServerDisconnected(ConnectionContext connectionContext, Channel serverChannel) {
+    }
+
+    /**
+     * Called when a HTTP/1 request is written to the server.
+     *
+     * @param connectionContext the connection context
+     * @param serverChannel the server channel that the request is written to
+     * @param request the request message
+     */
+    default void onHttp1Request(ConnectionContext connectionContext, Channel serverChannel,
+                                HttpObject request) {
+    }
+
+    /**
+     * Called when a HTTP/1 response message is written to the client. The responses of a server
+     * channel are in the order of its requests.
+     *
+     * @param connectionContext the connection context
+     * @param serverChannel the server channel that the response was read from
+     * @param response the response message
+     */
+    default void onHttp1Response(ConnectionContext connectionContext, Channel serverChannel,
+                                 HttpObject response) {
+    }
+
+    /**
+     * Called when a HTTP/2 frame of the client is relayed to the server.
+     *
+     * @param connectionContext the connection context
+     * @param streamId the stream id of the client connection
+     * @param frame the frame
+     */
+    default void onHttp2ClientFrame(ConnectionContext connectionContext, int streamId,
+                                    Http2Frame frame) {
+    }
+
+    /**
+     * Called when a HTTP/2 frame of the server is relayed to the client.
+     *
+     * @param connectionContext the connection context
+     * @param streamId the stream id of the client connection
+     * @param frame the frame
+     */
+    default void onHttp2ServerFrame(ConnectionContext connectionContext, int streamId,
+                                    Http2Frame frame) {
+    }
+}
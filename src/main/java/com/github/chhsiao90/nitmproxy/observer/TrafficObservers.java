@@ -0,0 +1,96 @@
+package com.github.chhsiao90.nitmproxy.observer;
+
+import static java.lang.String.format;
+
+import com.github.chhsiao90.nitmproxy.ConnectionContext;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.netty.channel.Channel;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http2.Http2Frame;
+
+/**
+ * Notifies all the registered observers, a failed observer is logged and doesn't affect the
+ * others or the traffic.
+ *
+ * <p>The callers check {@link #isEnabled()} before they build anything for the observers, so the
+ * traffic costs nothing more when there is no observer.</p>
+ */
+public class TrafficObservers implements TrafficObserver {
+    private static final Logger LOGGER = LoggerFactory.getLogger(TrafficObservers.class);
+
+    private final List<TrafficObserver> observers;
+
+    public TrafficObservers(List<TrafficObserver> observers) {
+        this.observers = observers;
+    }
+
+    public boolean isEnabled() {
+        return !observers.isEmpty();
+    }
+
+    @Override
+    public void onClientConnected(ConnectionContext connectionContext) {
+        notify(connectionContext, observer -> observer.onClientConnected(connectionContext));
+    }
+
+    @Override
+    public void onClientDisconnected(ConnectionContext connectionContext) {
+        notify(connectionContext, observer -> observer.onClientDisconnected(connectionContext));
+    }
+
+    @Override
+    public void onServerConnected(ConnectionContext connectionContext, Channel serverChannel) {
+        notify(connectionContext,
+               observer -> observer.onServerConnected(connectionContext, serverChannel));
+    }
+
+    @Override
+    public void onServerDisconnected(ConnectionContext connectionContext, Channel serverChannel) {
+        notify(connectionContext,
+               observer -> observer.onServerDisconnected(connectionContext, serverChannel));
+    }
+
+    @Override
+    public void onHttp1Request(ConnectionContext connectionContext, Channel serverChannel,
+                               HttpObject request) {
+        notify(connectionContext,
+               observer -> observer.onHttp1Request(connectionContext, serverChannel, request));
+    }
+
+    @Override
+    public void onHttp1Response(ConnectionContext connectionContext, Channel serverChannel,
+                                HttpObject response) {
+        notify(connectionContext,
+               observer -> observer.onHttp1Response(connectionContext, serverChannel, response));
+    }
+
+    @Override
+    public void onHttp2ClientFrame(ConnectionContext connectionContext, int streamId,
+                                   Http2Frame frame) {
+        notify(connectionContext,
+               observer -> observer.onHttp2ClientFrame(connectionContext, streamId, frame));
+    }
+
+    @Override
+    public void onHttp2ServerFrame(ConnectionContext connectionContext, int streamId,
+                                   Http2Frame frame) {
+        notify(connectionContext,
+               observer -> observer.onHttp2ServerFrame(connectionContext, streamId, frame));
+    }
+
+    private void notify(ConnectionContext connectionContext, Consumer<TrafficObserver> callback) {
+        for (TrafficObserver observer : observers) {
+            try {
+                callback.accept(observer);
+            } catch (RuntimeException e) {
+                LOGGER.warn(format("%s : observer %s failed", connectionContext, observer), e);
+            }
+        }
+    }
+}
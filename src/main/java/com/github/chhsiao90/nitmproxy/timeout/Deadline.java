@@ -0,0 +1,126 @@
+package com.github.chhsiao90.nitmproxy.timeout;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import com.github.chhsiao90.nitmproxy.metrics.ProxyMetrics;
+import com.github.chhsiao90.nitmproxy.metrics.TimeoutType;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.netty.channel.Channel;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import io.netty.util.TimerTask;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+/**
+ * A deadline of a channel, which closes the channel unless it's cancelled in time.
+ *
+ * <p>All the deadlines are kept by a {@link HashedWheelTimer} shared by the proxy, instead of a
+ * task scheduled in the event loop of every channel. Adding and cancelling a deadline of the wheel
+ * costs a constant time whatever the number of the connections, and the precision of a tick is
+ * good enough for the timeouts of seconds. The thread of the wheel only hands an expired deadline
+ * over to the event loop of the channel, where it's checked again since the event loop could have
+ * cancelled it in the meantime.</p>
+ *
+ * <p>A deadline must be cancelled by the event loop of its channel.</p>
+ */
+public class Deadline implements TimerTask, Runnable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(Deadline.class);
+
+    private static final Timer TIMER = new HashedWheelTimer(
+            new DefaultThreadFactory("nitmproxy-timer", true), 100, MILLISECONDS, 512);
+
+    private static final Deadline NONE = new Deadline(null, null, null);
+
+    private final Channel channel;
+    private final TimeoutType type;
+    private final Runnable onExpired;
+    private Timeout timeout;
+    // Only accessed by the event loop of the channel
+    private boolean done;
+
+    private Deadline(Channel channel, TimeoutType type, Runnable onExpired) {
+        this.channel = channel;
+        this.type = type;
+        this.onExpired = onExpired;
+        this.done = channel == null;
+    }
+
+    /**
+     * Schedule a deadline which closes the channel when expired.
+     *
+     * @param channel the channel
+     * @param type the type of the deadline
+     * @param timeoutMillis the timeout, the deadline is disabled if not positive
+     * @return the deadline
+     */
+    public static Deadline schedule(Channel channel, TimeoutType type, long timeoutMillis) {
+        return schedule(channel, type, timeoutMillis, channel::close);
+    }
+
+    /**
+     * Schedule a deadline of the channel.
+     *
+     * @param channel the channel, the action runs on its event loop
+     * @param type the type of the deadline
+     * @param timeoutMillis the timeout, the deadline is disabled if not positive
+     * @param onExpired the action when expired
+     * @return the deadline
+     */
+    public static Deadline schedule(Channel channel, TimeoutType type, long timeoutMillis,
+                                    Runnable onExpired) {
+        if (timeoutMillis <= 0) {
+            return NONE;
+        }
+        Deadline deadline = new Deadline(channel, type, onExpired);
+        deadline.timeout = TIMER.newTimeout(deadline, timeoutMillis, MILLISECONDS);
+        return deadline;
+    }
+
+    /**
+     * Schedule a delayed action of the channel, which isn't counted as a timeout when it runs.
+     *
+     * @param channel the channel, the action runs on its event loop
+     * @param delayMillis the delay, the action never runs if not positive
+     * @param action the action
+     * @return the deadline, cancelled to skip the action
+     */
+    public static Deadline delay(Channel channel, long delayMillis, Runnable action) {
+        return schedule(channel, null, delayMillis, action);
+    }
+
+    static Timer timer() {
+        return TIMER;
+    }
+
+    /**
+     * Cancel the deadline, does nothing if it was already expired or cancelled.
+     */
+    public void cancel() {
+        if (!done) {
+            done = true;
+            timeout.cancel();
+        }
+    }
+
+    @Override
+    public void run(Timeout timeout) {
+        channel.eventLoop().execute(this);
+    }
+
+    @Override
+    public void run() {
+        if (done) {
+            return;
+        }
+        done = true;
+        if (type != null) {
+            LOGGER.debug("{} : {} timeout", channel, type);
+            ProxyMetrics.global().onTimeout(type);
+        }
+        onExpired.run();
+    }
+}
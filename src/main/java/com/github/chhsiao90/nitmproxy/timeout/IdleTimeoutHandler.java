@@ -0,0 +1,133 @@
+package com.github.chhsiao90.nitmproxy.timeout;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import com.github.chhsiao90.nitmproxy.ConnectionContext;
+import com.github.chhsiao90.nitmproxy.NitmProxyConfig;
+import com.github.chhsiao90.nitmproxy.metrics.ProxyMetrics;
+import com.github.chhsiao90.nitmproxy.metrics.TimeoutType;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandler.Sharable;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.util.Timeout;
+import io.netty.util.TimerTask;
+
+/**
+ * Closes a connection when nothing was read or written by the client channel and its server
+ * channels for the idle timeout, which is {@link NitmProxyConfig#getIdleTunnelTimeoutMillis()} for
+ * the tunnels and {@link NitmProxyConfig#getIdleKeepAliveTimeoutMillis()} for the others.
+ *
+ * <p>The handler is shared by the channels of a connection, which are all bound to the event loop
+ * of the client channel. The reads and writes only update a timestamp, the deadline on the shared
+ * timer checks the timestamp when it expires, and is scheduled again for the rest of the timeout if
+ * there were activities in the meantime. So a busy connection costs a timer task per timeout
+ * instead of a task per read or write.</p>
+ */
+@Sharable
+public class IdleTimeoutHandler extends ChannelDuplexHandler implements TimerTask, Runnable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(IdleTimeoutHandler.class);
+
+    private final ConnectionContext connectionContext;
+    private long lastActivityNanos;
+    private Timeout timeout;
+    private boolean closed;
+
+    public IdleTimeoutHandler(ConnectionContext connectionContext) {
+        this.connectionContext = connectionContext;
+    }
+
+    /**
+     * Check if any of the idle timeouts is enabled.
+     *
+     * @param config the config
+     * @return {@code true} if enabled
+     */
+    public static boolean isEnabled(NitmProxyConfig config) {
+        return config.getIdleKeepAliveTimeoutMillis() > 0 || config.getIdleTunnelTimeoutMillis() > 0;
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) {
+        // Added to the client channel first, then to the server channels
+        if (timeout == null) {
+            lastActivityNanos = System.nanoTime();
+            run();
+        }
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+        lastActivityNanos = System.nanoTime();
+        ctx.fireChannelRead(msg);
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) {
+        lastActivityNanos = System.nanoTime();
+        ctx.write(msg, promise);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) {
+        if (ctx.channel() == connectionContext.clientChannel()) {
+            closed = true;
+            if (timeout != null) {
+                timeout.cancel();
+            }
+        }
+        ctx.fireChannelInactive();
+    }
+
+    @Override
+    public void run(Timeout timeout) {
+        connectionContext.clientChannel().eventLoop().execute(this);
+    }
+
+    @Override
+    public void run() {
+        if (closed) {
+            return;
+        }
+        long timeoutNanos = timeoutNanos();
+        if (timeoutNanos <= 0) {
+            // Disabled for the current type of the connection, but it could become a tunnel later
+            schedule(MILLISECONDS.toNanos(Math.max(
+                    connectionContext.config().getIdleKeepAliveTimeoutMillis(),
+                    connectionContext.config().getIdleTunnelTimeoutMillis())));
+            return;
+        }
+        long idleNanos = System.nanoTime() - lastActivityNanos;
+        if (idleNanos < timeoutNanos) {
+            schedule(timeoutNanos - idleNanos);
+            return;
+        }
+        TimeoutType type = timeoutType();
+        LOGGER.debug("{} : {} timeout", connectionContext, type);
+        ProxyMetrics.global().onTimeout(type);
+        closed = true;
+        connectionContext.clientChannel().close();
+    }
+
+    private void schedule(long delayNanos) {
+        if (delayNanos > 0) {
+            timeout = Deadline.timer().newTimeout(this, delayNanos, NANOSECONDS);
+        }
+    }
+
+    private TimeoutType timeoutType() {
+        return connectionContext.isTunneled() ? TimeoutType.IDLE_TUNNEL : TimeoutType.IDLE_KEEP_ALIVE;
+    }
+
+    private long timeoutNanos() {
+        NitmProxyConfig config = connectionContext.config();
+        return MILLISECONDS.toNanos(connectionContext.isTunneled()
+                ? config.getIdleTunnelTimeoutMillis()
+                : config.getIdleKeepAliveTimeoutMillis());
+    }
+}
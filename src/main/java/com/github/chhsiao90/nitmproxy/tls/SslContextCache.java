@@ -0,0 +1,109 @@
+package com.github.chhsiao90.nitmproxy.tls;
+
+import com.github.chhsiao90.nitmproxy.ConnectionContext;
+import com.github.chhsiao90.nitmproxy.NitmProxyConfig;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import io.netty.handler.ssl.SslContext;
+import javax.net.ssl.SSLException;
+
+/**
+ * Caches the TLS contexts, which are immutable and shared by all the connections.
+ *
+ * <p>A certificate is minted for a server host when a client connects to it the first time, the
+ * following connections to the host reuse the context of the certificate, instead of minting
+ * again and keeping a context per connection. The least recently used server contexts are evicted
+ * when there are more than {@link NitmProxyConfig#getMaxCachedCertificates()}.</p>
+ *
+ * <p>The contexts to handshake with the servers only differ in the ALPN protocols, there are a few
+ * of them and they are never evicted.</p>
+ */
+public class SslContextCache {
+    private final Map<String, SslContext> serverContexts;
+    private final Map<String, SslContext> clientContexts = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public SslContextCache(NitmProxyConfig config) {
+        this.serverContexts = Collections.synchronizedMap(
+                new LinkedHashMap<String, SslContext>(16, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<String, SslContext> eldest) {
+                        return size() > config.getMaxCachedCertificates();
+                    }
+                });
+    }
+
+    /**
+     * Get the context to handshake with the client, with the certificate of the server host.
+     *
+     * @param context the connection context, the ALPN protocols of the client must be resolved
+     * @return the context
+     * @throws SSLException if failed to create the context
+     */
+    public SslContext forServer(ConnectionContext context) throws SSLException {
+        String key = context.getServerAddr().getHost() + ' '
+                     + TlsUtil.clientProtocol(context.config(), context.tlsCtx().protocols());
+        SslContext sslContext = serverContexts.get(key);
+        if (sslContext != null) {
+            hits.increment();
+            return sslContext;
+        }
+        misses.increment();
+        // Minted without the lock, so the event loops minting for different hosts don't wait for
+        // each other, a host may be minted twice by concurrent connections but only one is kept
+        sslContext = TlsUtil.ctxForServer(context);
+        SslContext cached = serverContexts.putIfAbsent(key, sslContext);
+        return cached != null ? cached : sslContext;
+    }
+
+    /**
+     * Get the number of the server contexts found in the cache.
+     *
+     * @return the number of the hits
+     */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /**
+     * Get the number of the server contexts not found in the cache, which were minted.
+     *
+     * @return the number of the misses
+     */
+    public long misses() {
+        return misses.sum();
+    }
+
+    /**
+     * Get the number of the server contexts in the cache.
+     *
+     * @return the size of the cache
+     */
+    public int size() {
+        return serverContexts.size();
+    }
+
+    /**
+     * Get the context to handshake with the server.
+     *
+     * @param context the connection context
+     * @return the context
+     * @throws SSLException if failed to create the context
+     */
+    public SslContext forClient(ConnectionContext context) throws SSLException {
+        String key = String.join(",", TlsUtil.serverAlpnProtocols(context));
+        SslContext sslContext = clientContexts.get(key);
+        if (sslContext != null) {
+            return sslContext;
+        }
+        sslContext = TlsUtil.ctxForClient(context);
+        SslContext cached = clientContexts.putIfAbsent(key, sslContext);
+        return cached != null ? cached : sslContext;
+    }
+}
@@ -1,10 +1,14 @@
 package com.github.chhsiao90.nitmproxy.tls;
 
 import static io.netty.handler.ssl.ApplicationProtocolNames.HTTP_1_1;
+import static io.netty.handler.ssl.ApplicationProtocolNames.HTTP_2;
 import static javax.net.ssl.TrustManagerFactory.getDefaultAlgorithm;
 
 import com.github.chhsiao90.nitmproxy.ConnectionContext;
+import com.github.chhsiao90.nitmproxy.NitmProxyConfig;
 import com.github.chhsiao90.nitmproxy.TlsContext;
+import com.github.chhsiao90.nitmproxy.metrics.ProxyMetrics;
+import com.github.chhsiao90.nitmproxy.metrics.Stage;
 
 import java.io.File;
 import java.security.KeyStore;
@@ -40,7 +44,7 @@ public class TlsUtil {
             .forClient()
             .protocols(context.config().getTlsProtocols())
             .sslContextProvider(context.config().getSslProvider())
-            .applicationProtocolConfig(applicationProtocolConfig(context.tlsCtx()));
+            .applicationProtocolConfig(applicationProtocolConfig(serverAlpnProtocols(context)));
         if (context.config().getClientKeyManagerFactory() != null) {
             builder.keyManager(context.config().getClientKeyManagerFactory());
         }
@@ -55,33 +59,53 @@ public class TlsUtil {
     public static SslContext ctxForServer(ConnectionContext context) throws SSLException {
         String certFile = new File(context.config().getCertFile()).getAbsolutePath();
         String keyFile = new File(context.config().getKeyFile()).getAbsolutePath();
+        long mintStart = System.nanoTime();
         Certificate certificate = CertUtil.newCert(
             certFile, keyFile, context.getServerAddr().getHost());
+        context.timings().record(Stage.CERT_MINT, context.getServerAddr(), mintStart);
+        ProxyMetrics.global().onCertificateCreated();
         return SslContextBuilder
             .forServer(certificate.getKeyPair().getPrivate(), certificate.getChain())
             .protocols(context.config().getTlsProtocols())
             .sslContextProvider(context.config().getSslProvider())
-            .applicationProtocolConfig(applicationProtocolConfig(context.tlsCtx()))
+            .applicationProtocolConfig(applicationProtocolConfig(
+                clientProtocol(context.config(), context.tlsCtx().protocols())))
             .build();
     }
 
-    private static ApplicationProtocolConfig applicationProtocolConfig(TlsContext tlsContext) {
+    /**
+     * Select the protocol negotiated with the client, from the ALPN protocols sent by the client.
+     *
+     * <p>The protocol of the client doesn't depend on the protocol of the server, the proxy
+     * translates between HTTP/2 and HTTP/1.1 if they are different.</p>
+     *
+     * @param config the proxy config
+     * @param protocols the ALPN protocols sent by the client, could be {@code null}
+     * @return the protocol for the client
+     */
+    public static String clientProtocol(NitmProxyConfig config, List<String> protocols) {
+        if (config.isClientHttp2() && protocols != null && protocols.contains(HTTP_2)) {
+            return HTTP_2;
+        }
+        return HTTP_1_1;
+    }
+
+    private static ApplicationProtocolConfig applicationProtocolConfig(String... protocols) {
         return new ApplicationProtocolConfig(
             Protocol.ALPN,
             SelectorFailureBehavior.NO_ADVERTISE,
             SelectedListenerFailureBehavior.ACCEPT,
-            alpnProtocols(tlsContext));
+            protocols);
     }
 
-    private static String[] alpnProtocols(TlsContext tlsCtx) {
+    static String[] serverAlpnProtocols(ConnectionContext context) {
+        TlsContext tlsCtx = context.tlsCtx();
         if (tlsCtx.isNegotiated()) {
+            // The following connections to the same server speak the same protocol
             return new String[]{tlsCtx.protocol()};
         }
-        if (tlsCtx.protocolsPromise().isDone()) {
-            List<String> protocols = tlsCtx.protocols();
-            if (protocols != null && !protocols.isEmpty()) {
-                return protocols.toArray(new String[0]);
-            }
+        if (context.config().isServerHttp2()) {
+            return new String[]{HTTP_2, HTTP_1_1};
         }
         return new String[]{HTTP_1_1};
     }
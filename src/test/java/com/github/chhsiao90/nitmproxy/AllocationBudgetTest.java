@@ -0,0 +1,391 @@
+package com.github.chhsiao90.nitmproxy;
+
+import static io.netty.handler.codec.http.HttpHeaderNames.CONTENT_LENGTH;
+import static io.netty.handler.codec.http.HttpResponseStatus.OK;
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import com.github.chhsiao90.nitmproxy.channel.BackendChannelBootstrap;
+import com.github.chhsiao90.nitmproxy.enums.ProxyMode;
+
+import java.lang.management.ManagementFactory;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http2.DefaultHttp2DataFrame;
+import io.netty.handler.codec.http2.DefaultHttp2Headers;
+import io.netty.handler.codec.http2.DefaultHttp2HeadersFrame;
+import io.netty.handler.codec.http2.DefaultHttp2WindowUpdateFrame;
+import io.netty.handler.codec.http2.Http2ChannelDuplexHandler;
+import io.netty.handler.codec.http2.Http2DataFrame;
+import io.netty.handler.codec.http2.Http2FrameCodecBuilder;
+import io.netty.handler.codec.http2.Http2HeadersFrame;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.ResourceLeakDetector;
+
+/**
+ * Drives requests through the pipelines of the proxy built by the {@link HandlerProvider}, and
+ * fails if the bytes allocated per request exceed the budget of the scenario.
+ *
+ * <p>The channels are {@link EmbeddedChannel}s, so everything runs on the thread of the test and
+ * is counted by its allocation counter. The allocations of the HTTP/2 peers are measured without
+ * the proxy and subtracted. The budgets leave some headroom over what was measured when they were
+ * set, lower them when an optimization lands.</p>
+ */
+public class AllocationBudgetTest {
+    private static final int WARMUP_REQUESTS = 2000;
+    private static final int ROUNDS = 5;
+    private static final int REQUESTS_PER_ROUND = 200;
+
+    private static final int RESPONSE_SIZE = 1024;
+    private static final int REQUEST_BODY_SIZE = 16 * 1024;
+
+    // The budgets in bytes per request
+    private static final long HTTP1_PROXY_BUDGET = 6000;
+    private static final long HTTP1_PROXY_POST_BUDGET = 6000;
+    private static final long HTTP1_TUNNEL_BUDGET = 5000;
+    private static final long SOCKS_HTTP1_BUDGET = 5000;
+    private static final long HTTP2_TUNNEL_BUDGET = 5000;
+
+    private static final Logger ROOT_LOGGER =
+            (Logger) LoggerFactory.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME);
+
+    private static Level rootLevel;
+
+    private ProxyPipelines proxy;
+
+    @BeforeClass
+    public static void setUpClass() {
+        assumeTrue(threadMXBean().isThreadAllocatedMemorySupported());
+        // The leak detector records the buffers when it's above SIMPLE, e.g. with -Pleak
+        assumeTrue(ResourceLeakDetector.getLevel().compareTo(ResourceLeakDetector.Level.SIMPLE) <= 0);
+        threadMXBean().setThreadAllocatedMemoryEnabled(true);
+
+        // The debug logging of every message isn't a part of the budgets
+        rootLevel = ROOT_LOGGER.getLevel();
+        ROOT_LOGGER.setLevel(Level.WARN);
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        if (rootLevel != null) {
+            ROOT_LOGGER.setLevel(rootLevel);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        if (proxy != null) {
+            proxy.close();
+        }
+    }
+
+    @Test
+    public void shouldProxyHttp1WithinBudget() {
+        proxy = new ProxyPipelines(ProxyMode.HTTP);
+        ByteBuf request = bytes("GET http://localhost:8081/ HTTP/1.1\r\n"
+                                + "Host: localhost:8081\r\n"
+                                + "\r\n");
+        ByteBuf response = http1Response();
+
+        assertBudget("HTTP/1 proxy", HTTP1_PROXY_BUDGET,
+                     () -> proxy.http1Exchange(request, response));
+    }
+
+    @Test
+    public void shouldProxyHttp1WithBodyWithinBudget() {
+        proxy = new ProxyPipelines(ProxyMode.HTTP);
+        ByteBuf request = Unpooled.unreleasableBuffer(Unpooled.wrappedBuffer(
+                Unpooled.copiedBuffer("POST http://localhost:8081/ HTTP/1.1\r\n"
+                                      + "Host: localhost:8081\r\n"
+                                      + "Content-Length: " + REQUEST_BODY_SIZE + "\r\n"
+                                      + "\r\n", US_ASCII),
+                Unpooled.buffer(REQUEST_BODY_SIZE).writeZero(REQUEST_BODY_SIZE)).asReadOnly());
+        ByteBuf response = http1Response();
+
+        assertBudget("HTTP/1 proxy with a request body", HTTP1_PROXY_POST_BUDGET,
+                     () -> proxy.http1Exchange(request, response));
+    }
+
+    @Test
+    public void shouldTunnelHttp1WithinBudget() {
+        proxy = new ProxyPipelines(ProxyMode.HTTP);
+        proxy.connect(bytes("CONNECT localhost:8081 HTTP/1.1\r\n"
+                            + "Host: localhost:8081\r\n"
+                            + "\r\n"));
+        ByteBuf request = bytes("GET / HTTP/1.1\r\n"
+                                + "Host: localhost:8081\r\n"
+                                + "\r\n");
+        ByteBuf response = http1Response();
+
+        assertBudget("HTTP/1 tunnel", HTTP1_TUNNEL_BUDGET,
+                     () -> proxy.http1Exchange(request, response));
+    }
+
+    @Test
+    public void shouldRelaySocksWithinBudget() {
+        proxy = new ProxyPipelines(ProxyMode.SOCKS);
+        proxy.connect(Unpooled.wrappedBuffer(new byte[] { 5, 1, 0 }));
+        byte[] host = "localhost".getBytes(US_ASCII);
+        proxy.connect(Unpooled.buffer()
+                              .writeBytes(new byte[] { 5, 1, 0, 3 })
+                              .writeByte(host.length)
+                              .writeBytes(host)
+                              .writeShort(8081));
+        ByteBuf request = bytes("GET / HTTP/1.1\r\n"
+                                + "Host: localhost:8081\r\n"
+                                + "\r\n");
+        ByteBuf response = http1Response();
+
+        assertBudget("SOCKS with HTTP/1", SOCKS_HTTP1_BUDGET,
+                     () -> proxy.http1Exchange(request, response));
+    }
+
+    @Test
+    public void shouldTunnelHttp2WithinBudget() {
+        Http2Peers direct = new Http2Peers();
+        long peers = allocatedBytesPerRequest(() -> direct.exchange(null));
+        direct.close();
+
+        proxy = new ProxyPipelines(ProxyMode.HTTP);
+        proxy.connect(bytes("CONNECT localhost:8081 HTTP/1.1\r\n"
+                            + "Host: localhost:8081\r\n"
+                            + "\r\n"));
+        Http2Peers peersThroughProxy = new Http2Peers();
+        try {
+            long total = allocatedBytesPerRequest(() -> peersThroughProxy.exchange(proxy));
+            assertWithinBudget("HTTP/2 tunnel", HTTP2_TUNNEL_BUDGET, total - peers);
+        } finally {
+            peersThroughProxy.close();
+        }
+    }
+
+    private static void assertBudget(String scenario, long budget, Runnable request) {
+        assertWithinBudget(scenario, budget, allocatedBytesPerRequest(request));
+    }
+
+    private static void assertWithinBudget(String scenario, long budget, long allocated) {
+        assertTrue(format("%s allocated %d bytes per request, over the budget of %d",
+                          scenario, allocated, budget),
+                   allocated <= budget);
+    }
+
+    /**
+     * Get the bytes allocated by a request. The least of several rounds is taken, so that the
+     * allocations which happen once in a while, e.g. the records of the leak detector, won't fail
+     * the test.
+     */
+    private static long allocatedBytesPerRequest(Runnable request) {
+        for (int i = 0; i < WARMUP_REQUESTS; i++) {
+            request.run();
+        }
+        long least = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = allocatedBytes();
+            for (int i = 0; i < REQUESTS_PER_ROUND; i++) {
+                request.run();
+            }
+            least = Math.min(least, allocatedBytes() - start);
+        }
+        return least / REQUESTS_PER_ROUND;
+    }
+
+    private static long allocatedBytes() {
+        return threadMXBean().getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static com.sun.management.ThreadMXBean threadMXBean() {
+        return (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    }
+
+    private static ByteBuf http1Response() {
+        return Unpooled.unreleasableBuffer(Unpooled.wrappedBuffer(
+                Unpooled.copiedBuffer("HTTP/1.1 200 OK\r\n"
+                                      + "Content-Type: application/octet-stream\r\n"
+                                      + "Content-Length: " + RESPONSE_SIZE + "\r\n"
+                                      + "\r\n", US_ASCII),
+                Unpooled.buffer(RESPONSE_SIZE).writeZero(RESPONSE_SIZE)).asReadOnly());
+    }
+
+    private static ByteBuf bytes(String text) {
+        return Unpooled.unreleasableBuffer(Unpooled.copiedBuffer(text, US_ASCII).asReadOnly());
+    }
+
+    private static int releaseOutbound(EmbeddedChannel channel) {
+        int bytes = 0;
+        Object msg;
+        while ((msg = channel.readOutbound()) != null) {
+            if (msg instanceof ByteBuf) {
+                bytes += ((ByteBuf) msg).readableBytes();
+            }
+            ReferenceCountUtil.release(msg);
+        }
+        return bytes;
+    }
+
+    private static boolean transfer(EmbeddedChannel from, EmbeddedChannel to) {
+        boolean transferred = false;
+        Object msg;
+        while ((msg = from.readOutbound()) != null) {
+            to.writeInbound(msg);
+            transferred = true;
+        }
+        return transferred;
+    }
+
+    /**
+     * The channels of the proxy, the client channel with the proxy handler, and the server
+     * channel created when the proxy connects to the server.
+     */
+    private static class ProxyPipelines {
+        private final EmbeddedChannel client;
+        private EmbeddedChannel server;
+
+        private ProxyPipelines(ProxyMode proxyMode) {
+            NitmProxyConfig config = new NitmProxyConfig();
+            config.setProxyMode(proxyMode);
+            NitmProxyMaster master = new NitmProxyMaster(
+                    config, new HandlerProvider(), new BackendChannelBootstrap() {
+                        @Override
+                        public ChannelFuture connect(ChannelHandlerContext fromCtx,
+                                                     NitmProxyMaster master,
+                                                     ConnectionContext connectionContext,
+                                                     ChannelHandler handler) {
+                            server = new EmbeddedChannel(handler);
+                            return server.newSucceededFuture();
+                        }
+                    });
+            client = new EmbeddedChannel();
+            ConnectionContext connectionContext = new ConnectionContext(master)
+                    .withClientAddr(new Address("localhost", 8080))
+                    .withClientChannel(client);
+            client.pipeline().addLast(connectionContext.proxyHandler());
+        }
+
+        /**
+         * Send the request of the proxy protocol, and read the response.
+         */
+        private void connect(ByteBuf request) {
+            client.writeInbound(request);
+            assertTrue("No response of the proxy", releaseOutbound(client) > 0);
+        }
+
+        private void http1Exchange(ByteBuf request, ByteBuf response) {
+            client.writeInbound(request.duplicate());
+            assertTrue("No request relayed", releaseOutbound(server) > 0);
+            server.writeInbound(response.duplicate());
+            assertTrue("No response relayed", releaseOutbound(client) > 0);
+        }
+
+        private void close() {
+            client.finishAndReleaseAll();
+            if (server != null) {
+                server.finishAndReleaseAll();
+            }
+        }
+    }
+
+    /**
+     * An HTTP/2 client and an HTTP/2 server, which are connected directly or through the proxy.
+     */
+    private static class Http2Peers {
+        private final Http2ChannelDuplexHandler streams = new Http2ChannelDuplexHandler() {};
+        private final ResponseCounter responses = new ResponseCounter();
+        private final EmbeddedChannel client = new EmbeddedChannel(
+                Http2FrameCodecBuilder.forClient().build(), streams, responses);
+        private final EmbeddedChannel server = new EmbeddedChannel(
+                Http2FrameCodecBuilder.forServer().build(), new Responder());
+
+        /**
+         * Send a request and wait for the response.
+         *
+         * @param proxy the proxy in between, or {@code null} if the peers are connected directly
+         */
+        private void exchange(ProxyPipelines proxy) {
+            int expected = responses.count + 1;
+            client.writeAndFlush(new DefaultHttp2HeadersFrame(new DefaultHttp2Headers()
+                    .method("GET")
+                    .scheme("https")
+                    .authority("localhost:8081")
+                    .path("/"), true).stream(streams.newStream()));
+            boolean transferred = true;
+            while (transferred) {
+                if (proxy == null) {
+                    transferred = transfer(client, server) | transfer(server, client);
+                } else {
+                    transferred = transfer(client, proxy.client) | transfer(proxy.client, client);
+                    if (proxy.server != null) {
+                        transferred |= transfer(proxy.server, server) | transfer(server, proxy.server);
+                    }
+                }
+            }
+            assertEquals("No response relayed", expected, responses.count);
+        }
+
+        private void close() {
+            client.finishAndReleaseAll();
+            server.finishAndReleaseAll();
+        }
+    }
+
+    private static class ResponseCounter extends ChannelInboundHandlerAdapter {
+        private int count;
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            try {
+                if (msg instanceof Http2DataFrame) {
+                    Http2DataFrame dataFrame = (Http2DataFrame) msg;
+                    if (dataFrame.initialFlowControlledBytes() > 0) {
+                        ctx.writeAndFlush(new DefaultHttp2WindowUpdateFrame(
+                                dataFrame.initialFlowControlledBytes()).stream(dataFrame.stream()));
+                    }
+                    if (dataFrame.isEndStream()) {
+                        count++;
+                    }
+                } else if (msg instanceof Http2HeadersFrame && ((Http2HeadersFrame) msg).isEndStream()) {
+                    count++;
+                }
+            } finally {
+                ReferenceCountUtil.release(msg);
+            }
+        }
+    }
+
+    private static class Responder extends ChannelInboundHandlerAdapter {
+        private final ByteBuf payload = Unpooled.unreleasableBuffer(
+                Unpooled.buffer(RESPONSE_SIZE).writeZero(RESPONSE_SIZE).asReadOnly());
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            try {
+                if (msg instanceof Http2HeadersFrame && ((Http2HeadersFrame) msg).isEndStream()) {
+                    Http2HeadersFrame request = (Http2HeadersFrame) msg;
+                    ctx.write(new DefaultHttp2HeadersFrame(new DefaultHttp2Headers()
+                            .status(OK.codeAsText())
+                            .setInt(CONTENT_LENGTH, RESPONSE_SIZE)).stream(request.stream()));
+                    ctx.writeAndFlush(new DefaultHttp2DataFrame(payload.duplicate(), true)
+                            .stream(request.stream()));
+                }
+            } finally {
+                ReferenceCountUtil.release(msg);
+            }
+        }
+    }
+}
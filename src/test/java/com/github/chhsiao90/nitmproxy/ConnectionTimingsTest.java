@@ -0,0 +1,47 @@
+package com.github.chhsiao90.nitmproxy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.github.chhsiao90.nitmproxy.metrics.LatencyMetrics;
+import com.github.chhsiao90.nitmproxy.metrics.Stage;
+
+import org.junit.Test;
+
+public class ConnectionTimingsTest {
+
+    @Test
+    public void shouldRecordFirstRequestAndResponse() {
+        Address origin = new Address("timings.example.com", 443);
+        ConnectionTimings timings = new ConnectionTimings();
+
+        timings.onResponse(origin);
+        assertFalse(timings.isRecorded(Stage.FIRST_RESPONSE_BYTE));
+
+        timings.onRequest(origin);
+        long firstRequest = timings.timestamp(Stage.FIRST_REQUEST_BYTE);
+        timings.onRequest(origin);
+        timings.onResponse(origin);
+        timings.onResponse(origin);
+
+        assertEquals(firstRequest, timings.timestamp(Stage.FIRST_REQUEST_BYTE));
+        assertTrue(timings.timestamp(Stage.FIRST_RESPONSE_BYTE) >= firstRequest);
+        LatencyMetrics metrics = LatencyMetrics.origins().get(origin);
+        assertEquals(1, metrics.histogram(Stage.FIRST_REQUEST_BYTE).count());
+        assertEquals(1, metrics.histogram(Stage.FIRST_RESPONSE_BYTE).count());
+    }
+
+    @Test
+    public void shouldRecordEveryTimeButKeepFirstTimestamp() {
+        Address origin = new Address("dns.example.com", 443);
+        ConnectionTimings timings = new ConnectionTimings();
+
+        timings.record(Stage.DNS, origin, System.nanoTime());
+        long first = timings.timestamp(Stage.DNS);
+        timings.record(Stage.DNS, origin, System.nanoTime());
+
+        assertEquals(first, timings.timestamp(Stage.DNS));
+        assertEquals(2, LatencyMetrics.origins().get(origin).histogram(Stage.DNS).count());
+    }
+}
@@ -1,4 +1,73 @@
 package com.github.chhsiao90.nitmproxy;
 
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.github.chhsiao90.nitmproxy.admission.AdmissionController;
+import com.github.chhsiao90.nitmproxy.metrics.RejectReason;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+
 public class NitmProxyInitializerTest {
+    private NitmProxyConfig config;
+    private NitmProxyMaster master;
+    private EmbeddedChannel channel;
+
+    @Before
+    public void setUp() {
+        config = new NitmProxyConfig();
+        AdmissionController admission = mock(AdmissionController.class);
+        when(admission.admit(any(), any())).thenReturn(RejectReason.CONNECTIONS);
+        master = mock(NitmProxyMaster.class);
+        when(master.config()).thenReturn(config);
+        when(master.admission()).thenReturn(admission);
+        channel = new EmbeddedChannel() {
+            @Override
+            protected SocketAddress remoteAddress0() {
+                return new InetSocketAddress("127.0.0.1", 10000);
+            }
+        };
+    }
+
+    @After
+    public void tearDown() {
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    public void shouldAnswerRejectedClient() {
+        channel.pipeline().addLast(new NitmProxyInitializer(master));
+        channel.writeInbound(HttpObjectUtil.requestBytes());
+
+        ByteBuf answer = channel.readOutbound();
+        assertTrue(answer.toString(US_ASCII).startsWith("HTTP/1.1 503 Service Unavailable\r\n"));
+        assertFalse(channel.isOpen());
+    }
+
+    @Test
+    public void shouldCloseIdleRejectedClient() throws Exception {
+        config.setRequestHeaderTimeoutMillis(100);
+        channel.pipeline().addLast(new NitmProxyInitializer(master));
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (channel.isOpen() && System.nanoTime() < deadline) {
+            // The expired deadline is handed over to the event loop of the channel
+            Thread.sleep(10);
+            channel.runPendingTasks();
+        }
+        assertFalse(channel.isOpen());
+    }
 }
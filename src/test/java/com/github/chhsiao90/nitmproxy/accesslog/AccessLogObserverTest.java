@@ -0,0 +1,154 @@
+package com.github.chhsiao90.nitmproxy.accesslog;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.github.chhsiao90.nitmproxy.Address;
+import com.github.chhsiao90.nitmproxy.ConnectionContext;
+import com.github.chhsiao90.nitmproxy.NitmProxyConfig;
+import com.github.chhsiao90.nitmproxy.NitmProxyMaster;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.DefaultHttpContent;
+import io.netty.handler.codec.http.DefaultHttpResponse;
+import io.netty.handler.codec.http.DefaultLastHttpContent;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http2.DefaultHttp2DataFrame;
+import io.netty.handler.codec.http2.DefaultHttp2Headers;
+import io.netty.handler.codec.http2.DefaultHttp2HeadersFrame;
+import io.netty.handler.codec.http2.DefaultHttp2ResetFrame;
+import io.netty.handler.codec.http2.Http2Error;
+
+public class AccessLogObserverTest {
+    private AccessLogRingBuffer ringBuffer;
+    private AccessLogObserver observer;
+    private ConnectionContext connectionContext;
+    private EmbeddedChannel clientChannel;
+    private EmbeddedChannel serverChannel;
+
+    @Before
+    public void setUp() {
+        NitmProxyMaster master = mock(NitmProxyMaster.class);
+        when(master.config()).thenReturn(new NitmProxyConfig());
+        clientChannel = new EmbeddedChannel();
+        serverChannel = new EmbeddedChannel();
+        connectionContext = new ConnectionContext(master)
+                .withClientAddr(new Address("localhost", 1234))
+                .withClientChannel(clientChannel)
+                .withServerAddr(new Address("localhost", 8080))
+                .withServerChannel(serverChannel);
+        ringBuffer = new AccessLogRingBuffer(16);
+        observer = new AccessLogObserver(ringBuffer);
+    }
+
+    @After
+    public void tearDown() {
+        clientChannel.finishAndReleaseAll();
+        serverChannel.finishAndReleaseAll();
+    }
+
+    @Test
+    public void shouldLogHttp1Request() {
+        observer.onHttp1Request(connectionContext, serverChannel, new DefaultFullHttpRequest(
+                HttpVersion.HTTP_1_1, HttpMethod.POST, "/post", Unpooled.wrappedBuffer(new byte[10])));
+        observer.onHttp1Response(connectionContext, serverChannel, new DefaultFullHttpResponse(
+                HttpVersion.HTTP_1_1, HttpResponseStatus.CONTINUE));
+        assertTrue(drain().isEmpty());
+
+        observer.onHttp1Response(connectionContext, serverChannel,
+                new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.CREATED));
+        observer.onHttp1Response(connectionContext, serverChannel,
+                new DefaultHttpContent(Unpooled.wrappedBuffer(new byte[5])));
+        observer.onHttp1Response(connectionContext, serverChannel,
+                new DefaultLastHttpContent(Unpooled.wrappedBuffer(new byte[3])));
+
+        List<String> lines = drain();
+        assertEquals(1, lines.size());
+        assertTrue(lines.get(0), lines.get(0).contains("\"protocol\":\"HTTP/1.1\""));
+        assertTrue(lines.get(0), lines.get(0).contains("\"method\":\"POST\",\"uri\":\"/post\""));
+        assertTrue(lines.get(0), lines.get(0).contains("\"status\":201"));
+        assertTrue(lines.get(0), lines.get(0).contains("\"requestBytes\":10,\"responseBytes\":8"));
+        assertTrue(lines.get(0), lines.get(0).contains("\"aborted\":false"));
+    }
+
+    @Test
+    public void shouldLogHttp1RequestsInOrder() {
+        observer.onHttp1Request(connectionContext, serverChannel,
+                new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/1"));
+        observer.onHttp1Request(connectionContext, serverChannel,
+                new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/2"));
+        observer.onHttp1Response(connectionContext, serverChannel,
+                new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK));
+        observer.onServerDisconnected(connectionContext, serverChannel);
+
+        List<String> lines = drain();
+        assertEquals(2, lines.size());
+        assertTrue(lines.get(0), lines.get(0).contains("\"uri\":\"/1\",\"status\":200"));
+        assertTrue(lines.get(0), lines.get(0).contains("\"aborted\":false"));
+        assertTrue(lines.get(1), lines.get(1).contains("\"uri\":\"/2\",\"status\":0"));
+        assertTrue(lines.get(1), lines.get(1).contains("\"aborted\":true"));
+    }
+
+    @Test
+    public void shouldLogHttp2Streams() {
+        observer.onHttp2ClientFrame(connectionContext, 1, new DefaultHttp2HeadersFrame(
+                new DefaultHttp2Headers().method("GET").path("/1"), true));
+        observer.onHttp2ClientFrame(connectionContext, 3, new DefaultHttp2HeadersFrame(
+                new DefaultHttp2Headers().method("POST").path("/3"), false));
+        observer.onHttp2ClientFrame(connectionContext, 3,
+                new DefaultHttp2DataFrame(Unpooled.wrappedBuffer(new byte[7]), true));
+        observer.onHttp2ServerFrame(connectionContext, 3, new DefaultHttp2HeadersFrame(
+                new DefaultHttp2Headers().status("204"), true));
+        observer.onHttp2ServerFrame(connectionContext, 1, new DefaultHttp2HeadersFrame(
+                new DefaultHttp2Headers().status("200"), false));
+        observer.onHttp2ServerFrame(connectionContext, 1,
+                new DefaultHttp2DataFrame(Unpooled.wrappedBuffer(new byte[9]), false));
+        assertEquals(1, drain().size());
+
+        observer.onHttp2ClientFrame(connectionContext, 1,
+                new DefaultHttp2ResetFrame(Http2Error.CANCEL));
+
+        List<String> lines = drain();
+        assertEquals(1, lines.size());
+        assertTrue(lines.get(0), lines.get(0).contains("\"protocol\":\"HTTP/2.0\""));
+        assertTrue(lines.get(0), lines.get(0).contains("\"uri\":\"/1\",\"status\":200"));
+        assertTrue(lines.get(0), lines.get(0).contains("\"responseBytes\":9"));
+        assertTrue(lines.get(0), lines.get(0).contains("\"aborted\":true"));
+    }
+
+    @Test
+    public void shouldAbortStreamsWhenClientDisconnected() {
+        observer.onHttp2ClientFrame(connectionContext, 1, new DefaultHttp2HeadersFrame(
+                new DefaultHttp2Headers().method("GET").path("/1"), true));
+        observer.onClientDisconnected(connectionContext);
+
+        List<String> lines = drain();
+        assertEquals(1, lines.size());
+        assertTrue(lines.get(0), lines.get(0).contains("\"aborted\":true"));
+        assertTrue(lines.get(0), lines.get(0).contains("\"firstByteMicros\":-1"));
+    }
+
+    private List<String> drain() {
+        List<String> lines = new ArrayList<>();
+        ringBuffer.drain(record -> {
+            StringBuilder line = new StringBuilder();
+            AccessLogWriter.format(record, line);
+            lines.add(line.toString());
+        });
+        return lines;
+    }
+}
@@ -0,0 +1,83 @@
+package com.github.chhsiao90.nitmproxy.accesslog;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.github.chhsiao90.nitmproxy.Address;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+public class AccessLogRingBufferTest {
+
+    @Test
+    public void shouldRoundUpCapacity() {
+        assertEquals(8, new AccessLogRingBuffer(5).capacity());
+    }
+
+    @Test
+    public void shouldDrainInOrder() {
+        AccessLogRingBuffer ringBuffer = new AccessLogRingBuffer(4);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(ringBuffer.offer(record("/" + i)));
+            List<String> uris = new ArrayList<>();
+            assertEquals(1, ringBuffer.drain(record -> uris.add(record.getUri().toString())));
+            assertEquals("/" + i, uris.get(0));
+        }
+    }
+
+    @Test
+    public void shouldDropWhenFull() {
+        AccessLogRingBuffer ringBuffer = new AccessLogRingBuffer(2);
+        assertTrue(ringBuffer.offer(record("/1")));
+        assertTrue(ringBuffer.offer(record("/2")));
+        assertFalse(ringBuffer.offer(record("/3")));
+        assertEquals(1, ringBuffer.dropped());
+
+        List<String> uris = new ArrayList<>();
+        assertEquals(2, ringBuffer.drain(record -> uris.add(record.getUri().toString())));
+        assertEquals("/1", uris.get(0));
+        assertEquals("/2", uris.get(1));
+        assertTrue(ringBuffer.offer(record("/4")));
+    }
+
+    @Test
+    public void shouldNotLoseRecordsOfConcurrentProducers() throws InterruptedException {
+        int producers = 4;
+        int recordsPerProducer = 10000;
+        AccessLogRingBuffer ringBuffer = new AccessLogRingBuffer(1024);
+        CountDownLatch done = new CountDownLatch(producers);
+        for (int i = 0; i < producers; i++) {
+            String prefix = "/" + i + "/";
+            new Thread(() -> {
+                for (int j = 0; j < recordsPerProducer; j++) {
+                    AccessLogRecord record = record(prefix + j);
+                    while (!ringBuffer.offer(record)) {
+                        Thread.yield();
+                    }
+                    record.recycle();
+                }
+                done.countDown();
+            }).start();
+        }
+
+        Set<String> uris = new HashSet<>();
+        while (done.getCount() > 0) {
+            ringBuffer.drain(record -> uris.add(record.getUri().toString()));
+        }
+        ringBuffer.drain(record -> uris.add(record.getUri().toString()));
+
+        assertEquals(producers * recordsPerProducer, uris.size());
+    }
+
+    private static AccessLogRecord record(String uri) {
+        return AccessLogRecord.newInstance(new Address("localhost", 1234),
+                                           new Address("localhost", 8080), "HTTP/1.1", "GET", uri);
+    }
+}
@@ -0,0 +1,73 @@
+package com.github.chhsiao90.nitmproxy.accesslog;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.github.chhsiao90.nitmproxy.Address;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class AccessLogWriterTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void shouldWriteRecordsAsJsonLines() throws IOException {
+        File file = new File(folder.getRoot(), "access.log");
+        AccessLogRingBuffer ringBuffer = new AccessLogRingBuffer(16);
+        AccessLogWriter writer = new AccessLogWriter(ringBuffer, file, 1024 * 1024, 1);
+        writer.start();
+        offer(ringBuffer, "/a\"b");
+        offer(ringBuffer, "/c");
+        writer.close();
+
+        List<String> lines = Files.readAllLines(file.toPath(), UTF_8);
+        assertEquals(2, lines.size());
+        assertTrue(lines.get(0), lines.get(0).startsWith("{\"timestamp\":"));
+        assertTrue(lines.get(0), lines.get(0).contains(
+                "\"client\":\"localhost:1234\",\"host\":\"localhost:8080\",\"protocol\":\"HTTP/1.1\""
+                + ",\"method\":\"GET\",\"uri\":\"/a\\\"b\",\"status\":200"));
+        assertTrue(lines.get(1), lines.get(1).contains("\"uri\":\"/c\""));
+    }
+
+    @Test
+    public void shouldRollFiles() throws IOException {
+        File file = new File(folder.getRoot(), "access.log");
+        AccessLogRingBuffer ringBuffer = new AccessLogRingBuffer(16);
+        // Every record is a file
+        AccessLogWriter writer = new AccessLogWriter(ringBuffer, file, 10, 2);
+        writer.start();
+        offer(ringBuffer, "/1");
+        offer(ringBuffer, "/2");
+        offer(ringBuffer, "/3");
+        offer(ringBuffer, "/4");
+        writer.close();
+
+        assertTrue(read(file).contains("\"uri\":\"/4\""));
+        assertTrue(read(new File(file.getPath() + ".1")).contains("\"uri\":\"/3\""));
+        assertTrue(read(new File(file.getPath() + ".2")).contains("\"uri\":\"/2\""));
+        assertFalse(new File(file.getPath() + ".3").exists());
+    }
+
+    private static void offer(AccessLogRingBuffer ringBuffer, String uri) {
+        AccessLogRecord record = AccessLogRecord.newInstance(new Address("localhost", 1234),
+                new Address("localhost", 8080), "HTTP/1.1", "GET", uri);
+        record.onResponseStatus(200, false);
+        record.complete(false);
+        assertTrue(ringBuffer.offer(record));
+        record.recycle();
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), UTF_8);
+    }
+}
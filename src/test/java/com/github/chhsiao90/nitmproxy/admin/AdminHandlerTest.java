@@ -0,0 +1,89 @@
+package com.github.chhsiao90.nitmproxy.admin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.github.chhsiao90.nitmproxy.NitmProxyConfig;
+import com.github.chhsiao90.nitmproxy.accesslog.AccessLogRingBuffer;
+import com.github.chhsiao90.nitmproxy.metrics.PrometheusExporter;
+import com.github.chhsiao90.nitmproxy.metrics.ProxyMetrics;
+import com.github.chhsiao90.nitmproxy.tls.SslContextCache;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+
+public class AdminHandlerTest {
+    private EmbeddedChannel channel;
+
+    @Before
+    public void setUp() {
+        channel = new EmbeddedChannel(new AdminHandler(
+                new PrometheusExporter(ProxyMetrics.global(), UnpooledByteBufAllocator.DEFAULT)
+                        .withCertificateCache(new SslContextCache(new NitmProxyConfig()))
+                        .withAccessLog(new AccessLogRingBuffer(16))));
+    }
+
+    @After
+    public void tearDown() {
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    public void shouldServeMetrics() {
+        channel.writeInbound(new DefaultFullHttpRequest(
+                HttpVersion.HTTP_1_1, HttpMethod.GET, "/metrics"));
+
+        FullHttpResponse response = channel.readOutbound();
+        try {
+            assertEquals(HttpResponseStatus.OK, response.status());
+            assertEquals(PrometheusExporter.CONTENT_TYPE,
+                         response.headers().get(HttpHeaderNames.CONTENT_TYPE));
+            String text = response.content().toString(StandardCharsets.UTF_8);
+            assertTrue(text.contains("nitmproxy_client_connections_total"));
+            assertTrue(text.contains("nitmproxy_http2_windows_exhausted_total"));
+            assertTrue(text.contains("nitmproxy_certificate_cache_lookups_total"));
+            assertTrue(text.contains("\nnitmproxy_access_log_dropped_total 0\n"));
+            assertTrue(channel.isOpen());
+        } finally {
+            response.release();
+        }
+    }
+
+    @Test
+    public void shouldNotFoundOtherPaths() {
+        channel.writeInbound(new DefaultFullHttpRequest(
+                HttpVersion.HTTP_1_1, HttpMethod.GET, "/"));
+
+        FullHttpResponse response = channel.readOutbound();
+        try {
+            assertEquals(HttpResponseStatus.NOT_FOUND, response.status());
+        } finally {
+            response.release();
+        }
+    }
+
+    @Test
+    public void shouldRejectOtherMethods() {
+        channel.writeInbound(new DefaultFullHttpRequest(
+                HttpVersion.HTTP_1_1, HttpMethod.POST, "/metrics"));
+
+        FullHttpResponse response = channel.readOutbound();
+        try {
+            assertEquals(HttpResponseStatus.METHOD_NOT_ALLOWED, response.status());
+        } finally {
+            response.release();
+        }
+    }
+}
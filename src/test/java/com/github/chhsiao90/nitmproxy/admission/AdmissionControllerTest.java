@@ -0,0 +1,82 @@
+package com.github.chhsiao90.nitmproxy.admission;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.github.chhsiao90.nitmproxy.NitmProxyConfig;
+import com.github.chhsiao90.nitmproxy.metrics.ProxyMetrics;
+import com.github.chhsiao90.nitmproxy.metrics.RejectReason;
+
+import java.net.InetAddress;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import io.netty.channel.embedded.EmbeddedChannel;
+
+public class AdmissionControllerTest {
+    private NitmProxyConfig config;
+    private AdmissionController controller;
+
+    @Before
+    public void setUp() {
+        config = new NitmProxyConfig();
+        controller = new AdmissionController(config, null);
+    }
+
+    @Test
+    public void shouldAdmitWithoutLimits() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            assertNull(controller.admit(new EmbeddedChannel(), client(1)));
+        }
+        assertEquals(0, controller.connections());
+    }
+
+    @Test
+    public void shouldLimitConnections() throws Exception {
+        long rejections = ProxyMetrics.global().rejections(RejectReason.CONNECTIONS);
+        config.setMaxConnections(2);
+        EmbeddedChannel first = new EmbeddedChannel();
+
+        assertNull(controller.admit(first, client(1)));
+        assertNull(controller.admit(new EmbeddedChannel(), client(2)));
+        assertEquals(RejectReason.CONNECTIONS, controller.admit(new EmbeddedChannel(), client(3)));
+        assertEquals(rejections + 1, ProxyMetrics.global().rejections(RejectReason.CONNECTIONS));
+
+        first.close().sync();
+        assertNull(controller.admit(new EmbeddedChannel(), client(3)));
+        assertEquals(2, controller.connections());
+    }
+
+    @Test
+    public void shouldLimitConnectionsPerClient() throws Exception {
+        config.setMaxConnections(10);
+        config.setMaxConnectionsPerClient(1);
+        EmbeddedChannel first = new EmbeddedChannel();
+
+        assertNull(controller.admit(first, client(1)));
+        assertEquals(RejectReason.CLIENT_CONNECTIONS, controller.admit(new EmbeddedChannel(), client(1)));
+        assertNull(controller.admit(new EmbeddedChannel(), client(2)));
+        assertEquals(2, controller.connections());
+
+        first.close().sync();
+        assertNull(controller.admit(new EmbeddedChannel(), client(1)));
+    }
+
+    @Test
+    public void shouldLimitHandshakes() {
+        config.setMaxClientHandshakes(1);
+
+        assertTrue(controller.tryStartHandshake());
+        assertFalse(controller.tryStartHandshake());
+        controller.onHandshakeDone();
+        assertTrue(controller.tryStartHandshake());
+        assertEquals(1, controller.handshakes());
+    }
+
+    private static InetAddress client(int index) throws Exception {
+        return InetAddress.getByAddress(new byte[] { 10, 0, 0, (byte) index });
+    }
+}
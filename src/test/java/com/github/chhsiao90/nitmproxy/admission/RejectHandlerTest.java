@@ -0,0 +1,47 @@
+package com.github.chhsiao90.nitmproxy.admission;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.github.chhsiao90.nitmproxy.HttpObjectUtil;
+import com.github.chhsiao90.nitmproxy.enums.ProxyMode;
+
+import org.junit.Test;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+public class RejectHandlerTest {
+
+    @Test
+    public void shouldAnswerHttpClientWithServiceUnavailable() {
+        EmbeddedChannel channel = new EmbeddedChannel(RejectHandler.of(ProxyMode.HTTP));
+        channel.writeInbound(HttpObjectUtil.requestBytes());
+
+        ByteBuf answer = channel.readOutbound();
+        assertTrue(answer.toString(US_ASCII).startsWith("HTTP/1.1 503 Service Unavailable\r\n"));
+        assertFalse(channel.isOpen());
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    public void shouldAnswerSocksClientWithFailureOfItsVersion() {
+        EmbeddedChannel socks5 = new EmbeddedChannel(RejectHandler.of(ProxyMode.SOCKS));
+        socks5.writeInbound(Unpooled.wrappedBuffer(new byte[] { 0x05, 0x01, 0x00 }));
+        ByteBuf answer = socks5.readOutbound();
+        assertArrayEquals(new byte[] { 0x05, (byte) 0xff }, ByteBufUtil.getBytes(answer));
+        assertFalse(socks5.isOpen());
+        socks5.finishAndReleaseAll();
+
+        EmbeddedChannel socks4 = new EmbeddedChannel(RejectHandler.of(ProxyMode.SOCKS));
+        socks4.writeInbound(Unpooled.wrappedBuffer(new byte[] { 0x04, 0x01, 0x00, 0x50 }));
+        answer = socks4.readOutbound();
+        assertArrayEquals(new byte[] { 0x00, 0x5b, 0, 0, 0, 0, 0, 0 }, ByteBufUtil.getBytes(answer));
+        assertFalse(socks4.isOpen());
+        socks4.finishAndReleaseAll();
+    }
+}
@@ -0,0 +1,94 @@
+package com.github.chhsiao90.nitmproxy.channel;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.github.chhsiao90.nitmproxy.Address;
+import com.github.chhsiao90.nitmproxy.ConnectionContext;
+import com.github.chhsiao90.nitmproxy.HandlerProvider;
+import com.github.chhsiao90.nitmproxy.NitmProxyConfig;
+import com.github.chhsiao90.nitmproxy.NitmProxyMaster;
+
+import java.io.DataInputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioSocketChannel;
+
+public class BackendChannelBootstrapTest {
+    private NioEventLoopGroup group;
+    private ServerSocket front;
+    private ServerSocket backend;
+    private Channel client;
+    private NitmProxyMaster master;
+
+    @Before
+    public void setUp() throws Exception {
+        group = new NioEventLoopGroup(1);
+        front = new ServerSocket(0, 8, InetAddress.getLoopbackAddress());
+        backend = new ServerSocket(0, 8, InetAddress.getLoopbackAddress());
+        // The client channel of the proxy
+        client = new Bootstrap()
+                .group(group)
+                .channel(NioSocketChannel.class)
+                .handler(new ChannelInboundHandlerAdapter())
+                .connect(front.getLocalSocketAddress())
+                .sync()
+                .channel();
+        master = new NitmProxyMaster(new NitmProxyConfig(), new HandlerProvider(),
+                                     new BackendChannelBootstrap());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        client.close().sync();
+        front.close();
+        backend.close();
+        group.shutdownGracefully(0, 0, SECONDS);
+    }
+
+    @Test
+    public void shouldBuildPipelineAndWriteOnConnectedChannel() throws Exception {
+        ConnectionContext context = new ConnectionContext(master)
+                .withClientChannel(client)
+                .withServerAddr(new Address("127.0.0.1", backend.getLocalPort()));
+        ChannelHandler handler = new ChannelInboundHandlerAdapter();
+        ChannelHandlerContext fromCtx = client.pipeline().firstContext();
+
+        ChannelFuture future = client.eventLoop().submit(() -> {
+            ChannelFuture connect = new BackendChannelBootstrap().connect(fromCtx, master, context, handler);
+            // Not built until connected
+            assertNull(connect.channel().pipeline().context(handler));
+            // Held until connected
+            connect.channel().writeAndFlush(Unpooled.copiedBuffer("hello", US_ASCII));
+            return connect;
+        }).get();
+
+        assertTrue(future.await(5, SECONDS));
+        assertTrue(future.isSuccess());
+        assertNotNull(future.channel().pipeline().context(handler));
+        try (Socket server = backend.accept()) {
+            byte[] bytes = new byte[5];
+            new DataInputStream(server.getInputStream()).readFully(bytes);
+            assertEquals("hello", new String(bytes, US_ASCII));
+        }
+        future.channel().close().sync();
+    }
+}
@@ -0,0 +1,56 @@
+package com.github.chhsiao90.nitmproxy.channel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.github.chhsiao90.nitmproxy.NitmProxyConfig;
+
+import org.junit.Test;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.UnpooledByteBufAllocator;
+
+public class BufferAllocatorsTest {
+
+    @Test
+    public void shouldUseDefaultAllocatorByDefault() {
+        assertSame(ByteBufAllocator.DEFAULT, BufferAllocators.create(new NitmProxyConfig()));
+    }
+
+    @Test
+    public void shouldCreateUnpooledAllocator() {
+        NitmProxyConfig config = new NitmProxyConfig();
+        config.setPooledAllocator(false);
+        config.setPreferDirectBuffers(false);
+
+        ByteBufAllocator allocator = BufferAllocators.create(config);
+
+        assertTrue(allocator instanceof UnpooledByteBufAllocator);
+        assertFalse(allocator.isDirectBufferPooled());
+        ByteBuf buffer = allocator.buffer();
+        try {
+            assertFalse(buffer.isDirect());
+        } finally {
+            buffer.release();
+        }
+    }
+
+    @Test
+    public void shouldCreatePooledAllocatorOfConfig() {
+        NitmProxyConfig config = new NitmProxyConfig();
+        config.setAllocatorHeapArenas(0);
+        config.setAllocatorDirectArenas(2);
+        config.setAllocatorPageSize(8192);
+        config.setAllocatorMaxOrder(7);
+
+        PooledByteBufAllocator allocator = (PooledByteBufAllocator) BufferAllocators.create(config);
+
+        assertEquals(0, allocator.metric().numHeapArenas());
+        assertEquals(2, allocator.metric().numDirectArenas());
+        assertEquals(8192 << 7, allocator.metric().chunkSize());
+    }
+}
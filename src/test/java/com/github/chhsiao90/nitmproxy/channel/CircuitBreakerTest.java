@@ -0,0 +1,76 @@
+package com.github.chhsiao90.nitmproxy.channel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class CircuitBreakerTest {
+
+    @Test
+    public void shouldOpenAfterConsecutiveFailures() {
+        CircuitBreaker circuit = new CircuitBreaker(2, 100);
+
+        assertFalse(circuit.onFailure(0));
+        circuit.onSuccess();
+        assertFalse(circuit.onFailure(0));
+        assertTrue(circuit.tryAcquire(0));
+        assertTrue(circuit.onFailure(0));
+
+        assertEquals(CircuitBreaker.State.OPEN, circuit.state());
+        assertFalse(circuit.tryAcquire(99));
+        assertTrue(circuit.isOpen(99));
+    }
+
+    @Test
+    public void shouldLetProbeThroughAgainWhenCancelled() {
+        CircuitBreaker circuit = new CircuitBreaker(1, 100);
+        assertTrue(circuit.onFailure(0));
+        assertTrue(circuit.tryAcquire(100));
+
+        circuit.onCancelled();
+        assertEquals(CircuitBreaker.State.OPEN, circuit.state());
+        assertTrue(circuit.tryAcquire(100));
+    }
+
+    @Test
+    public void shouldLetSingleProbeThroughWhenHalfOpen() {
+        CircuitBreaker circuit = new CircuitBreaker(1, 100);
+        assertTrue(circuit.onFailure(0));
+
+        assertTrue(circuit.tryAcquire(100));
+        assertEquals(CircuitBreaker.State.HALF_OPEN, circuit.state());
+        assertFalse(circuit.tryAcquire(100));
+
+        // The probe failed
+        assertTrue(circuit.onFailure(100));
+        assertFalse(circuit.tryAcquire(199));
+        assertTrue(circuit.tryAcquire(200));
+
+        // The probe succeeded
+        circuit.onSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, circuit.state());
+        assertTrue(circuit.tryAcquire(200));
+    }
+
+    @Test
+    public void shouldOpenExpiredCircuitAgain() {
+        CircuitBreaker circuit = new CircuitBreaker(1, 100);
+        assertTrue(circuit.onFailure(0));
+        assertFalse(circuit.onFailure(50));
+
+        assertFalse(circuit.isOpen(100));
+        assertTrue(circuit.onFailure(100));
+        assertTrue(circuit.isOpen(150));
+    }
+
+    @Test
+    public void shouldNeverOpenWithoutThreshold() {
+        CircuitBreaker circuit = new CircuitBreaker(0, 100);
+        for (int i = 0; i < 10; i++) {
+            assertFalse(circuit.onFailure(0));
+        }
+        assertTrue(circuit.tryAcquire(0));
+    }
+}
@@ -0,0 +1,182 @@
+package com.github.chhsiao90.nitmproxy.channel;
+
+import static java.util.Arrays.asList;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.github.chhsiao90.nitmproxy.NitmProxyConfig;
+import com.github.chhsiao90.nitmproxy.metrics.ProxyMetrics;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.ConnectTimeoutException;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.concurrent.Future;
+
+public class ConnectRaceTest {
+    private NioEventLoopGroup group;
+    private ServerSocket server;
+    private ServerSocket stalledServer;
+    private final List<Socket> backlog = new ArrayList<>();
+    private Bootstrap bootstrap;
+    private Channel channel;
+    private OriginHealth health;
+
+    @Before
+    public void setUp() throws Exception {
+        group = new NioEventLoopGroup(1);
+        server = new ServerSocket(0, 8, InetAddress.getLoopbackAddress());
+        bootstrap = new Bootstrap()
+                .group(group)
+                .channel(NioSocketChannel.class)
+                .handler(new ChannelInboundHandlerAdapter());
+        channel = bootstrap.register().sync().channel();
+        health = new OriginHealth(new NitmProxyConfig());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        channel.close().sync();
+        server.close();
+        for (Socket socket : backlog) {
+            socket.close();
+        }
+        if (stalledServer != null) {
+            stalledServer.close();
+        }
+        group.shutdownGracefully(0, 0, SECONDS);
+    }
+
+    @Test
+    public void shouldConnectServerChannelToFirstAddress() throws Exception {
+        long races = ProxyMetrics.global().connectRaces();
+        List<InetSocketAddress> addresses = asList(
+                (InetSocketAddress) server.getLocalSocketAddress(), stalled());
+
+        Channel winner = race(addresses, 5000).get(5, SECONDS);
+
+        assertSame(channel, winner);
+        assertEquals(addresses.get(0), winner.remoteAddress());
+        // The next address was never attempted
+        assertEquals(races, ProxyMetrics.global().connectRaces());
+    }
+
+    @Test
+    public void shouldBeOvertakenByNextAddress() throws Exception {
+        long overtaken = ProxyMetrics.global().connectRacesOvertaken();
+        InetSocketAddress stalled = stalled();
+        List<InetSocketAddress> addresses = asList(stalled, (InetSocketAddress) server.getLocalSocketAddress());
+
+        Channel winner = race(addresses, 10).get(5, SECONDS);
+
+        // The attempt which won is kept
+        assertNotSame(channel, winner);
+        assertTrue(winner.isActive());
+        assertEquals(addresses.get(1), winner.remoteAddress());
+        assertEquals(overtaken + 1, ProxyMetrics.global().connectRacesOvertaken());
+        assertTrue(health.rate(stalled) < 1);
+        // The stalled address is tried after the winner by the next connections
+        assertEquals(asList(addresses.get(1), stalled), health.order(addresses));
+    }
+
+    @Test
+    public void shouldAttemptNextAddressWhenFailed() throws Exception {
+        List<InetSocketAddress> addresses = asList(refused(), (InetSocketAddress) server.getLocalSocketAddress());
+
+        Channel winner = race(addresses, 5000).get(5, SECONDS);
+
+        assertEquals(addresses.get(1), winner.remoteAddress());
+        assertTrue(health.rate(addresses.get(0)) < 1);
+    }
+
+    @Test
+    public void shouldFailWhenAllAddressesFailed() throws Exception {
+        List<InetSocketAddress> addresses = asList(refused(), refused());
+
+        Future<Channel> winner = race(addresses, 5000);
+
+        assertTrue(winner.await(5, SECONDS));
+        assertFalse(winner.isSuccess());
+        assertTrue(health.rate(addresses.get(0)) < 1);
+        assertTrue(health.rate(addresses.get(1)) < 1);
+    }
+
+    @Test
+    public void shouldGiveUpWhenServerChannelDone() throws Exception {
+        List<InetSocketAddress> addresses = asList(stalled(), (InetSocketAddress) server.getLocalSocketAddress());
+        ChannelPromise promise = channel.newPromise();
+
+        Future<Channel> winner = channel.eventLoop().submit(() -> {
+            Future<Channel> race = ConnectRace.start(channel, bootstrap, promise, addresses, health, 5000);
+            promise.setFailure(new ConnectTimeoutException());
+            return race;
+        }).get();
+
+        assertTrue(winner.isDone());
+        assertTrue(winner.cause() instanceof ConnectTimeoutException);
+    }
+
+    @Test
+    public void shouldGiveUpWhenServerChannelClosed() throws Exception {
+        List<InetSocketAddress> addresses = asList(stalled(), (InetSocketAddress) server.getLocalSocketAddress());
+
+        Future<Channel> winner = race(addresses, 5000);
+        channel.close().sync();
+
+        assertTrue(winner.await(5, SECONDS));
+        assertFalse(winner.isSuccess());
+        // Closed by the proxy, which is not a failure of the address
+        assertEquals(1, health.rate(addresses.get(0)), 0);
+    }
+
+    private Future<Channel> race(List<InetSocketAddress> addresses, long delayMillis) throws Exception {
+        // The attempts which won are closed by the shutdown of the event loop
+        ChannelPromise promise = channel.newPromise();
+        return channel.eventLoop()
+                      .submit(() -> ConnectRace.start(channel, bootstrap, promise, addresses, health, delayMillis))
+                      .get();
+    }
+
+    private InetSocketAddress stalled() throws Exception {
+        if (stalledServer == null) {
+            stalledServer = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+            // Fill the accept queue, which is never drained, the following connects are never answered
+            while (true) {
+                Socket socket = new Socket();
+                try {
+                    socket.connect(stalledServer.getLocalSocketAddress(), 200);
+                    backlog.add(socket);
+                } catch (SocketTimeoutException e) {
+                    socket.close();
+                    break;
+                }
+            }
+        }
+        return (InetSocketAddress) stalledServer.getLocalSocketAddress();
+    }
+
+    private static InetSocketAddress refused() throws Exception {
+        try (ServerSocket closed = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            return (InetSocketAddress) closed.getLocalSocketAddress();
+        }
+    }
+}
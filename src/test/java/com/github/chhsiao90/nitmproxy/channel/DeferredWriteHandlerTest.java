@@ -0,0 +1,70 @@
+package com.github.chhsiao90.nitmproxy.channel;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.channels.ClosedChannelException;
+
+import org.junit.Test;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+public class DeferredWriteHandlerTest {
+
+    @Test
+    public void shouldForwardWritesToWinner() {
+        DeferredWriteHandler handler = new DeferredWriteHandler();
+        EmbeddedChannel channel = new EmbeddedChannel(handler);
+        EmbeddedChannel winner = new EmbeddedChannel();
+        ByteBuf msg = Unpooled.copiedBuffer("hello", US_ASCII);
+
+        ChannelFuture written = channel.writeAndFlush(msg);
+        assertNull(channel.readOutbound());
+        assertFalse(written.isDone());
+
+        handler.forward(winner);
+        assertSame(msg, winner.readOutbound());
+        assertTrue(written.isSuccess());
+        assertNull(channel.pipeline().get(DeferredWriteHandler.class));
+
+        msg.release();
+        channel.finishAndReleaseAll();
+        winner.finishAndReleaseAll();
+    }
+
+    @Test
+    public void shouldWriteThroughServerChannelWhenItWon() {
+        DeferredWriteHandler handler = new DeferredWriteHandler();
+        EmbeddedChannel channel = new EmbeddedChannel(handler);
+        ByteBuf msg = Unpooled.copiedBuffer("hello", US_ASCII);
+
+        ChannelFuture written = channel.writeAndFlush(msg);
+        handler.forward(channel);
+
+        assertSame(msg, channel.readOutbound());
+        assertTrue(written.isSuccess());
+
+        msg.release();
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    public void shouldReleaseWritesWhenClosed() {
+        EmbeddedChannel channel = new EmbeddedChannel(new DeferredWriteHandler());
+        ByteBuf msg = Unpooled.copiedBuffer("hello", US_ASCII);
+
+        ChannelFuture written = channel.writeAndFlush(msg);
+        channel.close();
+
+        assertEquals(0, msg.refCnt());
+        assertTrue(written.cause() instanceof ClosedChannelException);
+        channel.finishAndReleaseAll();
+    }
+}
@@ -0,0 +1,122 @@
+package com.github.chhsiao90.nitmproxy.channel;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.github.chhsiao90.nitmproxy.Address;
+import com.github.chhsiao90.nitmproxy.NitmProxyConfig;
+
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NoRouteToHostException;
+import java.net.UnknownHostException;
+import java.nio.channels.ClosedChannelException;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import io.netty.channel.ConnectTimeoutException;
+
+public class OriginHealthTest {
+    private NitmProxyConfig config;
+    private OriginHealth health;
+
+    @Before
+    public void setUp() {
+        config = new NitmProxyConfig();
+        config.setCircuitBreakerFailureThreshold(2);
+        config.setOutlierFailureThreshold(1);
+        health = new OriginHealth(config);
+    }
+
+    @Test
+    public void shouldFailFastWhenOriginCircuitOpen() {
+        Address origin = new Address("www.example.com", 443);
+
+        assertFalse(health.onFailure(origin, 0));
+        assertTrue(health.tryAcquire(origin, 0));
+        assertTrue(health.onFailure(origin, 0));
+        assertFalse(health.tryAcquire(origin, 0));
+        assertTrue(health.tryAcquire(new Address("www.example.org", 443), 0));
+    }
+
+    @Test
+    public void shouldForgetFailuresOnSuccess() {
+        Address origin = new Address("www.example.com", 443);
+
+        health.onFailure(origin, 0);
+        health.onSuccess(origin);
+        assertFalse(health.onFailure(origin, 0));
+        assertTrue(health.tryAcquire(origin, 0));
+    }
+
+    @Test
+    public void shouldOnlyCountFailuresOfOrigin() {
+        assertTrue(OriginHealth.isFailure(new ConnectException("Connection refused")));
+        assertTrue(OriginHealth.isFailure(new ConnectTimeoutException()));
+        assertTrue(OriginHealth.isFailure(new NoRouteToHostException()));
+        assertTrue(OriginHealth.isFailure(new UnknownHostException()));
+        // Closed by the proxy, e.g. the client went away
+        assertFalse(OriginHealth.isFailure(new ClosedChannelException()));
+        assertFalse(OriginHealth.isFailure(new CancellationException()));
+    }
+
+    @Test
+    public void shouldSkipEjectedAddresses() throws Exception {
+        InetSocketAddress first = address(1);
+        InetSocketAddress second = address(2);
+        List<InetSocketAddress> resolved = asList(first, second);
+
+        assertTrue(health.onFailure(first, 0));
+        assertEquals(singletonList(second), health.available(resolved, 0));
+        // All of them are tried when all are ejected
+        assertTrue(health.onFailure(second, 0));
+        assertEquals(resolved, health.available(resolved, 0));
+
+        health.onSuccess(first);
+        assertEquals(singletonList(first), health.available(resolved, 0));
+    }
+
+    @Test
+    public void shouldTryEjectedAddressAgainAfterEjection() throws Exception {
+        config.setOutlierEjectionMillis(1);
+        health = new OriginHealth(config);
+        List<InetSocketAddress> resolved = asList(address(1), address(2));
+
+        health.onFailure(address(1), 0);
+        assertEquals(resolved, health.available(resolved, 1_000_000));
+    }
+
+    @Test
+    public void shouldInterleaveAddressFamilies() throws Exception {
+        InetSocketAddress ipv6 = new InetSocketAddress(InetAddress.getByName("2001:db8::1"), 443);
+        List<InetSocketAddress> resolved = asList(ipv6, address(1), address(2),
+                new InetSocketAddress(InetAddress.getByName("2001:db8::2"), 443));
+
+        assertEquals(asList(ipv6, address(1), resolved.get(3), address(2)), health.order(resolved));
+    }
+
+    @Test
+    public void shouldOrderAddressesBySuccessRate() throws Exception {
+        List<InetSocketAddress> resolved = asList(address(1), address(2), address(3));
+
+        health.onOvertaken(address(1));
+        assertEquals(asList(address(2), address(3), address(1)), health.order(resolved));
+
+        // Healthy again after enough successes
+        for (int i = 0; i < 10; i++) {
+            health.onSuccess(address(1));
+        }
+        assertEquals(resolved, health.order(resolved));
+    }
+
+    private static InetSocketAddress address(int index) throws Exception {
+        return new InetSocketAddress(InetAddress.getByAddress(new byte[] { 10, 0, 0, (byte) index }), 443);
+    }
+}
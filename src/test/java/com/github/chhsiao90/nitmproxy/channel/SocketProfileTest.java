@@ -0,0 +1,58 @@
+package com.github.chhsiao90.nitmproxy.channel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.github.chhsiao90.nitmproxy.NitmProxyConfig;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.epoll.EpollChannelOption;
+
+public class SocketProfileTest {
+
+    @Test
+    public void shouldSkipNativeOptionsWithNio() {
+        Map<ChannelOption<?>, Object> options = SocketProfile.LOW_LATENCY
+                .apply(new Bootstrap(), Transport.NIO, true).config().options();
+
+        assertEquals(true, options.get(ChannelOption.TCP_NODELAY));
+        assertEquals(true, options.get(ChannelOption.SO_KEEPALIVE));
+        assertFalse(options.containsKey(EpollChannelOption.TCP_QUICKACK));
+        assertFalse(options.containsKey(EpollChannelOption.TCP_FASTOPEN_CONNECT));
+    }
+
+    @Test
+    public void shouldApplyNativeOptionsWithEpoll() {
+        ServerBootstrap bootstrap = SocketProfile.LOW_LATENCY.apply(new ServerBootstrap(), Transport.EPOLL);
+
+        assertEquals(256, bootstrap.config().options().get(EpollChannelOption.TCP_FASTOPEN));
+        assertEquals(true, bootstrap.config().childOptions().get(EpollChannelOption.TCP_QUICKACK));
+        assertTrue(SocketProfile.LOW_LATENCY.apply(new Bootstrap(), Transport.EPOLL, true)
+                                            .config().options()
+                                            .containsKey(EpollChannelOption.TCP_FASTOPEN_CONNECT));
+    }
+
+    @Test
+    public void shouldKeepDefaultOptions() {
+        ServerBootstrap bootstrap = SocketProfile.DEFAULT.apply(new ServerBootstrap(), Transport.EPOLL);
+
+        assertTrue(bootstrap.config().options().isEmpty());
+        assertTrue(bootstrap.config().childOptions().isEmpty());
+    }
+
+    @Test
+    public void shouldOverrideBackendProfileByHost() {
+        NitmProxyConfig config = new NitmProxyConfig();
+        config.getBackendSocketProfileByHost().put("download.example.com", SocketProfile.BULK);
+
+        assertEquals(SocketProfile.BULK, SocketProfile.backend(config, "download.example.com"));
+        assertEquals(SocketProfile.LOW_LATENCY, SocketProfile.backend(config, "www.example.com"));
+    }
+}
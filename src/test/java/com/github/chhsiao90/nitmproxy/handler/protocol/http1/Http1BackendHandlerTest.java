@@ -5,15 +5,24 @@ import com.github.chhsiao90.nitmproxy.ConnectionContext;
 import com.github.chhsiao90.nitmproxy.NitmProxyConfig;
 import com.github.chhsiao90.nitmproxy.NitmProxyMaster;
 import com.github.chhsiao90.nitmproxy.event.OutboundChannelClosedEvent;
+import com.github.chhsiao90.nitmproxy.event.RequestRetryEvent;
+import com.github.chhsiao90.nitmproxy.observer.TrafficObserver;
 import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
 import io.netty.channel.embedded.EmbeddedChannel;
 import io.netty.handler.codec.http.DefaultFullHttpRequest;
 import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.DefaultHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
 import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpObject;
 import io.netty.handler.codec.http.HttpResponseStatus;
 import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.util.ReferenceCountUtil;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -30,6 +39,8 @@ import static org.mockito.Mockito.when;
 public class Http1BackendHandlerTest {
     private NitmProxyMaster master;
 
+    private NitmProxyConfig config;
+
     private Http1BackendHandler handler;
 
     private EmbeddedChannel inboundChannel;
@@ -39,7 +50,8 @@ public class Http1BackendHandlerTest {
     @Before
     public void setUp() throws Exception {
         master = mock(NitmProxyMaster.class);
-        when(master.config()).thenReturn(new NitmProxyConfig());
+        config = new NitmProxyConfig();
+        when(master.config()).thenReturn(config);
 
         inboundChannel = new EmbeddedChannel();
 
@@ -181,12 +193,261 @@ public class Http1BackendHandlerTest {
         assertEquals(0, req.refCnt());
     }
 
+    @Test
+    public void shouldWriteResponsesInRequestOrder() {
+        ConnectionContext context = new ConnectionContext(master)
+                .withClientAddr(new Address("localhost", 8080))
+                .withClientChannel(outboundChannel);
+        EmbeddedChannel firstChannel = new EmbeddedChannel(new Http1BackendHandler(master, context));
+        EmbeddedChannel secondChannel = new EmbeddedChannel(new Http1BackendHandler(master, context));
+        context.responseSequencer().expect(firstChannel);
+        context.responseSequencer().expect(secondChannel);
+
+        DefaultFullHttpResponse firstResp = new DefaultFullHttpResponse(
+                HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+        DefaultFullHttpResponse secondResp = new DefaultFullHttpResponse(
+                HttpVersion.HTTP_1_1, HttpResponseStatus.NOT_FOUND);
+
+        // Second response arrives first, should wait for the first response
+        assertFalse(secondChannel.writeInbound(secondResp));
+        assertTrue(outboundChannel.outboundMessages().isEmpty());
+
+        assertFalse(firstChannel.writeInbound(firstResp));
+        assertEquals(2, outboundChannel.outboundMessages().size());
+        assertEquals(firstResp, outboundChannel.outboundMessages().poll());
+        assertEquals(secondResp, outboundChannel.outboundMessages().poll());
+
+        firstResp.release();
+        secondResp.release();
+        firstChannel.finishAndReleaseAll();
+        secondChannel.finishAndReleaseAll();
+    }
+
+    @Test
+    public void shouldPauseServerWhileResponseBuffered() {
+        ConnectionContext context = new ConnectionContext(master)
+                .withClientAddr(new Address("localhost", 8080))
+                .withClientChannel(outboundChannel);
+        EmbeddedChannel firstChannel = new EmbeddedChannel(new Http1BackendHandler(master, context));
+        EmbeddedChannel secondChannel = new EmbeddedChannel(new Http1BackendHandler(master, context));
+        context.responseSequencer().expect(firstChannel);
+        context.responseSequencer().expect(secondChannel);
+
+        DefaultHttpResponse firstResp = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+        DefaultFullHttpResponse secondResp = new DefaultFullHttpResponse(
+                HttpVersion.HTTP_1_1, HttpResponseStatus.NOT_FOUND);
+
+        // The response of the head is streamed, the second server waits for it
+        assertFalse(firstChannel.writeInbound(firstResp));
+        assertFalse(secondChannel.writeInbound(secondResp));
+        assertTrue(firstChannel.config().isAutoRead());
+        assertFalse(secondChannel.config().isAutoRead());
+
+        assertFalse(firstChannel.writeInbound(LastHttpContent.EMPTY_LAST_CONTENT));
+        assertTrue(secondChannel.config().isAutoRead());
+        assertEquals(3, outboundChannel.outboundMessages().size());
+        assertEquals(firstResp, outboundChannel.outboundMessages().poll());
+        assertEquals(LastHttpContent.EMPTY_LAST_CONTENT, outboundChannel.outboundMessages().poll());
+        assertEquals(secondResp, outboundChannel.outboundMessages().poll());
+
+        secondResp.release();
+        firstChannel.finishAndReleaseAll();
+        secondChannel.finishAndReleaseAll();
+    }
+
+    @Test
+    public void shouldNotCompleteResponseWithInformationalResponse() {
+        ConnectionContext context = new ConnectionContext(master)
+                .withClientAddr(new Address("localhost", 8080))
+                .withClientChannel(outboundChannel);
+        EmbeddedChannel firstChannel = new EmbeddedChannel(new Http1BackendHandler(master, context));
+        EmbeddedChannel secondChannel = new EmbeddedChannel(new Http1BackendHandler(master, context));
+        context.responseSequencer().expect(firstChannel);
+        context.responseSequencer().expect(secondChannel);
+
+        DefaultFullHttpResponse continueResp = new DefaultFullHttpResponse(
+                HttpVersion.HTTP_1_1, HttpResponseStatus.CONTINUE);
+        DefaultFullHttpResponse firstResp = new DefaultFullHttpResponse(
+                HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+        DefaultFullHttpResponse secondResp = new DefaultFullHttpResponse(
+                HttpVersion.HTTP_1_1, HttpResponseStatus.NOT_FOUND);
+
+        assertFalse(firstChannel.writeInbound(continueResp));
+        assertFalse(secondChannel.writeInbound(secondResp));
+        assertEquals(1, outboundChannel.outboundMessages().size());
+        assertEquals(continueResp, outboundChannel.outboundMessages().poll());
+
+        // The second response waits for the final response of the first
+        assertFalse(firstChannel.writeInbound(firstResp));
+        assertEquals(2, outboundChannel.outboundMessages().size());
+        assertEquals(firstResp, outboundChannel.outboundMessages().poll());
+        assertEquals(secondResp, outboundChannel.outboundMessages().poll());
+
+        continueResp.release();
+        firstResp.release();
+        secondResp.release();
+        firstChannel.finishAndReleaseAll();
+        secondChannel.finishAndReleaseAll();
+    }
+
+    @Test
+    public void shouldCloseClientWhenPendingServerClosed() {
+        ConnectionContext context = new ConnectionContext(master)
+                .withClientAddr(new Address("localhost", 8080))
+                .withClientChannel(outboundChannel);
+        EmbeddedChannel firstChannel = new EmbeddedChannel(new Http1BackendHandler(master, context));
+        context.responseSequencer().expect(firstChannel);
+
+        firstChannel.close();
+
+        assertFalse(outboundChannel.isActive());
+    }
+
+    @Test
+    public void shouldCloseAfterConnectionCloseResponse() {
+        inboundChannel.pipeline().addLast(handler);
+
+        inboundChannel.write(new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/"));
+        assertTrue(inboundChannel.outboundMessages().poll() instanceof ByteBuf);
+
+        DefaultFullHttpResponse resp = new DefaultFullHttpResponse(
+                HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+        resp.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.CLOSE);
+        assertFalse(inboundChannel.writeInbound(resp));
+
+        assertEquals(resp, outboundChannel.outboundMessages().poll());
+        assertFalse(inboundChannel.isActive());
+        assertEquals(Http1BackendHandler.State.CLOSED, handler.state());
+
+        resp.release();
+    }
+
+    @Test
+    public void shouldCloseWhenKeepAliveTimeoutTooShort() {
+        inboundChannel.pipeline().addLast(handler);
+
+        inboundChannel.write(new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/"));
+        assertTrue(inboundChannel.outboundMessages().poll() instanceof ByteBuf);
+
+        DefaultFullHttpResponse resp = new DefaultFullHttpResponse(
+                HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+        resp.headers().set(HttpHeaderNames.KEEP_ALIVE, "timeout=1, max=100");
+        assertFalse(inboundChannel.writeInbound(resp));
+
+        assertEquals(resp, outboundChannel.outboundMessages().poll());
+        assertFalse(inboundChannel.isActive());
+
+        resp.release();
+    }
+
+    @Test
+    public void shouldRetryIdempotentRequestOnReusedConnection() {
+        inboundChannel.pipeline().addLast(handler);
+
+        List<Object> events = new ArrayList<>(1);
+        outboundChannel.pipeline().addLast(new ChannelInboundHandlerAdapter() {
+            @Override
+            public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+                events.add(evt);
+            }
+        });
+
+        DefaultFullHttpRequest req = new DefaultFullHttpRequest(
+                HttpVersion.HTTP_1_1, HttpMethod.GET, "/");
+        inboundChannel.write(req.retain());
+        assertTrue(inboundChannel.outboundMessages().poll() instanceof ByteBuf);
+
+        DefaultFullHttpResponse resp = new DefaultFullHttpResponse(
+                HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+        assertFalse(inboundChannel.writeInbound(resp));
+        assertEquals(resp, outboundChannel.outboundMessages().poll());
+
+        // Server closed the reused connection before responding the second request
+        inboundChannel.write(req);
+        assertTrue(inboundChannel.outboundMessages().poll() instanceof ByteBuf);
+        inboundChannel.close();
+
+        assertEquals(1, events.size());
+        assertTrue(events.get(0) instanceof RequestRetryEvent);
+        RequestRetryEvent event = (RequestRetryEvent) events.get(0);
+        assertEquals(new Address("localhost", 8080), event.getServerAddr());
+        assertEquals(1, event.getRequests().size());
+        assertEquals(HttpMethod.GET, event.getRequests().get(0).method());
+
+        event.getRequests().forEach(ReferenceCountUtil::release);
+        resp.release();
+    }
+
+    @Test
+    public void shouldNotRetryNonIdempotentRequest() {
+        inboundChannel.pipeline().addLast(handler);
+
+        List<Object> events = new ArrayList<>(1);
+        outboundChannel.pipeline().addLast(new ChannelInboundHandlerAdapter() {
+            @Override
+            public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+                events.add(evt);
+            }
+        });
+
+        inboundChannel.write(new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/"));
+        assertTrue(inboundChannel.outboundMessages().poll() instanceof ByteBuf);
+
+        DefaultFullHttpResponse resp = new DefaultFullHttpResponse(
+                HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+        assertFalse(inboundChannel.writeInbound(resp));
+        assertEquals(resp, outboundChannel.outboundMessages().poll());
+
+        inboundChannel.write(new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, "/"));
+        assertTrue(inboundChannel.outboundMessages().poll() instanceof ByteBuf);
+        inboundChannel.close();
+
+        assertEquals(1, events.size());
+        assertTrue(events.get(0) instanceof OutboundChannelClosedEvent);
+
+        resp.release();
+    }
+
     private ConnectionContext connectionInfo() {
         return new ConnectionContext(master)
                 .withClientAddr(new Address("localhost", 8080))
                 .withServerAddr(new Address("localhost", 8080));
     }
 
+    @Test
+    public void shouldNotifyTrafficObservers() {
+        List<HttpObject> requests = new ArrayList<>();
+        List<HttpObject> responses = new ArrayList<>();
+        config.getTrafficObservers().add(new TrafficObserver() {
+            @Override
+            public void onHttp1Request(ConnectionContext connectionContext, Channel serverChannel,
+                                       HttpObject request) {
+                requests.add(request);
+            }
+
+            @Override
+            public void onHttp1Response(ConnectionContext connectionContext, Channel serverChannel,
+                                        HttpObject response) {
+                responses.add(response);
+            }
+        });
+        inboundChannel.pipeline().addLast(handler);
+
+        DefaultFullHttpRequest req = new DefaultFullHttpRequest(
+                HttpVersion.HTTP_1_1, HttpMethod.GET, "/");
+        inboundChannel.write(req);
+        ReferenceCountUtil.release(inboundChannel.outboundMessages().poll());
+
+        DefaultFullHttpResponse resp = new DefaultFullHttpResponse(
+                HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+        inboundChannel.writeInbound(resp);
+
+        assertEquals(1, requests.size());
+        assertEquals(req, requests.get(0));
+        assertEquals(1, responses.size());
+        assertEquals(resp, responses.get(0));
+    }
+
     private static byte[] readBytes(ByteBuf byteBuf) {
         byte[] bytes = new byte[byteBuf.readableBytes()];
         byteBuf.readBytes(bytes);
@@ -2,10 +2,13 @@ package com.github.chhsiao90.nitmproxy.handler.protocol.http1;
 
 import static com.github.chhsiao90.nitmproxy.HttpObjectUtil.requestBytes;
 import static io.netty.util.ReferenceCountUtil.release;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Collections.singletonList;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.mock;
@@ -17,6 +20,11 @@ import com.github.chhsiao90.nitmproxy.ConnectionContext;
 import com.github.chhsiao90.nitmproxy.HandlerProvider;
 import com.github.chhsiao90.nitmproxy.NitmProxyConfig;
 import com.github.chhsiao90.nitmproxy.NitmProxyMaster;
+import com.github.chhsiao90.nitmproxy.event.Http2UpgradeEvent;
+import com.github.chhsiao90.nitmproxy.event.RequestRetryEvent;
+
+import java.util.ArrayList;
+import java.util.List;
 
 import org.junit.After;
 import org.junit.Before;
@@ -25,12 +33,17 @@ import org.junit.Test;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerAdapter;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
 import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
 import io.netty.handler.codec.http.DefaultHttpRequest;
 import io.netty.handler.codec.http.FullHttpRequest;
 import io.netty.handler.codec.http.HttpHeaderNames;
 import io.netty.handler.codec.http.HttpMethod;
 import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpServerCodec;
 import io.netty.handler.codec.http.HttpVersion;
 
 public class Http1FrontendHandlerTest {
@@ -97,6 +110,59 @@ public class Http1FrontendHandlerTest {
         release(outboundChannel.outboundMessages().poll());
     }
 
+    @Test
+    public void shouldUpgradeToH2c() {
+        List<Object> events = new ArrayList<>();
+        when(provider.http2ToHttp1FrontendHandler(any(), any())).thenReturn(
+                new ChannelInboundHandlerAdapter() {
+                    @Override
+                    public void userEventTriggered(ChannelHandlerContext ctx, Object evt) {
+                        events.add(evt);
+                    }
+                });
+        outboundChannel = new EmbeddedChannel();
+        ConnectionContext connectionContext = createConnectionContext();
+        connectionContext.tlsCtx().setEnabled(false);
+        inboundChannel.pipeline().addLast(new Http1FrontendHandler(master, connectionContext));
+
+        FullHttpRequest upgrade = HttpObjectUtil.request();
+        upgrade.headers()
+               .add(HttpHeaderNames.CONNECTION, "Upgrade, HTTP2-Settings")
+               .add(HttpHeaderNames.UPGRADE, "h2c")
+               .add("HTTP2-Settings", "AAMAAABkAAQAAP__");
+        assertFalse(inboundChannel.writeInbound(HttpObjectUtil.requestBytes(upgrade)));
+
+        ByteBuf response = inboundChannel.readOutbound();
+        assertTrue(response.toString(UTF_8).startsWith("HTTP/1.1 101 Switching Protocols"));
+        response.release();
+        assertNull(inboundChannel.pipeline().get(Http1FrontendHandler.class));
+        assertNull(inboundChannel.pipeline().get(HttpServerCodec.class));
+        assertTrue(outboundChannel.outboundMessages().isEmpty());
+
+        assertEquals(1, events.size());
+        Http2UpgradeEvent event = (Http2UpgradeEvent) events.get(0);
+        assertEquals(Long.valueOf(100), event.getSettings().maxConcurrentStreams());
+        assertEquals("/", event.getRequest().uri());
+        event.getRequest().release();
+    }
+
+    @Test
+    public void shouldNotUpgradeToH2cOverTls() {
+        Http1FrontendHandler handler = tunneledHandler();
+        inboundChannel.pipeline().addLast(handler);
+
+        FullHttpRequest upgrade = HttpObjectUtil.request();
+        upgrade.headers()
+               .add(HttpHeaderNames.CONNECTION, "Upgrade, HTTP2-Settings")
+               .add(HttpHeaderNames.UPGRADE, "h2c")
+               .add("HTTP2-Settings", "AAMAAABkAAQAAP__");
+        assertFalse(inboundChannel.writeInbound(HttpObjectUtil.requestBytes(upgrade)));
+
+        assertTrue(inboundChannel.outboundMessages().isEmpty());
+        assertEquals(1, outboundChannel.outboundMessages().size());
+        release(outboundChannel.outboundMessages().poll());
+    }
+
     @Test
     public void shouldHandleHttpProxyRequest() {
         Http1FrontendHandler handler = httpProxyHandler(true);
@@ -181,10 +247,85 @@ public class Http1FrontendHandlerTest {
         assertEquals(httpRequest.uri(), "/");
         release(httpRequest);
 
+        assertNotSame(firstOutboundChannel, outboundChannel);
+        assertTrue(firstOutboundChannel.isActive());
+        firstOutboundChannel.finishAndReleaseAll();
+    }
+
+    @Test
+    public void shouldReuseConnectionOfSameServer() {
+        Http1FrontendHandler handler = httpProxyHandler(true);
+        inboundChannel.pipeline().addLast(handler);
+
+        assertFalse(inboundChannel.writeInbound(HttpObjectUtil.requestBytes(new DefaultHttpRequest(
+                HttpVersion.HTTP_1_1, HttpMethod.GET, "http://localhost:8000/"))));
+        EmbeddedChannel firstOutboundChannel = outboundChannel;
+        release(firstOutboundChannel.outboundMessages().poll());
+
+        assertFalse(inboundChannel.writeInbound(HttpObjectUtil.requestBytes(new DefaultHttpRequest(
+                HttpVersion.HTTP_1_1, HttpMethod.GET, "http://localhost:9000/"))));
+        EmbeddedChannel secondOutboundChannel = outboundChannel;
+        release(secondOutboundChannel.outboundMessages().poll());
+
+        // Back to the first server
+        assertFalse(inboundChannel.writeInbound(HttpObjectUtil.requestBytes(new DefaultHttpRequest(
+                HttpVersion.HTTP_1_1, HttpMethod.GET, "http://localhost:8000/"))));
+
+        assertTrue(secondOutboundChannel.outboundMessages().isEmpty());
+        assertEquals(1, firstOutboundChannel.outboundMessages().size());
+        assertTrue(firstOutboundChannel.outboundMessages().peek() instanceof FullHttpRequest);
+        release(firstOutboundChannel.outboundMessages().poll());
+
+        assertTrue(firstOutboundChannel.isActive());
+        assertTrue(secondOutboundChannel.isActive());
+        firstOutboundChannel.finishAndReleaseAll();
+    }
+
+    @Test
+    public void shouldCloseLeastRecentlyUsedConnection() {
+        master.config().setMaxServerConnectionsPerClient(1);
+        ConnectionContext context = createConnectionContext();
+        Http1FrontendHandler handler = httpProxyHandler(true, context);
+        inboundChannel.pipeline().addLast(handler);
+
+        assertFalse(inboundChannel.writeInbound(HttpObjectUtil.requestBytes(new DefaultHttpRequest(
+                HttpVersion.HTTP_1_1, HttpMethod.GET, "http://localhost:8000/"))));
+        EmbeddedChannel firstOutboundChannel = outboundChannel;
+        release(firstOutboundChannel.outboundMessages().poll());
+        context.responseSequencer().write(firstOutboundChannel, new DefaultFullHttpResponse(
+                HttpVersion.HTTP_1_1, HttpResponseStatus.OK));
+        release(inboundChannel.outboundMessages().poll());
+
+        assertFalse(inboundChannel.writeInbound(HttpObjectUtil.requestBytes(new DefaultHttpRequest(
+                HttpVersion.HTTP_1_1, HttpMethod.GET, "http://localhost:9000/"))));
+        release(outboundChannel.outboundMessages().poll());
+
         assertNotSame(firstOutboundChannel, outboundChannel);
         assertFalse(firstOutboundChannel.isActive());
     }
 
+    @Test
+    public void shouldKeepLeastRecentlyUsedConnectionWithResponsePending() {
+        master.config().setMaxServerConnectionsPerClient(1);
+        Http1FrontendHandler handler = httpProxyHandler(true);
+        inboundChannel.pipeline().addLast(handler);
+
+        assertFalse(inboundChannel.writeInbound(HttpObjectUtil.requestBytes(new DefaultHttpRequest(
+                HttpVersion.HTTP_1_1, HttpMethod.GET, "http://localhost:8000/"))));
+        EmbeddedChannel firstOutboundChannel = outboundChannel;
+        release(firstOutboundChannel.outboundMessages().poll());
+
+        // The pipelined request to another server doesn't close the server still responding
+        assertFalse(inboundChannel.writeInbound(HttpObjectUtil.requestBytes(new DefaultHttpRequest(
+                HttpVersion.HTTP_1_1, HttpMethod.GET, "http://localhost:9000/"))));
+        release(outboundChannel.outboundMessages().poll());
+
+        assertNotSame(firstOutboundChannel, outboundChannel);
+        assertTrue(firstOutboundChannel.isActive());
+        assertTrue(inboundChannel.isActive());
+        firstOutboundChannel.finishAndReleaseAll();
+    }
+
     @Test
     public void shouldClosedWhenHttpProxyDestinationNotAvailable() {
         Http1FrontendHandler handler = httpProxyHandler(false);
@@ -235,6 +376,46 @@ public class Http1FrontendHandlerTest {
         assertNotSame(firstOutboundChannel, outboundChannel);
     }
 
+    @Test
+    public void shouldRetryRequestsOnNewConnection() {
+        Http1FrontendHandler handler = httpProxyHandler(true);
+        inboundChannel.pipeline().addLast(handler);
+
+        assertFalse(inboundChannel.writeInbound(HttpObjectUtil.requestBytes(new DefaultHttpRequest(
+                HttpVersion.HTTP_1_1, HttpMethod.GET, "http://localhost:8000/"))));
+        EmbeddedChannel firstOutboundChannel = outboundChannel;
+        FullHttpRequest request = (FullHttpRequest) firstOutboundChannel.outboundMessages().poll();
+        firstOutboundChannel.close();
+
+        inboundChannel.pipeline().fireUserEventTriggered(new RequestRetryEvent(
+                new Address("localhost", 8000), firstOutboundChannel, singletonList(request)));
+
+        assertNotSame(firstOutboundChannel, outboundChannel);
+        assertEquals(1, outboundChannel.outboundMessages().size());
+        assertEquals(request, outboundChannel.outboundMessages().peek());
+        release(outboundChannel.outboundMessages().poll());
+    }
+
+    @Test
+    public void shouldCloseServerChannelsWhenClientClosed() {
+        Http1FrontendHandler handler = httpProxyHandler(true);
+        inboundChannel.pipeline().addLast(handler);
+
+        assertFalse(inboundChannel.writeInbound(HttpObjectUtil.requestBytes(new DefaultHttpRequest(
+                HttpVersion.HTTP_1_1, HttpMethod.GET, "http://localhost:8000/"))));
+        EmbeddedChannel firstOutboundChannel = outboundChannel;
+        release(firstOutboundChannel.outboundMessages().poll());
+
+        assertFalse(inboundChannel.writeInbound(HttpObjectUtil.requestBytes(new DefaultHttpRequest(
+                HttpVersion.HTTP_1_1, HttpMethod.GET, "http://localhost:9000/"))));
+        release(outboundChannel.outboundMessages().poll());
+
+        inboundChannel.close();
+
+        assertFalse(firstOutboundChannel.isActive());
+        assertFalse(outboundChannel.isActive());
+    }
+
     @Test
     public void shouldHandleConnect() {
         Http1FrontendHandler handler = httpProxyHandler(true);
@@ -258,6 +439,10 @@ public class Http1FrontendHandlerTest {
     }
 
     private Http1FrontendHandler httpProxyHandler(boolean outboundAvailable) {
+        return httpProxyHandler(outboundAvailable, createConnectionContext());
+    }
+
+    private Http1FrontendHandler httpProxyHandler(boolean outboundAvailable, ConnectionContext context) {
         if (outboundAvailable) {
             when(master.connect(any(), any(), any())).then(
                     invocationOnMock ->  {
@@ -268,7 +453,7 @@ public class Http1FrontendHandlerTest {
             when(master.connect(any(), any(), any())).then(
                     invocationOnMock ->  inboundChannel.newPromise().setFailure(new Exception()));
         }
-        return new Http1FrontendHandler(master, createConnectionContext());
+        return new Http1FrontendHandler(master, context);
     }
 
     private Http1FrontendHandler tunneledHandler() {
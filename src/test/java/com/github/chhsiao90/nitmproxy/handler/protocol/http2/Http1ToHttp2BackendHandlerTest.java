@@ -0,0 +1,219 @@
+package com.github.chhsiao90.nitmproxy.handler.protocol.http2;
+
+import static io.netty.buffer.ByteBufUtil.writeUtf8;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.github.chhsiao90.nitmproxy.Address;
+import com.github.chhsiao90.nitmproxy.ConnectionContext;
+import com.github.chhsiao90.nitmproxy.NitmProxyConfig;
+import com.github.chhsiao90.nitmproxy.NitmProxyMaster;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.handler.codec.http2.DefaultHttp2Headers;
+import io.netty.handler.codec.http2.Http2Connection;
+import io.netty.handler.codec.http2.Http2ConnectionHandler;
+import io.netty.handler.codec.http2.Http2ConnectionHandlerBuilder;
+import io.netty.handler.codec.http2.Http2Error;
+import io.netty.handler.codec.http2.Http2FrameAdapter;
+import io.netty.handler.codec.http2.Http2Headers;
+import io.netty.handler.codec.http2.Http2Stream;
+import io.netty.handler.codec.http2.HttpConversionUtil.ExtensionHeaderNames;
+import io.netty.handler.codec.http2.HttpToHttp2ConnectionHandler;
+import io.netty.util.AsciiString;
+import io.netty.util.ReferenceCountUtil;
+
+public class Http1ToHttp2BackendHandlerTest {
+
+  private EmbeddedChannel client;
+  private EmbeddedChannel backend;
+  private EmbeddedChannel server;
+  private Http2ConnectionHandler http2Server;
+  private RequestRecorder requests;
+
+  @Before
+  public void setUp() {
+    NitmProxyMaster master = mock(NitmProxyMaster.class);
+    when(master.config()).thenReturn(new NitmProxyConfig());
+    ConnectionContext connectionContext = new ConnectionContext(master);
+
+    client = new EmbeddedChannel();
+    backend = new EmbeddedChannel();
+    requests = new RequestRecorder();
+    http2Server = new Http2ConnectionHandlerBuilder()
+        .server(true)
+        .frameListener(requests)
+        .build();
+    server = new EmbeddedChannel(http2Server);
+    connectionContext
+        .withClientAddr(new Address("localhost", 8080))
+        .withClientChannel(client)
+        .withServerAddr(new Address("localhost", 8080))
+        .withServerChannel(backend);
+    backend.pipeline().addLast(new Http1ToHttp2BackendHandler(connectionContext));
+    Http2TestUtil.exchange(backend, server);
+  }
+
+  @After
+  public void tearDown() {
+    client.finishAndReleaseAll();
+    backend.finishAndReleaseAll();
+    server.finishAndReleaseAll();
+  }
+
+  @Test
+  public void shouldTranslateRequestToStream() {
+    sendRequest("/hello");
+
+    assertEquals(1, requests.headers.size());
+    Http2Headers headers = requests.headers.get(0);
+    assertEquals("GET", headers.method().toString());
+    assertEquals("/hello", headers.path().toString());
+    assertEquals("https", headers.scheme().toString());
+    assertEquals("example.org", headers.authority().toString());
+    assertFalse(headers.contains(ExtensionHeaderNames.STREAM_ID.text()));
+  }
+
+  @Test
+  public void shouldTranslateResponse() {
+    sendRequest("/hello");
+    sendResponse(requests.streamIds.get(0), "Hello");
+
+    HttpResponse response = client.readOutbound();
+    assertEquals(HttpResponseStatus.OK, response.status());
+    assertTrue(HttpUtil.isTransferEncodingChunked(response));
+    assertFalse(response.headers().contains(ExtensionHeaderNames.STREAM_ID.text()));
+    LastHttpContent content = client.readOutbound();
+    assertEquals("Hello", content.content().toString(UTF_8));
+    content.release();
+  }
+
+  @Test
+  public void shouldWriteResponsesInOrderOfRequests() {
+    sendRequest("/first");
+    sendRequest("/second");
+    assertEquals(2, requests.streamIds.size());
+
+    // The second response arrives first
+    sendResponse(requests.streamIds.get(1), "World");
+    assertEquals(0, client.outboundMessages().size());
+    sendResponse(requests.streamIds.get(0), "Hello");
+
+    assertEquals(4, client.outboundMessages().size());
+    assertTrue(client.readOutbound() instanceof HttpResponse);
+    assertEquals("Hello", readContent());
+    assertTrue(client.readOutbound() instanceof HttpResponse);
+    assertEquals("World", readContent());
+  }
+
+  @Test
+  public void shouldReplyBadGatewayWhenStreamReset() {
+    sendRequest("/hello");
+    ChannelHandlerContext ctx = server.pipeline().firstContext();
+    http2Server.resetStream(ctx, requests.streamIds.get(0), Http2Error.INTERNAL_ERROR.code(),
+        ctx.newPromise());
+    server.flush();
+    Http2TestUtil.exchange(backend, server);
+
+    HttpResponse response = client.readOutbound();
+    assertEquals(HttpResponseStatus.BAD_GATEWAY, response.status());
+    assertEquals(0, HttpUtil.getContentLength(response));
+    ReferenceCountUtil.release(response);
+  }
+
+  @Test
+  public void shouldReturnWindowAfterWrittenToClient() throws Exception {
+    // The client doesn't take the responses until the promises are completed
+    List<ChannelPromise> writes = new ArrayList<>();
+    client.pipeline().addFirst(new ChannelOutboundHandlerAdapter() {
+      @Override
+      public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) {
+        ReferenceCountUtil.release(msg);
+        writes.add(promise);
+      }
+    });
+    sendRequest("/hello");
+    int streamId = requests.streamIds.get(0);
+    ChannelHandlerContext ctx = server.pipeline().firstContext();
+    http2Server.encoder().writeHeaders(ctx, streamId,
+        new DefaultHttp2Headers().status(new AsciiString("200")), 0, false, ctx.newPromise());
+    http2Server.encoder().writeData(ctx, streamId,
+        writeUtf8(ByteBufAllocator.DEFAULT, "Hello"), 0, false, ctx.newPromise());
+    server.flush();
+    Http2TestUtil.exchange(backend, server);
+
+    Http2Connection connection =
+        backend.pipeline().get(HttpToHttp2ConnectionHandler.class).connection();
+    Http2Stream stream = connection.stream(streamId);
+    assertEquals(5, connection.local().flowController().unconsumedBytes(stream));
+
+    writes.forEach(ChannelPromise::setSuccess);
+    assertEquals(0, connection.local().flowController().unconsumedBytes(stream));
+  }
+
+  private void sendRequest(String path) {
+    FullHttpRequest request =
+        new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, path);
+    request.headers().set(HttpHeaderNames.HOST, "example.org");
+    request.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.KEEP_ALIVE);
+    backend.writeAndFlush(request);
+    Http2TestUtil.exchange(backend, server);
+  }
+
+  private void sendResponse(int streamId, String content) {
+    ChannelHandlerContext ctx = server.pipeline().firstContext();
+    http2Server.encoder().writeHeaders(ctx, streamId,
+        new DefaultHttp2Headers().status(new AsciiString("200")), 0, false, ctx.newPromise());
+    http2Server.encoder().writeData(ctx, streamId,
+        writeUtf8(ByteBufAllocator.DEFAULT, content), 0, true, ctx.newPromise());
+    server.flush();
+    Http2TestUtil.exchange(backend, server);
+  }
+
+  private String readContent() {
+    HttpContent content = client.readOutbound();
+    try {
+      return content.content().toString(UTF_8);
+    } finally {
+      content.release();
+    }
+  }
+
+  private static class RequestRecorder extends Http2FrameAdapter {
+    private final List<Integer> streamIds = new ArrayList<>();
+    private final List<Http2Headers> headers = new ArrayList<>();
+
+    @Override
+    public void onHeadersRead(ChannelHandlerContext ctx, int streamId, Http2Headers headers,
+        int streamDependency, short weight, boolean exclusive, int padding, boolean endOfStream) {
+      streamIds.add(streamId);
+      this.headers.add(headers);
+    }
+  }
+}
@@ -1,7 +1,11 @@
 package com.github.chhsiao90.nitmproxy.handler.protocol.http2;
 
+import static com.github.chhsiao90.nitmproxy.handler.protocol.http2.Http2FrameWrapper.frame;
+import static com.github.chhsiao90.nitmproxy.handler.protocol.http2.Http2FrameWrapper.isFrame;
 import static io.netty.buffer.ByteBufUtil.writeUtf8;
 import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyBoolean;
@@ -19,7 +23,10 @@ import com.github.chhsiao90.nitmproxy.Address;
 import com.github.chhsiao90.nitmproxy.ConnectionContext;
 import com.github.chhsiao90.nitmproxy.NitmProxyMaster;
 
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.junit.After;
 import org.junit.Before;
@@ -34,20 +41,27 @@ import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
 import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
 import io.netty.channel.ChannelPipeline;
+import io.netty.channel.ChannelPromise;
 import io.netty.channel.DefaultEventLoopGroup;
 import io.netty.channel.embedded.EmbeddedChannel;
 import io.netty.channel.local.LocalAddress;
 import io.netty.channel.local.LocalChannel;
 import io.netty.channel.local.LocalServerChannel;
-import io.netty.handler.codec.http2.DefaultHttp2DataFrame;
 import io.netty.handler.codec.http2.DefaultHttp2Headers;
 import io.netty.handler.codec.http2.DefaultHttp2HeadersFrame;
+import io.netty.handler.codec.http2.Http2ConnectionHandler;
 import io.netty.handler.codec.http2.Http2ConnectionHandlerBuilder;
 import io.netty.handler.codec.http2.Http2ConnectionPrefaceAndSettingsFrameWrittenEvent;
+import io.netty.handler.codec.http2.Http2Error;
+import io.netty.handler.codec.http2.Http2Frame;
 import io.netty.handler.codec.http2.Http2FrameListener;
+import io.netty.handler.codec.http2.Http2GoAwayFrame;
 import io.netty.handler.codec.http2.Http2Headers;
+import io.netty.handler.codec.http2.Http2PushPromiseFrame;
 import io.netty.util.AsciiString;
+import io.netty.util.ReferenceCountUtil;
 import io.netty.util.concurrent.Future;
 
 public class Http2BackendHandlerTest {
@@ -135,8 +149,8 @@ public class Http2BackendHandlerTest {
     Http2TestUtil.runInChannel(clientChannel, () -> {
       clientChannel.write(new Http2FrameWrapper<>(1, new DefaultHttp2HeadersFrame(
           headers, false)));
-      clientChannel.write(new Http2DataFrameWrapper(1, new DefaultHttp2DataFrame(
-          writeUtf8(ctx.alloc(), "Hello"), true)));
+      clientChannel.write(Http2DataFrameWrapper.newInstance(1,
+          writeUtf8(ctx.alloc(), "Hello"), 0, true));
       clientChannel.flush();
     });
 
@@ -163,12 +177,12 @@ public class Http2BackendHandlerTest {
     Http2TestUtil.runInChannel(clientChannel, () -> {
       clientChannel.write(new Http2FrameWrapper<>(3, new DefaultHttp2HeadersFrame(
           headers, false)));
-      clientChannel.write(new Http2DataFrameWrapper(3, new DefaultHttp2DataFrame(
-          writeUtf8(ctx.alloc(), "Hello"), true)));
+      clientChannel.write(Http2DataFrameWrapper.newInstance(3,
+          writeUtf8(ctx.alloc(), "Hello"), 0, true));
       clientChannel.write(new Http2FrameWrapper<>(5, new DefaultHttp2HeadersFrame(
           headers, false)));
-      clientChannel.write(new Http2DataFrameWrapper(5, new DefaultHttp2DataFrame(
-          writeUtf8(ctx.alloc(), "Hello"), true)));
+      clientChannel.write(Http2DataFrameWrapper.newInstance(5,
+          writeUtf8(ctx.alloc(), "Hello"), 0, true));
       clientChannel.flush();
     });
 
@@ -184,6 +198,108 @@ public class Http2BackendHandlerTest {
         eq(3), any(ByteBuf.class), eq(0), eq(true));
   }
 
+  @Test
+  public void shouldDropFramesOfUnknownStream() throws Exception {
+    bootstrapEnv();
+    ByteBuf content = writeUtf8(clientChannel.alloc(), "Hello");
+    AtomicReference<ChannelFuture> future = new AtomicReference<>();
+    CountDownLatch latch = new CountDownLatch(1);
+    Http2TestUtil.runInChannel(clientChannel, () -> {
+      future.set(clientChannel.writeAndFlush(
+          Http2DataFrameWrapper.newInstance(7, content, 0, true)));
+      latch.countDown();
+    });
+
+    assertTrue(latch.await(DEFAULT_AWAIT_TIMEOUT_SECONDS, SECONDS));
+    assertTrue(future.get().await(DEFAULT_AWAIT_TIMEOUT_SECONDS, SECONDS));
+    assertFalse(future.get().isSuccess());
+    assertEquals(0, content.refCnt());
+  }
+
+  @Test
+  public void shouldRelayPushPromise() throws Exception {
+    bootstrapEnv();
+    BlockingQueue<Object> frames = captureFrames(Http2PushPromiseFrame.class);
+    CountDownLatch latch = new CountDownLatch(1);
+    doAnswer(mock -> {
+      latch.countDown();
+      return null;
+    }).when(serverListener).onHeadersRead(any(), anyInt(), any(), anyInt(),
+        anyShort(), anyBoolean(), anyInt(), anyBoolean());
+
+    Http2TestUtil.runInChannel(clientChannel, () -> clientChannel.writeAndFlush(
+        new Http2FrameWrapper<>(3, new DefaultHttp2HeadersFrame(dummyHeaders(), true))));
+    assertTrue(latch.await(DEFAULT_AWAIT_TIMEOUT_SECONDS, SECONDS));
+
+    Http2ConnectionHandler http2Server =
+        serverConnectedChannel.pipeline().get(Http2ConnectionHandler.class);
+    ChannelHandlerContext serverCtx = serverConnectedChannel.pipeline().context(http2Server);
+    Http2TestUtil.runInChannel(serverConnectedChannel, () -> {
+      http2Server.encoder().writePushPromise(serverCtx, 1, 2, dummyHeaders(), 0,
+          serverCtx.newPromise());
+      http2Server.flush(serverCtx);
+    });
+
+    Object pushPromise = frames.poll(DEFAULT_AWAIT_TIMEOUT_SECONDS, SECONDS);
+    assertTrue(pushPromise instanceof Http2PushPromiseFrameWrapper);
+    assertEquals(3, ((Http2PushPromiseFrameWrapper) pushPromise).streamId());
+    assertEquals(2, ((Http2PushPromiseFrameWrapper) pushPromise).promisedStreamId());
+  }
+
+  @Test
+  public void shouldMapLastStreamIdOfGoAway() throws Exception {
+    bootstrapEnv();
+    BlockingQueue<Object> frames = captureFrames(Http2GoAwayFrame.class);
+    CountDownLatch latch = new CountDownLatch(2);
+    doAnswer(mock -> {
+      latch.countDown();
+      return null;
+    }).when(serverListener).onHeadersRead(any(), anyInt(), any(), anyInt(),
+        anyShort(), anyBoolean(), anyInt(), anyBoolean());
+
+    Http2TestUtil.runInChannel(clientChannel, () -> {
+      clientChannel.write(new Http2FrameWrapper<>(3, new DefaultHttp2HeadersFrame(
+          dummyHeaders(), false)));
+      clientChannel.write(new Http2FrameWrapper<>(5, new DefaultHttp2HeadersFrame(
+          dummyHeaders(), false)));
+      clientChannel.flush();
+    });
+    assertTrue(latch.await(DEFAULT_AWAIT_TIMEOUT_SECONDS, SECONDS));
+
+    Http2ConnectionHandler http2Server =
+        serverConnectedChannel.pipeline().get(Http2ConnectionHandler.class);
+    ChannelHandlerContext serverCtx = serverConnectedChannel.pipeline().context(http2Server);
+    Http2TestUtil.runInChannel(serverConnectedChannel, () -> {
+      http2Server.goAway(serverCtx, 1, Http2Error.NO_ERROR.code(),
+          serverCtx.alloc().buffer(0), serverCtx.newPromise());
+      http2Server.flush(serverCtx);
+    });
+
+    Object goAway = frames.poll(DEFAULT_AWAIT_TIMEOUT_SECONDS, SECONDS);
+    assertTrue(isFrame(goAway, Http2GoAwayFrame.class));
+    // Only the upstream stream 1 was processed, which is the stream 3 of the client
+    assertEquals(3, ((Http2FrameWrapper<?>) goAway).streamId());
+    assertEquals(Http2Error.NO_ERROR.code(), ((Http2GoAwayFrame) frame(goAway)).errorCode());
+    ReferenceCountUtil.release(goAway);
+  }
+
+  private BlockingQueue<Object> captureFrames(Class<? extends Http2Frame> frameClass) {
+    BlockingQueue<Object> frames = new LinkedBlockingQueue<>();
+    targetChannel.pipeline().addLast(new ChannelOutboundHandlerAdapter() {
+      @Override
+      public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise)
+          throws Exception {
+        if (isFrame(msg, frameClass)) {
+          frames.add(msg);
+          promise.setSuccess();
+        } else {
+          super.write(ctx, msg, promise);
+        }
+      }
+    });
+    return frames;
+  }
+
   private void bootstrapEnv() throws Exception {
     final CountDownLatch prefaceWrittenLatch = new CountDownLatch(1);
     sb = new ServerBootstrap();
@@ -236,9 +352,9 @@ public class Http2BackendHandlerTest {
 
     connectionContext
         .withClientAddr(new Address("localhost", 8080))
-        .withClientChannel(clientChannel)
+        .withClientChannel(targetChannel)
         .withServerAddr(new Address("localhost", 8080))
-        .withServerChannel(targetChannel);
+        .withServerChannel(clientChannel);
   }
 
   private static Http2Headers dummyHeaders() {
@@ -0,0 +1,133 @@
+package com.github.chhsiao90.nitmproxy.handler.protocol.http2;
+
+import static io.netty.buffer.ByteBufUtil.writeUtf8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.junit.Test;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.http2.Http2ConnectionEncoder;
+import io.netty.handler.codec.http2.Http2ConnectionHandler;
+import io.netty.handler.codec.http2.Http2DataFrame;
+import io.netty.handler.codec.http2.Http2FrameStream;
+
+public class Http2DataFrameWrapperTest {
+
+  @Test
+  public void shouldBeDataFrame() {
+    ByteBuf content = writeUtf8(ByteBufAllocator.DEFAULT, "Hello");
+    Http2DataFrameWrapper wrapper = Http2DataFrameWrapper.newInstance(3, content, 2, true);
+
+    assertTrue(Http2FrameWrapper.isFrame(wrapper, Http2DataFrame.class));
+    assertSame(wrapper, Http2FrameWrapper.frame(wrapper));
+    assertEquals(3, wrapper.streamId());
+    assertEquals(7, wrapper.initialFlowControlledBytes());
+    assertTrue(wrapper.isEndStream());
+
+    assertTrue(wrapper.release());
+    assertEquals(0, content.refCnt());
+  }
+
+  @Test
+  public void shouldReleaseContentWithWrapper() {
+    ByteBuf content = writeUtf8(ByteBufAllocator.DEFAULT, "Hello");
+    Http2DataFrameWrapper wrapper = Http2DataFrameWrapper.newInstance(1, content, 0, false);
+
+    wrapper.retain();
+    assertEquals(2, wrapper.refCnt());
+    assertEquals(2, content.refCnt());
+
+    assertFalse(wrapper.release());
+    assertEquals(1, content.refCnt());
+    assertTrue(wrapper.release());
+    assertEquals(0, content.refCnt());
+  }
+
+  @Test
+  public void shouldRecycleAfterReleased() {
+    Http2DataFrameWrapper wrapper = Http2DataFrameWrapper.newInstance(
+        1, writeUtf8(ByteBufAllocator.DEFAULT, "Hello"), 0, false);
+    wrapper.release();
+
+    Http2DataFrameWrapper recycled = Http2DataFrameWrapper.newInstance(
+        3, writeUtf8(ByteBufAllocator.DEFAULT, "World"), 0, true);
+    assertSame(wrapper, recycled);
+    assertEquals(3, recycled.streamId());
+    assertEquals(1, recycled.refCnt());
+    recycled.release();
+  }
+
+  @Test
+  public void shouldTransferContentToEncoderOnWrite() {
+    ByteBuf content = writeUtf8(ByteBufAllocator.DEFAULT, "Hello");
+    Http2DataFrameWrapper wrapper = Http2DataFrameWrapper.newInstance(1, content, 0, true);
+    Http2ConnectionEncoder encoder = mock(Http2ConnectionEncoder.class);
+    Http2ConnectionHandler handler = mock(Http2ConnectionHandler.class);
+    when(handler.encoder()).thenReturn(encoder);
+    ChannelHandlerContext ctx = mock(ChannelHandlerContext.class);
+    ChannelPromise promise = mock(ChannelPromise.class);
+
+    wrapper.write(ctx, handler, 5, promise);
+
+    verify(encoder).writeData(eq(ctx), eq(5), eq(content), eq(0), eq(true), any());
+    assertEquals(0, wrapper.refCnt());
+    assertEquals(1, content.refCnt());
+    content.release();
+  }
+
+  @Test
+  public void shouldNotLeakContentWhenWrittenWithMoreReferences() {
+    ByteBuf content = writeUtf8(ByteBufAllocator.DEFAULT, "Hello");
+    Http2DataFrameWrapper wrapper = Http2DataFrameWrapper.newInstance(1, content, 0, true);
+    Http2ConnectionEncoder encoder = mock(Http2ConnectionEncoder.class);
+    // The encoder releases the data once it's written
+    when(encoder.writeData(any(), anyInt(), any(), anyInt(), anyBoolean(), any())).then(
+        invocation -> {
+          ((ByteBuf) invocation.getArgument(2)).release();
+          return null;
+        });
+    Http2ConnectionHandler handler = mock(Http2ConnectionHandler.class);
+    when(handler.encoder()).thenReturn(encoder);
+
+    wrapper.retain();
+    wrapper.write(mock(ChannelHandlerContext.class), handler, 5, mock(ChannelPromise.class));
+    assertEquals(1, wrapper.refCnt());
+    assertEquals(1, content.refCnt());
+
+    assertTrue(wrapper.release());
+    assertEquals(0, content.refCnt());
+  }
+
+  @Test
+  public void shouldKeepStream() {
+    Http2FrameStream stream = mock(Http2FrameStream.class);
+    Http2DataFrameWrapper wrapper = Http2DataFrameWrapper.newInstance(
+        1, writeUtf8(ByteBufAllocator.DEFAULT, "Hello"), 0, false);
+
+    assertSame(wrapper, wrapper.stream(stream));
+    assertSame(stream, wrapper.stream());
+    Http2DataFrameWrapper copy = wrapper.copy();
+    assertSame(stream, copy.stream());
+
+    copy.release();
+    wrapper.release();
+    Http2DataFrameWrapper recycled = Http2DataFrameWrapper.newInstance(
+        1, writeUtf8(ByteBufAllocator.DEFAULT, "World"), 0, false);
+    assertNull(recycled.stream());
+    recycled.release();
+  }
+}
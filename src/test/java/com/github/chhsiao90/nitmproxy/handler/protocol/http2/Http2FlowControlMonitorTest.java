@@ -0,0 +1,116 @@
+package com.github.chhsiao90.nitmproxy.handler.protocol.http2;
+
+import static io.netty.handler.codec.http2.Http2CodecUtil.DEFAULT_WINDOW_SIZE;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.After;
+import org.junit.Test;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http2.DefaultHttp2Connection;
+import io.netty.handler.codec.http2.DefaultHttp2Headers;
+import io.netty.handler.codec.http2.Http2Connection;
+import io.netty.handler.codec.http2.Http2ConnectionHandler;
+import io.netty.handler.codec.http2.Http2ConnectionHandlerBuilder;
+import io.netty.handler.codec.http2.Http2FrameAdapter;
+import io.netty.handler.codec.http2.Http2Settings;
+
+public class Http2FlowControlMonitorTest {
+
+  private EmbeddedChannel client;
+  private EmbeddedChannel server;
+  private Http2ConnectionHandler http2Client;
+  private Http2ConnectionHandler http2Server;
+  private Http2FlowControlMonitor monitor;
+
+  @After
+  public void tearDown() {
+    client.finishAndReleaseAll();
+    server.finishAndReleaseAll();
+  }
+
+  @Test
+  public void shouldOpenConnectionWindow() {
+    connect(new Http2Settings().initialWindowSize(1024 * 1024));
+
+    Http2Connection connection = http2Client.connection();
+    assertEquals(1024 * 1024,
+        connection.remote().flowController().windowSize(connection.connectionStream()));
+  }
+
+  @Test
+  public void shouldNotOpenConnectionWindowByDefault() {
+    connect(new Http2Settings());
+
+    Http2Connection connection = http2Client.connection();
+    assertEquals(DEFAULT_WINDOW_SIZE,
+        connection.remote().flowController().windowSize(connection.connectionStream()));
+  }
+
+  @Test
+  public void shouldCountLocalWindowExhausted() {
+    connect(new Http2Settings());
+
+    ChannelHandlerContext ctx = client.pipeline().firstContext();
+    http2Client.encoder().writeHeaders(ctx, 1, new DefaultHttp2Headers(), 0, false,
+        ctx.newPromise());
+    http2Client.encoder().writeData(ctx, 1, Unpooled.wrappedBuffer(new byte[DEFAULT_WINDOW_SIZE]),
+        0, false, ctx.newPromise());
+    client.flush();
+    Http2TestUtil.exchange(client, server);
+
+    assertEquals(1, monitor.metrics().localWindowExhausted());
+    assertEquals(0, monitor.metrics().remoteWindowExhausted());
+  }
+
+  @Test
+  public void shouldCountRemoteWindowExhausted() {
+    connect(new Http2Settings());
+    long total = Http2FlowControlMetrics.total().remoteWindowExhausted();
+
+    ChannelHandlerContext ctx = client.pipeline().firstContext();
+    http2Client.encoder().writeHeaders(ctx, 1, new DefaultHttp2Headers(), 0, false,
+        ctx.newPromise());
+    client.flush();
+    Http2TestUtil.exchange(client, server);
+    ChannelHandlerContext serverCtx = server.pipeline().firstContext();
+    http2Server.encoder().writeData(serverCtx, 1,
+        Unpooled.wrappedBuffer(new byte[DEFAULT_WINDOW_SIZE + 1]), 0, false,
+        serverCtx.newPromise());
+    server.flush();
+
+    assertEquals(1, monitor.metrics().remoteWindowExhausted());
+    assertEquals(total + 1, Http2FlowControlMetrics.total().remoteWindowExhausted());
+  }
+
+  private void connect(Http2Settings settings) {
+    Http2SettingsProfile profile = new Http2SettingsProfile(settings);
+    Http2Connection connection = new DefaultHttp2Connection(true);
+    monitor = new Http2FlowControlMonitor(connection, profile, new Http2FrameAdapter() {
+      @Override
+      public int onDataRead(ChannelHandlerContext ctx, int streamId, ByteBuf data, int padding,
+          boolean endOfStream) {
+        // The bytes are kept, as if they were not yet written to the other side
+        return 0;
+      }
+    });
+    http2Server = new Http2ConnectionHandlerBuilder()
+        .connection(connection)
+        .frameListener(monitor)
+        .initialSettings(profile.initialSettings())
+        .build();
+    http2Client = new Http2ConnectionHandlerBuilder()
+        .server(false)
+        .frameListener(new Http2FrameAdapter())
+        .build();
+    server = new EmbeddedChannel(http2Server);
+    client = new EmbeddedChannel(http2Client);
+    // The prefaces are written on active, but not flushed
+    client.flush();
+    server.flush();
+    Http2TestUtil.exchange(client, server);
+  }
+}
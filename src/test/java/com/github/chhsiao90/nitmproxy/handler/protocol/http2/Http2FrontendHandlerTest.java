@@ -3,9 +3,12 @@ package com.github.chhsiao90.nitmproxy.handler.protocol.http2;
 import static com.github.chhsiao90.nitmproxy.handler.protocol.http2.Http2FrameWrapper.frame;
 import static com.github.chhsiao90.nitmproxy.handler.protocol.http2.Http2FrameWrapper.isFrame;
 import static io.netty.buffer.ByteBufUtil.writeUtf8;
+import static io.netty.handler.codec.http2.Http2CodecUtil.DEFAULT_WINDOW_SIZE;
 import static io.netty.util.ReferenceCountUtil.release;
 import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
@@ -16,7 +19,11 @@ import com.github.chhsiao90.nitmproxy.NitmProxyConfig;
 import com.github.chhsiao90.nitmproxy.NitmProxyMaster;
 import com.github.chhsiao90.nitmproxy.testing.EmbeddedChannelAssert;
 
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicReference;
 
 import org.junit.After;
@@ -39,13 +46,17 @@ import io.netty.channel.local.LocalAddress;
 import io.netty.channel.local.LocalChannel;
 import io.netty.channel.local.LocalServerChannel;
 import io.netty.handler.codec.http2.DefaultHttp2Headers;
+import io.netty.handler.codec.http2.Http2Connection;
 import io.netty.handler.codec.http2.Http2ConnectionHandler;
 import io.netty.handler.codec.http2.Http2ConnectionHandlerBuilder;
 import io.netty.handler.codec.http2.Http2ConnectionPrefaceAndSettingsFrameWrittenEvent;
 import io.netty.handler.codec.http2.Http2DataFrame;
+import io.netty.handler.codec.http2.Http2Frame;
 import io.netty.handler.codec.http2.Http2FrameAdapter;
 import io.netty.handler.codec.http2.Http2Headers;
 import io.netty.handler.codec.http2.Http2HeadersFrame;
+import io.netty.handler.codec.http2.Http2PingFrame;
+import io.netty.handler.codec.http2.Http2PriorityFrame;
 import io.netty.handler.codec.http2.Http2SettingsFrame;
 import io.netty.util.AsciiString;
 import io.netty.util.concurrent.Future;
@@ -103,11 +114,19 @@ public class Http2FrontendHandlerTest {
     bootstrapEnv();
     CountDownLatch latch = new CountDownLatch(1);
     targetChannel.pipeline().addLast(new ChannelOutboundHandlerAdapter() {
+      private boolean written;
+
       @Override
       public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise)
           throws Exception {
         super.write(ctx, msg, promise);
-        if (isFrame(msg, Http2HeadersFrame.class)) {
+        written |= isFrame(msg, Http2HeadersFrame.class);
+      }
+
+      @Override
+      public void flush(ChannelHandlerContext ctx) throws Exception {
+        super.flush(ctx);
+        if (written) {
           latch.countDown();
         }
       }
@@ -135,11 +154,19 @@ public class Http2FrontendHandlerTest {
     bootstrapEnv();
     CountDownLatch latch = new CountDownLatch(1);
     targetChannel.pipeline().addLast(new ChannelOutboundHandlerAdapter() {
+      private boolean written;
+
       @Override
       public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise)
           throws Exception {
         super.write(ctx, msg, promise);
-        if (isFrame(msg, Http2DataFrame.class)) {
+        written |= isFrame(msg, Http2DataFrame.class);
+      }
+
+      @Override
+      public void flush(ChannelHandlerContext ctx) throws Exception {
+        super.flush(ctx);
+        if (written) {
           latch.countDown();
         }
       }
@@ -170,6 +197,113 @@ public class Http2FrontendHandlerTest {
         });
   }
 
+  @Test
+  public void shouldReturnWindowAfterDataWritten() throws Exception {
+    bootstrapEnv();
+    int dataSize = 40000;
+    List<ChannelPromise> writes = new CopyOnWriteArrayList<>();
+    CountDownLatch latch = new CountDownLatch(1);
+    targetChannel.pipeline().addLast(new ChannelOutboundHandlerAdapter() {
+      private int written;
+
+      @Override
+      public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise)
+          throws Exception {
+        if (isFrame(msg, Http2DataFrame.class)) {
+          // Hold the write until the test completes it
+          written += ((Http2DataFrameWrapper) msg).content().readableBytes();
+          writes.add(promise);
+          release(msg);
+          if (written == dataSize) {
+            latch.countDown();
+          }
+        } else {
+          super.write(ctx, msg, promise);
+        }
+      }
+    });
+
+    ChannelHandlerContext ctx = clientChannel.pipeline().firstContext();
+    Http2TestUtil.runInChannel(clientChannel, () -> {
+      http2Client.encoder().writeHeaders(ctx, 1, dummyHeaders(), 0, false, ctx.newPromise());
+      http2Client.encoder().writeData(
+          ctx, 1, ctx.alloc().buffer().writeZero(dataSize), 0, false, ctx.newPromise());
+      http2Client.flush(ctx);
+    });
+
+    assertTrue(latch.await(DEFAULT_AWAIT_TIMEOUT_SECONDS, SECONDS));
+    assertEquals(DEFAULT_WINDOW_SIZE - dataSize, clientStreamWindow(1));
+
+    writes.forEach(ChannelPromise::trySuccess);
+
+    // The window is updated once half of it was consumed
+    long deadline = System.nanoTime() + SECONDS.toNanos(DEFAULT_AWAIT_TIMEOUT_SECONDS);
+    while (clientStreamWindow(1) == DEFAULT_WINDOW_SIZE - dataSize
+        && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    assertTrue(clientStreamWindow(1) > DEFAULT_WINDOW_SIZE / 2);
+  }
+
+  @Test
+  public void shouldRelayPing() throws Exception {
+    bootstrapEnv();
+    BlockingQueue<Object> frames = captureFrames(Http2PingFrame.class);
+
+    ChannelHandlerContext ctx = clientChannel.pipeline().firstContext();
+    Http2TestUtil.runInChannel(clientChannel, () -> {
+      http2Client.encoder().writePing(ctx, false, 42, ctx.newPromise());
+      http2Client.flush(ctx);
+    });
+
+    Object ping = frames.poll(DEFAULT_AWAIT_TIMEOUT_SECONDS, SECONDS);
+    assertTrue(isFrame(ping, Http2PingFrame.class));
+    assertEquals(42, ((Http2PingFrame) frame(ping)).content());
+    assertFalse(((Http2PingFrame) frame(ping)).ack());
+  }
+
+  @Test
+  public void shouldRelayPriorityOfHeaders() throws Exception {
+    bootstrapEnv();
+    BlockingQueue<Object> frames = captureFrames(Http2PriorityFrame.class);
+
+    ChannelHandlerContext ctx = clientChannel.pipeline().firstContext();
+    Http2TestUtil.runInChannel(clientChannel, () -> {
+      http2Client.encoder().writeHeaders(ctx, 1, dummyHeaders(), 0, (short) 32, false, 0, true,
+          ctx.newPromise());
+      http2Client.flush(ctx);
+    });
+
+    Object priority = frames.poll(DEFAULT_AWAIT_TIMEOUT_SECONDS, SECONDS);
+    assertTrue(isFrame(priority, Http2PriorityFrame.class));
+    assertEquals(1, ((Http2FrameWrapper<?>) priority).streamId());
+    assertEquals(32, ((Http2PriorityFrame) frame(priority)).weight());
+  }
+
+  private BlockingQueue<Object> captureFrames(Class<? extends Http2Frame> frameClass) {
+    BlockingQueue<Object> frames = new LinkedBlockingQueue<>();
+    targetChannel.pipeline().addLast(new ChannelOutboundHandlerAdapter() {
+      @Override
+      public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise)
+          throws Exception {
+        if (isFrame(msg, frameClass)) {
+          frames.add(msg);
+          promise.setSuccess();
+        } else {
+          super.write(ctx, msg, promise);
+        }
+      }
+    });
+    return frames;
+  }
+
+  private int clientStreamWindow(int streamId) throws Exception {
+    return clientChannel.eventLoop().submit(() -> {
+      Http2Connection connection = http2Client.connection();
+      return connection.remote().flowController().windowSize(connection.stream(streamId));
+    }).get();
+  }
+
   private void bootstrapEnv() throws Exception {
     final CountDownLatch prefaceWrittenLatch = new CountDownLatch(1);
     sb = new ServerBootstrap();
@@ -0,0 +1,96 @@
+package com.github.chhsiao90.nitmproxy.handler.protocol.http2;
+
+import static com.github.chhsiao90.nitmproxy.handler.protocol.http2.Http2FrameWrapper.frameWrapper;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.github.chhsiao90.nitmproxy.Address;
+import com.github.chhsiao90.nitmproxy.ConnectionContext;
+import com.github.chhsiao90.nitmproxy.NitmProxyConfig;
+import com.github.chhsiao90.nitmproxy.NitmProxyMaster;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import io.netty.handler.codec.http2.DefaultHttp2PingFrame;
+import io.netty.handler.codec.http2.DefaultHttp2SettingsFrame;
+import io.netty.handler.codec.http2.Http2PingFrame;
+import io.netty.handler.codec.http2.Http2Settings;
+import io.netty.handler.codec.http2.Http2SettingsFrame;
+
+public class Http2SettingsProfileTest {
+
+  private NitmProxyConfig config;
+  private ConnectionContext connectionContext;
+
+  @Before
+  public void setUp() {
+    config = new NitmProxyConfig();
+    NitmProxyMaster master = mock(NitmProxyMaster.class);
+    when(master.config()).thenReturn(config);
+    connectionContext = new ConnectionContext(master)
+        .withServerAddr(new Address("example.org", 443));
+  }
+
+  @Test
+  public void shouldUseDefaultSettings() {
+    Http2Settings settings = Http2SettingsProfile.client(connectionContext).initialSettings();
+
+    assertEquals(Http2Settings.defaultSettings(), settings);
+  }
+
+  @Test
+  public void shouldUseSettingsOfSide() {
+    config.setClientHttp2Settings(new Http2Settings().initialWindowSize(1024 * 1024));
+    config.setServerHttp2Settings(new Http2Settings().maxFrameSize(65536));
+
+    assertEquals(Integer.valueOf(1024 * 1024),
+        Http2SettingsProfile.client(connectionContext).initialSettings().initialWindowSize());
+    assertNull(
+        Http2SettingsProfile.server(connectionContext).initialSettings().initialWindowSize());
+    assertEquals(Integer.valueOf(65536),
+        Http2SettingsProfile.server(connectionContext).initialSettings().maxFrameSize());
+  }
+
+  @Test
+  public void shouldOverrideSettingsByHost() {
+    config.setServerHttp2Settings(
+        new Http2Settings().initialWindowSize(1024 * 1024).maxConcurrentStreams(100));
+    config.getServerHttp2SettingsByHost().put("example.org",
+        new Http2Settings().initialWindowSize(8 * 1024 * 1024));
+    config.getServerHttp2SettingsByHost().put("localhost",
+        new Http2Settings().initialWindowSize(16 * 1024));
+
+    Http2Settings settings = Http2SettingsProfile.server(connectionContext).initialSettings();
+    assertEquals(Integer.valueOf(8 * 1024 * 1024), settings.initialWindowSize());
+    assertEquals(Long.valueOf(100), settings.maxConcurrentStreams());
+  }
+
+  @Test
+  public void shouldNotRelayConfiguredSettings() {
+    config.setClientHttp2Settings(new Http2Settings().initialWindowSize(1024 * 1024));
+    Http2SettingsProfile profile = Http2SettingsProfile.client(connectionContext);
+
+    Http2Settings relayed = profile.relayed(
+        new Http2Settings().initialWindowSize(65535).maxConcurrentStreams(100));
+    assertNull(relayed.initialWindowSize());
+    assertEquals(Long.valueOf(100), relayed.maxConcurrentStreams());
+  }
+
+  @Test
+  public void shouldRelaySettingsFrame() {
+    config.setClientHttp2Settings(new Http2Settings().maxConcurrentStreams(1000));
+    Http2SettingsProfile profile = Http2SettingsProfile.client(connectionContext);
+
+    Http2FrameWrapper<?> settingsFrame = profile.relayed(frameWrapper(0,
+        new DefaultHttp2SettingsFrame(new Http2Settings().maxConcurrentStreams(100))));
+    assertTrue(settingsFrame.frame(Http2SettingsFrame.class).settings().isEmpty());
+
+    Http2FrameWrapper<Http2PingFrame> ping = frameWrapper(0, new DefaultHttp2PingFrame(1));
+    assertSame(ping, profile.relayed(ping));
+  }
+}
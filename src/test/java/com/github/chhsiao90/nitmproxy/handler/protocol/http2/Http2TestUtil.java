@@ -1,6 +1,7 @@
 package com.github.chhsiao90.nitmproxy.handler.protocol.http2;
 
 import io.netty.channel.Channel;
+import io.netty.channel.embedded.EmbeddedChannel;
 import io.netty.handler.codec.http2.Http2Exception;
 
 public class Http2TestUtil {
@@ -27,4 +28,24 @@ public class Http2TestUtil {
       }
     });
   }
+
+  /**
+   * Exchanges the bytes written by two connected {@link EmbeddedChannel}s, until both of them have
+   * nothing more to write.
+   */
+  static void exchange(EmbeddedChannel left, EmbeddedChannel right) {
+    while (transfer(left, right) | transfer(right, left)) {
+      // Continue until both sides are quiet
+    }
+  }
+
+  private static boolean transfer(EmbeddedChannel from, EmbeddedChannel to) {
+    boolean transferred = false;
+    Object msg;
+    while ((msg = from.readOutbound()) != null) {
+      to.writeInbound(msg);
+      transferred = true;
+    }
+    return transferred;
+  }
 }
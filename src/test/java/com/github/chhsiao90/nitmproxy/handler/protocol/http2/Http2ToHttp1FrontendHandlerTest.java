@@ -0,0 +1,397 @@
+package com.github.chhsiao90.nitmproxy.handler.protocol.http2;
+
+import static io.netty.buffer.ByteBufUtil.writeUtf8;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.github.chhsiao90.nitmproxy.Address;
+import com.github.chhsiao90.nitmproxy.ConnectionContext;
+import com.github.chhsiao90.nitmproxy.NitmProxyConfig;
+import com.github.chhsiao90.nitmproxy.NitmProxyMaster;
+import com.github.chhsiao90.nitmproxy.event.Http2UpgradeEvent;
+import com.github.chhsiao90.nitmproxy.event.OutboundChannelClosedEvent;
+
+import java.net.ConnectException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.DefaultChannelPromise;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.DefaultHttpContent;
+import io.netty.handler.codec.http.DefaultHttpResponse;
+import io.netty.handler.codec.http.DefaultLastHttpContent;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http2.DefaultHttp2Headers;
+import io.netty.handler.codec.http2.Http2CodecUtil;
+import io.netty.handler.codec.http2.Http2ConnectionHandler;
+import io.netty.handler.codec.http2.Http2ConnectionHandlerBuilder;
+import io.netty.handler.codec.http2.Http2Error;
+import io.netty.handler.codec.http2.Http2FrameAdapter;
+import io.netty.handler.codec.http2.Http2Headers;
+import io.netty.handler.codec.http2.Http2Settings;
+import io.netty.handler.codec.http2.HttpConversionUtil.ExtensionHeaderNames;
+import io.netty.util.AsciiString;
+
+public class Http2ToHttp1FrontendHandlerTest {
+
+  private NitmProxyMaster master;
+  private NitmProxyConfig config;
+  private ConnectionContext connectionContext;
+
+  private EmbeddedChannel client;
+  private Http2ConnectionHandler http2Client;
+  private ResponseRecorder responses;
+  private EmbeddedChannel frontend;
+  private List<EmbeddedChannel> servers;
+
+  @Before
+  public void setUp() {
+    config = new NitmProxyConfig();
+    master = mock(NitmProxyMaster.class);
+    when(master.config()).thenReturn(config);
+    servers = new ArrayList<>();
+    when(master.connect(any(), any(), any())).thenAnswer(invocation -> {
+      EmbeddedChannel server = new EmbeddedChannel();
+      servers.add(server);
+      return server.newSucceededFuture();
+    });
+    connectionContext = new ConnectionContext(master);
+
+    EmbeddedChannel server = new EmbeddedChannel();
+    servers.add(server);
+    responses = new ResponseRecorder();
+    http2Client = new Http2ConnectionHandlerBuilder()
+        .server(false)
+        .frameListener(responses)
+        .build();
+    client = new EmbeddedChannel(http2Client);
+    frontend = new EmbeddedChannel();
+    connectionContext
+        .withClientAddr(new Address("localhost", 8080))
+        .withClientChannel(frontend)
+        .withServerAddr(new Address("localhost", 8080))
+        .withServerChannel(server);
+    frontend.pipeline().addLast(new Http2ToHttp1FrontendHandler(master, connectionContext));
+    Http2TestUtil.exchange(client, frontend);
+  }
+
+  @After
+  public void tearDown() {
+    client.finishAndReleaseAll();
+    frontend.finishAndReleaseAll();
+    servers.forEach(EmbeddedChannel::finishAndReleaseAll);
+  }
+
+  @Test
+  public void shouldTranslateStreamToRequest() {
+    sendRequest(1, "/hello");
+
+    FullHttpRequest request = servers.get(0).readOutbound();
+    assertEquals("/hello", request.uri());
+    assertEquals(HttpVersion.HTTP_1_1, request.protocolVersion());
+    assertEquals("example.org", request.headers().get(HttpHeaderNames.HOST));
+    assertEquals("0", request.headers().get(HttpHeaderNames.CONTENT_LENGTH));
+    assertFalse(request.headers().contains(ExtensionHeaderNames.STREAM_ID.text()));
+    assertFalse(request.headers().contains(ExtensionHeaderNames.SCHEME.text()));
+    request.release();
+  }
+
+  @Test
+  public void shouldDispatchConcurrentStreamsToNewConnections() {
+    sendRequest(1, "/first");
+    sendRequest(3, "/second");
+
+    assertEquals(2, servers.size());
+    FullHttpRequest first = servers.get(0).readOutbound();
+    FullHttpRequest second = servers.get(1).readOutbound();
+    assertEquals("/first", first.uri());
+    assertEquals("/second", second.uri());
+    first.release();
+    second.release();
+
+    // The second server responds first
+    sendResponse(servers.get(1), "World");
+    sendResponse(servers.get(0), "Hello");
+
+    assertEquals("200", responses.headers.get(1).status().toString());
+    assertEquals("Hello", responses.data.get(1));
+    assertEquals("200", responses.headers.get(3).status().toString());
+    assertEquals("World", responses.data.get(3));
+    assertThat(responses.ended).containsExactly(3, 1);
+  }
+
+  @Test
+  public void shouldReuseIdleConnection() {
+    sendRequest(1, "/first");
+    ((FullHttpRequest) servers.get(0).readOutbound()).release();
+    sendResponse(servers.get(0), "Hello");
+
+    sendRequest(3, "/second");
+
+    assertEquals(1, servers.size());
+    FullHttpRequest request = servers.get(0).readOutbound();
+    assertEquals("/second", request.uri());
+    request.release();
+  }
+
+  @Test
+  public void shouldQueueStreamsWhenPoolIsFull() {
+    config.setMaxServerConnectionsPerClient(1);
+    sendRequest(1, "/first");
+    sendRequest(3, "/second");
+
+    assertEquals(1, servers.size());
+    ((FullHttpRequest) servers.get(0).readOutbound()).release();
+    ((FullHttpRequest) servers.get(0).readOutbound()).release();
+
+    sendResponse(servers.get(0), "Hello");
+    sendResponse(servers.get(0), "World");
+
+    assertEquals("Hello", responses.data.get(1));
+    assertEquals("World", responses.data.get(3));
+    assertThat(responses.ended).containsExactly(1, 3);
+  }
+
+  @Test
+  public void shouldResetStreamsOfClosedConnection() {
+    config.setMaxServerConnectionsPerClient(1);
+    sendRequest(1, "/first");
+    sendRequest(3, "/second");
+
+    servers.get(0).close();
+    frontend.pipeline().fireUserEventTriggered(
+        new OutboundChannelClosedEvent(connectionContext, false));
+    Http2TestUtil.exchange(client, frontend);
+
+    assertEquals(Long.valueOf(Http2Error.INTERNAL_ERROR.code()), responses.resets.get(1));
+    assertEquals(Long.valueOf(Http2Error.REFUSED_STREAM.code()), responses.resets.get(3));
+  }
+
+  @Test
+  public void shouldRefuseStreamsOfFailedConnect() {
+    List<ChannelPromise> connects = new ArrayList<>();
+    doAnswer(invocation -> {
+      EmbeddedChannel server = new EmbeddedChannel();
+      servers.add(server);
+      ChannelPromise promise = server.newPromise();
+      connects.add(promise);
+      return promise;
+    }).when(master).connect(any(), any(), any());
+    sendRequest(1, "/first");
+    sendRequest(3, "/second");
+    assertEquals(1, connects.size());
+
+    connects.get(0).setFailure(new ConnectException("Connection refused"));
+    Http2TestUtil.exchange(client, frontend);
+
+    assertEquals(Long.valueOf(Http2Error.REFUSED_STREAM.code()), responses.resets.get(3));
+    assertFalse(responses.resets.containsKey(1));
+    ((FullHttpRequest) servers.get(0).readOutbound()).release();
+  }
+
+  @Test
+  public void shouldRouteResponsesOfChannelConnectedInPlace() {
+    EmbeddedChannel winner = new EmbeddedChannel();
+    List<ChannelPromise> connects = new ArrayList<>();
+    doAnswer(invocation -> {
+      EmbeddedChannel server = new EmbeddedChannel();
+      servers.add(server);
+      // Another address won the connect race, the future reports its channel
+      ChannelPromise promise = new DefaultChannelPromise(server) {
+        @Override
+        public Channel channel() {
+          return isSuccess() ? winner : super.channel();
+        }
+      };
+      connects.add(promise);
+      return promise;
+    }).when(master).connect(any(), any(), any());
+    sendRequest(1, "/first");
+    sendRequest(3, "/second");
+    assertEquals(1, connects.size());
+    ((FullHttpRequest) servers.get(0).readOutbound()).release();
+    ((FullHttpRequest) servers.get(1).readOutbound()).release();
+    servers.add(winner);
+
+    connects.get(0).setSuccess();
+    sendResponse(winner, "Hello");
+
+    assertEquals("Hello", responses.data.get(3));
+    assertThat(responses.ended).containsExactly(3);
+  }
+
+  @Test
+  public void shouldRefuseStreamRefusedByCircuit() {
+    doAnswer(invocation -> {
+      // An open circuit fails the connect before it's returned
+      EmbeddedChannel server = new EmbeddedChannel();
+      servers.add(server);
+      server.close();
+      return server.newFailedFuture(new ConnectException("Circuit open"));
+    }).when(master).connect(any(), any(), any());
+    sendRequest(1, "/first");
+    sendRequest(3, "/second");
+
+    assertEquals(Long.valueOf(Http2Error.REFUSED_STREAM.code()), responses.resets.get(3));
+    ((FullHttpRequest) servers.get(0).readOutbound()).release();
+
+    // The next stream connects again
+    sendRequest(5, "/third");
+    assertEquals(Long.valueOf(Http2Error.REFUSED_STREAM.code()), responses.resets.get(5));
+    assertEquals(3, servers.size());
+  }
+
+  @Test
+  public void shouldPauseServerWhileStreamNotWritable() throws Exception {
+    ChannelHandlerContext clientCtx = client.pipeline().firstContext();
+    http2Client.encoder().writeSettings(clientCtx, new Http2Settings().initialWindowSize(4),
+        clientCtx.newPromise());
+    client.flush();
+    responses.consume = false;
+    sendRequest(1, "/hello");
+    EmbeddedChannel server = servers.get(0);
+    ((FullHttpRequest) server.readOutbound()).release();
+
+    HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+    HttpUtil.setTransferEncodingChunked(response, true);
+    connectionContext.responseSequencer().write(server, response);
+    connectionContext.responseSequencer().write(server,
+        new DefaultHttpContent(writeUtf8(ByteBufAllocator.DEFAULT, "Hello")));
+    Http2TestUtil.exchange(client, frontend);
+
+    assertEquals("Hell", responses.data.get(1));
+    assertFalse(server.config().isAutoRead());
+
+    // The client takes the data and opens the window
+    http2Client.connection().local().flowController().consumeBytes(
+        http2Client.connection().stream(1), 4);
+    client.flush();
+    Http2TestUtil.exchange(client, frontend);
+
+    assertEquals("Hello", responses.data.get(1));
+    assertTrue(server.config().isAutoRead());
+  }
+
+  @Test
+  public void shouldAnswerUpgradeRequestOnFirstStream() throws Exception {
+    // Start over with a client which is not yet connected in HTTP/2
+    client.finishAndReleaseAll();
+    frontend.finishAndReleaseAll();
+    EmbeddedChannel server = new EmbeddedChannel();
+    servers.add(server);
+    responses = new ResponseRecorder();
+    http2Client = new Http2ConnectionHandlerBuilder()
+        .server(false)
+        .frameListener(responses)
+        .build();
+    client = new EmbeddedChannel(http2Client);
+    frontend = new EmbeddedChannel();
+    connectionContext.withClientChannel(frontend).withServerChannel(server);
+    frontend.pipeline().addLast(
+        new Http2ToHttp1FrontendHandler(master, connectionContext));
+
+    // The upgrade request was sent in HTTP/1.1, before the connection prefaces
+    http2Client.onHttpClientUpgrade();
+    FullHttpRequest upgrade =
+        new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/hello");
+    upgrade.headers()
+        .set(HttpHeaderNames.HOST, "example.org")
+        .set(HttpHeaderNames.CONNECTION, "Upgrade, HTTP2-Settings")
+        .set(HttpHeaderNames.UPGRADE, "h2c")
+        .set(Http2CodecUtil.HTTP_UPGRADE_SETTINGS_HEADER, "");
+    frontend.pipeline().fireUserEventTriggered(
+        new Http2UpgradeEvent(upgrade, new Http2Settings()));
+    Http2TestUtil.exchange(client, frontend);
+
+    FullHttpRequest request = server.readOutbound();
+    assertEquals("/hello", request.uri());
+    assertFalse(request.headers().contains(HttpHeaderNames.UPGRADE));
+    assertFalse(request.headers().contains(Http2CodecUtil.HTTP_UPGRADE_SETTINGS_HEADER));
+    assertEquals("0", request.headers().get(HttpHeaderNames.CONTENT_LENGTH));
+    request.release();
+
+    sendResponse(server, "Hello");
+    assertEquals("200", responses.headers.get(1).status().toString());
+    assertEquals("Hello", responses.data.get(1));
+    assertThat(responses.ended).containsExactly(1);
+  }
+
+  private void sendRequest(int streamId, String path) {
+    Http2Headers headers = new DefaultHttp2Headers(false)
+        .method(new AsciiString("GET"))
+        .scheme(new AsciiString("https"))
+        .authority(new AsciiString("example.org"))
+        .path(new AsciiString(path));
+    ChannelHandlerContext ctx = client.pipeline().firstContext();
+    http2Client.encoder().writeHeaders(ctx, streamId, headers, 0, true, ctx.newPromise());
+    client.flush();
+    Http2TestUtil.exchange(client, frontend);
+  }
+
+  private void sendResponse(EmbeddedChannel server, String content) {
+    HttpResponse response =
+        new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+    response.headers().setInt(HttpHeaderNames.CONTENT_LENGTH, content.length());
+    connectionContext.responseSequencer().write(server, response);
+    connectionContext.responseSequencer().write(server,
+        new DefaultLastHttpContent(writeUtf8(ByteBufAllocator.DEFAULT, content)));
+    Http2TestUtil.exchange(client, frontend);
+  }
+
+  private static class ResponseRecorder extends Http2FrameAdapter {
+    private final Map<Integer, Http2Headers> headers = new HashMap<>();
+    private final Map<Integer, String> data = new HashMap<>();
+    private final Map<Integer, Long> resets = new HashMap<>();
+    private final List<Integer> ended = new ArrayList<>();
+    private boolean consume = true;
+
+    @Override
+    public void onHeadersRead(ChannelHandlerContext ctx, int streamId, Http2Headers headers,
+        int streamDependency, short weight, boolean exclusive, int padding, boolean endOfStream) {
+      this.headers.put(streamId, headers);
+      if (endOfStream) {
+        ended.add(streamId);
+      }
+    }
+
+    @Override
+    public int onDataRead(ChannelHandlerContext ctx, int streamId, ByteBuf data, int padding,
+        boolean endOfStream) {
+      this.data.merge(streamId, data.toString(UTF_8), String::concat);
+      if (endOfStream) {
+        ended.add(streamId);
+      }
+      return consume ? data.readableBytes() + padding : 0;
+    }
+
+    @Override
+    public void onRstStreamRead(ChannelHandlerContext ctx, int streamId, long errorCode) {
+      resets.put(streamId, errorCode);
+    }
+  }
+}
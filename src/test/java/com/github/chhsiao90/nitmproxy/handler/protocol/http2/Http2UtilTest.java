@@ -0,0 +1,47 @@
+package com.github.chhsiao90.nitmproxy.handler.protocol.http2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import org.junit.Test;
+
+import io.netty.handler.codec.http2.Http2Exception;
+import io.netty.handler.codec.http2.Http2Settings;
+
+public class Http2UtilTest {
+
+  @Test
+  public void shouldParseSettings() {
+    Http2Settings settings = Http2Util.parseSettings(
+        "initialWindowSize=1048576, maxFrameSize=65536,maxConcurrentStreams=200,pushEnabled=0");
+
+    assertEquals(Integer.valueOf(1048576), settings.initialWindowSize());
+    assertEquals(Integer.valueOf(65536), settings.maxFrameSize());
+    assertEquals(Long.valueOf(200), settings.maxConcurrentStreams());
+    assertFalse(settings.pushEnabled());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldRejectUnknownSetting() {
+    Http2Util.parseSettings("windowSize=1048576");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldRejectIllegalSetting() {
+    Http2Util.parseSettings("maxFrameSize=1024");
+  }
+
+  @Test
+  public void shouldDecodeSettingsHeader() throws Exception {
+    // SETTINGS_MAX_CONCURRENT_STREAMS = 100, SETTINGS_INITIAL_WINDOW_SIZE = 65535
+    Http2Settings settings = Http2Util.decodeSettingsHeader("AAMAAABkAAQAAP__");
+
+    assertEquals(Long.valueOf(100), settings.maxConcurrentStreams());
+    assertEquals(Integer.valueOf(65535), settings.initialWindowSize());
+  }
+
+  @Test(expected = Http2Exception.class)
+  public void shouldRejectTruncatedSettingsHeader() throws Exception {
+    Http2Util.decodeSettingsHeader("AAMAAABkAAQ");
+  }
+}
@@ -0,0 +1,75 @@
+package com.github.chhsiao90.nitmproxy.handler.protocol.http2;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+public class RelayFlusherTest {
+
+  private EmbeddedChannel channel;
+  private AtomicInteger flushes;
+
+  @Before
+  public void setUp() {
+    flushes = new AtomicInteger();
+    channel = new EmbeddedChannel(new ChannelOutboundHandlerAdapter() {
+      @Override
+      public void flush(ChannelHandlerContext ctx) throws Exception {
+        flushes.incrementAndGet();
+        super.flush(ctx);
+      }
+    });
+  }
+
+  @After
+  public void tearDown() {
+    channel.finishAndReleaseAll();
+  }
+
+  @Test
+  public void shouldFlushOnceForFramesOfRead() {
+    RelayFlusher flusher = new RelayFlusher(64 * 1024);
+    flusher.write(channel, "frame1", 1000);
+    flusher.write(channel, "frame2", 1000);
+    flusher.write(channel, "frame3", 1000);
+
+    assertEquals(0, flushes.get());
+    assertEquals(0, channel.outboundMessages().size());
+
+    flusher.flush(channel);
+
+    assertEquals(1, flushes.get());
+    assertEquals(3, channel.outboundMessages().size());
+  }
+
+  @Test
+  public void shouldNotFlushWithoutWrites() {
+    RelayFlusher flusher = new RelayFlusher(64 * 1024);
+    flusher.flush(channel);
+
+    assertEquals(0, flushes.get());
+  }
+
+  @Test
+  public void shouldFlushWhenExceedMaxBytes() {
+    RelayFlusher flusher = new RelayFlusher(16 * 1024);
+    flusher.write(channel, "frame1", 10 * 1024);
+    assertEquals(0, flushes.get());
+
+    flusher.write(channel, "frame2", 10 * 1024);
+    assertEquals(1, flushes.get());
+    assertEquals(2, channel.outboundMessages().size());
+
+    flusher.write(channel, "frame3", 1000);
+    flusher.flush(channel);
+    assertEquals(2, flushes.get());
+  }
+}
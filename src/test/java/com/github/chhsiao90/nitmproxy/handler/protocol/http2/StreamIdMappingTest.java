@@ -0,0 +1,82 @@
+package com.github.chhsiao90.nitmproxy.handler.protocol.http2;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class StreamIdMappingTest {
+
+  @Test
+  public void shouldMapBothDirections() {
+    StreamIdMapping streams = new StreamIdMapping();
+    streams.put(3, 1);
+    streams.put(5, 3);
+
+    assertEquals(1, streams.upstream(3));
+    assertEquals(3, streams.upstream(5));
+    assertEquals(3, streams.origin(1));
+    assertEquals(5, streams.origin(3));
+    assertEquals(0, streams.upstream(7));
+    assertEquals(0, streams.origin(5));
+  }
+
+  @Test
+  public void shouldRemoveBothDirections() {
+    StreamIdMapping streams = new StreamIdMapping();
+    streams.put(3, 1);
+    streams.put(5, 3);
+
+    streams.removeUpstream(1);
+
+    assertEquals(0, streams.upstream(3));
+    assertEquals(0, streams.origin(1));
+    assertEquals(3, streams.upstream(5));
+    assertEquals(5, streams.origin(3));
+    assertEquals(1, streams.size());
+  }
+
+  @Test
+  public void shouldGetLastMappedStream() {
+    StreamIdMapping streams = new StreamIdMapping();
+    streams.put(3, 1);
+    streams.put(5, 3);
+    streams.put(9, 5);
+    streams.put(2, 4);
+
+    assertEquals(5, streams.lastOrigin(3));
+    assertEquals(0, streams.lastOrigin(0));
+    assertEquals(9, streams.lastOrigin(99));
+    assertEquals(2, streams.lastOrigin(4));
+    assertEquals(3, streams.lastUpstream(7));
+    assertEquals(4, streams.lastUpstream(2));
+  }
+
+  @Test
+  public void shouldKeepMappingsThroughResizeAndRemoval() {
+    StreamIdMapping streams = new StreamIdMapping();
+    for (int i = 1; i < 20000; i += 2) {
+      streams.put(i, i + 10000);
+    }
+    for (int i = 1; i < 20000; i += 4) {
+      streams.removeUpstream(i + 10000);
+    }
+
+    assertEquals(5000, streams.size());
+    for (int i = 1; i < 20000; i += 2) {
+      int expected = (i % 4 == 1) ? 0 : i + 10000;
+      assertEquals(expected, streams.upstream(i));
+      assertEquals(expected == 0 ? 0 : i, streams.origin(i + 10000));
+    }
+  }
+
+  @Test
+  public void shouldStayEmptyAfterStreamsClosed() {
+    StreamIdMapping streams = new StreamIdMapping();
+    for (int i = 1; i < 100000; i += 2) {
+      streams.put(i, i);
+      streams.removeUpstream(i);
+    }
+
+    assertEquals(0, streams.size());
+  }
+}
@@ -0,0 +1,69 @@
+package com.github.chhsiao90.nitmproxy.handler.protocol.tls;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+public class AbstractAlpnHandlerTest {
+
+  @Test
+  public void shouldExtractProtocols() {
+    ByteBuf clientHello = clientHello(alpnExtension("h2", "http/1.1"));
+    assertEquals(asList("h2", "http/1.1"), AbstractAlpnHandler.extractAlpnProtocols(clientHello));
+    clientHello.release();
+  }
+
+  @Test
+  public void shouldExtractSingleProtocol() {
+    ByteBuf clientHello = clientHello(alpnExtension("h2"));
+    assertEquals(singletonList("h2"), AbstractAlpnHandler.extractAlpnProtocols(clientHello));
+    clientHello.release();
+  }
+
+  @Test
+  public void shouldReturnNullWithoutAlpn() {
+    ByteBuf clientHello = clientHello(Unpooled.EMPTY_BUFFER);
+    assertNull(AbstractAlpnHandler.extractAlpnProtocols(clientHello));
+    clientHello.release();
+  }
+
+  private static ByteBuf alpnExtension(String... protocols) {
+    ByteBuf names = Unpooled.buffer();
+    for (String protocol : protocols) {
+      names.writeByte(protocol.length()).writeCharSequence(protocol, US_ASCII);
+    }
+    ByteBuf extension = Unpooled.buffer()
+        .writeShort(16)
+        .writeShort(names.readableBytes() + 2)
+        .writeShort(names.readableBytes())
+        .writeBytes(names);
+    names.release();
+    return extension;
+  }
+
+  private static ByteBuf clientHello(ByteBuf extensions) {
+    ByteBuf clientHello = Unpooled.buffer()
+        // client_version and random
+        .writeShort(0x0303)
+        .writeZero(32)
+        // session_id
+        .writeByte(0)
+        // cipher_suites
+        .writeShort(2)
+        .writeShort(0x1301)
+        // compression_methods
+        .writeByte(1)
+        .writeByte(0)
+        .writeShort(extensions.readableBytes())
+        .writeBytes(extensions);
+    extensions.release();
+    return clientHello;
+  }
+}
@@ -0,0 +1,136 @@
+package com.github.chhsiao90.nitmproxy.handler.protocol.tls;
+
+import static io.netty.handler.codec.http2.Http2CodecUtil.connectionPrefaceBuf;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.github.chhsiao90.nitmproxy.Address;
+import com.github.chhsiao90.nitmproxy.ConnectionContext;
+import com.github.chhsiao90.nitmproxy.HandlerProvider;
+import com.github.chhsiao90.nitmproxy.HttpObjectUtil;
+import com.github.chhsiao90.nitmproxy.NitmProxyConfig;
+import com.github.chhsiao90.nitmproxy.NitmProxyMaster;
+
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.ssl.ApplicationProtocolNames;
+
+public class TlsFrontendHandlerTest {
+
+  private NitmProxyConfig config;
+  private ConnectionContext connectionContext;
+  private EmbeddedChannel channel;
+
+  @Before
+  public void setUp() {
+    config = new NitmProxyConfig();
+    NitmProxyMaster master = mock(NitmProxyMaster.class);
+    HandlerProvider provider = mock(HandlerProvider.class);
+    when(master.config()).thenReturn(config);
+    when(master.provider()).thenReturn(provider);
+    when(provider.http1FrontendHandler(any(), any())).thenReturn(new Http1Marker());
+    when(provider.http2FrontendHandler(any(), any())).thenReturn(new Http2Marker());
+    when(provider.http2ToHttp1FrontendHandler(any(), any())).thenReturn(new Http2ToHttp1Marker());
+
+    channel = new EmbeddedChannel();
+    connectionContext = new ConnectionContext(master)
+        .withClientAddr(new Address("localhost", 8080))
+        .withClientChannel(channel)
+        .withServerAddr(new Address("localhost", 8080))
+        .withServerChannel(new EmbeddedChannel());
+    connectionContext.tlsCtx()
+        .protocols(channel.eventLoop().<List<String>>newPromise())
+        .protocol(channel.eventLoop().<String>newPromise());
+    channel.pipeline().addLast(new TlsFrontendHandler(master, connectionContext));
+  }
+
+  @After
+  public void tearDown() {
+    channel.finishAndReleaseAll();
+  }
+
+  @Test
+  public void shouldDetectHttp1InCleartext() {
+    channel.writeInbound(HttpObjectUtil.requestBytes());
+
+    assertNotNull(channel.pipeline().get(Http1Marker.class));
+    assertNull(channel.pipeline().get(TlsFrontendHandler.class));
+    assertFalse(connectionContext.tlsCtx().isEnabled());
+    assertEquals(ApplicationProtocolNames.HTTP_1_1, connectionContext.tlsCtx().protocol());
+
+    // The detected bytes are passed on
+    ByteBuf request = channel.readInbound();
+    assertEquals(HttpObjectUtil.requestBytes().toString(UTF_8), request.toString(UTF_8));
+    request.release();
+  }
+
+  @Test
+  public void shouldDetectHttp2PriorKnowledge() {
+    channel.writeInbound(connectionPrefaceBuf());
+
+    assertNotNull(channel.pipeline().get(Http2Marker.class));
+    assertFalse(connectionContext.tlsCtx().isEnabled());
+    assertEquals(ApplicationProtocolNames.HTTP_2, connectionContext.tlsCtx().protocol());
+    assertEquals(ApplicationProtocolNames.HTTP_2, connectionContext.tlsCtx().protocols().get(0));
+
+    ByteBuf preface = channel.readInbound();
+    assertEquals(connectionPrefaceBuf(), preface);
+    preface.release();
+  }
+
+  @Test
+  public void shouldWaitForTheRestOfThePreface() {
+    ByteBuf preface = connectionPrefaceBuf();
+    channel.writeInbound(preface.readRetainedSlice(10));
+
+    assertNull(channel.pipeline().get(Http2Marker.class));
+    assertNull(channel.pipeline().get(Http1Marker.class));
+    assertNull(channel.readInbound());
+
+    channel.writeInbound(preface);
+
+    assertNotNull(channel.pipeline().get(Http2Marker.class));
+    ByteBuf received = channel.readInbound();
+    assertEquals(connectionPrefaceBuf(), received);
+    received.release();
+  }
+
+  @Test
+  public void shouldTranslateHttp2PriorKnowledgeWhenServerHttp2Disabled() {
+    config.setServerHttp2(false);
+    channel.writeInbound(connectionPrefaceBuf());
+
+    assertNotNull(channel.pipeline().get(Http2ToHttp1Marker.class));
+    assertEquals(ApplicationProtocolNames.HTTP_1_1, connectionContext.tlsCtx().protocol());
+  }
+
+  @Test
+  public void shouldNotDetectHttp2WhenClientHttp2Disabled() {
+    config.setClientHttp2(false);
+    channel.writeInbound(connectionPrefaceBuf());
+
+    assertNotNull(channel.pipeline().get(Http1Marker.class));
+  }
+
+  private static class Http1Marker extends ChannelInboundHandlerAdapter {
+  }
+
+  private static class Http2Marker extends ChannelInboundHandlerAdapter {
+  }
+
+  private static class Http2ToHttp1Marker extends ChannelInboundHandlerAdapter {
+  }
+}
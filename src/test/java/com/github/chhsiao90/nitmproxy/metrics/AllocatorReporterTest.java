@@ -0,0 +1,37 @@
+package com.github.chhsiao90.nitmproxy.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.UnpooledByteBufAllocator;
+
+public class AllocatorReporterTest {
+
+    @Test
+    public void shouldReportActiveBuffersOfPooledAllocator() {
+        PooledByteBufAllocator allocator = new PooledByteBufAllocator(true, 0, 1, 8192, 4, 0, 0, false);
+        AllocatorReporter reporter = new AllocatorReporter(allocator, Long.MAX_VALUE);
+        ByteBuf buffer = allocator.directBuffer(1024);
+        try {
+            assertTrue(AllocatorReporter.activeBytes(allocator.metric().directArenas()) >= 1024);
+            String report = reporter.report();
+            assertTrue(report, report.contains("allocations heap=0 direct=1"));
+            assertTrue(report, report.contains("arenas heap=0 direct=1"));
+            assertTrue(report, report.contains("chunk size=131072"));
+        } finally {
+            buffer.release();
+        }
+        assertEquals(0, AllocatorReporter.activeAllocations(allocator.metric().directArenas()));
+    }
+
+    @Test
+    public void shouldReportUsedMemoryOfUnpooledAllocator() {
+        String report = new AllocatorReporter(new UnpooledByteBufAllocator(false), Long.MAX_VALUE).report();
+
+        assertTrue(report, report.startsWith("Allocator: used heap=0 direct=0"));
+    }
+}
@@ -0,0 +1,111 @@
+package com.github.chhsiao90.nitmproxy.metrics;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.channel.nio.NioEventLoopGroup;
+
+public class EventLoopMonitorTest {
+    private NioEventLoopGroup group;
+    private EventLoopMonitor monitor;
+    private EventLoopStats loop;
+
+    @Before
+    public void setUp() {
+        group = new NioEventLoopGroup(1);
+        monitor = new EventLoopMonitor(group, MILLISECONDS.toNanos(10), MILLISECONDS.toNanos(50));
+        loop = monitor.loops().get(0);
+    }
+
+    @After
+    public void tearDown() {
+        group.shutdownGracefully(0, 0, SECONDS).syncUninterruptibly();
+    }
+
+    @Test
+    public void shouldRecordLag() throws Exception {
+        monitor.check(System.nanoTime());
+        group.submit(() -> { }).sync();
+
+        assertEquals(1, loop.lag().count());
+        assertEquals(0, loop.stalls());
+        assertEquals(0, loop.channels());
+    }
+
+    @Test
+    public void shouldReportStallOnce() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch blocked = new CountDownLatch(1);
+        group.execute(() -> {
+            started.countDown();
+            try {
+                blocked.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        try {
+            started.await();
+            long now = System.nanoTime();
+            monitor.check(now);
+            assertEquals(1, loop.pendingTasks());
+
+            monitor.check(now + MILLISECONDS.toNanos(60));
+            monitor.check(now + MILLISECONDS.toNanos(70));
+            assertEquals(1, loop.stalls());
+        } finally {
+            blocked.countDown();
+        }
+        group.submit(() -> { }).sync();
+        assertEquals(1, loop.lag().count());
+        assertTrue(loop.lag().max() > 0);
+    }
+
+    @Test
+    public void shouldReportCurrentLag() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch blocked = new CountDownLatch(1);
+        group.execute(() -> {
+            started.countDown();
+            try {
+                blocked.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        try {
+            started.await();
+            monitor.check(System.nanoTime() - MILLISECONDS.toNanos(100));
+            assertTrue(monitor.lagNanos(group.next()) >= MILLISECONDS.toNanos(100));
+        } finally {
+            blocked.countDown();
+        }
+        group.submit(() -> { }).sync();
+        assertEquals(loop.lagNanos(System.nanoTime()), monitor.lagNanos(group.next()));
+        assertTrue(loop.lagNanos(System.nanoTime()) >= MILLISECONDS.toNanos(100));
+    }
+
+    @Test
+    public void shouldExportEventLoops() throws Exception {
+        monitor.check(System.nanoTime());
+        group.submit(() -> { }).sync();
+
+        StringBuilder out = new StringBuilder();
+        new PrometheusExporter(new ProxyMetrics(), UnpooledByteBufAllocator.DEFAULT, monitor)
+                .export(out);
+
+        assertTrue(out.toString().contains(
+                "\nnitmproxy_event_loop_lag_seconds_count{loop=\"0\"} 1\n"));
+        assertTrue(out.toString().contains("\nnitmproxy_event_loop_stalls_total{loop=\"0\"} 0\n"));
+        assertTrue(out.toString().contains("\nnitmproxy_event_loop_channels{loop=\"0\"} 0\n"));
+    }
+}
@@ -0,0 +1,83 @@
+package com.github.chhsiao90.nitmproxy.metrics;
+
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void shouldCoverAllValuesWithBuckets() {
+        for (int i = 1; i <= LatencyHistogram.index(LatencyHistogram.MAX_VALUE); i++) {
+            long lowest = LatencyHistogram.highestValue(i - 1) + 1;
+            assertEquals(i, LatencyHistogram.index(lowest));
+            assertEquals(i, LatencyHistogram.index(LatencyHistogram.highestValue(i)));
+        }
+        assertEquals(LatencyHistogram.MAX_VALUE, LatencyHistogram.highestValue(
+                LatencyHistogram.index(LatencyHistogram.MAX_VALUE)));
+    }
+
+    @Test
+    public void shouldKeepRelativeError() {
+        for (long value = 1; value < LatencyHistogram.MAX_VALUE; value = value * 3 + 1) {
+            long highest = LatencyHistogram.highestValue(LatencyHistogram.index(value));
+            assertTrue(highest >= value);
+            assertTrue(highest - value <= value / 32);
+        }
+    }
+
+    @Test
+    public void shouldGetPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.recordNanos(MICROSECONDS.toNanos(i));
+        }
+        assertEquals(100, histogram.count());
+        assertEquals(50, histogram.mean());
+        assertEquals(100, histogram.max());
+        assertEquals(1, histogram.percentile(0));
+        assertEquals(50, histogram.percentile(50), 1);
+        assertEquals(99, histogram.percentile(99), 1);
+        assertEquals(100, histogram.percentile(100));
+    }
+
+    @Test
+    public void shouldIgnoreNegativeLatency() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.recordNanos(-1);
+        assertEquals(0, histogram.count());
+        assertEquals(0, histogram.percentile(99));
+    }
+
+    @Test
+    public void shouldClampToMaxValue() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.recordNanos(Long.MAX_VALUE);
+        assertEquals(LatencyHistogram.MAX_VALUE, histogram.max());
+        assertEquals(LatencyHistogram.MAX_VALUE, histogram.percentile(50));
+    }
+
+    @Test
+    public void shouldRecordConcurrently() throws InterruptedException {
+        LatencyHistogram histogram = new LatencyHistogram();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            threads.add(new Thread(() -> {
+                for (int j = 0; j < 10000; j++) {
+                    histogram.recordNanos(MICROSECONDS.toNanos(j));
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(40000, histogram.count());
+        assertEquals(9999, histogram.max());
+    }
+}
@@ -0,0 +1,108 @@
+package com.github.chhsiao90.nitmproxy.metrics;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.github.chhsiao90.nitmproxy.NitmProxyConfig;
+import com.github.chhsiao90.nitmproxy.accesslog.AccessLogRingBuffer;
+import com.github.chhsiao90.nitmproxy.tls.SslContextCache;
+
+import org.junit.Test;
+
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+public class ProxyMetricsTest {
+
+    @Test
+    public void shouldCountConnectionsAndBytes() {
+        ProxyMetrics metrics = new ProxyMetrics();
+        EmbeddedChannel channel = new EmbeddedChannel(metrics.client().handler());
+
+        channel.writeInbound(Unpooled.copiedBuffer("hello", UTF_8));
+        channel.writeOutbound(Unpooled.copiedBuffer("hi", UTF_8));
+
+        assertEquals(1, metrics.client().opened());
+        assertEquals(1, metrics.client().active());
+        assertEquals(5, metrics.client().bytesRead());
+        assertEquals(2, metrics.client().bytesWritten());
+        assertEquals(0, metrics.server().opened());
+
+        channel.finishAndReleaseAll();
+        assertEquals(0, metrics.client().active());
+    }
+
+    @Test
+    public void shouldCountRequestsByType() {
+        ProxyMetrics metrics = new ProxyMetrics();
+        metrics.onRequest(RequestType.HTTP2);
+        metrics.onRequest(RequestType.HTTP2);
+        metrics.onRequest(RequestType.SOCKS);
+
+        assertEquals(0, metrics.requests(RequestType.HTTP1));
+        assertEquals(2, metrics.requests(RequestType.HTTP2));
+        assertEquals(1, metrics.requests(RequestType.SOCKS));
+    }
+
+    @Test
+    public void shouldExportPrometheusFormat() {
+        ProxyMetrics metrics = new ProxyMetrics();
+        EmbeddedChannel channel = new EmbeddedChannel(metrics.server().handler());
+        channel.writeInbound(Unpooled.copiedBuffer("hello", UTF_8));
+        metrics.onRequest(RequestType.TUNNEL);
+        metrics.server().onHandshake(false);
+        metrics.onTimeout(TimeoutType.IDLE_TUNNEL);
+        metrics.onRejected(RejectReason.EVENT_LOOP_LAG);
+
+        StringBuilder out = new StringBuilder();
+        new PrometheusExporter(metrics, PooledByteBufAllocator.DEFAULT).export(out);
+        String text = out.toString();
+
+        assertTrue(text.contains("# TYPE nitmproxy_server_connections_active gauge\n"));
+        assertTrue(text.contains("\nnitmproxy_server_connections_active 1\n"));
+        assertTrue(text.contains("\nnitmproxy_server_bytes_read_total 5\n"));
+        assertTrue(text.contains("\nnitmproxy_requests_total{type=\"tunnel\"} 1\n"));
+        assertTrue(text.contains(
+                "\nnitmproxy_tls_handshakes_total{side=\"server\",result=\"failure\"} 1\n"));
+        assertTrue(text.contains("\nnitmproxy_timeouts_total{type=\"idle_tunnel\"} 1\n"));
+        assertTrue(text.contains("\nnitmproxy_rejections_total{reason=\"event_loop_lag\"} 1\n"));
+        assertTrue(text.contains("\nnitmproxy_stage_latency_seconds_count{stage=\"dns\"} "));
+        assertTrue(text.contains("\nnitmproxy_allocator_used_bytes{type=\"direct\"} "));
+        assertTrue(text.contains("\nnitmproxy_allocator_active_bytes{type=\"direct\"} "));
+        assertTrue(text.contains(
+                "\nnitmproxy_allocator_allocations_total{type=\"direct\",size=\"small\"} "));
+        assertTrue(text.contains("\nnitmproxy_http2_windows_exhausted_total{window=\"local\"} "));
+        // Only exported if there is a cache and an access log
+        assertFalse(text.contains("nitmproxy_certificate_cache_size"));
+        assertFalse(text.contains("nitmproxy_access_log_dropped_total"));
+        for (String line : text.split("\n")) {
+            assertTrue(line, line.startsWith("# ") || line.matches("nitmproxy_\\S+ \\S+"));
+        }
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    public void shouldExportCertificateCacheAndAccessLog() {
+        AccessLogRingBuffer accessLog = mock(AccessLogRingBuffer.class);
+        when(accessLog.dropped()).thenReturn(3L);
+
+        StringBuilder out = new StringBuilder();
+        new PrometheusExporter(new ProxyMetrics(), PooledByteBufAllocator.DEFAULT)
+                .withCertificateCache(new SslContextCache(new NitmProxyConfig()))
+                .withAccessLog(accessLog)
+                .export(out);
+        String text = out.toString();
+
+        assertTrue(text.contains("\nnitmproxy_certificate_cache_lookups_total{result=\"hit\"} 0\n"));
+        assertTrue(text.contains("\nnitmproxy_certificate_cache_lookups_total{result=\"miss\"} 0\n"));
+        assertTrue(text.contains("\nnitmproxy_certificate_cache_size 0\n"));
+        assertTrue(text.contains("\nnitmproxy_access_log_dropped_total 3\n"));
+        assertTrue(text.contains("\nnitmproxy_http2_windows_exhausted_total{window=\"local\"} "));
+        assertTrue(text.contains("\nnitmproxy_http2_windows_exhausted_total{window=\"remote\"} "));
+    }
+}
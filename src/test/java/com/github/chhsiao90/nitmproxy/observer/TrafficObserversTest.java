@@ -0,0 +1,48 @@
+package com.github.chhsiao90.nitmproxy.observer;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import com.github.chhsiao90.nitmproxy.ConnectionContext;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TrafficObserversTest {
+
+    @Test
+    public void shouldBeDisabledWithoutObservers() {
+        assertFalse(new TrafficObservers(Collections.emptyList()).isEnabled());
+    }
+
+    @Test
+    public void shouldNotifyAllObserversWhenOneFailed() {
+        List<ConnectionContext> connected = new ArrayList<>();
+        TrafficObserver failed = new TrafficObserver() {
+            @Override
+            public void onClientConnected(ConnectionContext connectionContext) {
+                throw new IllegalStateException("failed");
+            }
+        };
+        TrafficObserver recorded = new TrafficObserver() {
+            @Override
+            public void onClientConnected(ConnectionContext connectionContext) {
+                connected.add(connectionContext);
+            }
+        };
+        TrafficObservers observers = new TrafficObservers(asList(failed, recorded));
+        ConnectionContext connectionContext = mock(ConnectionContext.class);
+
+        assertTrue(observers.isEnabled());
+        observers.onClientConnected(connectionContext);
+
+        assertEquals(1, connected.size());
+        assertEquals(connectionContext, connected.get(0));
+    }
+}
@@ -0,0 +1,70 @@
+package com.github.chhsiao90.nitmproxy.timeout;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.github.chhsiao90.nitmproxy.metrics.ProxyMetrics;
+import com.github.chhsiao90.nitmproxy.metrics.TimeoutType;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.netty.channel.Channel;
+import io.netty.channel.DefaultEventLoop;
+import io.netty.channel.EventLoop;
+
+public class DeadlineTest {
+    private EventLoop eventLoop;
+    private Channel channel;
+
+    @Before
+    public void setUp() {
+        eventLoop = new DefaultEventLoop();
+        channel = mock(Channel.class);
+        when(channel.eventLoop()).thenReturn(eventLoop);
+    }
+
+    @After
+    public void tearDown() {
+        eventLoop.shutdownGracefully(0, 0, SECONDS);
+    }
+
+    @Test
+    public void shouldRunActionWhenExpired() throws Exception {
+        long timeouts = ProxyMetrics.global().timeouts(TimeoutType.CONNECT);
+        CountDownLatch expired = new CountDownLatch(1);
+        Deadline.schedule(channel, TimeoutType.CONNECT, 10, () -> {
+            assertTrue(eventLoop.inEventLoop());
+            expired.countDown();
+        });
+
+        assertTrue(expired.await(5, SECONDS));
+        assertEquals(timeouts + 1, ProxyMetrics.global().timeouts(TimeoutType.CONNECT));
+    }
+
+    @Test
+    public void shouldNotRunCancelledDeadline() throws Exception {
+        CountDownLatch expired = new CountDownLatch(1);
+        Deadline deadline = Deadline.schedule(channel, TimeoutType.HANDSHAKE, 100, expired::countDown);
+        eventLoop.submit(deadline::cancel).sync();
+
+        assertFalse(expired.await(500, MILLISECONDS));
+    }
+
+    @Test
+    public void shouldBeDisabledWithoutTimeout() throws Exception {
+        CountDownLatch expired = new CountDownLatch(1);
+        Deadline deadline = Deadline.schedule(channel, TimeoutType.HANDSHAKE, 0, expired::countDown);
+        deadline.cancel();
+
+        assertFalse(expired.await(300, MILLISECONDS));
+    }
+}
@@ -0,0 +1,88 @@
+package com.github.chhsiao90.nitmproxy.timeout;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.github.chhsiao90.nitmproxy.Address;
+import com.github.chhsiao90.nitmproxy.ConnectionContext;
+import com.github.chhsiao90.nitmproxy.NitmProxyConfig;
+import com.github.chhsiao90.nitmproxy.NitmProxyMaster;
+import com.github.chhsiao90.nitmproxy.metrics.ProxyMetrics;
+import com.github.chhsiao90.nitmproxy.metrics.TimeoutType;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+public class IdleTimeoutHandlerTest {
+    private NitmProxyConfig config;
+    private ConnectionContext context;
+    private EmbeddedChannel channel;
+    private IdleTimeoutHandler handler;
+
+    @Before
+    public void setUp() {
+        NitmProxyMaster master = mock(NitmProxyMaster.class);
+        config = new NitmProxyConfig();
+        when(master.config()).thenReturn(config);
+
+        channel = new EmbeddedChannel();
+        context = new ConnectionContext(master)
+                .withClientAddr(new Address("localhost", 8080))
+                .withClientChannel(channel);
+        handler = new IdleTimeoutHandler(context);
+        channel.pipeline().addLast(handler);
+    }
+
+    @After
+    public void tearDown() {
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    public void shouldCloseIdleConnection() throws Exception {
+        long timeouts = ProxyMetrics.global().timeouts(TimeoutType.IDLE_KEEP_ALIVE);
+        config.setIdleKeepAliveTimeoutMillis(10);
+        Thread.sleep(20);
+
+        // Run the check of the timer on the test thread
+        handler.run();
+
+        assertFalse(channel.isActive());
+        assertEquals(timeouts + 1, ProxyMetrics.global().timeouts(TimeoutType.IDLE_KEEP_ALIVE));
+    }
+
+    @Test
+    public void shouldKeepActiveConnection() throws Exception {
+        config.setIdleKeepAliveTimeoutMillis(1000);
+        Thread.sleep(20);
+        channel.writeInbound(Unpooled.copiedBuffer("hello", UTF_8));
+
+        handler.run();
+
+        assertTrue(channel.isActive());
+    }
+
+    @Test
+    public void shouldUseTunnelTimeoutForTunnels() throws Exception {
+        long timeouts = ProxyMetrics.global().timeouts(TimeoutType.IDLE_TUNNEL);
+        context.markTunneled();
+        config.setIdleKeepAliveTimeoutMillis(10);
+        Thread.sleep(20);
+
+        handler.run();
+        assertTrue(channel.isActive());
+
+        config.setIdleTunnelTimeoutMillis(10);
+        handler.run();
+        assertFalse(channel.isActive());
+        assertEquals(timeouts + 1, ProxyMetrics.global().timeouts(TimeoutType.IDLE_TUNNEL));
+    }
+}
@@ -0,0 +1,111 @@
+package com.github.chhsiao90.nitmproxy.tls;
+
+import static io.netty.handler.ssl.ApplicationProtocolNames.HTTP_1_1;
+import static io.netty.handler.ssl.ApplicationProtocolNames.HTTP_2;
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import com.github.chhsiao90.nitmproxy.Address;
+import com.github.chhsiao90.nitmproxy.ConnectionContext;
+import com.github.chhsiao90.nitmproxy.HandlerProvider;
+import com.github.chhsiao90.nitmproxy.NitmProxyConfig;
+import com.github.chhsiao90.nitmproxy.NitmProxyMaster;
+import com.github.chhsiao90.nitmproxy.channel.BackendChannelBootstrap;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.bouncycastle.openssl.jcajce.JcaPEMWriter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.util.SelfSignedCertificate;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+import io.netty.util.concurrent.Promise;
+
+public class SslContextCacheTest {
+    private File certFile;
+    private File keyFile;
+    private NitmProxyConfig config;
+    private NitmProxyMaster master;
+
+    @Before
+    public void setUp() throws Exception {
+        SelfSignedCertificate ca = new SelfSignedCertificate("nitmproxy");
+        certFile = File.createTempFile("nitmproxy-cert", ".pem");
+        keyFile = File.createTempFile("nitmproxy-key", ".pem");
+        writePem(certFile, ca.cert());
+        writePem(keyFile, ca.key());
+        ca.delete();
+
+        config = new NitmProxyConfig();
+        config.setCertFile(certFile.getPath());
+        config.setKeyFile(keyFile.getPath());
+        master = new NitmProxyMaster(config, new HandlerProvider(), new BackendChannelBootstrap());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(certFile.toPath());
+        Files.deleteIfExists(keyFile.toPath());
+    }
+
+    @Test
+    public void shouldReuseServerContextOfSameHost() throws Exception {
+        SslContextCache cache = new SslContextCache(config);
+        SslContext first = cache.forServer(context("www.example.com", HTTP_2, HTTP_1_1));
+
+        assertSame(first, cache.forServer(context("www.example.com", HTTP_2, HTTP_1_1)));
+        assertNotSame(first, cache.forServer(context("www.example.org", HTTP_2, HTTP_1_1)));
+        assertNotSame(first, cache.forServer(context("www.example.com", HTTP_1_1)));
+        assertEquals(1, cache.hits());
+        assertEquals(3, cache.misses());
+        assertEquals(3, cache.size());
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyUsedServerContext() throws Exception {
+        config.setMaxCachedCertificates(1);
+        SslContextCache cache = new SslContextCache(config);
+        SslContext first = cache.forServer(context("www.example.com", HTTP_1_1));
+        cache.forServer(context("www.example.org", HTTP_1_1));
+
+        assertNotSame(first, cache.forServer(context("www.example.com", HTTP_1_1)));
+    }
+
+    @Test
+    public void shouldReuseClientContextOfSameProtocols() throws Exception {
+        SslContextCache cache = new SslContextCache(config);
+        SslContext first = cache.forClient(context("www.example.com", HTTP_2, HTTP_1_1));
+
+        assertSame(first, cache.forClient(context("www.example.org", HTTP_2, HTTP_1_1)));
+
+        ConnectionContext negotiated = context("www.example.com", HTTP_2, HTTP_1_1);
+        negotiated.tlsCtx().protocolPromise().setSuccess(HTTP_1_1);
+        assertNotSame(first, cache.forClient(negotiated));
+    }
+
+    private ConnectionContext context(String host, String... protocols) {
+        ConnectionContext context = new ConnectionContext(master)
+                .withClientAddr(new Address("localhost", 8080))
+                .withServerAddr(new Address(host, 443));
+        Promise<List<String>> alpnProtocols = ImmediateEventExecutor.INSTANCE.newPromise();
+        context.tlsCtx()
+               .protocols(alpnProtocols.setSuccess(asList(protocols)))
+               .protocol(ImmediateEventExecutor.INSTANCE.newPromise());
+        return context;
+    }
+
+    private static void writePem(File file, Object object) throws IOException {
+        try (JcaPEMWriter writer = new JcaPEMWriter(new FileWriter(file))) {
+            writer.writeObject(object);
+        }
+    }
+}